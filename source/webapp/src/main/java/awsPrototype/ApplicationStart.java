@@ -6,10 +6,22 @@ import org.rapidoid.setup.On;
 import awsPrototype.helpers.S3Util;
 import awsPrototype.helpers.SqsUtil;
 import awsPrototype.helpers.VideoFileUtil;
+import awsPrototype.services.DeleteZoneApiRequestHandler;
+import awsPrototype.services.GetCacheStatsApiRequestHandler;
 import awsPrototype.services.GetDefaultVideoNameApiRequestHandler;
+import awsPrototype.services.GetDetectionsApiRequestHandler;
+import awsPrototype.services.GetHeatmapApiRequestHandler;
 import awsPrototype.services.GetJsonApiRequestHandler;
+import awsPrototype.services.GetMetricsApiRequestHandler;
+import awsPrototype.services.GetStaticAssetRequestHandler;
+import awsPrototype.services.GetTrackApiRequestHandler;
+import awsPrototype.services.GetTracksByDwellApiRequestHandler;
 import awsPrototype.services.GetVideosListApiRequestHandler;
 import awsPrototype.services.GetVideoApiRequestHandler;
+import awsPrototype.services.GetZoneOccupancyApiRequestHandler;
+import awsPrototype.services.GetZonesApiRequestHandler;
+import awsPrototype.services.InstrumentedRequestHandler;
+import awsPrototype.services.PutZoneApiRequestHandler;
 
 public class ApplicationStart {
 
@@ -21,10 +33,26 @@ public class ApplicationStart {
          */
         App.bootstrap(args);
  
-        On.get("/get-video.mp4").plain(new GetVideoApiRequestHandler());
-        On.get("/get-json.json").plain(new GetJsonApiRequestHandler());
-        On.get("/get-videos-list.json").json(new GetVideosListApiRequestHandler());
-        On.get("/get-default-video-name.json").json(new GetDefaultVideoNameApiRequestHandler());
+        // every route is counted and timed, see /metrics
+        On.get("/get-video.mp4").plain(new InstrumentedRequestHandler("/get-video.mp4", new GetVideoApiRequestHandler()));
+        On.get("/get-json.json").plain(new InstrumentedRequestHandler("/get-json.json", new GetJsonApiRequestHandler()));
+        On.get("/get-detections.json").plain(new InstrumentedRequestHandler("/get-detections.json", new GetDetectionsApiRequestHandler()));
+        On.get("/get-heatmap.json").plain(new InstrumentedRequestHandler("/get-heatmap.json", new GetHeatmapApiRequestHandler()));
+        On.get("/get-track.json").plain(new InstrumentedRequestHandler("/get-track.json", new GetTrackApiRequestHandler()));
+        On.get("/get-tracks-by-dwell.json").plain(new InstrumentedRequestHandler("/get-tracks-by-dwell.json", new GetTracksByDwellApiRequestHandler()));
+        On.get("/get-zones.json").plain(new InstrumentedRequestHandler("/get-zones.json", new GetZonesApiRequestHandler()));
+        On.post("/put-zone.json").plain(new InstrumentedRequestHandler("/put-zone.json", new PutZoneApiRequestHandler()));
+        On.post("/delete-zone.json").plain(new InstrumentedRequestHandler("/delete-zone.json", new DeleteZoneApiRequestHandler()));
+        On.get("/get-zone-occupancy.json").plain(new InstrumentedRequestHandler("/get-zone-occupancy.json", new GetZoneOccupancyApiRequestHandler()));
+        On.get("/get-videos-list.json").plain(new InstrumentedRequestHandler("/get-videos-list.json", new GetVideosListApiRequestHandler()));
+        On.get("/get-default-video-name.json").json(new InstrumentedRequestHandler("/get-default-video-name.json", new GetDefaultVideoNameApiRequestHandler()));
+        On.get("/get-cache-stats.json").json(new InstrumentedRequestHandler("/get-cache-stats.json", new GetCacheStatsApiRequestHandler()));
+        On.get("/metrics").plain(new InstrumentedRequestHandler("/metrics", new GetMetricsApiRequestHandler()));
+
+        // exact routes above win over the pattern, everything else is a static file
+        InstrumentedRequestHandler staticAssetRequestHandler = new InstrumentedRequestHandler("static", new GetStaticAssetRequestHandler());
+        On.get("/").plain(staticAssetRequestHandler);
+        On.get("/{path:.+}").plain(staticAssetRequestHandler);
 
         VideoFileUtil.getInstance().preInitializeDownloadedVideoFilesList();
         SqsUtil.getInstance().startReceivingUpdates();
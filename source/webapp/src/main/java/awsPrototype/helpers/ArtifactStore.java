@@ -0,0 +1,254 @@
+package awsPrototype.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.rapidoid.log.Log;
+
+import awsPrototype.metadatas.CachedPayload;
+import awsPrototype.metadatas.Constants;
+import awsPrototype.metadatas.DetectionGrid;
+import awsPrototype.metadatas.DetectionsBinaryFormat;
+import awsPrototype.metadatas.VideoArtifactFormat;
+import awsPrototype.metadatas.VideoDetections;
+import awsPrototype.metadatas.VideoHeatmap;
+import awsPrototype.metadatas.VideoRawData;
+import awsPrototype.metadatas.VideoTracks;
+
+/*
+*   What is derived from the json of the videos (parsed detections, heatmap, gzip and binary variants), kept on
+*   disk in VideoArtifactFormat so a restart maps it instead of parsing and compressing every json again.
+*   An artifact is named after the hash of the json, the format version and the settings it was derived with:
+*   a json that changed, a new format or other heatmap settings simply don't find their artifact. Artifacts are
+*   written, and the missing or stale ones rebuilt, on low priority background threads; a request never waits
+*   for a write. With artifact.store off the data is derived on every load, as before.
+*/
+public class ArtifactStore {
+
+    private final Path directory;
+    private final ThreadPoolExecutor builderExecutor;
+    private final ConcurrentHashMap<String, Object> writingArtifacts;
+    private final AtomicLong mappedArtifacts;
+    private final AtomicLong derivedArtifacts;
+    private final AtomicLong writtenArtifacts;
+
+    public ArtifactStore(Path directory, int builderThreads) {
+        this.directory = directory;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.builderExecutor = new ThreadPoolExecutor(builderThreads, builderThreads, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(Constants.VIDEO_LOADER_QUEUE_SIZE),
+            runnable -> {
+                Thread thread = new Thread(runnable, "artifact-builder-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        this.writingArtifacts = new ConcurrentHashMap<>();
+        this.mappedArtifacts = new AtomicLong();
+        this.derivedArtifacts = new AtomicLong();
+        this.writtenArtifacts = new AtomicLong();
+        if (!Constants.ARTIFACT_STORE) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            Log.info(String.format("Error creating the artifact folder [%s]: %s", directory, e.getMessage()));
+        }
+    }
+
+    /*
+    *   The data derived from the json, mapped from its artifact or derived and then written in background
+    */
+    public VideoRawData load(String videoName, byte[] json, long jsonLastModified) throws IOException {
+        if (!Constants.ARTIFACT_STORE) {
+            return derive(videoName, json, jsonLastModified);
+        }
+        int settings = VideoArtifactFormat.settingsFingerprint();
+        String contentHash = VideoArtifactFormat.contentHash(json);
+        Path artifact = directory.resolve(VideoArtifactFormat.artifactName(contentHash, settings));
+        VideoRawData videoRawData = map(artifact, videoName, json, contentHash, jsonLastModified, settings);
+        if (videoRawData != null) {
+            return videoRawData;
+        }
+        videoRawData = derive(videoName, json, jsonLastModified);
+        writeAsync(artifact, videoRawData, settings);
+        return videoRawData;
+    }
+
+    /*
+    *   Builds the artifact of the json in background if it has none, e.g. for a json just downloaded
+    */
+    public void buildAsync(String videoName, Path jsonPath) {
+        if (!Constants.ARTIFACT_STORE) {
+            return;
+        }
+        try {
+            builderExecutor.execute(() -> build(videoName, jsonPath));
+        } catch (RejectedExecutionException e) {
+            // built on the first load instead
+        }
+    }
+
+    /*
+    *   Builds the artifacts missing for the videos, then deletes the ones no video refers to anymore: of a json
+    *   replaced since, of an older format or of other settings
+    */
+    public void sweepAsync(Collection<String> videoNames, String videoFilePath) {
+        if (!Constants.ARTIFACT_STORE) {
+            return;
+        }
+        try {
+            builderExecutor.execute(() -> {
+                long startedAt = System.currentTimeMillis();
+                int settings = VideoArtifactFormat.settingsFingerprint();
+                Set<String> referenced = new HashSet<>();
+                for (String videoName : videoNames) {
+                    Path jsonPath = Paths.get(videoFilePath, videoName.replaceAll("\\.mp4$", ".json"));
+                    String artifactName = build(videoName, jsonPath);
+                    if (artifactName != null) {
+                        referenced.add(artifactName);
+                    }
+                }
+                int deleted = 0;
+                File[] artifacts = directory.toFile().listFiles();
+                for (File artifact : artifacts == null ? new File[0] : artifacts) {
+                    // an artifact written meanwhile may be of a video listed since
+                    if (!referenced.contains(artifact.getName()) && artifact.lastModified() < startedAt && artifact.delete()) {
+                        deleted++;
+                    }
+                }
+                Log.info(String.format("Checked the artifacts of %d videos in %d ms, %d stale ones deleted (settings %s)",
+                    videoNames.size(), System.currentTimeMillis() - startedAt, deleted, Integer.toHexString(settings)));
+            });
+        } catch (RejectedExecutionException e) {
+            // swept on the next start
+        }
+    }
+
+    /*
+    *   Name of the artifact of the json, written now if missing; null when the json can't be read
+    */
+    private String build(String videoName, Path jsonPath) {
+        try {
+            byte[] json = Files.readAllBytes(jsonPath);
+            int settings = VideoArtifactFormat.settingsFingerprint();
+            String artifactName = VideoArtifactFormat.artifactName(VideoArtifactFormat.contentHash(json), settings);
+            Path artifact = directory.resolve(artifactName);
+            if (!Files.exists(artifact) && writingArtifacts.putIfAbsent(artifactName, artifactName) == null) {
+                try {
+                    write(artifact, derive(videoName, json, Files.getLastModifiedTime(jsonPath).toMillis()), settings);
+                } finally {
+                    writingArtifacts.remove(artifactName);
+                }
+            }
+            return artifactName;
+        } catch (IOException | RuntimeException e) {
+            Log.info(String.format("Could not build the artifact of the video [%s]: %s", videoName, e.getMessage()));
+            return null;
+        }
+    }
+
+    /*
+    *   The columns are copied out of the mapping in bulk, the mapping itself is released with the buffer.
+    *   An unreadable artifact is deleted, and rebuilt by the caller.
+    */
+    private VideoRawData map(Path artifact, String videoName, byte[] json, String contentHash, long jsonLastModified, int settings) {
+        if (!Files.exists(artifact)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(artifact, StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            VideoRawData videoRawData = VideoArtifactFormat.decode(mapped, videoName, json, contentHash, jsonLastModified, settings);
+            mappedArtifacts.incrementAndGet();
+            return videoRawData;
+        } catch (IOException | RuntimeException e) {
+            Log.info(String.format("Rebuilding the unreadable artifact [%s]: %s", artifact, e.getMessage()));
+            try {
+                Files.deleteIfExists(artifact);
+            } catch (IOException deleteError) {
+                // overwritten by the rebuild
+            }
+            return null;
+        }
+    }
+
+    private VideoRawData derive(String videoName, byte[] json, long jsonLastModified) throws IOException {
+        VideoDetections detections = VideoDetections.parseJson(json);
+        CachedPayload jsonPayload = CachedPayload.of(json, jsonLastModified);
+        CachedPayload binaryDetections = CachedPayload.of(DetectionsBinaryFormat.encode(detections), jsonLastModified);
+        VideoHeatmap heatmap = VideoHeatmap.build(detections, Constants.HEATMAP_GRID_WIDTH, Constants.HEATMAP_GRID_HEIGHT,
+            Constants.HEATMAP_BUCKET_MS, Constants.HEATMAP_MAX_CELLS, Constants.HEATMAP_POINT);
+        VideoTracks tracks = VideoTracks.build(detections, Constants.HEATMAP_GRID_WIDTH, Constants.HEATMAP_GRID_HEIGHT,
+            Constants.TRACK_MAX_GAP_MS, Constants.HEATMAP_POINT);
+        DetectionGrid grid = DetectionGrid.build(detections, Constants.HEATMAP_GRID_WIDTH, Constants.HEATMAP_GRID_HEIGHT, Constants.HEATMAP_POINT);
+        derivedArtifacts.incrementAndGet();
+        return new VideoRawData(videoName, jsonPayload, detections, binaryDetections, heatmap, tracks, grid);
+    }
+
+    private void writeAsync(Path artifact, VideoRawData videoRawData, int settings) {
+        String artifactName = artifact.getFileName().toString();
+        if (writingArtifacts.putIfAbsent(artifactName, artifactName) != null) {
+            return;
+        }
+        try {
+            builderExecutor.execute(() -> {
+                try {
+                    write(artifact, videoRawData, settings);
+                } catch (IOException e) {
+                    Log.info(String.format("Could not write the artifact [%s]: %s", artifact, e.getMessage()));
+                } finally {
+                    writingArtifacts.remove(artifactName);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            writingArtifacts.remove(artifactName);
+        }
+    }
+
+    /*
+    *   Written to a temporary file and renamed, a reader never maps a partial artifact
+    */
+    private void write(Path artifact, VideoRawData videoRawData, int settings) throws IOException {
+        ByteBuffer encoded = VideoArtifactFormat.encode(videoRawData, settings);
+        Path temporaryFile = Paths.get(artifact + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (encoded.hasRemaining()) {
+                channel.write(encoded);
+            }
+            channel.force(false);
+        }
+        Files.move(temporaryFile, artifact, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        writtenArtifacts.incrementAndGet();
+    }
+
+    public long getMappedArtifacts() {
+        return mappedArtifacts.get();
+    }
+
+    public long getDerivedArtifacts() {
+        return derivedArtifacts.get();
+    }
+
+    public long getWrittenArtifacts() {
+        return writtenArtifacts.get();
+    }
+
+}
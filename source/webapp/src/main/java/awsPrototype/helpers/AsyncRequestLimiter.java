@@ -0,0 +1,64 @@
+package awsPrototype.helpers;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/*
+*   Runs at most maxConcurrent requests at a time without blocking the caller, the others wait in a queue
+*   and start when a running one completes
+*/
+class AsyncRequestLimiter {
+
+    private final Semaphore permits;
+    private final ConcurrentLinkedQueue<Runnable> waiting;
+
+    AsyncRequestLimiter(int maxConcurrent) {
+        this.permits = new Semaphore(maxConcurrent);
+        this.waiting = new ConcurrentLinkedQueue<>();
+    }
+
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        waiting.add(() -> {
+            CompletableFuture<T> started;
+            try {
+                started = request.get();
+            } catch (RuntimeException e) {
+                started = new CompletableFuture<>();
+                started.completeExceptionally(e);
+            }
+            started.whenComplete((value, error) -> {
+                permits.release();
+                runWaiting();
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+        });
+        runWaiting();
+        return result;
+    }
+
+    /*
+    *   Requests waiting for a running one to complete
+    */
+    int getWaitingCount() {
+        return waiting.size();
+    }
+
+    private void runWaiting() {
+        while (!waiting.isEmpty() && permits.tryAcquire()) {
+            Runnable request = waiting.poll();
+            if (request == null) {
+                permits.release();
+                return;
+            }
+            request.run();
+        }
+    }
+
+}
@@ -1,62 +1,134 @@
 package awsPrototype.helpers;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
+/*
+*   LRU cache where reads never block: a hit is recorded in a per-thread striped buffer and the LRU order is
+*   updated in batches by whoever holds the eviction lock. When full, a new entry is only admitted if it was
+*   used at least as often as the LRU victim (TinyLFU), so one-off scans don't flush the popular entries.
+*/
 public class ConcurrentLRUCache<K, V> {
 
-    private final int capacity;
+    /*
+    *   Cost of an entry against the cache capacity, e.g. its size in bytes
+    */
+    public interface Weigher<K, V> {
+        long weigh(K key, V value);
+    }
+
+    private static final int READ_BUFFERS = ceilingPowerOfTwo(4 * Runtime.getRuntime().availableProcessors());
+
+    private final long maximumWeight;
+    private final Weigher<K, V> weigher;
     private final ConcurrentHashMap<K, Node<K, V>> map;
     private final Node<K, V> head;
     private final Node<K, V> tail;
+    private final ReadBuffer<K, V>[] readBuffers;
+    private final FrequencySketch sketch;
+    private final ReentrantLock evictionLock;
+    private final AtomicLong evictionCount;
+    private final LongAdder hitCount;
+    private final LongAdder missCount;
+    private volatile long totalWeight;
 
+    /*
+    *   Evicts by entry count, every entry weighs 1
+    */
     public ConcurrentLRUCache(int capacity) {
-        this.capacity = capacity;
+        this(capacity, (key, value) -> 1L);
+    }
+
+    /*
+    *   Evicts the least recently used entries until the sum of the weights fits in maximumWeight
+    */
+    public ConcurrentLRUCache(long maximumWeight, Weigher<K, V> weigher) {
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
         this.map = new ConcurrentHashMap<>();
-        this.head = new Node<>(null, null);
-        this.tail = new Node<>(null, null);
+        this.head = new Node<>(null, null, 0);
+        this.tail = new Node<>(null, null, 0);
+        this.readBuffers = newReadBuffers(READ_BUFFERS);
+        this.sketch = new FrequencySketch();
+        this.evictionLock = new ReentrantLock();
+        this.evictionCount = new AtomicLong();
+        this.hitCount = new LongAdder();
+        this.missCount = new LongAdder();
         head.next = tail;
         tail.prev = head;
     }
 
+    /*
+    *   A generic array can only be created raw, the buffers are all of the cache types
+    */
+    @SuppressWarnings("unchecked")
+    private static <K, V> ReadBuffer<K, V>[] newReadBuffers(int count) {
+        ReadBuffer<K, V>[] buffers = (ReadBuffer<K, V>[]) new ReadBuffer<?, ?>[count];
+        for (int i = 0; i < count; i++) {
+            buffers[i] = new ReadBuffer<>();
+        }
+        return buffers;
+    }
+
     public V get(K key) {
         Node<K, V> node = map.get(key);
         if (node == null) {
+            missCount.increment();
             return null;
         }
-        synchronized (this) {
-            moveToHead(node);
-        }
+        hitCount.increment();
+        recordRead(node);
         return node.value;
     }
 
-    public void put(K key, V value) {
+    /*
+    *   The entry without counting a hit or a miss nor making it recently used, e.g. to check again after a miss
+    */
+    public V peek(K key) {
         Node<K, V> node = map.get(key);
-        if (node == null) {
-            node = new Node<>(key, value);
-            map.put(key, node);
-            synchronized (this) {
+        return node == null ? null : node.value;
+    }
+
+    /*
+    *   An entry heavier than the maximum weight, or less popular than the entries it would evict, is dropped
+    */
+    public void put(K key, V value) {
+        long weight = weigher.weigh(key, value);
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            sketch.increment(key);
+            Node<K, V> node = map.get(key);
+            if (node == null) {
+                node = new Node<>(key, value, weight);
+                map.put(key, node);
                 addNode(node);
-            }
-            if (map.size() > capacity) {
-                synchronized (this) {
-                    removeTail();
-                }
-            }
-        } else {
-            node.value = value;
-            synchronized (this) {
+                sketch.ensureCapacity(map.size());
+            } else {
+                node.value = value;
+                totalWeight -= node.weight;
+                node.weight = weight;
                 moveToHead(node);
             }
+            totalWeight += weight;
+            evict(node);
+        } finally {
+            evictionLock.unlock();
         }
     }
 
     public void remove(K key) {
-        Node<K, V> node = map.get(key);
-        if (node != null) {
-            synchronized (this) {
-                removeNode(node);
-                map.remove(key);
+        evictionLock.lock();
+        try {
+            Node<K, V> node = map.remove(key);
+            if (node != null) {
+                unlink(node);
             }
+        } finally {
+            evictionLock.unlock();
         }
     }
 
@@ -64,11 +136,37 @@ public class ConcurrentLRUCache<K, V> {
         return map.size();
     }
 
+    public long weight() {
+        return totalWeight;
+    }
+
+    public long maximumWeight() {
+        return maximumWeight;
+    }
+
+    public long evictionCount() {
+        return evictionCount.get();
+    }
+
+    public long hitCount() {
+        return hitCount.sum();
+    }
+
+    public long missCount() {
+        return missCount.sum();
+    }
+
     public void clear() {
-        synchronized (this) {
-            map.clear();
-            head.next = tail;
-            tail.prev = head;
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            while (head.next != tail) {
+                Node<K, V> node = head.next;
+                map.remove(node.key);
+                unlink(node);
+            }
+        } finally {
+            evictionLock.unlock();
         }
     }
 
@@ -76,6 +174,72 @@ public class ConcurrentLRUCache<K, V> {
         return map.containsKey(key);
     }
 
+    private void recordRead(Node<K, V> node) {
+        ReadBuffer<K, V> buffer = readBuffers[(int) Thread.currentThread().threadId() & (READ_BUFFERS - 1)];
+        if (buffer.offer(node) && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffers() {
+        for (ReadBuffer<K, V> buffer : readBuffers) {
+            buffer.drainTo(this);
+        }
+    }
+
+    private void onAccess(Node<K, V> node) {
+        sketch.increment(node.key);
+        // a node evicted or removed after its read was buffered is no longer linked
+        if (node.prev != null) {
+            moveToHead(node);
+        }
+    }
+
+    /*
+    *   The candidate is admitted only if it was used at least as often as each of the least recently used
+    *   entries it needs the room of; otherwise it is the one dropped and the others stay
+    */
+    private void evict(Node<K, V> candidate) {
+        if (totalWeight <= maximumWeight) {
+            return;
+        }
+        boolean admitted = candidate.weight <= maximumWeight;
+        int candidateFrequency = sketch.frequency(candidate.key);
+        long freedWeight = 0;
+        for (Node<K, V> victim = tail.prev; admitted && victim != head && totalWeight - freedWeight > maximumWeight; victim = victim.prev) {
+            if (victim != candidate) {
+                admitted = candidateFrequency >= sketch.frequency(victim.key);
+                freedWeight += victim.weight;
+            }
+        }
+        if (!admitted) {
+            evictNode(candidate);
+            return;
+        }
+        while (totalWeight > maximumWeight && tail.prev != head) {
+            Node<K, V> victim = tail.prev != candidate ? tail.prev : candidate.prev;
+            if (victim == head) {
+                break;
+            }
+            evictNode(victim);
+        }
+    }
+
+    private void evictNode(Node<K, V> node) {
+        map.remove(node.key, node);
+        unlink(node);
+        evictionCount.incrementAndGet();
+    }
+
+    private void unlink(Node<K, V> node) {
+        removeNode(node);
+        totalWeight -= node.weight;
+    }
+
     private void addNode(Node<K, V> node) {
         node.next = head.next;
         node.prev = head;
@@ -86,6 +250,8 @@ public class ConcurrentLRUCache<K, V> {
     private void removeNode(Node<K, V> node) {
         node.prev.next = node.next;
         node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
     }
 
     private void moveToHead(Node<K, V> node) {
@@ -93,23 +259,70 @@ public class ConcurrentLRUCache<K, V> {
         addNode(node);
     }
 
-    private void removeTail() {
-        Node<K, V> tailNode = tail.prev;
-        if (tailNode != head) {
-            removeNode(tailNode);
-            map.remove(tailNode.key);
+    private static int ceilingPowerOfTwo(int value) {
+        int power = 1;
+        while (power < value && power < 64) {
+            power <<= 1;
         }
+        return power;
     }
 
     private static class Node<K, V> {
         K key;
-        V value;
+        volatile V value;
+        long weight;
         Node<K, V> prev;
         Node<K, V> next;
 
-        Node(K key, V value) {
+        Node(K key, V value, long weight) {
             this.key = key;
             this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /*
+    *   Bounded ring of pending reads. Writers claim a slot with a CAS and drop the read when the ring is full
+    *   or contended, losing a few LRU updates instead of waiting; only the eviction lock holder drains it.
+    */
+    private static class ReadBuffer<K, V> {
+        private static final int SIZE = 16;
+        private static final int MASK = SIZE - 1;
+
+        private final AtomicReferenceArray<Node<K, V>> slots = new AtomicReferenceArray<>(SIZE);
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter;
+
+        /*
+        *   Returns true when the buffer is full and should be drained
+        */
+        boolean offer(Node<K, V> node) {
+            long tail = writeCounter.get();
+            long size = tail - readCounter;
+            if (size >= SIZE) {
+                return true;
+            }
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                slots.lazySet((int) (tail & MASK), node);
+                return size + 1 >= SIZE;
+            }
+            return false;
+        }
+
+        void drainTo(ConcurrentLRUCache<K, V> cache) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            for (; head < tail; head++) {
+                int index = (int) (head & MASK);
+                Node<K, V> node = slots.get(index);
+                if (node == null) {
+                    // claimed but not published yet, picked up by the next drain
+                    break;
+                }
+                slots.lazySet(index, null);
+                cache.onAccess(node);
+            }
+            readCounter = head;
         }
     }
 
@@ -0,0 +1,185 @@
+package awsPrototype.helpers;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import awsPrototype.metadatas.CallMetrics;
+import awsPrototype.metadatas.Constants;
+import awsPrototype.metadatas.LatencyHistogram;
+import awsPrototype.metadatas.RouteMetrics;
+
+/*
+*   The metrics of the routes, of the calls to S3 and SQS and of the caches, written in the Prometheus text
+*   format. The recording side is looked up once (the handlers and the clients keep their RouteMetrics or
+*   CallMetrics), a request only increments counters; the caches are read when the metrics are written.
+*/
+public class MetricsUtil {
+
+    private static MetricsUtil instance;
+
+    static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+
+    private final long windowNanos;
+
+    private final ConcurrentSkipListMap<String,RouteMetrics> routes;
+
+    private final ConcurrentSkipListMap<String,CallMetrics> calls;
+
+    private final ConcurrentSkipListMap<String,ConcurrentLRUCache<?,?>> caches;
+
+    private MetricsUtil() {
+        this.windowNanos = TimeUnit.SECONDS.toNanos(Math.max(1, Constants.METRICS_WINDOW));
+        this.routes = new ConcurrentSkipListMap<String,RouteMetrics>();
+        this.calls = new ConcurrentSkipListMap<String,CallMetrics>();
+        this.caches = new ConcurrentSkipListMap<String,ConcurrentLRUCache<?,?>>();
+    }
+
+    public static MetricsUtil getInstance() {
+        if (instance == null) {
+            synchronized (MetricsUtil.class) {
+                if (instance == null) {
+                    instance = new MetricsUtil();
+                }
+            }
+        }
+        return instance;
+    }
+
+    public RouteMetrics getRouteMetrics(String route) {
+        return routes.computeIfAbsent(route, name -> new RouteMetrics(name, windowNanos));
+    }
+
+    /*
+    *   Calls of the operation of a remote service, e.g. ("s3", "HeadObject")
+    */
+    public CallMetrics getCallMetrics(String service, String operation) {
+        return calls.computeIfAbsent(service + " " + operation, key -> new CallMetrics(service, operation, windowNanos));
+    }
+
+    /*
+    *   Reports the hits, misses, evictions and weight of the cache under the name
+    */
+    public void registerCache(String name, ConcurrentLRUCache<?,?> cache) {
+        caches.put(name, cache);
+    }
+
+    public void writePrometheus(StringBuilder out) {
+        writeHeader(out, "http_requests_total", "counter", "Requests served, by route and status class");
+        for (RouteMetrics route : routes.values()) {
+            for (int statusClass = 0; statusClass < 6; statusClass++) {
+                long requests = route.getRequests(statusClass);
+                if (requests > 0) {
+                    writeSample(out, "http_requests_total", requests, "route", route.getRoute(),
+                        "status", statusClass == 0 ? "other" : statusClass + "xx");
+                }
+            }
+        }
+        writeHeader(out, "http_response_bytes_total", "counter", "Bytes of the response bodies written by the handlers, by route");
+        for (RouteMetrics route : routes.values()) {
+            writeSample(out, "http_response_bytes_total", route.getBytes(), "route", route.getRoute());
+        }
+        writeHeader(out, "http_request_duration_seconds", "summary", "Time from the handler call to the response being done, quantiles of the last one to two metrics.window");
+        for (RouteMetrics route : routes.values()) {
+            writeSummary(out, "http_request_duration_seconds", route.getLatency(), "route", route.getRoute());
+        }
+
+        for (String service : new String[] { "s3", "sqs" }) {
+            String durationName = service + "_request_duration_seconds";
+            String errorsName = service + "_request_errors_total";
+            writeHeader(out, durationName, "summary", "Latency of the " + service.toUpperCase() + " calls by operation, quantiles of the last one to two metrics.window");
+            for (CallMetrics call : calls.values()) {
+                if (call.getService().equals(service)) {
+                    writeSummary(out, durationName, call.getLatency(), "operation", call.getOperation());
+                }
+            }
+            writeHeader(out, errorsName, "counter", "Failed " + service.toUpperCase() + " calls by operation");
+            for (CallMetrics call : calls.values()) {
+                if (call.getService().equals(service)) {
+                    writeSample(out, errorsName, call.getErrors(), "operation", call.getOperation());
+                }
+            }
+        }
+
+        writeHeader(out, "cache_hits_total", "counter", "Lookups that found their entry, by cache");
+        for (Map.Entry<String,ConcurrentLRUCache<?,?>> cache : caches.entrySet()) {
+            writeSample(out, "cache_hits_total", cache.getValue().hitCount(), "cache", cache.getKey());
+        }
+        writeHeader(out, "cache_misses_total", "counter", "Lookups that didn't find their entry, by cache");
+        for (Map.Entry<String,ConcurrentLRUCache<?,?>> cache : caches.entrySet()) {
+            writeSample(out, "cache_misses_total", cache.getValue().missCount(), "cache", cache.getKey());
+        }
+        writeHeader(out, "cache_evictions_total", "counter", "Entries evicted or not admitted, by cache");
+        for (Map.Entry<String,ConcurrentLRUCache<?,?>> cache : caches.entrySet()) {
+            writeSample(out, "cache_evictions_total", cache.getValue().evictionCount(), "cache", cache.getKey());
+        }
+        writeHeader(out, "cache_entries", "gauge", "Entries, by cache");
+        for (Map.Entry<String,ConcurrentLRUCache<?,?>> cache : caches.entrySet()) {
+            writeSample(out, "cache_entries", cache.getValue().size(), "cache", cache.getKey());
+        }
+        writeHeader(out, "cache_weight", "gauge", "Sum of the weights of the entries (bytes or entries), by cache");
+        for (Map.Entry<String,ConcurrentLRUCache<?,?>> cache : caches.entrySet()) {
+            writeSample(out, "cache_weight", cache.getValue().weight(), "cache", cache.getKey());
+        }
+        writeHeader(out, "cache_maximum_weight", "gauge", "Weight above which the cache evicts, by cache");
+        for (Map.Entry<String,ConcurrentLRUCache<?,?>> cache : caches.entrySet()) {
+            writeSample(out, "cache_maximum_weight", cache.getValue().maximumWeight(), "cache", cache.getKey());
+        }
+    }
+
+    private static void writeSummary(StringBuilder out, String name, LatencyHistogram latency, String labelName, String labelValue) {
+        double[] quantiles = latency.getQuantiles(QUANTILES);
+        for (int i = 0; i < QUANTILES.length; i++) {
+            writeSample(out, name, quantiles[i] / 1e9, labelName, labelValue, "quantile", String.valueOf(QUANTILES[i]));
+        }
+        writeSample(out, name + "_sum", latency.getSumNanos() / 1e9, labelName, labelValue);
+        writeSample(out, name + "_count", latency.getCount(), labelName, labelValue);
+    }
+
+    public static void writeHeader(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /*
+    *   One line of the metric, labels given as name, value, name, value...
+    */
+    public static void writeSample(StringBuilder out, String name, double value, String... labels) {
+        out.append(name);
+        if (labels.length > 0) {
+            out.append('{');
+            for (int i = 0; i + 1 < labels.length; i += 2) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append(labels[i]).append("=\"");
+                appendEscaped(out, labels[i + 1]);
+                out.append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ');
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static void appendEscaped(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,393 @@
+package awsPrototype.helpers;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import awsPrototype.metadatas.VideoMetadata;
+
+/*
+*   Moves the moov box of an MP4 in front of the media data ("fast start"), so a player gets the sample tables
+*   with the first bytes instead of asking for the end of the file before playing.
+*   Only the headers of the top level boxes are read to find the layout; the moov is the only box loaded in
+*   memory, the rest of the file is copied channel to channel. The chunk offsets of the stco/co64 boxes are
+*   shifted by the moov size; when a shifted offset doesn't fit in 32 bits anymore, the stco boxes are rewritten
+*   as co64 and the moov grows accordingly.
+*/
+public final class Mp4FastStart {
+
+    private static final List<String> MOOV_CONTAINERS = Arrays.asList("moov", "trak", "mdia", "minf", "stbl");
+    private static final long MAX_STCO_OFFSET = 0xFFFFFFFFL;
+
+    private Mp4FastStart() {
+    }
+
+    /*
+    *   Layout of the top level boxes of the file and the movie headers, without changing it. The headers are
+    *   left empty when the moov is bigger than maxMoovSize.
+    */
+    public static VideoMetadata inspect(Path file, String videoName, long maxMoovSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<Box> boxes = readTopLevelBoxes(channel);
+            Box moov = find(boxes, "moov");
+            Box mdat = find(boxes, "mdat");
+            VideoMetadata metadata = new VideoMetadata(videoName);
+            metadata.setLayout(channel.size(), moov == null ? -1 : moov.offset, moov == null ? 0 : moov.size,
+                mdat == null ? -1 : mdat.offset, false);
+            if (moov != null && moov.size <= maxMoovSize) {
+                ByteBuffer moovBox = ByteBuffer.allocate((int) moov.size);
+                readFully(channel, moovBox, moov.offset);
+                moovBox.flip();
+                try {
+                    readMovieHeaders(moovBox, metadata);
+                } catch (IndexOutOfBoundsException e) {
+                    throw malformed(videoName, e);
+                }
+            }
+            return metadata;
+        }
+    }
+
+    /*
+    *   Writes source to target with the moov first when it is after the media data, and returns the layout of
+    *   the written file. Nothing is written (and the layout of source is returned) when the file is already
+    *   fast start, is not an MP4 with a moov and an mdat, or its moov is bigger than maxMoovSize. A moov whose
+    *   boxes don't fit in each other fails with an IOException, before target is written.
+    */
+    public static VideoMetadata relocate(Path source, Path target, String videoName, long maxMoovSize) throws IOException {
+        try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ)) {
+            long fileSize = input.size();
+            List<Box> boxes = readTopLevelBoxes(input);
+            Box moov = find(boxes, "moov");
+            Box mdat = find(boxes, "mdat");
+            if (moov == null || mdat == null || moov.offset < mdat.offset || moov.size > maxMoovSize) {
+                return inspect(source, videoName, maxMoovSize);
+            }
+
+            ByteBuffer oldMoov = ByteBuffer.allocate((int) moov.size);
+            readFully(input, oldMoov, moov.offset);
+            oldMoov.flip();
+            VideoMetadata metadata = new VideoMetadata(videoName);
+
+            // the moov goes right before the first media data, what is between them moves down by its size
+            long insertAt = mdat.offset;
+            OffsetShift shift = new OffsetShift(insertAt, moov.offset, moov.size, moov.size);
+            ByteBuffer newMoov;
+            try {
+                readMovieHeaders(oldMoov.duplicate(), metadata);
+                boolean toCo64 = maxStcoOffset(oldMoov.duplicate(), shift) > MAX_STCO_OFFSET;
+                if (toCo64) {
+                    shift = new OffsetShift(insertAt, moov.offset, moov.size, moov.size + 4L * countStcoEntries(oldMoov.duplicate()));
+                }
+                newMoov = rewriteBox(oldMoov.duplicate(), shift, toCo64);
+            } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                throw malformed(videoName, e);
+            }
+            newMoov.flip();
+
+            try (FileChannel output = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                transferFully(input, 0, insertAt, output);
+                while (newMoov.hasRemaining()) {
+                    output.write(newMoov);
+                }
+                transferFully(input, insertAt, moov.offset - insertAt, output);
+                transferFully(input, moov.offset + moov.size, fileSize - moov.offset - moov.size, output);
+                output.force(false);
+                metadata.setLayout(output.size(), insertAt, shift.newMoovSize, shift.shift(mdat.offset), true);
+            }
+            return metadata;
+        }
+    }
+
+    /*
+    *   Duration from the mvhd, resolution from the first tkhd with one (the audio tracks have none)
+    */
+    private static void readMovieHeaders(ByteBuffer moov, VideoMetadata metadata) {
+        long duration = 0;
+        int width = 0;
+        int height = 0;
+        int moovStart = moov.position();
+        for (int[] child : findChildren(moov, moovStart + 8, moov.limit())) {
+            String type = boxType(moov, child[0]);
+            int content = child[0] + 8;
+            if (type.equals("mvhd")) {
+                int version = moov.get(content);
+                long timescale = moov.getInt(content + (version == 1 ? 20 : 12)) & MAX_STCO_OFFSET;
+                long units = version == 1 ? moov.getLong(content + 24) : moov.getInt(content + 16) & MAX_STCO_OFFSET;
+                duration = timescale == 0 ? 0 : units * 1000 / timescale;
+            } else if (type.equals("trak") && width == 0) {
+                for (int[] trackChild : findChildren(moov, content, child[0] + child[1])) {
+                    // width and height, 16.16 fixed point, end the tkhd in both versions
+                    int end = trackChild[0] + trackChild[1];
+                    if (boxType(moov, trackChild[0]).equals("tkhd") && trackChild[1] >= 92) {
+                        width = moov.getInt(end - 8) >>> 16;
+                        height = moov.getInt(end - 4) >>> 16;
+                    }
+                }
+            }
+        }
+        metadata.setMovieHeader(duration, width, height);
+    }
+
+    /*
+    *   {position, size} of the boxes in [start, end), stopping at a box that overflows the range
+    */
+    private static List<int[]> findChildren(ByteBuffer buffer, int start, int end) {
+        List<int[]> children = new ArrayList<>();
+        int position = start;
+        while (position + 8 <= end) {
+            long size = buffer.getInt(position) & MAX_STCO_OFFSET;
+            if (size == 1) {
+                size = buffer.getLong(position + 8);
+            } else if (size == 0) {
+                size = end - position;
+            }
+            if (size < 8 || position + size > end) {
+                break;
+            }
+            children.add(new int[] { position, (int) size });
+            position += size;
+        }
+        return children;
+    }
+
+    /*
+    *   Type, offset and total size of each top level box, reading only their headers
+    */
+    private static List<Box> readTopLevelBoxes(FileChannel channel) throws IOException {
+        List<Box> boxes = new ArrayList<>();
+        long fileSize = channel.size();
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(16);
+        while (offset + 8 <= fileSize) {
+            header.clear().limit(8);
+            readFully(channel, header, offset);
+            long size = header.getInt(0) & MAX_STCO_OFFSET;
+            String type = new String(header.array(), 4, 4, StandardCharsets.ISO_8859_1);
+            if (size == 1) {
+                header.clear().limit(8);
+                readFully(channel, header, offset + 8);
+                size = header.getLong(0);
+            } else if (size == 0) {
+                size = fileSize - offset;
+            }
+            if (size < 8 || offset + size > fileSize) {
+                // truncated or not an MP4, the boxes found so far are kept
+                break;
+            }
+            boxes.add(new Box(type, offset, size));
+            offset += size;
+        }
+        return boxes;
+    }
+
+    private static Box find(List<Box> boxes, String type) {
+        for (Box box : boxes) {
+            if (box.type.equals(type)) {
+                return box;
+            }
+        }
+        return null;
+    }
+
+    /*
+    *   Copy of the box at the buffer position with its chunk offsets shifted, the containers on the way to the
+    *   stco/co64 boxes rebuilt with their new sizes
+    */
+    private static ByteBuffer rewriteBox(ByteBuffer box, OffsetShift shift, boolean toCo64) throws IOException {
+        int start = box.position();
+        long size = box.getInt(start) & MAX_STCO_OFFSET;
+        String type = boxType(box, start);
+        int headerSize = 8;
+        if (size == 1) {
+            size = box.getLong(start + 8);
+            headerSize = 16;
+        } else if (size == 0) {
+            size = box.remaining();
+        }
+        if (size < headerSize || size > box.limit() - start) {
+            throw new IOException(String.format("The %s box at %d has a size of %d, out of its parent", type, start, size));
+        }
+        int end = (int) (start + size);
+        ByteBuffer rewritten;
+        if (MOOV_CONTAINERS.contains(type)) {
+            List<ByteBuffer> children = new ArrayList<>();
+            int childrenSize = 0;
+            box.position(start + headerSize);
+            while (box.position() + 8 <= end) {
+                ByteBuffer child = box.duplicate();
+                child.limit(end);
+                ByteBuffer rewrittenChild = rewriteBox(child, shift, toCo64);
+                rewrittenChild.flip();
+                children.add(rewrittenChild);
+                childrenSize += rewrittenChild.remaining();
+                box.position(box.position() + childSize(box));
+            }
+            rewritten = ByteBuffer.allocate(8 + childrenSize);
+            rewritten.putInt(8 + childrenSize).put(type.getBytes(StandardCharsets.ISO_8859_1));
+            for (ByteBuffer child : children) {
+                rewritten.put(child);
+            }
+        } else if (type.equals("stco") || type.equals("co64")) {
+            boolean wide = type.equals("co64");
+            int entryCount = box.getInt(start + headerSize + 4);
+            int entriesStart = start + headerSize + 8;
+            if (entryCount < 0 || entryCount > (end - entriesStart) / (wide ? 8 : 4)) {
+                throw new IOException(String.format("The %s box at %d has %d entries, more than its size holds", type, start, entryCount));
+            }
+            boolean writeWide = wide || toCo64;
+            int newSize = 16 + entryCount * (writeWide ? 8 : 4);
+            rewritten = ByteBuffer.allocate(newSize);
+            rewritten.putInt(newSize).put((writeWide ? "co64" : "stco").getBytes(StandardCharsets.ISO_8859_1));
+            rewritten.putInt(box.getInt(start + headerSize)).putInt(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                long offset = wide ? box.getLong(entriesStart + 8 * i) : box.getInt(entriesStart + 4 * i) & MAX_STCO_OFFSET;
+                long newOffset = shift.shift(offset);
+                if (writeWide) {
+                    rewritten.putLong(newOffset);
+                } else {
+                    rewritten.putInt((int) newOffset);
+                }
+            }
+        } else {
+            rewritten = ByteBuffer.allocate((int) size);
+            ByteBuffer content = box.duplicate();
+            content.position(start).limit(end);
+            rewritten.put(content);
+        }
+        box.position(end);
+        return rewritten;
+    }
+
+    /*
+    *   Highest offset of the stco boxes after the shift, the co64 boxes hold any offset already
+    */
+    private static long maxStcoOffset(ByteBuffer box, OffsetShift shift) {
+        long max = 0;
+        for (int[] table : findChunkOffsetTables(box, box.position(), box.limit())) {
+            if (table[2] == 1) {
+                continue;
+            }
+            // a count beyond the box is rejected by rewriteBox, it only reads the entries there are here
+            for (int i = 0; i < table[1] && table[0] + 4 * i + 4 <= box.limit(); i++) {
+                max = Math.max(max, shift.shift(box.getInt(table[0] + 4 * i) & MAX_STCO_OFFSET));
+            }
+        }
+        return max;
+    }
+
+    private static long countStcoEntries(ByteBuffer box) {
+        long entries = 0;
+        for (int[] table : findChunkOffsetTables(box, box.position(), box.limit())) {
+            if (table[2] == 0) {
+                entries += table[1];
+            }
+        }
+        return entries;
+    }
+
+    /*
+    *   {first entry position, entry count, 1 for co64} of the chunk offset tables under the boxes in [start, end)
+    */
+    private static List<int[]> findChunkOffsetTables(ByteBuffer buffer, int start, int end) {
+        List<int[]> tables = new ArrayList<>();
+        for (int[] child : findChildren(buffer, start, end)) {
+            String type = boxType(buffer, child[0]);
+            int headerSize = (buffer.getInt(child[0]) == 1) ? 16 : 8;
+            if (MOOV_CONTAINERS.contains(type)) {
+                tables.addAll(findChunkOffsetTables(buffer, child[0] + headerSize, child[0] + child[1]));
+            } else if (type.equals("stco") || type.equals("co64")) {
+                tables.add(new int[] { child[0] + headerSize + 8, buffer.getInt(child[0] + headerSize + 4), type.equals("co64") ? 1 : 0 });
+            }
+        }
+        return tables;
+    }
+
+    private static int childSize(ByteBuffer buffer) {
+        long size = buffer.getInt(buffer.position()) & MAX_STCO_OFFSET;
+        if (size == 1) {
+            size = buffer.getLong(buffer.position() + 8);
+        } else if (size == 0) {
+            size = buffer.limit() - buffer.position();
+        }
+        return (int) size;
+    }
+
+    private static IOException malformed(String videoName, RuntimeException e) {
+        return new IOException(String.format("Malformed moov in the video [%s]: %s", videoName, e), e);
+    }
+
+    private static String boxType(ByteBuffer buffer, int boxStart) {
+        byte[] type = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            type[i] = buffer.get(boxStart + 4 + i);
+        }
+        return new String(type, StandardCharsets.ISO_8859_1);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+    }
+
+    private static void transferFully(FileChannel input, long position, long count, FileChannel output) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long written = input.transferTo(position + transferred, count - transferred, output);
+            if (written <= 0) {
+                throw new EOFException("Unexpected end of file at " + (position + transferred));
+            }
+            transferred += written;
+        }
+    }
+
+    private static class Box {
+        final String type;
+        final long offset;
+        final long size;
+
+        Box(String type, long offset, long size) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    /*
+    *   New position of a byte of the original file once the moov moved from oldMoovOffset to insertAt
+    */
+    private static class OffsetShift {
+        final long insertAt;
+        final long oldMoovOffset;
+        final long oldMoovSize;
+        final long newMoovSize;
+
+        OffsetShift(long insertAt, long oldMoovOffset, long oldMoovSize, long newMoovSize) {
+            this.insertAt = insertAt;
+            this.oldMoovOffset = oldMoovOffset;
+            this.oldMoovSize = oldMoovSize;
+            this.newMoovSize = newMoovSize;
+        }
+
+        long shift(long offset) {
+            if (offset < insertAt) {
+                return offset;
+            }
+            if (offset < oldMoovOffset) {
+                return offset + newMoovSize;
+            }
+            return offset + newMoovSize - oldMoovSize;
+        }
+    }
+
+}
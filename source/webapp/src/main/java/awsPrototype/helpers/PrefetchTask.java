@@ -0,0 +1,47 @@
+package awsPrototype.helpers;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+*   A load queued on the low priority prefetch executor that a request can take over while it hasn't started,
+*   instead of waiting behind the other prefetches: the load runs once, on whichever executor claims it first
+*/
+class PrefetchTask implements Runnable {
+
+    private final Runnable load;
+    private final CompletableFuture<?> result;
+    private final AtomicBoolean claimed;
+
+    PrefetchTask(Runnable load, CompletableFuture<?> result) {
+        this.load = load;
+        this.result = result;
+        this.claimed = new AtomicBoolean();
+    }
+
+    @Override
+    public void run() {
+        if (claimed.compareAndSet(false, true)) {
+            load.run();
+        }
+    }
+
+    /*
+    *   Runs the load on the executor instead, false when the prefetch thread already started it. A rejected
+    *   load fails its result.
+    */
+    boolean moveTo(Executor executor) {
+        if (!claimed.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            executor.execute(load);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,85 @@
+package awsPrototype.helpers;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import awsPrototype.metadatas.CallMetrics;
+import awsPrototype.metadatas.S3ObjectInfo;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+
+/*
+*   Reads an S3 object in blocks of blockSize bytes aligned on the block size, as ranged GETs pinned to the
+*   listed ETag, so a video can be served before its download finishes. Caching the blocks is up to
+*   VideoBlockCache. The GETs don't go through the download manager queue, a player waiting on them is in
+*   front of the screen, but have a limit of their own: a burst of cold requests waits here for one of
+*   maxConcurrentRequests GETs instead of piling up on the connection pool of the client until they time out.
+*/
+public class S3BlockReader {
+
+    private static final Logger LOGGER = Logger.getLogger(S3BlockReader.class.getName());
+
+    private final S3AsyncClient s3Client;
+    private final String bucket;
+    private final int blockSize;
+    private final AsyncRequestLimiter requestLimiter;
+    private final AtomicLong requests;
+    private final AtomicLong fetchedBytes;
+    private final CallMetrics getObjectBlockMetrics;
+
+    public S3BlockReader(S3AsyncClient s3Client, String bucket, int blockSize, int maxConcurrentRequests) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.blockSize = blockSize;
+        this.requestLimiter = new AsyncRequestLimiter(maxConcurrentRequests);
+        this.requests = new AtomicLong();
+        this.fetchedBytes = new AtomicLong();
+        this.getObjectBlockMetrics = MetricsUtil.getInstance().getCallMetrics("s3", "GetObjectBlock");
+    }
+
+    /*
+    *   Read-only block starting at blockIndex * blockSize, the last block of the object is shorter
+    */
+    public CompletableFuture<ByteBuffer> readBlock(S3ObjectInfo object, long blockIndex) {
+        long first = blockIndex * blockSize;
+        long last = Math.min(object.getSize(), first + blockSize) - 1;
+        requests.incrementAndGet();
+        CompletableFuture<ByteBuffer> block = new CompletableFuture<>();
+        requestLimiter.submit(() -> getObjectBlockMetrics.record(System.nanoTime(), s3Client.getObject(req -> {
+                req.bucket(bucket).key(object.getKey()).range("bytes=" + first + "-" + last);
+                if (object.getEtag() != null) {
+                    req.ifMatch(object.getEtag());
+                }
+            }, AsyncResponseTransformer.toBytes())))
+            .whenComplete((response, error) -> {
+                if (error != null) {
+                    LOGGER.log(Level.WARNING, String.format("Error reading the bytes %d-%d of [%s]: %s", first, last, object.getKey(), error.getMessage()));
+                    block.completeExceptionally(error);
+                    return;
+                }
+                ByteBuffer fetchedBlock = response.asByteBuffer();
+                fetchedBytes.addAndGet(fetchedBlock.remaining());
+                block.complete(fetchedBlock.asReadOnlyBuffer());
+            });
+        return block;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getFetchedBytes() {
+        return fetchedBytes.get();
+    }
+
+    /*
+    *   Block reads waiting for one of the maxConcurrentRequests GETs
+    */
+    public int getWaitingRequests() {
+        return requestLimiter.getWaitingCount();
+    }
+
+}
@@ -0,0 +1,381 @@
+package awsPrototype.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import awsPrototype.metadatas.CallMetrics;
+import awsPrototype.metadatas.S3ObjectInfo;
+import software.amazon.awssdk.core.FileTransformerConfiguration;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ServerSideEncryption;
+
+/*
+*   Downloads S3 objects to local files:
+*   - at most maxConcurrentRequests GETs in flight across all the downloads, the others wait in a queue
+*   - objects above splitThreshold are fetched as parallel ranged GETs of partSize bytes, all pinned to the ETag
+*     read at the start, so a part of a newer version can't be mixed in
+*   - the parts are written in place into "<file>.part" and listed in "<file>.part.progress" as they finish;
+*     a download restarted later (e.g. after a crash) only fetches the missing parts if the ETag didn't change
+*   - the file is checked against the ETag and only then renamed atomically to its final name, so a file with
+*     the final name is always complete. A multipart ETag is checked with the upload part size, the size of
+*     part 1 from a HEAD; a file whose ETag can't be checked (KMS, parts of different sizes) is kept but marked
+*     unverified in its S3ObjectInfo
+*/
+public class S3DownloadManager {
+
+    private static final Logger LOGGER = Logger.getLogger(S3DownloadManager.class.getName());
+
+    static final String PART_SUFFIX = ".part";
+    static final String PROGRESS_SUFFIX = ".part.progress";
+
+    private final S3AsyncClient s3Client;
+    private final String bucket;
+    private final long splitThreshold;
+    private final long partSize;
+    private final AsyncRequestLimiter requestLimiter;
+    private final ConcurrentHashMap<String, CompletableFuture<S3ObjectInfo>> downloads;
+    private final AtomicLong downloadedBytes;
+    private final AtomicLong completedDownloads;
+    private final AtomicLong unverifiedDownloads;
+    private final AtomicLong failedDownloads;
+    private final CallMetrics headObjectMetrics;
+    private final CallMetrics getObjectPartMetrics;
+    private final CallMetrics downloadMetrics;
+
+    public S3DownloadManager(S3AsyncClient s3Client, String bucket, int maxConcurrentRequests, long splitThreshold, long partSize) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.splitThreshold = splitThreshold;
+        this.partSize = partSize;
+        this.requestLimiter = new AsyncRequestLimiter(maxConcurrentRequests);
+        this.downloads = new ConcurrentHashMap<>();
+        this.downloadedBytes = new AtomicLong();
+        this.completedDownloads = new AtomicLong();
+        this.unverifiedDownloads = new AtomicLong();
+        this.failedDownloads = new AtomicLong();
+        MetricsUtil metricsUtil = MetricsUtil.getInstance();
+        this.headObjectMetrics = metricsUtil.getCallMetrics("s3", "HeadObject");
+        this.getObjectPartMetrics = metricsUtil.getCallMetrics("s3", "GetObjectPart");
+        this.downloadMetrics = metricsUtil.getCallMetrics("s3", "Download");
+    }
+
+    /*
+    *   Downloads the key to target; a download of the same key already running is shared instead of started again.
+    *   The result describes the version that was downloaded
+    */
+    public CompletableFuture<S3ObjectInfo> download(String key, Path target) {
+        CompletableFuture<S3ObjectInfo> download = downloads.get(key);
+        if (download != null) {
+            return download;
+        }
+        CompletableFuture<S3ObjectInfo> newDownload = new CompletableFuture<>();
+        download = downloads.putIfAbsent(key, newDownload);
+        if (download != null) {
+            return download;
+        }
+        downloadMetrics.record(System.nanoTime(), startDownload(key, target)).whenComplete((object, error) -> {
+            downloads.remove(key, newDownload);
+            if (error != null) {
+                failedDownloads.incrementAndGet();
+                newDownload.completeExceptionally(error);
+            } else {
+                (object.isUnverified() ? unverifiedDownloads : completedDownloads).incrementAndGet();
+                newDownload.complete(object);
+            }
+        });
+        return newDownload;
+    }
+
+    public boolean isDownloading(String key) {
+        return downloads.containsKey(key);
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes.get();
+    }
+
+    /*
+    *   Downloads finished and checked against their ETag
+    */
+    public long getCompletedDownloads() {
+        return completedDownloads.get();
+    }
+
+    /*
+    *   Downloads finished whose ETag could not be checked
+    */
+    public long getUnverifiedDownloads() {
+        return unverifiedDownloads.get();
+    }
+
+    public long getFailedDownloads() {
+        return failedDownloads.get();
+    }
+
+    private CompletableFuture<S3ObjectInfo> startDownload(String key, Path target) {
+        long startNanos = System.nanoTime();
+        return headObjectMetrics.record(System.nanoTime(), s3Client.headObject(req -> req.bucket(bucket).key(key)))
+            .thenCompose(head -> {
+                Transfer transfer;
+                try {
+                    transfer = Transfer.open(target, head, head.contentLength() > splitThreshold ? partSize : Math.max(1, head.contentLength()));
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+                List<CompletableFuture<Void>> parts = new ArrayList<>();
+                for (int part = 0; part < transfer.partCount; part++) {
+                    if (!transfer.completedParts.get(part)) {
+                        parts.add(downloadPart(key, transfer, part));
+                    }
+                }
+                if (transfer.partCount > parts.size()) {
+                    LOGGER.info(String.format("Resuming the download of [%s], %d of %d parts already downloaded", key, transfer.partCount - parts.size(), transfer.partCount));
+                }
+                CompletableFuture<Long> uploadPartSize = getUploadPartSize(key, transfer);
+                return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]))
+                    .thenCombine(uploadPartSize, (done, partSize) -> {
+                        boolean verified;
+                        try {
+                            verified = transfer.complete(partSize);
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                        S3ObjectInfo object = new S3ObjectInfo(key, head.contentLength(), head.eTag(), head.lastModified() == null ? 0 : head.lastModified().toEpochMilli());
+                        object.setUnverified(!verified);
+                        return object;
+                    });
+            })
+            .whenComplete((object, error) -> {
+                if (error == null) {
+                    long size = object.getSize();
+                    double seconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+                    LOGGER.info(String.format("Downloaded [%s], %.1f MB in %.2fs (%.1f MB/s)", key, size / 1e6, seconds, size / 1e6 / seconds));
+                } else {
+                    LOGGER.log(Level.SEVERE, String.format("Error downloading object [%s] from the bucket [%s]: %s", key, bucket, error.getMessage()));
+                }
+            });
+    }
+
+    /*
+    *   Size of the parts the object was uploaded in, the size of its part 1, 0 when its ETag is not of a
+    *   multipart upload or can't be checked anyway. Asked while the parts download, a failure only leaves the
+    *   file unverified.
+    */
+    private CompletableFuture<Long> getUploadPartSize(String key, Transfer transfer) {
+        if (!transfer.verifyEtag || !EtagVerifier.isMultipart(transfer.etag)) {
+            return CompletableFuture.completedFuture(0L);
+        }
+        return requestLimiter.submit(() -> headObjectMetrics.record(System.nanoTime(),
+                s3Client.headObject(req -> req.bucket(bucket).key(key).partNumber(1).ifMatch(transfer.etag))))
+            .thenApply(part -> part.contentLength() == null ? 0L : part.contentLength())
+            .exceptionally(error -> {
+                LOGGER.warning(String.format("Could not read the upload part size of [%s]: %s", key, error.getMessage()));
+                return 0L;
+            });
+    }
+
+    private CompletableFuture<Void> downloadPart(String key, Transfer transfer, int part) {
+        long first = part * transfer.partSize;
+        long last = Math.min(first + transfer.partSize, transfer.size) - 1;
+        FileTransformerConfiguration writeInPlace = FileTransformerConfiguration.builder()
+            .fileWriteOption(FileTransformerConfiguration.FileWriteOption.WRITE_TO_POSITION)
+            .position(first)
+            .failureBehavior(FileTransformerConfiguration.FailureBehavior.LEAVE)
+            .build();
+        // timed from the GET itself, not from the wait for a request slot
+        return requestLimiter.submit(() -> getObjectPartMetrics.record(System.nanoTime(), s3Client.getObject(
+                req -> req.bucket(bucket).key(key).range("bytes=" + first + "-" + last).ifMatch(transfer.etag),
+                AsyncResponseTransformer.toFile(transfer.partFile, writeInPlace))))
+            .thenAccept(response -> {
+                downloadedBytes.addAndGet(last - first + 1);
+                try {
+                    transfer.partCompleted(part);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+    }
+
+    /*
+    *   Local state of one download, the .part file and its progress sidecar
+    */
+    private static class Transfer {
+        final Path target;
+        final Path partFile;
+        final Path progressFile;
+        final String etag;
+        final long size;
+        final long partSize;
+        final int partCount;
+        final boolean verifyEtag;
+        final BitSet completedParts;
+
+        private Transfer(Path target, HeadObjectResponse head, long partSize) {
+            this.target = target;
+            this.partFile = Paths.get(target + PART_SUFFIX);
+            this.progressFile = Paths.get(target + PROGRESS_SUFFIX);
+            this.etag = head.eTag();
+            this.size = head.contentLength();
+            this.partSize = partSize;
+            this.partCount = (int) ((size + partSize - 1) / partSize);
+            // the ETag of a KMS encrypted object is not an MD5 of its content
+            this.verifyEtag = head.serverSideEncryption() != ServerSideEncryption.AWS_KMS
+                && head.serverSideEncryption() != ServerSideEncryption.AWS_KMS_DSSE;
+            this.completedParts = new BitSet(partCount);
+        }
+
+        /*
+        *   Picks up the parts of a previous attempt when the object and the part size are the same, otherwise starts over
+        */
+        static Transfer open(Path target, HeadObjectResponse head, long partSize) throws IOException {
+            Transfer transfer = new Transfer(target, head, partSize);
+            String header = transfer.etag + " " + transfer.size + " " + transfer.partSize;
+            if (Files.exists(transfer.partFile) && Files.exists(transfer.progressFile)) {
+                List<String> lines = Files.readAllLines(transfer.progressFile, StandardCharsets.UTF_8);
+                if (!lines.isEmpty() && lines.get(0).equals(header) && Files.size(transfer.partFile) == transfer.size) {
+                    for (String line : lines.subList(1, lines.size())) {
+                        try {
+                            transfer.completedParts.set(Integer.parseInt(line.trim()));
+                        } catch (NumberFormatException e) {
+                            // a line cut by a crash, that part is downloaded again
+                        }
+                    }
+                    return transfer;
+                }
+            }
+            Files.write(transfer.progressFile, (header + "\n").getBytes(StandardCharsets.UTF_8));
+            try (RandomAccessFile file = new RandomAccessFile(transfer.partFile.toFile(), "rw")) {
+                file.setLength(transfer.size);
+            }
+            return transfer;
+        }
+
+        synchronized void partCompleted(int part) throws IOException {
+            completedParts.set(part);
+            Files.write(progressFile, (part + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        }
+
+        /*
+        *   Verifies the content and moves the file to its final name, false when the ETag couldn't be checked.
+        *   A file not matching its ETag is deleted, with its progress, so the next attempt starts from scratch.
+        */
+        boolean complete(long uploadPartSize) throws IOException {
+            int verification = verifyEtag ? EtagVerifier.verify(partFile, size, etag, uploadPartSize) : EtagVerifier.UNVERIFIABLE;
+            if (verification == EtagVerifier.MISMATCH) {
+                Files.deleteIfExists(partFile);
+                Files.deleteIfExists(progressFile);
+                throw new IOException(String.format("The content of [%s] doesn't match the ETag %s", target.getFileName(), etag));
+            }
+            if (verification == EtagVerifier.UNVERIFIABLE) {
+                LOGGER.warning(String.format("Could not verify the ETag %s of [%s], it is marked unverified", etag, target.getFileName()));
+            }
+            Files.move(partFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(progressFile);
+            return verification == EtagVerifier.MATCH;
+        }
+    }
+
+    /*
+    *   The ETag of a single part upload is the MD5 of the object. The one of a multipart upload is the MD5 of
+    *   the MD5s of the parts followed by "-<parts>", so the file is hashed in parts of the upload part size.
+    *   Only the uploads in parts of one size (the last one shorter) can be checked, which all the SDKs and the
+    *   CLI do.
+    */
+    static class EtagVerifier {
+
+        static final int MATCH = 0;
+        static final int MISMATCH = 1;
+        static final int UNVERIFIABLE = 2;
+
+        static boolean isMultipart(String etag) {
+            return etag != null && etag.indexOf('-') >= 0;
+        }
+
+        /*
+        *   MATCH, MISMATCH, or UNVERIFIABLE when the upload part size is unknown (uploadPartSize 0) or doesn't
+        *   give the number of parts of the ETag
+        */
+        static int verify(Path file, long size, String etag, long uploadPartSize) throws IOException {
+            if (etag == null) {
+                return UNVERIFIABLE;
+            }
+            String expected = etag.replace("\"", "");
+            int dash = expected.indexOf('-');
+            if (dash < 0) {
+                return expected.equalsIgnoreCase(md5Hex(file, 0)) ? MATCH : MISMATCH;
+            }
+            long parts;
+            try {
+                parts = Long.parseLong(expected.substring(dash + 1));
+            } catch (NumberFormatException e) {
+                return UNVERIFIABLE;
+            }
+            if (uploadPartSize <= 0 || (size + uploadPartSize - 1) / uploadPartSize != parts) {
+                return UNVERIFIABLE;
+            }
+            return expected.equalsIgnoreCase(md5Hex(file, uploadPartSize) + "-" + parts) ? MATCH : MISMATCH;
+        }
+
+        /*
+        *   MD5 of the file, or with uploadPartSize > 0 the MD5 of the MD5s of its parts
+        */
+        private static String md5Hex(Path file, long uploadPartSize) throws IOException {
+            try {
+                MessageDigest whole = MessageDigest.getInstance("MD5");
+                MessageDigest part = MessageDigest.getInstance("MD5");
+                long partLength = uploadPartSize > 0 ? uploadPartSize : Long.MAX_VALUE;
+                long inPart = 0;
+                byte[] buffer = new byte[256 * 1024];
+                try (InputStream input = Files.newInputStream(file)) {
+                    int read;
+                    while ((read = input.read(buffer, 0, (int) Math.min(buffer.length, partLength - inPart))) > 0) {
+                        part.update(buffer, 0, read);
+                        inPart += read;
+                        if (inPart == partLength) {
+                            whole.update(part.digest());
+                            inPart = 0;
+                        }
+                    }
+                }
+                if (uploadPartSize <= 0) {
+                    return toHex(part.digest());
+                }
+                if (inPart > 0) {
+                    whole.update(part.digest());
+                }
+                return toHex(whole.digest());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static String toHex(byte[] digest) {
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+package awsPrototype.helpers;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import awsPrototype.metadatas.S3ObjectInfo;
+
+/*
+*   The S3 objects already synced to the temp folder (key, size, ETag, last modified), persisted next to them.
+*   A listing is compared against it so only the new or changed objects are downloaded, and after a restart
+*   the files on disk are known to be current without looking at S3 again.
+*/
+public class S3Manifest {
+
+    private static final Logger LOGGER = Logger.getLogger(S3Manifest.class.getName());
+    private static final int FORMAT_VERSION = 1;
+    private static final Gson GSON = new Gson();
+    static final String SOURCE_SUFFIX = ".s3etag";
+
+    private final Path file;
+    private final String bucket;
+    private final String prefix;
+    private final ConcurrentSkipListMap<String, S3ObjectInfo> objects;
+    private volatile long listedAt;
+    private volatile boolean dirty;
+
+    public S3Manifest(Path file, String bucket, String prefix) {
+        this.file = file;
+        this.bucket = bucket;
+        this.prefix = prefix;
+        this.objects = new ConcurrentSkipListMap<>();
+    }
+
+    /*
+    *   Starts empty when the file is missing, unreadable or written for another bucket or prefix
+    */
+    public void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            StoredManifest stored = GSON.fromJson(reader, StoredManifest.class);
+            if (stored == null || stored.version != FORMAT_VERSION || !bucket.equals(stored.bucket) || !prefix.equals(stored.prefix)) {
+                LOGGER.info("Ignoring the S3 manifest " + file + ", written for another bucket, prefix or format");
+                return;
+            }
+            for (S3ObjectInfo object : stored.objects) {
+                objects.put(object.getKey(), object);
+            }
+            listedAt = stored.listedAt;
+            LOGGER.info(String.format("Loaded the S3 manifest with %d objects", objects.size()));
+        } catch (IOException | JsonParseException e) {
+            LOGGER.log(Level.WARNING, "Ignoring the unreadable S3 manifest " + file + ": " + e.getMessage());
+        }
+    }
+
+    /*
+    *   Written to a temporary file and renamed, a crash leaves the previous manifest
+    */
+    public synchronized void saveIfDirty() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        StoredManifest stored = new StoredManifest();
+        stored.version = FORMAT_VERSION;
+        stored.bucket = bucket;
+        stored.prefix = prefix;
+        stored.listedAt = listedAt;
+        stored.objects = new ArrayList<>(objects.values());
+        Path temporaryFile = Paths.get(file + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+                GSON.toJson(stored, writer);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            dirty = true;
+            LOGGER.log(Level.WARNING, "Error saving the S3 manifest " + file + ": " + e.getMessage());
+        }
+    }
+
+    public S3ObjectInfo get(String key) {
+        return objects.get(key);
+    }
+
+    public void put(S3ObjectInfo object) {
+        objects.put(object.getKey(), object);
+        dirty = true;
+    }
+
+    public void remove(String key) {
+        if (objects.remove(key) != null) {
+            dirty = true;
+        }
+    }
+
+    public Collection<String> keys() {
+        return objects.keySet();
+    }
+
+    public int size() {
+        return objects.size();
+    }
+
+    /*
+    *   When the last complete listing was applied, 0 if never
+    */
+    public long getListedAt() {
+        return listedAt;
+    }
+
+    public void setListedAt(long listedAt) {
+        this.listedAt = listedAt;
+        dirty = true;
+    }
+
+    /*
+    *   Keys splitting the known objects in up to shards ranges of about the same size, to list them in parallel:
+    *   range i goes from boundary i-1 (excluded) to boundary i (included), the first one from the start of the
+    *   prefix and the last one to its end, so objects out of the known ranges are still listed
+    */
+    public List<String> shardBoundaries(int shards) {
+        List<String> boundaries = new ArrayList<>();
+        int size = objects.size();
+        if (shards <= 1 || size < shards * 2) {
+            return boundaries;
+        }
+        int step = size / shards;
+        int index = 0;
+        for (String key : objects.keySet()) {
+            index++;
+            if (index % step == 0 && boundaries.size() < shards - 1) {
+                boundaries.add(key);
+            }
+        }
+        return boundaries;
+    }
+
+    /*
+    *   Records next to a synced file the S3 object it was written from, so that after a lost or older manifest
+    *   the file is adopted only if it comes from the listed version: the ingest may rewrite a video, so its size
+    *   doesn't tell. A sidecar that can't be written only means the file is downloaded again then.
+    */
+    public static void writeSource(Path file, S3ObjectInfo object) {
+        try {
+            Files.write(Paths.get(file + SOURCE_SUFFIX), (object.getEtag() + " " + object.getSize() + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error recording the source of " + file + ": " + e.getMessage());
+        }
+    }
+
+    /*
+    *   The file is there and was written from this version of the object
+    */
+    public static boolean isSourceOf(Path file, S3ObjectInfo object) {
+        Path sourceFile = Paths.get(file + SOURCE_SUFFIX);
+        if (!Files.isRegularFile(file) || !Files.isRegularFile(sourceFile)) {
+            return false;
+        }
+        try {
+            String[] source = new String(Files.readAllBytes(sourceFile), StandardCharsets.UTF_8).trim().split(" ");
+            return source.length == 2 && source[0].equals(object.getEtag()) && Long.parseLong(source[1]) == object.getSize();
+        } catch (IOException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static class StoredManifest {
+        int version;
+        String bucket;
+        String prefix;
+        long listedAt;
+        List<S3ObjectInfo> objects;
+    }
+
+}
@@ -1,43 +1,109 @@
 package awsPrototype.helpers;
 
+import awsPrototype.metadatas.CallMetrics;
 import awsPrototype.metadatas.Constants;
+import awsPrototype.metadatas.S3ObjectInfo;
 import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
 
-import java.io.IOException;
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Timer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
 public class S3Util {
 
     private static S3Util instance;
+    private static S3AsyncClient clientOverride;
     private static final Logger LOGGER = Logger.getLogger(S3Util.class.getName());
+    private static final long MANIFEST_SAVE_DELAY_MS = 2000;
 
     private final S3AsyncClient s3Client;
+
+    private final S3DownloadManager downloadManager;
+
+    private final S3Manifest manifest;
+
+    private final S3BlockReader blockReader;
+
+    private final ConcurrentHashMap<String,S3ObjectInfo> remoteVideos;
+
+    private final CallMetrics headObjectMetrics;
+
+    private final CallMetrics listObjectsMetrics;
+
+    private final AtomicBoolean syncing;
+
+    private final AtomicBoolean manifestSaveScheduled;
     
     private boolean connectionWithAWSIsOK;
 
     private final Timer timer;
     
     private S3Util() {
+        s3Client = clientOverride != null ? clientOverride : buildClient();
+        downloadManager = new S3DownloadManager(s3Client, Constants.DEFAULT_S3_BUCKET_NAME, Constants.DEFAULT_S3_MAX_CONCURRENT_DOWNLOADS,
+            Constants.DEFAULT_S3_MULTIPART_THRESHOLD, Constants.DEFAULT_S3_DOWNLOAD_PART_SIZE);
+        manifest = new S3Manifest(Paths.get(VideoFileUtil.getInstance().getDefaultVideoFilePath(), Constants.DEFAULT_S3_MANIFEST_FILE_NAME),
+            Constants.DEFAULT_S3_BUCKET_NAME, Constants.DEFAULT_S3_VIDEOS_PATH);
+        manifest.load();
+        blockReader = new S3BlockReader(s3Client, Constants.DEFAULT_S3_BUCKET_NAME, Constants.BLOCK_SIZE, Constants.DEFAULT_S3_MAX_CONCURRENT_BLOCK_READS);
+        remoteVideos = new ConcurrentHashMap<>();
+        headObjectMetrics = MetricsUtil.getInstance().getCallMetrics("s3", "HeadObject");
+        listObjectsMetrics = MetricsUtil.getInstance().getCallMetrics("s3", "ListObjectsV2");
+        syncing = new AtomicBoolean();
+        manifestSaveScheduled = new AtomicBoolean();
+
+        LOGGER.info("S3 client initialized with region: " + Constants.DEFAULT_S3_REGION);
+        connectionWithAWSIsOK = false;
+        timer = new Timer();
+    }
+
+    private static S3AsyncClient buildClient() {
         // Use default credentials provider chain
-        s3Client = S3AsyncClient.builder()
+        S3AsyncClientBuilder builder = S3AsyncClient.builder()
             .credentialsProvider(software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider.create())
             .crossRegionAccessEnabled(true)
             .region(Constants.DEFAULT_S3_REGION)
             .multipartEnabled(true)
             .multipartConfiguration(b -> b
                 .thresholdInBytes(Constants.DEFAULT_S3_MULTIPART_THRESHOLD)
-                .minimumPartSizeInBytes(Constants.DEFAULT_S3_MINIMUM_PART_SIZE))
-            .build();
-            
-        LOGGER.info("S3 client initialized with region: " + Constants.DEFAULT_S3_REGION);
-        connectionWithAWSIsOK = false;
-        timer = new Timer();
+                .minimumPartSizeInBytes(Constants.DEFAULT_S3_MINIMUM_PART_SIZE));
+        if (!Constants.DEFAULT_S3_ENDPOINT_OVERRIDE.isEmpty()) {
+            // a local S3 compatible server, addressed as http://host:port/bucket/key
+            builder.endpointOverride(URI.create(Constants.DEFAULT_S3_ENDPOINT_OVERRIDE))
+                .crossRegionAccessEnabled(false)
+                .forcePathStyle(true);
+        }
+        return builder.build();
+    }
+
+    /*
+    *   Client used instead of the one built from the s3.* settings, e.g. the in-process stand-in of the load test.
+    *   Only taken into account before the first getInstance.
+    */
+    public static void setClient(S3AsyncClient client) {
+        clientOverride = client;
     }
 
     
@@ -52,89 +118,311 @@ public class S3Util {
         return instance;
     }
     
+    /*
+    *   Lists the bucket periodically. When the SQS notifications are received the listing is only a safety net
+    *   for lost notifications, run every s3.full.sync.interval seconds instead, and the first one waits for
+    *   that interval to pass since the listing recorded in the manifest.
+    */
     public void startAutoSync() {
-        LOGGER.info("Starting auto sync with delay: " + Constants.DEFAULT_S3_DELAY_START + "s and recurrency: " + Constants.DEFAULT_S3_CONTINUOUS_RECURRENCY + "s");
+        boolean receivingUpdates = SqsUtil.getInstance().isReceivingUpdates();
+        int recurrency = receivingUpdates ? Constants.DEFAULT_S3_FULL_SYNC_INTERVAL : Constants.DEFAULT_S3_CONTINUOUS_RECURRENCY;
+        long delay = Constants.DEFAULT_S3_DELAY_START;
+        if (receivingUpdates && manifest.getListedAt() > 0) {
+            long secondsSinceListed = (System.currentTimeMillis() - manifest.getListedAt()) / 1000;
+            delay = Math.max(delay, recurrency - secondsSinceListed);
+        }
+        LOGGER.info("Starting auto sync with delay: " + delay + "s and recurrency: " + recurrency + "s");
 
-        if (Constants.DEFAULT_S3_CONTINUOUS_RECURRENCY * Constants.DEFAULT_S3_DELAY_START > 0 ) {
+        if (recurrency * Constants.DEFAULT_S3_DELAY_START > 0 ) {
             TimerTask task = new TimerTask() {
                 @Override
                 public void run() {
                     syncS3Files();
                 }
             };
-             timer.schedule(task, 1000 * Constants.DEFAULT_S3_DELAY_START, 1000 * Constants.DEFAULT_S3_CONTINUOUS_RECURRENCY); 
+             timer.schedule(task, 1000L * delay, 1000L * recurrency); 
             }
     }        
         public boolean isConnectionWithAWSIsOK() {
             return connectionWithAWSIsOK;
         }
 
-        public void syncS3Files() {
-            LOGGER.info("Starting S3 file sync from bucket: " + Constants.DEFAULT_S3_BUCKET_NAME);
-            s3Client.listObjectsV2(req -> req.bucket(Constants.DEFAULT_S3_BUCKET_NAME).prefix(Constants.DEFAULT_S3_VIDEOS_PATH).delimiter("/"))
-                .thenAccept(response -> {
-                    response.contents().forEach(content -> {
-                        String objectName = content.key();
-                        if (objectName.endsWith(".mp4")) {
-                            String fileName = objectName.substring(Constants.DEFAULT_S3_VIDEOS_PATH.length());
-                            if (!VideoFileUtil.getInstance().isVideoFileDownloaded(fileName)) {
-                                 LOGGER.info("Downloading new file: " + fileName);
-                                 S3Util.getInstance().downloadS3File(fileName);
-                            } else {
-                                LOGGER.fine("File already exists: " + fileName);
-                                VideoFileUtil.getInstance().updateVideoFileList(fileName);
-                            }
-                        }
-                    });
-                    this.connectionWithAWSIsOK = true;
-                    LOGGER.info("S3 file sync completed successfully");
-            })
-            .exceptionally(error -> {
+    /*
+    *   Lists the videos path, split in s3.list.parallelism key ranges taken from the manifest and paginated
+    *   in parallel, then downloads only what the manifest doesn't have in the same version
+    */
+    public CompletableFuture<Void> syncS3Files() {
+        if (!syncing.compareAndSet(false, true)) {
+            LOGGER.info("Skipping the S3 file sync, the previous one is still running");
+            return CompletableFuture.completedFuture(null);
+        }
+        LOGGER.info("Starting S3 file sync from bucket: " + Constants.DEFAULT_S3_BUCKET_NAME);
+        long startNanos = System.nanoTime();
+        List<String> boundaries = manifest.shardBoundaries(Constants.DEFAULT_S3_LIST_PARALLELISM);
+        ConcurrentLinkedQueue<S3ObjectInfo> listedObjects = new ConcurrentLinkedQueue<>();
+        List<CompletableFuture<Void>> shards = new ArrayList<>();
+        for (int i = 0; i <= boundaries.size(); i++) {
+            String startAfter = i == 0 ? null : boundaries.get(i - 1);
+            String lastKey = i == boundaries.size() ? null : boundaries.get(i);
+            shards.add(listObjects(startAfter, lastKey, null, listedObjects));
+        }
+        CompletableFuture<Void> sync = CompletableFuture.allOf(shards.toArray(new CompletableFuture<?>[0]))
+            .thenRun(() -> {
+                this.connectionWithAWSIsOK = true;
+                applyListing(listedObjects, startNanos);
+            });
+        sync.whenComplete((done, error) -> {
+            syncing.set(false);
+            if (error != null) {
                 LOGGER.log(Level.SEVERE, String.format("Error listing objects from the bucket [%s]: %s",Constants.DEFAULT_S3_BUCKET_NAME, error.getMessage()));
                 this.connectionWithAWSIsOK = false;
-                return null;
+            }
+        });
+        return sync;
+    }
+
+    /*
+    *   One key range, (startAfter, lastKey], page after page
+    */
+    private CompletableFuture<Void> listObjects(String startAfter, String lastKey, String continuationToken, Queue<S3ObjectInfo> listedObjects) {
+        return listObjectsMetrics.record(System.nanoTime(), s3Client.listObjectsV2(req -> {
+                req.bucket(Constants.DEFAULT_S3_BUCKET_NAME).prefix(Constants.DEFAULT_S3_VIDEOS_PATH).delimiter("/");
+                if (continuationToken != null) {
+                    req.continuationToken(continuationToken);
+                } else if (startAfter != null) {
+                    req.startAfter(startAfter);
+                }
+            }))
+            .thenCompose(response -> {
+                for (S3Object content : response.contents()) {
+                    if (lastKey != null && content.key().compareTo(lastKey) > 0) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    listedObjects.add(new S3ObjectInfo(content.key(), content.size(), content.eTag(),
+                        content.lastModified() == null ? 0 : content.lastModified().toEpochMilli()));
+                }
+                if (Boolean.TRUE.equals(response.isTruncated())) {
+                    return listObjects(startAfter, lastKey, response.nextContinuationToken(), listedObjects);
+                }
+                return CompletableFuture.completedFuture(null);
+            });
+    }
+
+    /*
+    *   Compares the listing with the manifest: unchanged objects cost a map lookup, files already on disk that
+    *   were written from the listed version are adopted (e.g. after the manifest was lost), the rest is downloaded
+    */
+    private void applyListing(Collection<S3ObjectInfo> listedObjects, long startNanos) {
+        Set<String> listedKeys = new HashSet<>();
+        List<String> changedKeys = new ArrayList<>();
+        for (S3ObjectInfo object : listedObjects) {
+            String key = object.getKey();
+            String fileName = key.substring(Constants.DEFAULT_S3_VIDEOS_PATH.length());
+            if (!fileName.endsWith(".mp4") && !fileName.endsWith(".json")) {
+                continue;
+            }
+            listedKeys.add(key);
+            if (fileName.endsWith(".mp4")) {
+                remoteVideos.put(fileName, object);
+            }
+            S3ObjectInfo knownObject = manifest.get(key);
+            if (object.isSameVersion(knownObject)) {
+                continue;
+            }
+            Path localFile = Paths.get(VideoFileUtil.getInstance().getDefaultVideoFilePath(), fileName);
+            if (knownObject == null && S3Manifest.isSourceOf(localFile, object)) {
+                manifest.put(object);
+                if (fileName.endsWith(".mp4") && VideoFileUtil.getInstance().isVideoFileDownloaded(fileName)) {
+                    VideoFileUtil.getInstance().updateVideoFileList(fileName);
+                }
+                continue;
+            }
+            if (!downloadManager.isDownloading(key) && !VideoFileUtil.getInstance().isVideoFileIngesting(fileName)) {
+                changedKeys.add(key);
+            }
+        }
+        remoteVideos.keySet().removeIf(videoName -> !listedKeys.contains(Constants.DEFAULT_S3_VIDEOS_PATH.concat(videoName)));
+        int removed = 0;
+        for (String key : manifest.keys()) {
+            if (!listedKeys.contains(key)) {
+                // the local files are kept, the video stays available
+                manifest.remove(key);
+                removed++;
+            }
+        }
+        for (String key : changedKeys) {
+            refreshS3Object(key);
+        }
+        manifest.setListedAt(System.currentTimeMillis());
+        manifest.saveIfDirty();
+        LOGGER.info(String.format("S3 file sync listed %d objects in %d ms: %d new or changed, %d removed",
+            listedKeys.size(), (System.nanoTime() - startNanos) / 1000000, changedKeys.size(), removed));
+    }
+
+    public S3DownloadManager getDownloadManager() {
+        return downloadManager;
+    }
+
+    public S3Manifest getManifest() {
+        return manifest;
+    }
+
+    public S3BlockReader getBlockReader() {
+        return blockReader;
+    }
+
+    /*
+    *   Size and ETag of a video on S3, from the last listing or else from a HEAD. A video missing on S3 fails
+    *   with a FileNotFoundException, like a missing local file.
+    */
+    public CompletableFuture<S3ObjectInfo> getRemoteVideoInfo(String videoName) {
+        S3ObjectInfo videoInfo = remoteVideos.get(videoName);
+        if (videoInfo != null) {
+            return CompletableFuture.completedFuture(videoInfo);
+        }
+        String key = Constants.DEFAULT_S3_VIDEOS_PATH.concat(videoName);
+        CompletableFuture<S3ObjectInfo> head = new CompletableFuture<>();
+        try {
+            headObjectMetrics.record(System.nanoTime(), s3Client.headObject(req -> req.bucket(Constants.DEFAULT_S3_BUCKET_NAME).key(key)))
+                .whenComplete((response, error) -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    if (cause instanceof S3Exception && ((S3Exception) cause).statusCode() == 404) {
+                        head.completeExceptionally(new FileNotFoundException(key));
+                    } else if (cause != null) {
+                        head.completeExceptionally(cause);
+                    } else {
+                        S3ObjectInfo headInfo = new S3ObjectInfo(key, response.contentLength(), response.eTag(),
+                            response.lastModified() == null ? 0 : response.lastModified().toEpochMilli());
+                        remoteVideos.put(videoName, headInfo);
+                        head.complete(headInfo);
+                    }
+                });
+        } catch (RuntimeException e) {
+            head.completeExceptionally(e);
+        }
+        return head;
+    }
+
+    /*
+    *   Block of a video not downloaded yet, read from S3. Restarts the background download if it isn't running
+    *   (e.g. it failed), and forgets the version when the read fails so the next one looks the object up again.
+    */
+    public CompletableFuture<ByteBuffer> readRemoteVideoBlock(String videoName, S3ObjectInfo videoInfo, long blockIndex) {
+        if (Constants.DEFAULT_S3_READ_THROUGH_DOWNLOAD && !downloadManager.isDownloading(videoInfo.getKey())
+                && !VideoFileUtil.getInstance().isVideoFileIngesting(videoName)
+                && !Files.exists(Paths.get(VideoFileUtil.getInstance().getDefaultVideoFilePath(), videoName))) {
+            downloadS3File(videoName);
+        }
+        CompletableFuture<ByteBuffer> block = blockReader.readBlock(videoInfo, blockIndex);
+        block.exceptionally(error -> {
+            remoteVideos.remove(videoName, videoInfo);
+            return null;
+        });
+        return block;
+    }
+
+    /*
+    *   The downloads of a sync finish one by one, the manifest is written once for a burst of them
+    */
+    private void scheduleManifestSave() {
+        if (manifestSaveScheduled.compareAndSet(false, true)) {
+            timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    manifestSaveScheduled.set(false);
+                    manifest.saveIfDirty();
+                }
+            }, MANIFEST_SAVE_DELAY_MS);
+        }
+    }
+
+    /*
+    *   Downloads the video and its json in parallel, skipping the one already on disk (e.g. the json of a video
+    *   whose download failed), and lists the video once both are there. The video is downloaded next to its final
+    *   name and ingested, see VideoFileUtil.ingestVideoFile.
+    */
+    public CompletableFuture<Void> downloadS3File(String objectName) {
+        return downloadS3Files(objectName, false, false, true);
+    }
+
+    /*
+    *   Fetches an object reported as created or overwritten (the video or its json), replacing the local copy.
+    *   The other file of the pair is only fetched when missing and the video is already there: the worker
+    *   uploads the json before the video, and the video has its own notification.
+    */
+    public CompletableFuture<Void> refreshS3Object(String key) {
+        String fileName = key.substring(Constants.DEFAULT_S3_VIDEOS_PATH.length());
+        boolean isJson = fileName.endsWith(".json");
+        String objectName = isJson ? fileName.replaceAll("\\.json$", ".mp4") : fileName;
+        LOGGER.info("Object changed on S3: " + key);
+        return downloadS3Files(objectName, !isJson, isJson, !isJson)
+            .thenRun(() -> {
+                VideoCacheUtil.getInstance().removeVideoMetadata(objectName);
+                if (!isJson) {
+                    VideoCacheUtil.getInstance().removeVideoBlocks(objectName);
+                }
             });
     }
 
-    public void downloadS3File(String objectName) {
+    private CompletableFuture<Void> downloadS3Files(String objectName, boolean replaceVideo, boolean replaceJson, boolean downloadMissing) {
         Path localVideoPath = Paths.get(VideoFileUtil.getInstance().getDefaultVideoFilePath(),objectName);
         String videoS3FilePath = Constants.DEFAULT_S3_VIDEOS_PATH.concat(objectName);
         String jsonObjectName = objectName.replaceAll("\\.mp4$", ".json");
         Path localJsonPath = Paths.get(VideoFileUtil.getInstance().getDefaultVideoFilePath(),jsonObjectName);
         String jsonS3FilePath = Constants.DEFAULT_S3_VIDEOS_PATH.concat(jsonObjectName);
 
+        boolean fetchVideo = replaceVideo || (downloadMissing && !Files.exists(localVideoPath));
         LOGGER.info("Starting download of video file: " + videoS3FilePath);
-        // download the video file first...
-        s3Client.getObject(req -> req.bucket(Constants.DEFAULT_S3_BUCKET_NAME).key(videoS3FilePath), localVideoPath)
-            .thenAccept(responseOfDownloadVideoFile -> {
-                    LOGGER.info("Video file downloaded successfully, starting JSON file download: " + jsonS3FilePath);
-                    // and then, download async the json file...
-                    s3Client.getObject(req -> req.bucket(Constants.DEFAULT_S3_BUCKET_NAME).key(jsonS3FilePath), localJsonPath)
-                    .thenAccept(response -> {
-                        // and then, if the two files has been downloaded ok, either pre-load the object on the cache or wait for the first usage
-                        if (Constants.DEFAULT_PRELOAD_S3_OBJECTS_ON_CACHE)
-                            try {
-                                LOGGER.info("Preloading video file to cache: " + objectName);
-                                VideoFileUtil.getInstance().loadVideoFromFile(objectName);
-                                this.connectionWithAWSIsOK = true;
-                            } catch (IOException error) {
-                                LOGGER.log(Level.SEVERE, String.format("Error downloading object [%s] from the bucket [%s]: %s", jsonS3FilePath, Constants.DEFAULT_S3_BUCKET_NAME, error.getMessage()));
-                                this.connectionWithAWSIsOK = false;
-                            }
-                        
-                    })
-                    .exceptionally(error -> {
-                        LOGGER.log(Level.SEVERE, String.format("Error downloading object [%s] from the bucket [%s]: %s", jsonS3FilePath, Constants.DEFAULT_S3_BUCKET_NAME, error.getMessage()));
-                        this.connectionWithAWSIsOK = false;
-                        return null;
-                    });
+        CompletableFuture<Void> videoDownload = fetchVideo && (!Constants.DEFAULT_S3_READ_THROUGH || Constants.DEFAULT_S3_READ_THROUGH_DOWNLOAD)
+            ? downloadManager.download(videoS3FilePath, VideoFileUtil.getInstance().getIngestPath(objectName))
+                .thenCompose(videoInfo -> {
+                    manifest.put(videoInfo);
+                    return VideoFileUtil.getInstance().ingestVideoFile(objectName)
+                        .thenApply(videoMetadata -> {
+                            S3Manifest.writeSource(localVideoPath, videoInfo);
+                            return videoMetadata;
+                        });
                 })
-            .exceptionally(error -> {
-                LOGGER.log(Level.SEVERE, String.format("Error downloading object [%s] from the bucket [%s]: %s", videoS3FilePath, Constants.DEFAULT_S3_BUCKET_NAME, error.getMessage()));
-                this.connectionWithAWSIsOK = false;
-                return null;
+                .thenApply(videoMetadata -> (Void) null)
+            : CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> jsonDownload = replaceJson || (downloadMissing && !Files.exists(localJsonPath))
+            ? downloadManager.download(jsonS3FilePath, localJsonPath).thenAccept(jsonInfo -> {
+                manifest.put(jsonInfo);
+                S3Manifest.writeSource(localJsonPath, jsonInfo);
+                VideoFileUtil.getInstance().buildArtifactsAsync(objectName);
+            }) : CompletableFuture.completedFuture(null);
+        if (Constants.DEFAULT_S3_READ_THROUGH && fetchVideo) {
+            // playable as soon as the json is there, the video is read from S3 until its download completes
+            jsonDownload.thenRun(() -> {
+                if (VideoFileUtil.getInstance().isVideoFileAvailable(objectName)) {
+                    VideoFileUtil.getInstance().updateVideoFileList(objectName);
+                }
             });
-    
+        }
+        CompletableFuture<Void> downloads = CompletableFuture.allOf(videoDownload, jsonDownload)
+            .thenRun(() -> {
+                this.connectionWithAWSIsOK = true;
+                scheduleManifestSave();
+                if (!VideoFileUtil.getInstance().isVideoFileDownloaded(objectName)) {
+                    return;
+                }
+                VideoFileUtil.getInstance().updateVideoFileList(objectName);
+                // and then, if the two files has been downloaded ok, either pre-load the object on the cache or wait for the first usage
+                if (Constants.DEFAULT_PRELOAD_S3_OBJECTS_ON_CACHE) {
+                    LOGGER.info("Preloading video file to cache: " + objectName);
+                    VideoCacheUtil.getInstance().getVideoRawDataAsync(objectName)
+                        .exceptionally(error -> {
+                            LOGGER.log(Level.SEVERE, String.format("Error preloading the video [%s] on the cache: %s", objectName, error.getMessage()));
+                            return null;
+                        });
+                }
+            });
+        // the download manager logged which object failed, the next sync or the redelivered notification retries it
+        downloads.exceptionally(error -> {
+            this.connectionWithAWSIsOK = false;
+            return null;
+        });
+        return downloads;
     }
 
 }
@@ -1,37 +1,84 @@
 package awsPrototype.helpers;
 
-import java.util.Collections;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import awsPrototype.metadatas.CallMetrics;
 import awsPrototype.metadatas.Constants;
-import software.amazon.awssdk.auth.credentials.ProcessCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
 import software.amazon.awssdk.services.sqs.SqsAsyncClient;
-import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
 import software.amazon.awssdk.services.sqs.model.Message;
 import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
-import software.amazon.awssdk.services.sqs.model.SqsException;
 
+/*
+*   Receives the S3 event notifications of the bucket and fetches only the objects they report, instead of
+*   listing the bucket. Each of the sqs.concurrency loops long polls, hands the keys to S3Util and polls again
+*   right away; a message is deleted (in one batch per receive) once its objects are downloaded, so a failed
+*   download comes back after the visibility timeout.
+*/
 public class SqsUtil {
 
     private static SqsUtil instance;
+    private static SqsAsyncClient clientOverride;
+    private static final Logger LOGGER = Logger.getLogger(SqsUtil.class.getName());
 
     private final SqsAsyncClient sqsClient;
 
-    private final Timer timer;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong receivedMessages;
+
+    private final AtomicLong deletedMessages;
+
+    private final CallMetrics receiveMessageMetrics;
+
+    private final CallMetrics deleteMessageBatchMetrics;
+
+    private volatile boolean receivingUpdates;
 
     private SqsUtil() {
-        sqsClient = SqsAsyncClient.builder()
+        sqsClient = clientOverride != null ? clientOverride : SqsAsyncClient.builder()
             .credentialsProvider(ProfileCredentialsProvider.builder().build())
             .region(Constants.DEFAULT_SQS_REGION)
             .build();
-        timer = new Timer();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sqs-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        receivedMessages = new AtomicLong();
+        deletedMessages = new AtomicLong();
+        receiveMessageMetrics = MetricsUtil.getInstance().getCallMetrics("sqs", "ReceiveMessage");
+        deleteMessageBatchMetrics = MetricsUtil.getInstance().getCallMetrics("sqs", "DeleteMessageBatch");
+    }
+
+    /*
+    *   Client used instead of the one built from the sqs.* settings, e.g. the in-process stand-in of the load test.
+    *   Only taken into account before the first getInstance.
+    */
+    public static void setClient(SqsAsyncClient client) {
+        clientOverride = client;
     }
 
     public static SqsUtil getInstance() {
-        if (instance == null) 
+        if (instance == null)
             synchronized(SqsUtil.class) {
                 if (instance == null) {
                     instance = new SqsUtil();
@@ -41,36 +88,164 @@ public class SqsUtil {
     }
 
     public void startReceivingUpdates() {
+        if (Constants.DEFAULT_SQS_QUEUE_URL.isEmpty()) {
+            LOGGER.info("No SQS queue configured, new videos are found by listing the bucket");
+            return;
+        }
+        receivingUpdates = true;
+        LOGGER.info(String.format("Receiving S3 notifications from [%s] with %d long polls", Constants.DEFAULT_SQS_QUEUE_URL, Constants.DEFAULT_SQS_CONCURRENCY));
+        for (int i = 0; i < Constants.DEFAULT_SQS_CONCURRENCY; i++) {
+            scheduler.schedule(this::receiveUpdates, Constants.DEFAULT_SQS_DELAY_START, TimeUnit.SECONDS);
+        }
+    }
 
-        if (Constants.DEFAULT_SQS_CONTINUOUS_RECURRENCY * Constants.DEFAULT_SQS_DELAY_START > 0 ) {
-            TimerTask task = new TimerTask() {
-                @Override
-                public void run() {
-                    receiveUpdates();
-                }
-            };
-             timer.schedule(task, 1000 * Constants.DEFAULT_SQS_DELAY_START, 1000 * Constants.DEFAULT_SQS_CONTINUOUS_RECURRENCY); 
-            }
+    /*
+    *   True once the polling loops are started, the bucket listing is then only a safety net
+    */
+    public boolean isReceivingUpdates() {
+        return receivingUpdates;
+    }
+
+    public long getReceivedMessages() {
+        return receivedMessages.get();
+    }
+
+    public long getDeletedMessages() {
+        return deletedMessages.get();
     }
 
     private void receiveUpdates() {
+        ReceiveMessageRequest receiveMessageRequest = ReceiveMessageRequest.builder()
+            .queueUrl(Constants.DEFAULT_SQS_QUEUE_URL)
+            .waitTimeSeconds(Constants.DEFAULT_SQS_WAIT_TIME)
+            .maxNumberOfMessages(Constants.DEFAULT_SQS_MAX_MESSAGES)
+            .build();
         try {
+            // a long poll, its latency is up to sqs.wait.time when the queue is empty
+            receiveMessageMetrics.record(System.nanoTime(), sqsClient.receiveMessage(receiveMessageRequest)).whenComplete((response, error) -> {
+                if (error != null) {
+                    LOGGER.log(Level.SEVERE, String.format("Error receiving messages from [%s]: %s", Constants.DEFAULT_SQS_QUEUE_URL, error.getMessage()));
+                    scheduler.schedule(this::receiveUpdates, Constants.DEFAULT_SQS_CONTINUOUS_RECURRENCY, TimeUnit.SECONDS);
+                    return;
+                }
+                try {
+                    handleMessages(response.messages());
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "Error handling the SQS messages", e);
+                }
+                // the next long poll starts as soon as this one returned
+                scheduler.execute(this::receiveUpdates);
+            });
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, String.format("Error receiving messages from [%s]: %s", Constants.DEFAULT_SQS_QUEUE_URL, e.getMessage()));
+            scheduler.schedule(this::receiveUpdates, Constants.DEFAULT_SQS_CONTINUOUS_RECURRENCY, TimeUnit.SECONDS);
+        }
+    }
 
-            ReceiveMessageRequest receiveMessageRequest = ReceiveMessageRequest.builder()
-                .queueUrl(Constants.DEFAULT_SQS_QUEUE_URL)
-                .waitTimeSeconds(Constants.DEFAULT_SQS_WAIT_TIME)
-                .maxNumberOfMessages(5)
-                .build();
-            sqsClient.receiveMessage(receiveMessageRequest).thenAccept(response->{
+    private void handleMessages(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        receivedMessages.addAndGet(messages.size());
+        List<CompletableFuture<Message>> handledMessages = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            List<CompletableFuture<Void>> downloads = new ArrayList<>();
+            for (String key : parseObjectKeys(message.body())) {
+                downloads.add(S3Util.getInstance().refreshS3Object(key));
+            }
+            // null when a download failed, the message is then left in the queue
+            handledMessages.add(CompletableFuture.allOf(downloads.toArray(new CompletableFuture<?>[0]))
+                .handle((done, error) -> error == null ? message : null));
+        }
+        CompletableFuture.allOf(handledMessages.toArray(new CompletableFuture<?>[0]))
+            .thenRun(() -> {
+                List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+                for (CompletableFuture<Message> handledMessage : handledMessages) {
+                    Message message = handledMessage.join();
+                    if (message != null) {
+                        entries.add(DeleteMessageBatchRequestEntry.builder()
+                            .id(String.valueOf(entries.size()))
+                            .receiptHandle(message.receiptHandle())
+                            .build());
+                    }
+                }
+                if (!entries.isEmpty()) {
+                    deleteMessages(entries);
+                }
+            });
+    }
 
-                List<Message> messages = response.messages();
-                //TODO: not using the messages yet, but lets re-sync from S3...
+    private void deleteMessages(List<DeleteMessageBatchRequestEntry> entries) {
+        deleteMessageBatchMetrics.record(System.nanoTime(), sqsClient.deleteMessageBatch(req -> req.queueUrl(Constants.DEFAULT_SQS_QUEUE_URL).entries(entries)))
+            .whenComplete((response, error) -> {
+                if (error != null) {
+                    LOGGER.log(Level.SEVERE, String.format("Error deleting messages from [%s]: %s", Constants.DEFAULT_SQS_QUEUE_URL, error.getMessage()));
+                    return;
+                }
+                deletedMessages.addAndGet(response.successful().size());
+                if (!response.failed().isEmpty()) {
+                    LOGGER.warning(String.format("%d messages could not be deleted from [%s], they will be received again", response.failed().size(), Constants.DEFAULT_SQS_QUEUE_URL));
+                }
+            });
+    }
 
-                S3Util.getInstance().syncS3Files();
+    /*
+    *   Keys of the videos and jsons created under the videos path, from an S3 event notification
+    *   ({"Records":[{"eventName":"ObjectCreated:Put","s3":{"bucket":{"name":...},"object":{"key":...}}}]}),
+    *   also when it comes wrapped in an SNS notification. Test events and other messages give no key, a bad
+    *   record is skipped and the other records of the event still give theirs.
+    */
+    static Set<String> parseObjectKeys(String body) {
+        Set<String> keys = new LinkedHashSet<>();
+        JsonArray records;
+        try {
+            JsonElement root = JsonParser.parseString(body);
+            if (!root.isJsonObject()) {
+                return keys;
+            }
+            JsonObject event = root.getAsJsonObject();
+            if (event.has("Message") && event.get("Message").isJsonPrimitive()) {
+                JsonElement message = JsonParser.parseString(event.get("Message").getAsString());
+                if (!message.isJsonObject()) {
+                    return keys;
+                }
+                event = message.getAsJsonObject();
+            }
+            if (!event.has("Records") || !event.get("Records").isJsonArray()) {
+                return keys;
+            }
+            records = event.getAsJsonArray("Records");
+        } catch (RuntimeException e) {
+            LOGGER.warning("Ignoring a message that is not an S3 event: " + e.getMessage());
+            return keys;
+        }
+        for (JsonElement recordElement : records) {
+            try {
+                String key = parseObjectKey(recordElement);
+                if (key != null) {
+                    keys.add(key);
+                }
+            } catch (RuntimeException | UnsupportedEncodingException e) {
+                LOGGER.warning("Ignoring a record that is not an S3 event record: " + e.getMessage());
+            }
+        }
+        return keys;
+    }
 
-            });
-        } catch (SqsException e) {
-            e.printStackTrace();
+    private static String parseObjectKey(JsonElement recordElement) throws UnsupportedEncodingException {
+        JsonObject record = recordElement.getAsJsonObject();
+        if (!record.has("s3") || (record.has("eventName") && !record.get("eventName").getAsString().startsWith("ObjectCreated"))) {
+            return null;
+        }
+        JsonObject s3 = record.getAsJsonObject("s3");
+        String bucket = s3.getAsJsonObject("bucket").get("name").getAsString();
+        // keys come url encoded, with '+' for the spaces
+        String key = URLDecoder.decode(s3.getAsJsonObject("object").get("key").getAsString(), "UTF-8");
+        String fileName = key.startsWith(Constants.DEFAULT_S3_VIDEOS_PATH) ? key.substring(Constants.DEFAULT_S3_VIDEOS_PATH.length()) : null;
+        if (bucket.equals(Constants.DEFAULT_S3_BUCKET_NAME) && fileName != null && !fileName.contains("/")
+                && (fileName.endsWith(".mp4") || fileName.endsWith(".json"))) {
+            return key;
         }
+        return null;
     }
 }
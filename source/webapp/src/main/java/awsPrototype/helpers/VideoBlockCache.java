@@ -0,0 +1,352 @@
+package awsPrototype.helpers;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import awsPrototype.metadatas.Constants;
+import awsPrototype.metadatas.VideoBlockStats;
+import awsPrototype.metadatas.VideoVersion;
+
+/*
+*   Video bytes cached in blocks of blockSize bytes aligned on the block size, keyed by video and block index,
+*   so only the parts of the videos that are watched stay in memory. The cache is weighted by bytes and admits
+*   a block only if it is used at least as often as the one it would evict, which keeps the header and the
+*   beginning of the popular videos while a scrub through a long recording passes by.
+*   A block is read from the downloaded file on the executor threads, or from S3 while the video downloads
+*   (s3.read.through); concurrent readers of a block share one read. With memory.map.video.files a block of a
+*   downloaded file is a slice of a mapping of the file, so its bytes are in the page cache, not on the heap.
+*   Prefetched blocks are read on their own executor, a few at a time, and only while the foreground reads
+*   don't keep all the loader threads busy; a request arriving meanwhile joins the prefetch instead of reading
+*   the block again, and moves it to the read executor if the prefetch thread hasn't started it.
+*/
+public class VideoBlockCache {
+
+    private final int blockSize;
+    private final ConcurrentLRUCache<BlockKey, ByteBuffer> blocks;
+    private final ConcurrentHashMap<BlockKey, CompletableFuture<ByteBuffer>> loadingBlocks;
+    private final ConcurrentHashMap<BlockKey, PrefetchTask> queuedPrefetches;
+    private final ConcurrentHashMap<String, VideoBlockStats> videoStats;
+    private final ConcurrentHashMap<String, MappedVideo> mappedVideos;
+    private final Executor fileReadExecutor;
+    private final Executor prefetchExecutor;
+    private final Semaphore prefetchPermits;
+    private final AtomicInteger foregroundLoads;
+
+    public VideoBlockCache(int blockSize, long maximumBytes, Executor fileReadExecutor, Executor prefetchExecutor) {
+        this.blockSize = blockSize;
+        this.blocks = new ConcurrentLRUCache<BlockKey, ByteBuffer>(maximumBytes, (blockKey, block) -> block.capacity());
+        MetricsUtil.getInstance().registerCache("video_blocks", blocks);
+        this.loadingBlocks = new ConcurrentHashMap<>();
+        this.queuedPrefetches = new ConcurrentHashMap<>();
+        this.videoStats = new ConcurrentHashMap<>();
+        this.mappedVideos = new ConcurrentHashMap<>();
+        this.fileReadExecutor = fileReadExecutor;
+        this.prefetchExecutor = prefetchExecutor;
+        this.prefetchPermits = new Semaphore(Constants.PREFETCH_MAX_IN_FLIGHT);
+        this.foregroundLoads = new AtomicInteger();
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /*
+    *   Size of the downloaded file, or of the S3 object while it downloads. An unknown video fails with a
+    *   FileNotFoundException.
+    */
+    public CompletableFuture<Long> getVideoSizeAsync(String videoName) {
+        return getVideoVersionAsync(videoName).thenApply(VideoVersion::getSize);
+    }
+
+    /*
+    *   Size and validators of the downloaded file, or of the S3 object while it downloads
+    */
+    public CompletableFuture<VideoVersion> getVideoVersionAsync(String videoName) {
+        if (!isValidVideoName(videoName)) {
+            return failed(new FileNotFoundException(String.valueOf(videoName)));
+        }
+        VideoFileUtil videoFileUtil = VideoFileUtil.getInstance();
+        File fileVideo = new File(videoFileUtil.getDefaultVideoFilePath(), videoName);
+        try {
+            // one stat for the type, size and time, it is checked again after each block read
+            BasicFileAttributes attributes = Files.readAttributes(fileVideo.toPath(), BasicFileAttributes.class);
+            if (attributes.isRegularFile()) {
+                return CompletableFuture.completedFuture(VideoVersion.ofFile(attributes.size(), attributes.lastModifiedTime().toMillis()));
+            }
+        } catch (IOException e) {
+            // not downloaded
+        }
+        if (Constants.DEFAULT_S3_READ_THROUGH && videoFileUtil.isVideoFileListed(videoName)) {
+            return S3Util.getInstance().getRemoteVideoInfo(videoName)
+                .thenApply(videoInfo -> new VideoVersion(videoInfo.getSize(), videoInfo.getEtag(), videoInfo.getLastModified()));
+        }
+        return failed(new FileNotFoundException(fileVideo.getAbsolutePath()));
+    }
+
+    /*
+    *   Read-only view of the block starting at blockIndex * blockSize, the last block of a video is shorter
+    */
+    public CompletableFuture<ByteBuffer> getBlockAsync(String videoName, long blockIndex) {
+        VideoBlockStats stats = videoStats.computeIfAbsent(videoName, VideoBlockStats::new);
+        BlockKey blockKey = new BlockKey(videoName, stats.getGeneration(), blockIndex);
+        ByteBuffer block = blocks.get(blockKey);
+        if (block != null) {
+            stats.recordHit();
+            return CompletableFuture.completedFuture(block.duplicate());
+        }
+        CompletableFuture<ByteBuffer> loadingBlock = new CompletableFuture<>();
+        CompletableFuture<ByteBuffer> alreadyLoading = loadingBlocks.putIfAbsent(blockKey, loadingBlock);
+        if (alreadyLoading != null) {
+            stats.recordHit();
+            PrefetchTask prefetch = queuedPrefetches.remove(blockKey);
+            if (prefetch != null) {
+                prefetch.moveTo(fileReadExecutor);
+            }
+            return alreadyLoading.thenApply(ByteBuffer::duplicate);
+        }
+        stats.recordMiss();
+        foregroundLoads.incrementAndGet();
+        loadBlock(videoName, blockIndex, fileReadExecutor, null).whenComplete((loadedBlock, error) -> {
+            foregroundLoads.decrementAndGet();
+            if (loadedBlock != null) {
+                stats.recordLoad(loadedBlock.remaining());
+            }
+            completeLoad(blockKey, loadingBlock, loadedBlock, error);
+        });
+        return loadingBlock.thenApply(ByteBuffer::duplicate);
+    }
+
+    /*
+    *   Reads the block in background if it isn't cached or loading already, unless the foreground reads keep
+    *   the loader threads busy or prefetch.max.in.flight prefetches are running; the block is then skipped
+    */
+    void prefetchBlock(String videoName, long blockIndex) {
+        VideoBlockStats stats = videoStats.computeIfAbsent(videoName, VideoBlockStats::new);
+        BlockKey blockKey = new BlockKey(videoName, stats.getGeneration(), blockIndex);
+        if (blocks.containsKey(blockKey) || loadingBlocks.containsKey(blockKey)
+                || foregroundLoads.get() >= Constants.VIDEO_LOADER_THREADS || !prefetchPermits.tryAcquire()) {
+            return;
+        }
+        CompletableFuture<ByteBuffer> loadingBlock = new CompletableFuture<>();
+        if (loadingBlocks.putIfAbsent(blockKey, loadingBlock) != null) {
+            prefetchPermits.release();
+            return;
+        }
+        loadBlock(videoName, blockIndex, prefetchExecutor, blockKey).whenComplete((loadedBlock, error) -> {
+            queuedPrefetches.remove(blockKey);
+            prefetchPermits.release();
+            if (loadedBlock != null) {
+                stats.recordPrefetch(loadedBlock.remaining());
+            }
+            completeLoad(blockKey, loadingBlock, loadedBlock, error);
+        });
+    }
+
+    /*
+    *   Reads the block on the prefetch thread if it isn't cached or loading already, for the warm-up after a
+    *   start: unlike a prefetch it is never skipped, and unlike a request it isn't counted as a miss
+    */
+    CompletableFuture<ByteBuffer> warmUpBlock(String videoName, long blockIndex) {
+        VideoBlockStats stats = videoStats.computeIfAbsent(videoName, VideoBlockStats::new);
+        BlockKey blockKey = new BlockKey(videoName, stats.getGeneration(), blockIndex);
+        ByteBuffer block = blocks.peek(blockKey);
+        if (block != null) {
+            return CompletableFuture.completedFuture(block);
+        }
+        CompletableFuture<ByteBuffer> loadingBlock = new CompletableFuture<>();
+        CompletableFuture<ByteBuffer> alreadyLoading = loadingBlocks.putIfAbsent(blockKey, loadingBlock);
+        if (alreadyLoading != null) {
+            return alreadyLoading;
+        }
+        loadBlock(videoName, blockIndex, prefetchExecutor, blockKey).whenComplete((loadedBlock, error) -> {
+            queuedPrefetches.remove(blockKey);
+            if (loadedBlock != null) {
+                stats.recordPrefetch(loadedBlock.remaining());
+            }
+            completeLoad(blockKey, loadingBlock, loadedBlock, error);
+        });
+        return loadingBlock;
+    }
+
+    private void completeLoad(BlockKey blockKey, CompletableFuture<ByteBuffer> loadingBlock, ByteBuffer loadedBlock, Throwable error) {
+        if (error != null) {
+            loadingBlocks.remove(blockKey, loadingBlock);
+            loadingBlock.completeExceptionally(error);
+            return;
+        }
+        blocks.put(blockKey, loadedBlock);
+        loadingBlocks.remove(blockKey, loadingBlock);
+        loadingBlock.complete(loadedBlock);
+    }
+
+    /*
+    *   A file read of a prefetch, given its key, is queued as a PrefetchTask a request can move; a read from S3
+    *   doesn't wait on the executor
+    */
+    private CompletableFuture<ByteBuffer> loadBlock(String videoName, long blockIndex, Executor executor, BlockKey prefetchKey) {
+        File fileVideo = new File(VideoFileUtil.getInstance().getDefaultVideoFilePath(), videoName);
+        if (!fileVideo.isFile() && Constants.DEFAULT_S3_READ_THROUGH) {
+            S3Util s3Util = S3Util.getInstance();
+            return s3Util.getRemoteVideoInfo(videoName)
+                .thenCompose(videoInfo -> s3Util.readRemoteVideoBlock(videoName, videoInfo, blockIndex));
+        }
+        CompletableFuture<ByteBuffer> fileRead = new CompletableFuture<>();
+        Runnable read = () -> {
+            try {
+                fileRead.complete(Constants.MEMORY_MAP_VIDEO_FILES ? mapFileBlock(videoName, fileVideo, blockIndex) : readFileBlock(fileVideo, blockIndex));
+            } catch (Throwable e) {
+                fileRead.completeExceptionally(e);
+            }
+        };
+        if (prefetchKey != null) {
+            PrefetchTask prefetch = new PrefetchTask(read, fileRead);
+            queuedPrefetches.put(prefetchKey, prefetch);
+            read = prefetch;
+        }
+        try {
+            executor.execute(read);
+        } catch (RejectedExecutionException e) {
+            fileRead.completeExceptionally(e);
+        }
+        return fileRead;
+    }
+
+    /*
+    *   Slice of the mapping of the file, mapped once per version of the file. A block across two mapped segments,
+    *   when mapped.segment.size isn't a multiple of the block size, is read instead.
+    */
+    private ByteBuffer mapFileBlock(String videoName, File fileVideo, long blockIndex) throws IOException {
+        long fileSize = fileVideo.length();
+        long lastModified = fileVideo.lastModified();
+        MappedVideo mappedVideo = mappedVideos.get(videoName);
+        if (mappedVideo == null || mappedVideo.size != fileSize || mappedVideo.lastModified != lastModified) {
+            mappedVideo = new MappedVideo(VideoFileUtil.getInstance().mapVideoFile(fileVideo), fileSize, lastModified);
+            mappedVideos.put(videoName, mappedVideo);
+        }
+        long position = blockIndex * blockSize;
+        int length = (int) Math.max(0, Math.min(blockSize, mappedVideo.size - position));
+        int segmentSize = Constants.MAPPED_SEGMENT_SIZE;
+        int segment = (int) (position / segmentSize);
+        int offset = (int) (position % segmentSize);
+        if (segment >= mappedVideo.segments.length || offset + length > mappedVideo.segments[segment].capacity()) {
+            return readFileBlock(fileVideo, blockIndex);
+        }
+        ByteBuffer block = mappedVideo.segments[segment].duplicate();
+        block.position(offset).limit(offset + length);
+        return block.slice();
+    }
+
+    private ByteBuffer readFileBlock(File fileVideo, long blockIndex) throws IOException {
+        try (FileChannel channel = FileChannel.open(fileVideo.toPath(), StandardOpenOption.READ)) {
+            long position = blockIndex * blockSize;
+            ByteBuffer block = ByteBuffer.allocate((int) Math.max(0, Math.min(blockSize, channel.size() - position)));
+            while (block.hasRemaining()) {
+                if (channel.read(block, position + block.position()) < 0) {
+                    break;
+                }
+            }
+            block.flip();
+            return block.asReadOnlyBuffer();
+        }
+    }
+
+    /*
+    *   The video changed, its cached blocks are of the previous version
+    */
+    public void invalidate(String videoName) {
+        VideoBlockStats stats = videoStats.get(videoName);
+        if (stats != null) {
+            stats.nextGeneration();
+        }
+        mappedVideos.remove(videoName);
+    }
+
+    public List<VideoBlockStats> getVideoStats() {
+        return new ArrayList<>(videoStats.values());
+    }
+
+    public int size() {
+        return blocks.size();
+    }
+
+    public long weight() {
+        return blocks.weight();
+    }
+
+    public long maximumWeight() {
+        return blocks.maximumWeight();
+    }
+
+    public long evictionCount() {
+        return blocks.evictionCount();
+    }
+
+    private static boolean isValidVideoName(String videoName) {
+        return videoName != null && !videoName.isEmpty() && !videoName.contains("/") && !videoName.contains("\\") && !videoName.contains("..");
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /*
+    *   Mapping of a downloaded file, with the size and modification time of the version it maps
+    */
+    private static final class MappedVideo {
+        final ByteBuffer[] segments;
+        final long size;
+        final long lastModified;
+
+        MappedVideo(ByteBuffer[] segments, long size, long lastModified) {
+            this.segments = segments;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static final class BlockKey {
+        final String videoName;
+        final int generation;
+        final long blockIndex;
+
+        BlockKey(String videoName, int generation, long blockIndex) {
+            this.videoName = videoName;
+            this.generation = generation;
+            this.blockIndex = blockIndex;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey blockKey = (BlockKey) other;
+            return blockIndex == blockKey.blockIndex && generation == blockKey.generation && videoName.equals(blockKey.videoName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * videoName.hashCode() + generation) + Long.hashCode(blockIndex);
+        }
+    }
+
+}
@@ -2,6 +2,15 @@ package awsPrototype.helpers;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import awsPrototype.metadatas.Constants;
 import awsPrototype.metadatas.VideoRawData;
@@ -12,8 +21,49 @@ public class VideoCacheUtil {
     
     private final ConcurrentLRUCache<String,VideoRawData> videoCache;
 
+    private final ConcurrentHashMap<String,CompletableFuture<VideoRawData>> loadingVideos;
+
+    private final ConcurrentHashMap<String,PrefetchTask> queuedPrefetches;
+
+    private final ThreadPoolExecutor loaderExecutor;
+
+    private final ThreadPoolExecutor prefetchExecutor;
+
+    private final VideoBlockCache videoBlockCache;
+
+    private final VideoPrefetcher videoPrefetcher;
+
     private VideoCacheUtil() {
-        this.videoCache = new ConcurrentLRUCache<String,VideoRawData>(Constants.MAX_VIDEO_CACHE_ENTRIES);
+        if (Constants.MAX_VIDEO_CACHE_BYTES > 0) {
+            this.videoCache = new ConcurrentLRUCache<String,VideoRawData>(Constants.MAX_VIDEO_CACHE_BYTES, (videoName, videoRawData) -> videoRawData.getWeight());
+        } else {
+            this.videoCache = new ConcurrentLRUCache<String,VideoRawData>(Constants.MAX_VIDEO_CACHE_ENTRIES);
+        }
+        MetricsUtil.getInstance().registerCache("video_json", videoCache);
+        this.loadingVideos = new ConcurrentHashMap<String,CompletableFuture<VideoRawData>>();
+        this.queuedPrefetches = new ConcurrentHashMap<String,PrefetchTask>();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.loaderExecutor = new ThreadPoolExecutor(Constants.VIDEO_LOADER_THREADS, Constants.VIDEO_LOADER_THREADS, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(Constants.VIDEO_LOADER_QUEUE_SIZE),
+            runnable -> {
+                Thread thread = new Thread(runnable, "video-loader-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        // a single low priority thread, a prefetch that finds its queue full is skipped
+        this.prefetchExecutor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(Constants.PREFETCH_QUEUE_SIZE),
+            runnable -> {
+                Thread thread = new Thread(runnable, "video-prefetch");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        this.videoBlockCache = new VideoBlockCache(Constants.BLOCK_SIZE, Constants.VIDEO_BLOCK_CACHE_BYTES, loaderExecutor, prefetchExecutor);
+        this.videoPrefetcher = new VideoPrefetcher(videoBlockCache,
+            Paths.get(VideoFileUtil.getInstance().getDefaultVideoFilePath(), Constants.POPULARITY_FILE_NAME));
+        videoPrefetcher.start();
     }
     
     public static VideoCacheUtil getInstance() {
@@ -27,21 +77,167 @@ public class VideoCacheUtil {
         return instance;
     }
 
+    /*
+    *   Blocking version of getVideoRawDataAsync, for callers that aren't serving a request
+    */
     public VideoRawData getVideoRawData(String videoName) throws FileNotFoundException, IOException {
-        if (!videoCache.containsKey(videoName)) {
-            VideoFileUtil.getInstance().loadVideoFromFile(videoName);
+        try {
+            return getVideoRawDataAsync(videoName).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /*
+    *   Returns the cached video, or the load in progress for it. Loads run on the video-loader threads and there is
+    *   at most one per video, every concurrent caller gets the same future. A prefetch of the video the prefetch
+    *   thread hasn't started is moved to the loader threads, so the request doesn't wait behind the other prefetches.
+    */
+    public CompletableFuture<VideoRawData> getVideoRawDataAsync(String videoName) {
+        CompletableFuture<VideoRawData> loadingVideo = new CompletableFuture<VideoRawData>();
+        if (videoName == null) {
+            loadingVideo.completeExceptionally(new FileNotFoundException("Missing the video name"));
+            return loadingVideo;
+        }
+        VideoRawData videoRawData = videoCache.get(videoName);
+        if (videoRawData != null) {
+            loadingVideo.complete(videoRawData);
+            return loadingVideo;
+        }
+        CompletableFuture<VideoRawData> alreadyLoading = loadingVideos.putIfAbsent(videoName, loadingVideo);
+        if (alreadyLoading != null) {
+            PrefetchTask prefetch = queuedPrefetches.remove(videoName);
+            if (prefetch != null) {
+                prefetch.moveTo(loaderExecutor);
+            }
+            return alreadyLoading;
+        }
+        try {
+            loaderExecutor.execute(() -> loadVideo(videoName, loadingVideo));
+        } catch (RejectedExecutionException e) {
+            loadingVideos.remove(videoName, loadingVideo);
+            loadingVideo.completeExceptionally(e);
+        }
+        return loadingVideo;
+    }
+
+    /*
+    *   Loads the json of the video in background, on the prefetch thread, if it isn't cached or loading and there
+    *   are fewer loads in progress than video.loader.threads; otherwise it is left to the first usage
+    */
+    public void prefetchVideoRawData(String videoName) {
+        if (videoCache.containsKey(videoName) || loadingVideos.containsKey(videoName)
+                || loadingVideos.size() >= Constants.VIDEO_LOADER_THREADS) {
+            return;
+        }
+        CompletableFuture<VideoRawData> loadingVideo = new CompletableFuture<VideoRawData>();
+        if (loadingVideos.putIfAbsent(videoName, loadingVideo) != null) {
+            return;
+        }
+        queuePrefetch(videoName, loadingVideo);
+    }
+
+    /*
+    *   Returns the cached video, or the load in progress for it, queued on the prefetch thread for the warm-up
+    *   after a start: unlike a prefetch it isn't skipped when the loader threads are busy, and a request for the
+    *   video moves it to the loader threads
+    */
+    CompletableFuture<VideoRawData> warmUpVideoRawData(String videoName) {
+        VideoRawData videoRawData = videoCache.peek(videoName);
+        if (videoRawData != null) {
+            return CompletableFuture.completedFuture(videoRawData);
+        }
+        CompletableFuture<VideoRawData> loadingVideo = new CompletableFuture<VideoRawData>();
+        CompletableFuture<VideoRawData> alreadyLoading = loadingVideos.putIfAbsent(videoName, loadingVideo);
+        if (alreadyLoading != null) {
+            return alreadyLoading;
+        }
+        queuePrefetch(videoName, loadingVideo);
+        return loadingVideo;
+    }
+
+    private void queuePrefetch(String videoName, CompletableFuture<VideoRawData> loadingVideo) {
+        PrefetchTask prefetch = new PrefetchTask(() -> loadVideo(videoName, loadingVideo), loadingVideo);
+        queuedPrefetches.put(videoName, prefetch);
+        loadingVideo.whenComplete((videoRawData, error) -> {
+            queuedPrefetches.remove(videoName, prefetch);
+            // a moved load the loader threads rejected never ran
+            loadingVideos.remove(videoName, loadingVideo);
+        });
+        try {
+            prefetchExecutor.execute(prefetch);
+        } catch (RejectedExecutionException e) {
+            loadingVideos.remove(videoName, loadingVideo);
+            loadingVideo.completeExceptionally(e);
+        }
+    }
+
+    private void loadVideo(String videoName, CompletableFuture<VideoRawData> loadingVideo) {
+        try {
+            // a load may have finished between the cache miss and the registration of this one
+            VideoRawData videoRawData = videoCache.peek(videoName);
+            if (videoRawData == null) {
+                VideoRawData loadedVideo = VideoFileUtil.getInstance().loadVideoFromFile(videoName);
+                // cached only while the load is still registered: a json removed meanwhile may be the old one
+                loadingVideos.computeIfPresent(videoName, (name, registeredLoad) -> {
+                    if (registeredLoad != loadingVideo) {
+                        return registeredLoad;
+                    }
+                    videoCache.put(name, loadedVideo);
+                    return null;
+                });
+                videoRawData = loadedVideo;
+            }
+            loadingVideos.remove(videoName, loadingVideo);
+            // the loaded entry may already be evicted if it doesn't fit in the cache, so callers get it directly
+            loadingVideo.complete(videoRawData);
+        } catch (Throwable e) {
+            loadingVideos.remove(videoName, loadingVideo);
+            loadingVideo.completeExceptionally(e);
         }
-        return videoCache.get(videoName);
     }
 
     public void addVideoMetadata(String videoName, VideoRawData videoMetadata) {
         videoCache.put(videoName, videoMetadata);
     }
 
+    /*
+    *   Also forgets the load in progress, which may read the json being replaced: its callers still get it, but
+    *   it isn't cached and the next request loads the json again
+    */
     public void removeVideoMetadata(String videoName) {
+        loadingVideos.remove(videoName);
+        queuedPrefetches.remove(videoName);
         videoCache.remove(videoName);
     }
 
+    /*
+    *   The video bytes, cached by block apart from the json and what is derived from it
+    */
+    public VideoBlockCache getVideoBlockCache() {
+        return videoBlockCache;
+    }
+
+    public VideoPrefetcher getVideoPrefetcher() {
+        return videoPrefetcher;
+    }
+
+    /*
+    *   The json cache and the block cache are both below warm.up.cache.fraction of their budget, the rest is
+    *   left to the videos requested once the service runs
+    */
+    public boolean hasWarmUpRoom() {
+        return videoCache.weight() < videoCache.maximumWeight() * Constants.WARM_UP_CACHE_FRACTION
+            && videoBlockCache.weight() < videoBlockCache.maximumWeight() * Constants.WARM_UP_CACHE_FRACTION;
+    }
+
+    public void removeVideoBlocks(String videoName) {
+        videoBlockCache.invalidate(videoName);
+    }
+
     public boolean containsVideoMetadata(String videoName) {
         return videoCache.containsKey(videoName);
     }
@@ -50,6 +246,17 @@ public class VideoCacheUtil {
         return videoCache.size();
     }
 
+    /*
+    *   Current weight of the json cache, in bytes when max.video.cache.bytes is set, otherwise the number of entries
+    */
+    public long getVideoCacheWeight() {
+        return videoCache.weight();
+    }
+
+    public long getVideoCacheEvictionCount() {
+        return videoCache.evictionCount();
+    }
+
     public void clearVideoCache() {
         videoCache.clear();
     }
@@ -1,20 +1,38 @@
 package awsPrototype.helpers;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.rapidoid.log.Log;
 
 import awsPrototype.metadatas.Constants;
+import awsPrototype.metadatas.S3ObjectInfo;
+import awsPrototype.metadatas.VideoDetections;
+import awsPrototype.metadatas.VideoListQuery;
+import awsPrototype.metadatas.VideoMetadata;
 import awsPrototype.metadatas.VideoRawData;
 
 import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
@@ -22,22 +40,47 @@ public class VideoFileUtil {
 
     private static VideoFileUtil instance;
 
-    private final VideoCacheUtil videoCacheUtil;
+    private static final String INGEST_SUFFIX = ".ingest";
+    private static final String FAST_START_SUFFIX = ".faststart";
 
     private String defaultVideoFilePath;
 
     private ConcurrentSkipListMap<String,Object> downloadedVideoFilesList;
 
+    private final AtomicLong videoFilesListVersion = new AtomicLong();
+
+    private final VideoIndex videoIndex;
+
+    private final ConcurrentHashMap<String,Object> indexingVideos;
+
+    private final AtomicInteger pendingIndexings = new AtomicInteger();
+
+    private final ConcurrentHashMap<String,CompletableFuture<VideoMetadata>> ingestingVideos;
+
+    private final ExecutorService ingestExecutor;
+
+    private final ArtifactStore artifactStore;
+
     private boolean isPreInitialized = false;
 
     private VideoFileUtil() {
-        this.videoCacheUtil = VideoCacheUtil.getInstance();
-        
         this.downloadedVideoFilesList = new ConcurrentSkipListMap<String,Object>();
+        this.indexingVideos = new ConcurrentHashMap<String,Object>();
+        this.ingestingVideos = new ConcurrentHashMap<String,CompletableFuture<VideoMetadata>>();
+        // one video rewritten or indexed at a time, a rewrite is a copy of the whole file
+        this.ingestExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "video-ingest");
+            thread.setDaemon(true);
+            return thread;
+        });
         
         setDefaultVideoFilePath(getTempFilePath());
 
         Log.info(String.format("Using the path [%s] as default temp folder for the mp4 and json files.",defaultVideoFilePath));
+
+        this.videoIndex = new VideoIndex(Paths.get(defaultVideoFilePath, Constants.VIDEO_INDEX_FILE_NAME));
+        videoIndex.load();
+        this.artifactStore = new ArtifactStore(Paths.get(defaultVideoFilePath, Constants.ARTIFACT_DIR_NAME), Constants.ARTIFACT_BUILDER_THREADS);
     }
 
     public static VideoFileUtil getInstance() {
@@ -75,47 +118,55 @@ public class VideoFileUtil {
         return defaultVideoFilePath;
     }
 
+    /*
+    *   Lists the videos already in the temp folder and returns: the caches are warmed up in background, most
+    *   popular videos first (see VideoPrefetcher.warmUp), the missing or stale artifacts are rebuilt (see
+    *   ArtifactStore.sweepAsync), and the embedded sample is copied in background too when missing. The requests
+    *   are served meanwhile, the videos not loaded yet are loaded on their first usage.
+    */
     public void preInitializeDownloadedVideoFilesList() {
         if (!isPreInitialized) {
             isPreInitialized = true;
             if (Constants.PRE_LOAD_DEFAULT_VIDEO_AND_JSON) {
-                try {
-                    streamResourceToFile(Constants.EMBEDED_VIDEO_FILE_PATH, Constants.DEFAULT_EMBEDED_VIDEO_FILE_NAME);
-                    streamResourceToFile(Constants.EMBEDED_JSON_FILE_PATH, Constants.DEFAULT_EMBEDED_JSON_FILE_NAME);
-                } catch (IOException e) {
-                    System.err.println(String.format("Error pre-loading default video and json files: %s", e.getMessage()));
-                }
+                ingestExecutor.execute(() -> {
+                    try {
+                        streamResourceToFile(Constants.EMBEDED_VIDEO_FILE_PATH, Constants.DEFAULT_EMBEDED_VIDEO_FILE_NAME);
+                        streamResourceToFile(Constants.EMBEDED_JSON_FILE_PATH, Constants.DEFAULT_EMBEDED_JSON_FILE_NAME);
+                        addVideoFile(Constants.DEFAULT_EMBEDED_VIDEO_FILE_NAME);
+                    } catch (IOException e) {
+                        System.err.println(String.format("Error pre-loading default video and json files: %s", e.getMessage()));
+                    }
+                });
             }
             File folder = new File(defaultVideoFilePath);
             File[] listOfFiles = folder.listFiles();
+            if (listOfFiles == null) {
+                return;
+            }
             for (File file : listOfFiles) {
                 if (file.isFile()&&file.getName().endsWith(".mp4")) {
-                    downloadedVideoFilesList.put(file.getName(), file.getName());
-                    if (Constants.DEFAULT_PRELOAD_S3_OBJECTS_ON_CACHE)
-                        try {
-                            loadVideoFromFile(file.getName());
-                        } catch (IOException e) {
-                            // TODO: silent, just try and let it goes
-                        }
+                    addVideoFile(file.getName());
                 }
             }
+            Log.info(String.format("Listed %d videos from the temp folder", downloadedVideoFilesList.size()));
+            VideoCacheUtil.getInstance().getVideoPrefetcher().warmUp(listVideoFileNames());
+            artifactStore.sweepAsync(listVideoFileNames(), defaultVideoFilePath);
         }
     }
 
 
+    /*
+    *   Copied to a temporary file and renamed, a copy interrupted by a crash is started over on the next start
+    */
     private void streamResourceToFile(String resourcePath, String targetFileName) throws IOException {
         File outputFile = new File(defaultVideoFilePath, targetFileName);
 
         if (!outputFile.exists()) {
-            // Get input stream from resource
-            BufferedInputStream resourceStream = new BufferedInputStream(
-                VideoFileUtil.class.getResourceAsStream(resourcePath));
- 
-            // Copy resource to file using Java NIO
-            Files.copy(resourceStream, outputFile.toPath());
-            
-            // Close resource stream
-            resourceStream.close();
+            Path temporaryFile = Paths.get(defaultVideoFilePath, targetFileName + ".tmp");
+            try (BufferedInputStream resourceStream = new BufferedInputStream(VideoFileUtil.class.getResourceAsStream(resourcePath))) {
+                Files.copy(resourceStream, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(temporaryFile, outputFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
         }
         
     }    
@@ -127,40 +178,336 @@ public class VideoFileUtil {
 
     }
 
+    /*
+    *   Builds the artifact of the json of the video in background, e.g. once it is downloaded
+    */
+    public void buildArtifactsAsync(String videoName) {
+        artifactStore.buildAsync(videoName, Paths.get(defaultVideoFilePath, getJsonName(videoName)));
+    }
+
+    public ArtifactStore getArtifactStore() {
+        return artifactStore;
+    }
+
+    public int getVideoFileCount() {
+        return downloadedVideoFilesList.size();
+    }
+
     public void updateVideoFileList(String videoName) {
-        downloadedVideoFilesList.put(videoName, videoName);
+        addVideoFile(videoName);
     }
 
-    public void loadVideoFromFile(String videoName) throws IOException, FileNotFoundException {
-        
-        BufferedInputStream bisInStoreVideoMp4;
+    private void addVideoFile(String videoName) {
+        if (downloadedVideoFilesList.put(videoName, videoName) == null) {
+            videoFilesListVersion.incrementAndGet();
+        }
+        indexVideoFileAsync(videoName);
+    }
+
+    /*
+    *   Extracts the metadata of the video in background, on the ingest thread, unless the index has it for the
+    *   files as they are now
+    */
+    private void indexVideoFileAsync(String videoName) {
+        if (videoIndex.isCurrent(videoName, lastModified(videoName), lastModified(getJsonName(videoName)))
+                || indexingVideos.putIfAbsent(videoName, videoName) != null) {
+            return;
+        }
+        pendingIndexings.incrementAndGet();
+        try {
+            ingestExecutor.execute(() -> {
+                try {
+                    indexingVideos.remove(videoName);
+                    indexVideoFile(videoName, null);
+                } catch (Throwable e) {
+                    Log.info(String.format("Could not index the video [%s]: %s", videoName, e.getMessage()));
+                } finally {
+                    if (pendingIndexings.decrementAndGet() == 0) {
+                        videoIndex.saveIfDirty();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            indexingVideos.remove(videoName);
+            pendingIndexings.decrementAndGet();
+        }
+    }
+
+    /*
+    *   Puts the metadata of the files as they are now in the index. The part of the previous metadata whose file
+    *   didn't change is kept, layout is the one of a video just rewritten.
+    */
+    private VideoMetadata indexVideoFile(String videoName, VideoMetadata layout) throws IOException {
+        long videoModifiedAt = lastModified(videoName);
+        long jsonModifiedAt = lastModified(getJsonName(videoName));
+        VideoMetadata previous = videoIndex.get(videoName);
+        VideoMetadata metadata = layout;
+        if (metadata == null && videoModifiedAt > 0) {
+            metadata = Mp4FastStart.inspect(Paths.get(defaultVideoFilePath, videoName), videoName, Constants.MP4_MAX_MOOV_SIZE);
+            if (previous != null && previous.getVideoModifiedAt() == videoModifiedAt) {
+                // same file, whether it was rewritten when downloaded is only known from the previous metadata
+                metadata.setLayout(metadata.getVideoSize(), metadata.getMoovOffset(), metadata.getMoovSize(), metadata.getMdatOffset(), previous.isRelocated());
+            }
+        } else if (metadata == null) {
+            // read from S3 until downloaded, only the size is known
+            metadata = new VideoMetadata(videoName);
+            S3ObjectInfo remoteInfo = Constants.DEFAULT_S3_READ_THROUGH ? S3Util.getInstance().getRemoteVideoInfo(videoName).getNow(null) : null;
+            metadata.setLayout(remoteInfo == null ? 0 : remoteInfo.getSize(), -1, 0, -1, false);
+        }
+        if (previous != null && previous.getJsonModifiedAt() == jsonModifiedAt) {
+            metadata.setDetections(previous.getDetectionCount(), previous.getTrackCount(), previous.getFirstTimestamp(), previous.getLastTimestamp());
+        } else if (jsonModifiedAt > 0) {
+            Path jsonPath = Paths.get(defaultVideoFilePath, getJsonName(videoName));
+            // a json just seen gets its artifact at the same time
+            VideoRawData videoRawData = artifactStore.load(videoName, Files.readAllBytes(jsonPath), jsonModifiedAt);
+            setDetections(metadata, videoRawData.getDetections());
+        }
+        metadata.setModifiedAt(videoModifiedAt, jsonModifiedAt);
+        videoIndex.put(metadata);
+        return metadata;
+    }
+
+    private static void setDetections(VideoMetadata metadata, VideoDetections detections) {
+        BitSet tracks = new BitSet();
+        for (int detection = 0; detection < detections.getDetectionCount(); detection++) {
+            if (detections.getTrackIndex(detection) >= 0) {
+                tracks.set(detections.getTrackIndex(detection));
+            }
+        }
+        long firstTimestamp = Long.MAX_VALUE;
+        long lastTimestamp = Long.MIN_VALUE;
+        for (int timestampIndex = 0; timestampIndex < detections.getTimestampCount(); timestampIndex++) {
+            firstTimestamp = Math.min(firstTimestamp, detections.getTimestamp(timestampIndex));
+            lastTimestamp = Math.max(lastTimestamp, detections.getTimestamp(timestampIndex));
+        }
+        boolean empty = detections.getTimestampCount() == 0;
+        metadata.setDetections(detections.getDetectionCount(), tracks.cardinality(), empty ? 0 : firstTimestamp, empty ? 0 : lastTimestamp);
+    }
+
+    private long lastModified(String fileName) {
+        File file = new File(defaultVideoFilePath, fileName);
+        return file.isFile() ? file.lastModified() : 0;
+    }
+
+    private static String getJsonName(String videoName) {
+        return videoName.replaceAll("\\.mp4$", ".json");
+    }
+
+    /*
+    *   The listed videos matching the query, in its order, up to its limit plus one to tell whether there is a
+    *   next page. Sorted by name the list is read in order from the cursor, otherwise the page is the top of a
+    *   scan kept in a heap of limit + 1 videos.
+    */
+    public List<VideoMetadata> listVideos(VideoListQuery query) {
+        int wanted = query.getLimit() + 1;
+        List<VideoMetadata> page = new ArrayList<>(wanted);
+        if (query.isSortedByName()) {
+            NavigableMap<String,Object> names = query.isDescending() ? downloadedVideoFilesList.descendingMap() : downloadedVideoFilesList;
+            if (query.getCursorName() != null) {
+                names = names.tailMap(query.getCursorName(), false);
+            }
+            for (String videoName : names.keySet()) {
+                VideoMetadata metadata = describeVideo(videoName);
+                if (query.matches(metadata)) {
+                    page.add(metadata);
+                    if (page.size() == wanted) {
+                        break;
+                    }
+                }
+            }
+            return page;
+        }
+        PriorityQueue<VideoMetadata> top = new PriorityQueue<>(wanted, query.getComparator().reversed());
+        for (String videoName : downloadedVideoFilesList.keySet()) {
+            VideoMetadata metadata = describeVideo(videoName);
+            if (query.matches(metadata) && query.isAfterCursor(metadata)) {
+                top.add(metadata);
+                if (top.size() > wanted) {
+                    top.poll();
+                }
+            }
+        }
+        page.addAll(top);
+        page.sort(query.getComparator());
+        return page;
+    }
+
+    /*
+    *   The indexed metadata, or only the name while the video is being indexed
+    */
+    private VideoMetadata describeVideo(String videoName) {
+        VideoMetadata metadata = videoIndex.get(videoName);
+        return metadata != null ? metadata : new VideoMetadata(videoName);
+    }
+
+    /*
+    *   Incremented when the metadata of a video changes
+    */
+    public long getVideoIndexVersion() {
+        return videoIndex.getVersion();
+    }
+
+    /*
+    *   Incremented when a video is added to the list, lets the list response be cached until it changes
+    */
+    public long getVideoFilesListVersion() {
+        return videoFilesListVersion.get();
+    }
+
+    /*
+    *   Reads the json of the video from the temp folder, what is derived from it is mapped from its artifact when
+    *   there is one (see ArtifactStore), caching it is up to VideoCacheUtil. The video itself is read by block
+    *   when served, it only has to be downloaded or readable from S3.
+    */
+    public VideoRawData loadVideoFromFile(String videoName) throws IOException, FileNotFoundException {
+        if (videoName.contains("/") || videoName.contains("\\") || videoName.contains("..")) {
+            throw new FileNotFoundException(videoName);
+        }
         File fileVideo = new File(defaultVideoFilePath,videoName);
-        int bufferSize = (int)fileVideo.length();
-        bisInStoreVideoMp4 = new BufferedInputStream(new FileInputStream(fileVideo));
-        byte[] bufferVideoStream = new byte[bufferSize];
-        bisInStoreVideoMp4.read(bufferVideoStream, 0, bufferSize);
-        bisInStoreVideoMp4.close();
-        
+        if (!isVideoFileAvailable(videoName)) {
+            throw new FileNotFoundException(fileVideo.getAbsolutePath());
+        }
+
         String jsonName = videoName.replaceAll("\\.mp4$", ".json");
-        BufferedInputStream bisInStoreJson;
-        File fileJson = new File(defaultVideoFilePath,jsonName);
-        int bufferJsonSize = (int)fileJson.length();
-        bisInStoreJson = new BufferedInputStream(new FileInputStream(fileJson));
-        byte[] bufferJson = new byte[bufferJsonSize];
-        bisInStoreJson.read(bufferJson, 0, bufferJsonSize);
-        bisInStoreJson.close();
+        Path jsonPath = Paths.get(defaultVideoFilePath,jsonName);
+        byte[] bufferJson = Files.readAllBytes(jsonPath);
+        long jsonLastModified = Files.getLastModifiedTime(jsonPath).toMillis();
+        VideoRawData videoMetadata = artifactStore.load(videoName, bufferJson, jsonLastModified);
 
          // Add to downloaded files list
-         downloadedVideoFilesList.put(videoName, videoName);
+         addVideoFile(videoName);
 
-        VideoRawData videoMetadata = new VideoRawData(bufferVideoStream, bufferSize, videoName, bufferJson);
+        return videoMetadata;
+    }
 
-        videoCacheUtil.addVideoMetadata(videoName, videoMetadata);
+    /*
+    *   Maps the file read-only in segments of MAPPED_SEGMENT_SIZE bytes. The mappings stay valid after the channel
+    *   is closed, and after the file is replaced since downloads and ingests rename a new file over it; they are
+    *   released when the buffers holding them are collected.
+    */
+    ByteBuffer[] mapVideoFile(File fileVideo) throws IOException {
+        try (FileChannel channel = FileChannel.open(fileVideo.toPath(), StandardOpenOption.READ)) {
+            long videoSize = channel.size();
+            int segmentSize = Constants.MAPPED_SEGMENT_SIZE;
+            int segments = (int) Math.max(1, (videoSize + segmentSize - 1) / segmentSize);
+            ByteBuffer[] videoSegments = new ByteBuffer[segments];
+            for (int i = 0; i < segments; i++) {
+                long position = (long) i * segmentSize;
+                videoSegments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentSize, videoSize - position));
+            }
+            return videoSegments;
+        }
     }
 
+    /*
+    *   Both the video and its json are there. Downloads write to ".part" files renamed when complete,
+    *   so an existing file is a complete one.
+    */
     public boolean isVideoFileDownloaded(String videoName) {
         File fileVideo = new File(defaultVideoFilePath,videoName);
-        return fileVideo.exists();
+        File fileJson = new File(defaultVideoFilePath,videoName.replaceAll("\\.mp4$", ".json"));
+        return fileVideo.exists() && fileJson.exists();
+    }
+
+    /*
+    *   The json is there and the video is either downloaded or can be read from S3 meanwhile
+    */
+    public boolean isVideoFileAvailable(String videoName) {
+        if (isVideoFileDownloaded(videoName)) {
+            return true;
+        }
+        return Constants.DEFAULT_S3_READ_THROUGH && new File(defaultVideoFilePath,videoName.replaceAll("\\.mp4$", ".json")).exists();
+    }
+
+    /*
+    *   The video is downloaded, not only readable from S3
+    */
+    public boolean isVideoFileLocal(String videoName) {
+        return new File(defaultVideoFilePath,videoName).isFile();
+    }
+
+    /*
+    *   Where a video is downloaded before ingestVideoFile gives it its final name
+    */
+    public Path getIngestPath(String videoName) {
+        return Paths.get(defaultVideoFilePath, videoName + INGEST_SUFFIX);
+    }
+
+    /*
+    *   Moves a downloaded video from its ingest path to its final name, rewritten with the moov first when it was
+    *   at the end (mp4.fast.start), and records its layout. The file only gets its final name once rewritten, the
+    *   video is read from S3 meanwhile; blocks read from S3 before have the old layout and are dropped.
+    */
+    public CompletableFuture<VideoMetadata> ingestVideoFile(String videoName) {
+        CompletableFuture<VideoMetadata> ingest = new CompletableFuture<VideoMetadata>();
+        CompletableFuture<VideoMetadata> alreadyIngesting = ingestingVideos.putIfAbsent(videoName, ingest);
+        if (alreadyIngesting != null) {
+            return alreadyIngesting;
+        }
+        try {
+            ingestExecutor.execute(() -> {
+                try {
+                    ingest.complete(relocateVideoFile(videoName));
+                } catch (Throwable e) {
+                    ingest.completeExceptionally(e);
+                } finally {
+                    ingestingVideos.remove(videoName, ingest);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            ingestingVideos.remove(videoName, ingest);
+            ingest.completeExceptionally(e);
+        }
+        return ingest;
+    }
+
+    private VideoMetadata relocateVideoFile(String videoName) throws IOException {
+        Path ingestPath = getIngestPath(videoName);
+        Path videoPath = Paths.get(defaultVideoFilePath, videoName);
+        Path fastStartPath = Paths.get(defaultVideoFilePath, videoName + FAST_START_SUFFIX);
+        long startNanos = System.nanoTime();
+        VideoMetadata metadata = null;
+        if (Constants.MP4_FAST_START) {
+            try {
+                metadata = Mp4FastStart.relocate(ingestPath, fastStartPath, videoName, Constants.MP4_MAX_MOOV_SIZE);
+            } catch (IOException | RuntimeException e) {
+                // not an MP4 that can be parsed, it is served as downloaded
+                Log.info(String.format("Could not rewrite the video [%s] for fast start: %s", videoName, e.getMessage()));
+            }
+        }
+        if (metadata != null && metadata.isRelocated()) {
+            Files.move(fastStartPath, videoPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.delete(ingestPath);
+            VideoCacheUtil.getInstance().removeVideoBlocks(videoName);
+            Log.info(String.format("Moved the moov of the video [%s] in front of the media data in %d ms, %d bytes read before playing",
+                videoName, (System.nanoTime() - startNanos) / 1000000, metadata.getStartupBytes()));
+        } else {
+            Files.deleteIfExists(fastStartPath);
+            Files.move(ingestPath, videoPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            if (metadata == null) {
+                metadata = new VideoMetadata(videoName);
+                metadata.setLayout(Files.size(videoPath), -1, 0, -1, false);
+            }
+        }
+        return indexVideoFile(videoName, metadata);
+    }
+
+    /*
+    *   A downloaded video is being moved to its final name
+    */
+    public boolean isVideoFileIngesting(String videoName) {
+        return ingestingVideos.containsKey(videoName);
+    }
+
+    /*
+    *   Metadata of the video from the index, null until it is indexed
+    */
+    public VideoMetadata getVideoMetadata(String videoName) {
+        return videoIndex.get(videoName);
+    }
+
+    public boolean isVideoFileListed(String videoName) {
+        return downloadedVideoFilesList.containsKey(videoName);
     }
 
     public String getFirstVideoFileName() {
@@ -0,0 +1,124 @@
+package awsPrototype.helpers;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.rapidoid.log.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import awsPrototype.metadatas.VideoMetadata;
+
+/*
+*   The metadata of the videos by name, persisted in the temp folder next to them so it is extracted once per
+*   version of the files and not again on every start.
+*/
+public class VideoIndex {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final Gson GSON = new Gson();
+
+    private final Path file;
+    private final ConcurrentSkipListMap<String, VideoMetadata> videos;
+    private final AtomicLong version;
+    private volatile boolean dirty;
+
+    public VideoIndex(Path file) {
+        this.file = file;
+        this.videos = new ConcurrentSkipListMap<>();
+        this.version = new AtomicLong();
+    }
+
+    /*
+    *   Starts empty when the file is missing, unreadable or of another format
+    */
+    public void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            StoredIndex stored = GSON.fromJson(reader, StoredIndex.class);
+            if (stored == null || stored.version != FORMAT_VERSION || stored.videos == null) {
+                Log.info(String.format("Ignoring the video index [%s], written in another format", file));
+                return;
+            }
+            for (VideoMetadata metadata : stored.videos) {
+                videos.put(metadata.getVideoName(), metadata);
+            }
+            version.incrementAndGet();
+            Log.info(String.format("Loaded the video index with %d videos", videos.size()));
+        } catch (IOException | JsonParseException e) {
+            Log.info(String.format("Ignoring the unreadable video index [%s]: %s", file, e.getMessage()));
+        }
+    }
+
+    /*
+    *   Written to a temporary file and renamed, a crash leaves the previous index
+    */
+    public synchronized void saveIfDirty() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        StoredIndex stored = new StoredIndex();
+        stored.version = FORMAT_VERSION;
+        stored.videos = new ArrayList<>(videos.values());
+        Path temporaryFile = Paths.get(file + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+                GSON.toJson(stored, writer);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            dirty = true;
+            Log.info(String.format("Error saving the video index [%s]: %s", file, e.getMessage()));
+        }
+    }
+
+    public VideoMetadata get(String videoName) {
+        return videos.get(videoName);
+    }
+
+    public void put(VideoMetadata metadata) {
+        videos.put(metadata.getVideoName(), metadata);
+        version.incrementAndGet();
+        dirty = true;
+    }
+
+    /*
+    *   The metadata was extracted from the files as they are now
+    */
+    public boolean isCurrent(String videoName, long videoModifiedAt, long jsonModifiedAt) {
+        VideoMetadata metadata = videos.get(videoName);
+        return metadata != null && metadata.getVideoModifiedAt() == videoModifiedAt && metadata.getJsonModifiedAt() == jsonModifiedAt;
+    }
+
+    public Collection<VideoMetadata> values() {
+        return videos.values();
+    }
+
+    /*
+    *   Incremented on every change, lets the list responses be cached until it changes
+    */
+    public long getVersion() {
+        return version.get();
+    }
+
+    private static class StoredIndex {
+        int version;
+        List<VideoMetadata> videos;
+    }
+
+}
@@ -0,0 +1,328 @@
+package awsPrototype.helpers;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.rapidoid.log.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import awsPrototype.metadatas.Constants;
+
+/*
+*   Reads ahead of the requests, through the throttled prefetch of VideoBlockCache:
+*   - a client asking for consecutive blocks of a video (read.ahead.sequential.requests in a row) is reading it
+*     sequentially, the next read.ahead.blocks blocks are read before it asks for them
+*   - the videos opened the most lately, with a popularity halving every popularity.half.life seconds, are the
+*     ones likely to be opened next: their json and first blocks are loaded when the list is requested
+*   The popularity is saved every popularity.save.interval seconds and on shutdown, so after a restart the
+*   warm-up loads the videos in the order they were popular in, until the caches are half full.
+*/
+public class VideoPrefetcher {
+
+    private static final int MAX_TRACKED_STREAMS = 4096;
+    private static final int FORMAT_VERSION = 1;
+    private static final double MIN_SAVED_POPULARITY = 0.01;
+    private static final Gson GSON = new Gson();
+
+    private final VideoBlockCache videoBlockCache;
+    private final ConcurrentLRUCache<String, SequentialStream> streams;
+    private final ConcurrentHashMap<String, Popularity> popularities;
+    private final AtomicLong lastPopularPrefetch;
+    private final Path popularityFile;
+    private volatile boolean popularityDirty;
+
+    public VideoPrefetcher(VideoBlockCache videoBlockCache, Path popularityFile) {
+        this.videoBlockCache = videoBlockCache;
+        this.streams = new ConcurrentLRUCache<String, SequentialStream>(MAX_TRACKED_STREAMS);
+        this.popularities = new ConcurrentHashMap<>();
+        this.lastPopularPrefetch = new AtomicLong();
+        this.popularityFile = popularityFile;
+        loadPopularity();
+    }
+
+    /*
+    *   Saves the popularity every popularity.save.interval seconds and on shutdown
+    */
+    public void start() {
+        if (Constants.POPULARITY_SAVE_INTERVAL > 0) {
+            long interval = Constants.POPULARITY_SAVE_INTERVAL * 1000L;
+            new Timer("popularity-snapshot", true).schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    savePopularity();
+                }
+            }, interval, interval);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::savePopularity, "popularity-snapshot-on-exit"));
+    }
+
+    /*
+    *   A client asked for the blocks firstBlock to lastBlock of the video; the first request of a client for a
+    *   video counts as an open of the video
+    */
+    public void onBlocksRequested(String client, String videoName, long firstBlock, long lastBlock, long videoSize) {
+        String streamKey = client + "|" + videoName;
+        SequentialStream stream = streams.get(streamKey);
+        if (stream == null) {
+            streams.put(streamKey, new SequentialStream(lastBlock));
+            recordOpen(videoName);
+            return;
+        }
+        if (Constants.READ_AHEAD_BLOCKS <= 0) {
+            return;
+        }
+        long readAheadFrom;
+        long readAheadTo;
+        synchronized (stream) {
+            if (firstBlock == stream.lastBlock + 1) {
+                stream.sequentialRequests++;
+            } else if (firstBlock != stream.lastBlock) {
+                // a seek, the read ahead starts over from the new position
+                stream.sequentialRequests = 0;
+                stream.readAheadUntil = -1;
+            }
+            stream.lastBlock = lastBlock;
+            if (stream.sequentialRequests < Constants.READ_AHEAD_SEQUENTIAL_REQUESTS) {
+                return;
+            }
+            long blockCount = (videoSize + videoBlockCache.getBlockSize() - 1) / videoBlockCache.getBlockSize();
+            readAheadFrom = Math.max(lastBlock, stream.readAheadUntil) + 1;
+            readAheadTo = Math.min(lastBlock + Constants.READ_AHEAD_BLOCKS, blockCount - 1);
+            stream.readAheadUntil = Math.max(stream.readAheadUntil, readAheadTo);
+        }
+        for (long blockIndex = readAheadFrom; blockIndex <= readAheadTo; blockIndex++) {
+            videoBlockCache.prefetchBlock(videoName, blockIndex);
+        }
+    }
+
+    public void recordOpen(String videoName) {
+        popularities.computeIfAbsent(videoName, name -> new Popularity()).recordOpen(System.currentTimeMillis());
+        popularityDirty = true;
+    }
+
+    /*
+    *   Prefetches the json and the first prefetch.header.blocks blocks of the prefetch.popular.videos most popular
+    *   videos, at most once every prefetch.interval seconds
+    */
+    public void prefetchPopularVideos() {
+        long now = System.currentTimeMillis();
+        long lastPrefetch = lastPopularPrefetch.get();
+        if (Constants.PREFETCH_POPULAR_VIDEOS <= 0 || now - lastPrefetch < Constants.PREFETCH_INTERVAL * 1000L
+                || !lastPopularPrefetch.compareAndSet(lastPrefetch, now)) {
+            return;
+        }
+        for (String videoName : getPopularVideos(Constants.PREFETCH_POPULAR_VIDEOS)) {
+            VideoCacheUtil.getInstance().prefetchVideoRawData(videoName);
+            videoBlockCache.getVideoSizeAsync(videoName).thenAccept(videoSize -> {
+                long blockCount = (videoSize + videoBlockCache.getBlockSize() - 1) / videoBlockCache.getBlockSize();
+                for (long blockIndex = 0; blockIndex < Math.min(Constants.PREFETCH_HEADER_BLOCKS, blockCount); blockIndex++) {
+                    videoBlockCache.prefetchBlock(videoName, blockIndex);
+                }
+            });
+        }
+    }
+
+    /*
+    *   The listed videos with the highest popularity now, most popular first
+    */
+    public List<String> getPopularVideos(int count) {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Double>> scores = new ArrayList<>();
+        for (Map.Entry<String, Popularity> popularity : popularities.entrySet()) {
+            if (VideoFileUtil.getInstance().isVideoFileListed(popularity.getKey())) {
+                scores.add(new AbstractMap.SimpleEntry<>(popularity.getKey(), popularity.getValue().scoreAt(now)));
+            }
+        }
+        scores.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+        List<String> videoNames = new ArrayList<>(Math.min(count, scores.size()));
+        for (int i = 0; i < scores.size() && i < count; i++) {
+            videoNames.add(scores.get(i).getKey());
+        }
+        return videoNames;
+    }
+
+    /*
+    *   Loads the json and the first prefetch.header.blocks blocks of the videos in background, the most popular
+    *   of the previous run first and then, with preload.s3.objects.on.cache, the other ones by name, until the
+    *   caches have no warm-up room left. The loads are queued on the prefetch thread, which a request can take
+    *   them from, and warm.up.parallelism videos are queued at the same time, so the requests arriving meanwhile
+    *   don't wait behind the warm-up on the loader threads.
+    */
+    public void warmUp(List<String> videoNames) {
+        Set<String> ordered = new LinkedHashSet<>(getPopularVideos(Integer.MAX_VALUE));
+        if (Constants.DEFAULT_PRELOAD_S3_OBJECTS_ON_CACHE) {
+            ordered.addAll(videoNames);
+        }
+        if (ordered.isEmpty() || Constants.WARM_UP_PARALLELISM <= 0) {
+            return;
+        }
+        Iterator<String> queue = ordered.iterator();
+        AtomicInteger warmedUp = new AtomicInteger();
+        AtomicInteger runningWorkers = new AtomicInteger(Constants.WARM_UP_PARALLELISM);
+        long startNanos = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(Constants.WARM_UP_PARALLELISM, runnable -> {
+            Thread thread = new Thread(runnable, "video-warm-up");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        for (int i = 0; i < Constants.WARM_UP_PARALLELISM; i++) {
+            workers.execute(() -> {
+                String videoName;
+                while ((videoName = nextToWarmUp(queue)) != null) {
+                    if (warmUpVideo(videoName)) {
+                        warmedUp.incrementAndGet();
+                    }
+                }
+                if (runningWorkers.decrementAndGet() == 0) {
+                    Log.info(String.format("Warmed up %d of %d videos in %d ms", warmedUp.get(), ordered.size(),
+                        (System.nanoTime() - startNanos) / 1000000));
+                }
+            });
+        }
+        workers.shutdown();
+    }
+
+    private static String nextToWarmUp(Iterator<String> queue) {
+        synchronized (queue) {
+            return queue.hasNext() && VideoCacheUtil.getInstance().hasWarmUpRoom() ? queue.next() : null;
+        }
+    }
+
+    /*
+    *   Blocks until the json and the header blocks are loaded, a video that fails is skipped
+    */
+    private boolean warmUpVideo(String videoName) {
+        try {
+            VideoCacheUtil.getInstance().warmUpVideoRawData(videoName).join();
+            if (VideoFileUtil.getInstance().isVideoFileLocal(videoName)) {
+                long videoSize = videoBlockCache.getVideoSizeAsync(videoName).join();
+                long blockCount = (videoSize + videoBlockCache.getBlockSize() - 1) / videoBlockCache.getBlockSize();
+                for (long blockIndex = 0; blockIndex < Math.min(Constants.PREFETCH_HEADER_BLOCKS, blockCount); blockIndex++) {
+                    videoBlockCache.warmUpBlock(videoName, blockIndex).join();
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            Log.info(String.format("Skipping the warm-up of the video [%s]: %s", videoName, e.getMessage()));
+            return false;
+        }
+    }
+
+    /*
+    *   Starts empty when the file is missing, unreadable or of another format
+    */
+    private void loadPopularity() {
+        if (!Files.exists(popularityFile)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(popularityFile, StandardCharsets.UTF_8)) {
+            PopularitySnapshot snapshot = GSON.fromJson(reader, PopularitySnapshot.class);
+            if (snapshot == null || snapshot.version != FORMAT_VERSION || snapshot.videos == null) {
+                return;
+            }
+            for (Map.Entry<String, Popularity> popularity : snapshot.videos.entrySet()) {
+                popularities.put(popularity.getKey(), popularity.getValue());
+            }
+            Log.info(String.format("Loaded the popularity of %d videos", popularities.size()));
+        } catch (IOException | JsonParseException e) {
+            Log.info(String.format("Ignoring the unreadable popularity snapshot [%s]: %s", popularityFile, e.getMessage()));
+        }
+    }
+
+    /*
+    *   Written to a temporary file and renamed, a crash leaves the previous snapshot
+    */
+    public synchronized void savePopularity() {
+        if (!popularityDirty) {
+            return;
+        }
+        popularityDirty = false;
+        PopularitySnapshot snapshot = new PopularitySnapshot();
+        snapshot.version = FORMAT_VERSION;
+        snapshot.videos = new HashMap<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Popularity> popularity : popularities.entrySet()) {
+            // a video not opened for many half lives is forgotten
+            if (popularity.getValue().scoreAt(now) >= MIN_SAVED_POPULARITY) {
+                snapshot.videos.put(popularity.getKey(), popularity.getValue().copy());
+            }
+        }
+        Path temporaryFile = Paths.get(popularityFile + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+                GSON.toJson(snapshot, writer);
+            }
+            Files.move(temporaryFile, popularityFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            popularityDirty = true;
+            Log.info(String.format("Error saving the popularity snapshot [%s]: %s", popularityFile, e.getMessage()));
+        }
+    }
+
+    private static class PopularitySnapshot {
+        int version;
+        Map<String, Popularity> videos;
+    }
+
+    private static class SequentialStream {
+        long lastBlock;
+        int sequentialRequests;
+        long readAheadUntil = -1;
+
+        SequentialStream(long lastBlock) {
+            this.lastBlock = lastBlock;
+        }
+    }
+
+    /*
+    *   Opens decayed exponentially, so a video opened often a week ago ranks below one opened a few times today
+    */
+    private static class Popularity {
+        private double score;
+        private long updatedAt;
+
+        synchronized void recordOpen(long now) {
+            score = scoreAt(now) + 1;
+            updatedAt = now;
+        }
+
+        synchronized Popularity copy() {
+            Popularity copy = new Popularity();
+            copy.score = score;
+            copy.updatedAt = updatedAt;
+            return copy;
+        }
+
+        synchronized double scoreAt(long now) {
+            if (updatedAt == 0) {
+                return score;
+            }
+            return score * Math.pow(0.5, (now - updatedAt) / (Constants.POPULARITY_HALF_LIFE * 1000.0));
+        }
+    }
+
+}
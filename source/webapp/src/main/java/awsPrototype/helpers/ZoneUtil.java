@@ -0,0 +1,162 @@
+package awsPrototype.helpers;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.rapidoid.log.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import awsPrototype.metadatas.Constants;
+import awsPrototype.metadatas.VideoRawData;
+import awsPrototype.metadatas.Zone;
+import awsPrototype.metadatas.ZoneOccupancy;
+
+/*
+*   The zones drawn by the operators, persisted in the temp folder, and what happened in them. The occupancy of a
+*   zone is computed the first time it is asked for a video, from the detections already parsed and bucketed by
+*   cell when the video was loaded, then cached: adding a zone computes that zone only, and a changed polygon
+*   or json simply doesn't find its old results, which age out of the cache.
+*/
+public class ZoneUtil {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final Gson GSON = new Gson();
+
+    private static ZoneUtil instance;
+
+    private final Path file;
+
+    private final ConcurrentSkipListMap<String,Zone> zones;
+
+    private final ConcurrentLRUCache<String,ZoneOccupancy> occupancies;
+
+    private ZoneUtil() {
+        this.file = Paths.get(VideoFileUtil.getInstance().getDefaultVideoFilePath(), Constants.ZONES_FILE_NAME);
+        this.zones = new ConcurrentSkipListMap<String,Zone>();
+        this.occupancies = new ConcurrentLRUCache<String,ZoneOccupancy>(Constants.ZONE_CACHE_BYTES, (key, occupancy) -> occupancy.getSizeInBytes());
+        MetricsUtil.getInstance().registerCache("zone_occupancy", occupancies);
+        load();
+    }
+
+    public static ZoneUtil getInstance() {
+        if (instance == null) {
+            synchronized (ZoneUtil.class) {
+                if (instance == null) {
+                    instance = new ZoneUtil();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /*
+    *   The zones of the video and of its camera; a zone of the video hides the zone of the camera with its name
+    */
+    public List<Zone> getZones(String videoName) {
+        Map<String,Zone> zonesByName = new LinkedHashMap<>();
+        for (Zone zone : zones.values()) {
+            if (zone.appliesTo(videoName) && (zone.getVideoName() != null || !zonesByName.containsKey(zone.getName()))) {
+                zonesByName.put(zone.getName(), zone);
+            }
+        }
+        return new ArrayList<>(zonesByName.values());
+    }
+
+    /*
+    *   Adds the zone or replaces the one of the same owner and name. Fails with an IllegalArgumentException on
+    *   an invalid zone.
+    */
+    public void putZone(Zone zone) {
+        zone.validate();
+        zones.put(zone.getKey(), zone);
+        save();
+    }
+
+    /*
+    *   False when there was no such zone
+    */
+    public boolean deleteZone(String videoName, String camera, String name) {
+        Zone removed = zones.remove(new Zone(name, videoName, camera, null).getKey());
+        if (removed != null) {
+            save();
+        }
+        return removed != null;
+    }
+
+    /*
+    *   What happened in the zone over the video, computed on the first request
+    */
+    public ZoneOccupancy getOccupancy(VideoRawData videoRawData, Zone zone) {
+        String key = videoRawData.getVideoName() + "\n" + videoRawData.getJson().getEtag() + "\n" + zone.getFingerprint();
+        ZoneOccupancy occupancy = occupancies.get(key);
+        if (occupancy == null) {
+            occupancy = ZoneOccupancy.compute(zone, videoRawData.getDetections(), videoRawData.getGrid(), videoRawData.getTracks(), Constants.TRACK_MAX_GAP_MS);
+            occupancies.put(key, occupancy);
+        }
+        return occupancy;
+    }
+
+    /*
+    *   Starts without zones when the file is missing, unreadable or of another format
+    */
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            StoredZones stored = GSON.fromJson(reader, StoredZones.class);
+            if (stored == null || stored.version != FORMAT_VERSION || stored.zones == null) {
+                Log.info(String.format("Ignoring the zones [%s], written in another format", file));
+                return;
+            }
+            for (Zone zone : stored.zones) {
+                try {
+                    zone.validate();
+                    zones.put(zone.getKey(), zone);
+                } catch (IllegalArgumentException e) {
+                    Log.info(String.format("Ignoring an invalid zone [%s]: %s", zone.getName(), e.getMessage()));
+                }
+            }
+            Log.info(String.format("Loaded %d zones", zones.size()));
+        } catch (IOException | JsonParseException e) {
+            Log.info(String.format("Ignoring the unreadable zones [%s]: %s", file, e.getMessage()));
+        }
+    }
+
+    /*
+    *   Written to a temporary file and renamed, a crash leaves the previous zones
+    */
+    private synchronized void save() {
+        StoredZones stored = new StoredZones();
+        stored.version = FORMAT_VERSION;
+        stored.zones = new ArrayList<>(zones.values());
+        Path temporaryFile = Paths.get(file + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+                GSON.toJson(stored, writer);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Log.info(String.format("Error saving the zones [%s]: %s", file, e.getMessage()));
+        }
+    }
+
+    private static class StoredZones {
+        int version;
+        List<Zone> zones;
+    }
+
+}
@@ -0,0 +1,128 @@
+package awsPrototype.metadatas;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+*   Resolved byte range of an HTTP Range request, with the end offset exclusive.
+*   Info in the page https://developer.mozilla.org/en-US/docs/Web/HTTP/Range_requests
+*/
+public class ByteRange {
+
+    private static final Pattern SINGLE_RANGE = Pattern.compile("bytes\\s*=\\s*(\\d*)\\s*-\\s*(\\d*)", Pattern.CASE_INSENSITIVE);
+
+    long start;
+    long end;
+    long totalSize;
+    boolean requested;
+
+    public ByteRange(long start, long end, long totalSize) {
+        this.start = start;
+        this.end = end;
+        this.totalSize = totalSize;
+    }
+
+    /*
+    *   Parses a header like "bytes=0-1023", "bytes=1024-" or "bytes=-500" (the last 500 bytes). A missing header
+    *   selects the whole content, an open ended range selects up to defaultLength bytes, and the end is always
+    *   clamped to the content size. A header that isn't a single range is ignored like a missing one (RFC 9110),
+    *   an inverted range is kept as it is and isn't satisfiable.
+    */
+    public static ByteRange parse(String rangeHeader, long totalSize, long defaultLength) {
+        if (!isSingleRange(rangeHeader)) {
+            return new ByteRange(0, totalSize, totalSize);
+        }
+        Matcher matcher = SINGLE_RANGE.matcher(rangeHeader.trim());
+        matcher.matches();
+        long start;
+        long end;
+        if (matcher.group(1).isEmpty()) {
+            // a suffix of 0 bytes starts at the end, it is not satisfiable
+            long suffixLength = parseOffset(matcher.group(2));
+            start = suffixLength == 0 ? totalSize : Math.max(0, totalSize - suffixLength);
+            end = totalSize;
+        } else if (!matcher.group(2).isEmpty()) {
+            start = parseOffset(matcher.group(1));
+            // the range end in the header is inclusive
+            long last = parseOffset(matcher.group(2));
+            end = last >= totalSize ? totalSize : last + 1;
+        } else {
+            start = parseOffset(matcher.group(1));
+            end = start + defaultLength;
+        }
+        if (end > totalSize || end < 0)
+            end = totalSize;
+        ByteRange range = new ByteRange(start, end, totalSize);
+        range.requested = true;
+        return range;
+    }
+
+    /*
+    *   The header holds a single range that parse honors; any other header gets the whole content
+    */
+    public static boolean isSingleRange(String rangeHeader) {
+        if (rangeHeader == null) {
+            return false;
+        }
+        Matcher matcher = SINGLE_RANGE.matcher(rangeHeader.trim());
+        return matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty());
+    }
+
+    /*
+    *   An offset past what a long holds is past any content
+    */
+    private static long parseOffset(String digits) {
+        try {
+            return Long.parseLong(digits);
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /*
+    *   Shortens the range, e.g. when the content can only be served up to a storage boundary
+    */
+    public void setEnd(long end) {
+        this.end = end;
+    }
+
+    public long getLength() {
+        return end - start;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    /*
+    *   The range comes from a Range header, not from its absence
+    */
+    public boolean isRequested() {
+        return requested;
+    }
+
+    /*
+    *   A requested range has to start within the content and before its end, so none is satisfiable on an
+    *   empty content; without a Range header the whole content is served, even empty
+    */
+    public boolean isSatisfiable() {
+        return !requested || (start < totalSize && start < end);
+    }
+
+    public boolean isComplete() {
+        return start == 0 && end == totalSize;
+    }
+
+    public String toContentRange() {
+        return "bytes " + start + "-" + (end - 1) + "/" + totalSize;
+    }
+
+}
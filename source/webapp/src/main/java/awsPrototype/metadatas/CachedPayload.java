@@ -0,0 +1,100 @@
+package awsPrototype.metadatas;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+/*
+*   A response body prepared once: the bytes, their gzip variant when it is worth it, and the validators.
+*   The ETag is the MD5 of the content, the same value S3 reports for objects uploaded in a single part.
+*/
+public class CachedPayload {
+
+    public static final int GZIP_MIN_SIZE = 1024;
+
+    byte[] content;
+    byte[] gzipContent;
+    String etag;
+    String gzipEtag;
+    long lastModified;
+
+    public CachedPayload(byte[] content, byte[] gzipContent, String etag, long lastModified) {
+        this.content = content;
+        this.gzipContent = gzipContent;
+        this.etag = etag;
+        this.gzipEtag = etag.substring(0, etag.length() - 1) + "-gzip\"";
+        this.lastModified = lastModified;
+    }
+
+    /*
+    *   Hashes and compresses the content; the gzip variant is dropped when it doesn't save anything
+    */
+    public static CachedPayload of(byte[] content, long lastModified) {
+        byte[] gzipContent = null;
+        if (content.length >= GZIP_MIN_SIZE) {
+            gzipContent = gzip(content);
+            if (gzipContent.length >= content.length) {
+                gzipContent = null;
+            }
+        }
+        // HTTP dates have a one second resolution, If-Modified-Since must compare equal
+        return new CachedPayload(content, gzipContent, "\"" + md5Hex(content) + "\"", lastModified / 1000 * 1000);
+    }
+
+    private static byte[] gzip(byte[] content) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(content.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output, 64 * 1024)) {
+            gzip.write(content);
+        } catch (IOException e) {
+            // in-memory streams don't fail
+            throw new IllegalStateException(e);
+        }
+        return output.toByteArray();
+    }
+
+    static String md5Hex(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(content);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public byte[] getGzipContent() {
+        return gzipContent;
+    }
+
+    /*
+    *   Quoted strong ETag of the identity content
+    */
+    public String getEtag() {
+        return etag;
+    }
+
+    /*
+    *   Strong ETag of the gzip variant, a different representation of the same content
+    */
+    public String getGzipEtag() {
+        return gzipEtag;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getSizeInBytes() {
+        return content.length + (gzipContent == null ? 0 : gzipContent.length);
+    }
+
+}
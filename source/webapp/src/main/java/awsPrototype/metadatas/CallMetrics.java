@@ -0,0 +1,52 @@
+package awsPrototype.metadatas;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+*   Calls of one operation of a remote service (e.g. S3 GetObject): their latency and how many failed
+*/
+public class CallMetrics {
+
+    final String service;
+    final String operation;
+    final LongAdder errors;
+    final LatencyHistogram latency;
+
+    public CallMetrics(String service, String operation, long windowNanos) {
+        this.service = service;
+        this.operation = operation;
+        this.errors = new LongAdder();
+        this.latency = new LatencyHistogram(windowNanos);
+    }
+
+    /*
+    *   Records the call once it completes, started at startNanos; returns the call itself
+    */
+    public <T> CompletableFuture<T> record(long startNanos, CompletableFuture<T> call) {
+        call.whenComplete((response, error) -> {
+            latency.record(startNanos, System.nanoTime());
+            if (error != null) {
+                errors.increment();
+            }
+        });
+        return call;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+}
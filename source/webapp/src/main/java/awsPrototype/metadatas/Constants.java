@@ -22,23 +22,79 @@ public class Constants {
     public static Integer BLOCK_SIZE = 1024*1024; //1MB
 
     public static Integer MAX_VIDEO_CACHE_ENTRIES = 100;
+    public static Long MAX_VIDEO_CACHE_BYTES = 0L; //when > 0, evicts by the json and derived data bytes instead of the number of entries
+
+    public static Integer VIDEO_LOADER_THREADS = 4;
+    public static Integer VIDEO_LOADER_QUEUE_SIZE = 1000;
+
+    public static Long VIDEO_BLOCK_CACHE_BYTES = 256 * Constants.MB; //video bytes kept in memory, in blocks of block.size
+    public static Long STATIC_ASSET_CACHE_BYTES = 8 * Constants.MB; //files of resources/static kept in memory with their gzip variant
+    public static Integer VIDEO_STREAM_QUEUED_BLOCKS = 2; //blocks of a video answered without Range queued for the client before reading more
+    public static Boolean MEMORY_MAP_VIDEO_FILES = true; //blocks of the downloaded videos are slices of a mapping of the file instead of heap copies
+    public static Integer MAPPED_SEGMENT_SIZE = 1024*1024*1024; //1GB, a single mapping is limited to 2GB
+
+    public static Integer READ_AHEAD_BLOCKS = 4; //blocks read ahead of a client reading a video sequentially, 0 to disable
+    public static Integer READ_AHEAD_SEQUENTIAL_REQUESTS = 2; //requests for consecutive blocks before reading ahead
+    public static Integer PREFETCH_POPULAR_VIDEOS = 3; //most popular videos whose json and first blocks are prefetched, 0 to disable
+    public static Integer PREFETCH_HEADER_BLOCKS = 2;
+    public static Integer PREFETCH_INTERVAL = 10; //seconds between two prefetches of the popular videos
+    public static Integer PREFETCH_MAX_IN_FLIGHT = 2; //prefetch reads running at the same time, the others are skipped
+    public static Integer PREFETCH_QUEUE_SIZE = 64;
+    public static Integer POPULARITY_HALF_LIFE = 600; //seconds for the popularity of a video to halve
+    public static String POPULARITY_FILE_NAME = "video-popularity.json"; //in the temp folder, the popularity kept across restarts
+    public static Integer POPULARITY_SAVE_INTERVAL = 60; //seconds between two snapshots of the popularity
+    public static Integer WARM_UP_PARALLELISM = 2; //videos warmed up at the same time after the start, queued on the prefetch thread
+    public static Double WARM_UP_CACHE_FRACTION = 0.5; //part of the json and block caches the warm-up fills at most
+
+    public static Boolean MP4_FAST_START = true; //downloaded videos are rewritten with the moov box before the media data
+    public static Long MP4_MAX_MOOV_SIZE = 64 * Constants.MB; //a bigger moov is left in place, it is held in memory while rewriting
+
+    public static String VIDEO_INDEX_FILE_NAME = "video-index.json"; //in the temp folder, the metadata extracted from the videos
+    public static Integer VIDEO_LIST_PAGE_SIZE = 100; //videos per page of the list when the request has no limit
+    public static Integer VIDEO_LIST_MAX_PAGE_SIZE = 1000;
+
+    public static Boolean ARTIFACT_STORE = true; //what is derived from the json is kept on disk and mapped on the next start
+    public static String ARTIFACT_DIR_NAME = "artifacts"; //in the temp folder
+    public static Integer ARTIFACT_BUILDER_THREADS = 2; //low priority threads writing and rebuilding the artifacts
+
+    public static Integer METRICS_WINDOW = 60; //seconds, the latency quantiles of /metrics are of the last one to two windows
+
+    public static Integer HEATMAP_GRID_WIDTH = 32;
+    public static Integer HEATMAP_GRID_HEIGHT = 18;
+    public static Long HEATMAP_BUCKET_MS = 1000L;
+    public static Long HEATMAP_MAX_CELLS = 1024L*1024L; //cumulative grid cells kept per video, the bucket grows to fit
+    public static String HEATMAP_POINT = "center"; //or "footprint", the bottom center of the bounding box
+    public static Long TRACK_MAX_GAP_MS = 2000L; //a track not seen for longer doesn't dwell meanwhile, and leaves its zone
+    public static String ZONES_FILE_NAME = "zones.json"; //in the temp folder, the zones drawn by the operators
+    public static Long ZONE_CACHE_BYTES = 16 * Constants.MB; //per second series of the zones already computed
 
     public static String DEFAULT_TMP_DIR_NAME = "video.analytics.tmp";
 
     public static Region DEFAULT_S3_REGION = Region.US_EAST_1;
     public static Long DEFAULT_S3_MULTIPART_THRESHOLD = 16 * Constants.MB;
     public static Long DEFAULT_S3_MINIMUM_PART_SIZE = 10 * Constants.MB;
+    public static Long DEFAULT_S3_DOWNLOAD_PART_SIZE = 8 * Constants.MB; //ranged GET size for objects above the multipart threshold
+    public static Integer DEFAULT_S3_MAX_CONCURRENT_DOWNLOADS = 8; //GETs in flight across all the downloads
+    public static Integer DEFAULT_S3_MAX_CONCURRENT_BLOCK_READS = 32; //ranged GETs in flight for the videos served from S3, the others wait their turn
+    public static String DEFAULT_S3_ENDPOINT_OVERRIDE = ""; //e.g. http://localhost:9000 for a local S3 compatible server
     public static String DEFAULT_S3_BUCKET_NAME = "heatmap-demo";
     public static String DEFAULT_S3_VIDEOS_PATH = "output/";
     public static Boolean DEFAULT_PRELOAD_S3_OBJECTS_ON_CACHE = false;
     public static Integer DEFAULT_S3_DELAY_START = 1;
-    public static Integer DEFAULT_S3_CONTINUOUS_RECURRENCY = 15;
+    public static Integer DEFAULT_S3_CONTINUOUS_RECURRENCY = 15; //seconds between listings when there are no SQS notifications
+    public static Integer DEFAULT_S3_FULL_SYNC_INTERVAL = 900; //seconds between listings when the SQS notifications are received
+    public static Integer DEFAULT_S3_LIST_PARALLELISM = 4; //key ranges listed in parallel, split from the manifest
+    public static String DEFAULT_S3_MANIFEST_FILE_NAME = "s3-manifest.json"; //in the temp folder, next to the synced files
+    public static Boolean DEFAULT_S3_READ_THROUGH = true; //videos are listed once their json is there and served from S3 until downloaded
+    public static Boolean DEFAULT_S3_READ_THROUGH_DOWNLOAD = true; //keep downloading the read-through videos in background
 
     public static Region DEFAULT_SQS_REGION = Region.US_EAST_1;
     public static String DEFAULT_SQS_QUEUE_URL = "";
     public static Integer DEFAULT_SQS_WAIT_TIME = 20;
     public static Integer DEFAULT_SQS_DELAY_START = 5;
-    public static Integer DEFAULT_SQS_CONTINUOUS_RECURRENCY = 5;
+    public static Integer DEFAULT_SQS_CONTINUOUS_RECURRENCY = 5; //seconds before polling again after a failed receive
+    public static Integer DEFAULT_SQS_CONCURRENCY = 1; //long polls in flight
+    public static Integer DEFAULT_SQS_MAX_MESSAGES = 10;
 
     static {
         Properties props = new Properties();
@@ -55,22 +111,70 @@ public class Constants {
             BLOCK_SIZE = Integer.parseInt(props.getProperty("block.size", BLOCK_SIZE.toString()));
             
             MAX_VIDEO_CACHE_ENTRIES = Integer.parseInt(props.getProperty("max.video.cache.entries", MAX_VIDEO_CACHE_ENTRIES.toString()));
+            MAX_VIDEO_CACHE_BYTES = Long.parseLong(props.getProperty("max.video.cache.bytes", MAX_VIDEO_CACHE_BYTES.toString()));
+            VIDEO_LOADER_THREADS = Integer.parseInt(props.getProperty("video.loader.threads", VIDEO_LOADER_THREADS.toString()));
+            VIDEO_LOADER_QUEUE_SIZE = Integer.parseInt(props.getProperty("video.loader.queue.size", VIDEO_LOADER_QUEUE_SIZE.toString()));
+            VIDEO_BLOCK_CACHE_BYTES = Long.parseLong(props.getProperty("video.block.cache.bytes", VIDEO_BLOCK_CACHE_BYTES.toString()));
+            STATIC_ASSET_CACHE_BYTES = Long.parseLong(props.getProperty("static.asset.cache.bytes", STATIC_ASSET_CACHE_BYTES.toString()));
+            VIDEO_STREAM_QUEUED_BLOCKS = Integer.parseInt(props.getProperty("video.stream.queued.blocks", VIDEO_STREAM_QUEUED_BLOCKS.toString()));
+            MEMORY_MAP_VIDEO_FILES = Boolean.parseBoolean(props.getProperty("memory.map.video.files", MEMORY_MAP_VIDEO_FILES.toString()));
+            MAPPED_SEGMENT_SIZE = Integer.parseInt(props.getProperty("mapped.segment.size", MAPPED_SEGMENT_SIZE.toString()));
+            READ_AHEAD_BLOCKS = Integer.parseInt(props.getProperty("read.ahead.blocks", READ_AHEAD_BLOCKS.toString()));
+            READ_AHEAD_SEQUENTIAL_REQUESTS = Integer.parseInt(props.getProperty("read.ahead.sequential.requests", READ_AHEAD_SEQUENTIAL_REQUESTS.toString()));
+            PREFETCH_POPULAR_VIDEOS = Integer.parseInt(props.getProperty("prefetch.popular.videos", PREFETCH_POPULAR_VIDEOS.toString()));
+            PREFETCH_HEADER_BLOCKS = Integer.parseInt(props.getProperty("prefetch.header.blocks", PREFETCH_HEADER_BLOCKS.toString()));
+            PREFETCH_INTERVAL = Integer.parseInt(props.getProperty("prefetch.interval", PREFETCH_INTERVAL.toString()));
+            PREFETCH_MAX_IN_FLIGHT = Integer.parseInt(props.getProperty("prefetch.max.in.flight", PREFETCH_MAX_IN_FLIGHT.toString()));
+            PREFETCH_QUEUE_SIZE = Integer.parseInt(props.getProperty("prefetch.queue.size", PREFETCH_QUEUE_SIZE.toString()));
+            POPULARITY_HALF_LIFE = Integer.parseInt(props.getProperty("popularity.half.life", POPULARITY_HALF_LIFE.toString()));
+            POPULARITY_FILE_NAME = props.getProperty("popularity.file.name", POPULARITY_FILE_NAME);
+            POPULARITY_SAVE_INTERVAL = Integer.parseInt(props.getProperty("popularity.save.interval", POPULARITY_SAVE_INTERVAL.toString()));
+            WARM_UP_PARALLELISM = Integer.parseInt(props.getProperty("warm.up.parallelism", WARM_UP_PARALLELISM.toString()));
+            WARM_UP_CACHE_FRACTION = Double.parseDouble(props.getProperty("warm.up.cache.fraction", WARM_UP_CACHE_FRACTION.toString()));
+            MP4_FAST_START = Boolean.parseBoolean(props.getProperty("mp4.fast.start", MP4_FAST_START.toString()));
+            MP4_MAX_MOOV_SIZE = Long.parseLong(props.getProperty("mp4.max.moov.size", MP4_MAX_MOOV_SIZE.toString()));
+            VIDEO_INDEX_FILE_NAME = props.getProperty("video.index.file.name", VIDEO_INDEX_FILE_NAME);
+            VIDEO_LIST_PAGE_SIZE = Integer.parseInt(props.getProperty("video.list.page.size", VIDEO_LIST_PAGE_SIZE.toString()));
+            VIDEO_LIST_MAX_PAGE_SIZE = Integer.parseInt(props.getProperty("video.list.max.page.size", VIDEO_LIST_MAX_PAGE_SIZE.toString()));
+            ARTIFACT_STORE = Boolean.parseBoolean(props.getProperty("artifact.store", ARTIFACT_STORE.toString()));
+            ARTIFACT_DIR_NAME = props.getProperty("artifact.dir.name", ARTIFACT_DIR_NAME);
+            ARTIFACT_BUILDER_THREADS = Integer.parseInt(props.getProperty("artifact.builder.threads", ARTIFACT_BUILDER_THREADS.toString()));
+            METRICS_WINDOW = Integer.parseInt(props.getProperty("metrics.window", METRICS_WINDOW.toString()));
+            HEATMAP_GRID_WIDTH = Integer.parseInt(props.getProperty("heatmap.grid.width", HEATMAP_GRID_WIDTH.toString()));
+            HEATMAP_GRID_HEIGHT = Integer.parseInt(props.getProperty("heatmap.grid.height", HEATMAP_GRID_HEIGHT.toString()));
+            HEATMAP_BUCKET_MS = Long.parseLong(props.getProperty("heatmap.bucket.ms", HEATMAP_BUCKET_MS.toString()));
+            HEATMAP_MAX_CELLS = Long.parseLong(props.getProperty("heatmap.max.cells", HEATMAP_MAX_CELLS.toString()));
+            HEATMAP_POINT = props.getProperty("heatmap.point", HEATMAP_POINT);
+            TRACK_MAX_GAP_MS = Long.parseLong(props.getProperty("track.max.gap.ms", TRACK_MAX_GAP_MS.toString()));
+            ZONES_FILE_NAME = props.getProperty("zones.file.name", ZONES_FILE_NAME);
+            ZONE_CACHE_BYTES = Long.parseLong(props.getProperty("zone.cache.bytes", ZONE_CACHE_BYTES.toString()));
             DEFAULT_TMP_DIR_NAME = props.getProperty("tmp.dir.name", DEFAULT_TMP_DIR_NAME);
 
             DEFAULT_S3_REGION = Region.of(props.getProperty("s3.region", DEFAULT_S3_REGION.toString()));
             DEFAULT_S3_MULTIPART_THRESHOLD = Long.parseLong(props.getProperty("s3.multipart.threshold", DEFAULT_S3_MULTIPART_THRESHOLD.toString()));
             DEFAULT_S3_MINIMUM_PART_SIZE = Long.parseLong(props.getProperty("s3.minimum.part.size", DEFAULT_S3_MINIMUM_PART_SIZE.toString()));
+            DEFAULT_S3_DOWNLOAD_PART_SIZE = Long.parseLong(props.getProperty("s3.download.part.size", DEFAULT_S3_DOWNLOAD_PART_SIZE.toString()));
+            DEFAULT_S3_MAX_CONCURRENT_DOWNLOADS = Integer.parseInt(props.getProperty("s3.max.concurrent.downloads", DEFAULT_S3_MAX_CONCURRENT_DOWNLOADS.toString()));
+            DEFAULT_S3_MAX_CONCURRENT_BLOCK_READS = Integer.parseInt(props.getProperty("s3.max.concurrent.block.reads", DEFAULT_S3_MAX_CONCURRENT_BLOCK_READS.toString()));
+            DEFAULT_S3_ENDPOINT_OVERRIDE = props.getProperty("s3.endpoint.override", DEFAULT_S3_ENDPOINT_OVERRIDE);
             DEFAULT_S3_BUCKET_NAME = props.getProperty("s3.bucket.name", DEFAULT_S3_BUCKET_NAME);
             DEFAULT_S3_VIDEOS_PATH = props.getProperty("s3.videos.path", DEFAULT_S3_VIDEOS_PATH);
             DEFAULT_PRELOAD_S3_OBJECTS_ON_CACHE = Boolean.parseBoolean(props.getProperty("preload.s3.objects.on.cache", DEFAULT_PRELOAD_S3_OBJECTS_ON_CACHE.toString()));
-            DEFAULT_S3_DELAY_START = Integer.parseInt(props.getProperty("sqs.delay.start", DEFAULT_S3_DELAY_START.toString()));
-            DEFAULT_S3_CONTINUOUS_RECURRENCY = Integer.parseInt(props.getProperty("sqs.continuous.recurrency", DEFAULT_S3_CONTINUOUS_RECURRENCY.toString()));
+            DEFAULT_S3_DELAY_START = Integer.parseInt(props.getProperty("s3.delay.start", DEFAULT_S3_DELAY_START.toString()));
+            DEFAULT_S3_CONTINUOUS_RECURRENCY = Integer.parseInt(props.getProperty("s3.continuous.recurrency", DEFAULT_S3_CONTINUOUS_RECURRENCY.toString()));
+            DEFAULT_S3_FULL_SYNC_INTERVAL = Integer.parseInt(props.getProperty("s3.full.sync.interval", DEFAULT_S3_FULL_SYNC_INTERVAL.toString()));
+            DEFAULT_S3_LIST_PARALLELISM = Integer.parseInt(props.getProperty("s3.list.parallelism", DEFAULT_S3_LIST_PARALLELISM.toString()));
+            DEFAULT_S3_MANIFEST_FILE_NAME = props.getProperty("s3.manifest.file.name", DEFAULT_S3_MANIFEST_FILE_NAME);
+            DEFAULT_S3_READ_THROUGH = Boolean.parseBoolean(props.getProperty("s3.read.through", DEFAULT_S3_READ_THROUGH.toString()));
+            DEFAULT_S3_READ_THROUGH_DOWNLOAD = Boolean.parseBoolean(props.getProperty("s3.read.through.download", DEFAULT_S3_READ_THROUGH_DOWNLOAD.toString()));
 
             DEFAULT_SQS_REGION = Region.of(props.getProperty("sqs.region", DEFAULT_SQS_REGION.toString()));
             DEFAULT_SQS_QUEUE_URL = props.getProperty("sqs.queue.url", DEFAULT_SQS_QUEUE_URL);
             DEFAULT_SQS_WAIT_TIME = Integer.parseInt(props.getProperty("sqs.wait.time", DEFAULT_SQS_WAIT_TIME.toString()));
             DEFAULT_SQS_DELAY_START = Integer.parseInt(props.getProperty("sqs.delay.start", DEFAULT_SQS_DELAY_START.toString()));
             DEFAULT_SQS_CONTINUOUS_RECURRENCY = Integer.parseInt(props.getProperty("sqs.continuous.recurrency", DEFAULT_SQS_CONTINUOUS_RECURRENCY.toString()));
+            DEFAULT_SQS_CONCURRENCY = Integer.parseInt(props.getProperty("sqs.concurrency", DEFAULT_SQS_CONCURRENCY.toString()));
+            DEFAULT_SQS_MAX_MESSAGES = Integer.parseInt(props.getProperty("sqs.max.messages", DEFAULT_SQS_MAX_MESSAGES.toString()));
 
         } catch (Exception e) {
             System.err.println(String.format("Error loading properties from the file [%s], using default values: %s",PROPERTIES_FILENAME, e.getMessage()));
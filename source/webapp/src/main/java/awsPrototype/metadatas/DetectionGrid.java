@@ -0,0 +1,101 @@
+package awsPrototype.metadatas;
+
+/*
+*   The detections bucketed by grid cell, so the detections in a region of the frame are found without going
+*   through the others: the detections of cell c (row major) are cellDetections[cellOffsets[c]] until
+*   cellOffsets[c+1], in time order. The point of each detection (box center, or bottom center for "footprint",
+*   like the heatmap) and its timestamp index are kept next to it, a zone tests them without the boxes.
+*/
+public class DetectionGrid {
+
+    int gridWidth;
+    int gridHeight;
+    float[] pointX;
+    float[] pointY;
+    int[] timestampIndexes;
+    int[] cellOffsets;
+    int[] cellDetections;
+
+    public static DetectionGrid build(VideoDetections detections, int gridWidth, int gridHeight, String point) {
+        DetectionGrid grid = new DetectionGrid();
+        grid.gridWidth = gridWidth;
+        grid.gridHeight = gridHeight;
+        int detectionCount = detections.getDetectionCount();
+        int cells = gridWidth * gridHeight;
+        boolean footprint = VideoHeatmap.POINT_FOOTPRINT.equals(point);
+        grid.pointX = new float[detectionCount];
+        grid.pointY = new float[detectionCount];
+        grid.timestampIndexes = new int[detectionCount];
+        grid.cellOffsets = new int[cells + 1];
+        int[] cellOfDetection = new int[detectionCount];
+        for (int t = 0; t < detections.getTimestampCount(); t++) {
+            for (int d = detections.getFirstDetection(t); d < detections.getEndDetection(t); d++) {
+                float x = detections.getLeft(d) + detections.getWidth(d) / 2;
+                float y = footprint ? detections.getTop(d) + detections.getHeight(d) : detections.getTop(d) + detections.getHeight(d) / 2;
+                grid.pointX[d] = x;
+                grid.pointY[d] = y;
+                grid.timestampIndexes[d] = t;
+                cellOfDetection[d] = clamp((int) (y * gridHeight), gridHeight) * gridWidth + clamp((int) (x * gridWidth), gridWidth);
+                grid.cellOffsets[cellOfDetection[d] + 1]++;
+            }
+        }
+        for (int c = 0; c < cells; c++) {
+            grid.cellOffsets[c + 1] += grid.cellOffsets[c];
+        }
+        grid.cellDetections = new int[detectionCount];
+        int[] next = new int[cells];
+        System.arraycopy(grid.cellOffsets, 0, next, 0, cells);
+        for (int d = 0; d < detectionCount; d++) {
+            grid.cellDetections[next[cellOfDetection[d]]++] = d;
+        }
+        return grid;
+    }
+
+    private static int clamp(int cell, int size) {
+        return cell < 0 ? 0 : (cell >= size ? size - 1 : cell);
+    }
+
+    public int getGridWidth() {
+        return gridWidth;
+    }
+
+    public int getGridHeight() {
+        return gridHeight;
+    }
+
+    public int getDetectionCount() {
+        return pointX.length;
+    }
+
+    public float getPointX(int detection) {
+        return pointX[detection];
+    }
+
+    public float getPointY(int detection) {
+        return pointY[detection];
+    }
+
+    public int getTimestampIndex(int detection) {
+        return timestampIndexes[detection];
+    }
+
+    public int getFirstCellDetection(int cell) {
+        return cellOffsets[cell];
+    }
+
+    public int getEndCellDetection(int cell) {
+        return cellOffsets[cell + 1];
+    }
+
+    /*
+    *   Detection at an index between getFirstCellDetection and getEndCellDetection of a cell
+    */
+    public int getCellDetection(int index) {
+        return cellDetections[index];
+    }
+
+    public long getSizeInBytes() {
+        return 4L * (pointX.length + pointY.length + timestampIndexes.length + cellOffsets.length + cellDetections.length);
+    }
+
+}
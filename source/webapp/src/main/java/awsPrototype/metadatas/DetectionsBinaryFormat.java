@@ -0,0 +1,214 @@
+package awsPrototype.metadatas;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+*   Compact encoding of VideoDetections, about 5% of the size of the worker json:
+*
+*   "VDB" version(1 byte) objectName(varint length + utf-8) labelCount(varint) and the label names (varint length
+*   + utf-8 each), timestampCount(varint) detectionCount(varint)
+*   then for each timestamp: delta from the previous one (zigzag varint), detection count (varint)
+*   and for each detection: track index (zigzag varint, -1 when unknown), label index + 1 (varint, 0 without
+*   label, only when there are labels), left, top, width, height as signed 16-bit fixed point with 14 fractional
+*   bits, little-endian.
+*/
+public class DetectionsBinaryFormat {
+
+    public static final String MEDIA_TYPE = "application/x-video-detections";
+    public static final int VERSION = 2;
+
+    private static final byte[] MAGIC = { 'V', 'D', 'B' };
+    private static final float FIXED_POINT_SCALE = 1 << 14;
+
+    private DetectionsBinaryFormat() {
+    }
+
+    public static byte[] encode(VideoDetections detections) {
+        byte[] objectName = detections.getObjectName().getBytes(StandardCharsets.UTF_8);
+        int timestampCount = detections.getTimestampCount();
+        int detectionCount = detections.getDetectionCount();
+        int labelCount = detections.getLabelCount();
+        // upper bound: 10 bytes per timestamp delta, 5 per count, track and label index, 8 per box
+        Output output = new Output(32 + objectName.length + timestampCount * 15 + detectionCount * 18);
+        output.writeBytes(MAGIC);
+        output.writeByte(VERSION);
+        output.writeVarint(objectName.length);
+        output.writeBytes(objectName);
+        output.writeVarint(labelCount);
+        for (int i = 0; i < labelCount; i++) {
+            byte[] label = detections.getLabel(i).getBytes(StandardCharsets.UTF_8);
+            output.writeVarint(label.length);
+            output.writeBytes(label);
+        }
+        output.writeVarint(timestampCount);
+        output.writeVarint(detectionCount);
+        long previousTimestamp = 0;
+        for (int t = 0; t < timestampCount; t++) {
+            long timestamp = detections.getTimestamp(t);
+            output.writeVarint(zigzag(timestamp - previousTimestamp));
+            previousTimestamp = timestamp;
+            output.writeVarint(detections.getEndDetection(t) - detections.getFirstDetection(t));
+            for (int d = detections.getFirstDetection(t); d < detections.getEndDetection(t); d++) {
+                output.writeVarint(zigzag(detections.getTrackIndex(d)));
+                if (labelCount > 0) {
+                    output.writeVarint(detections.getLabelIndex(d) + 1);
+                }
+                output.writeFixedPoint(detections.getLeft(d));
+                output.writeFixedPoint(detections.getTop(d));
+                output.writeFixedPoint(detections.getWidth(d));
+                output.writeFixedPoint(detections.getHeight(d));
+            }
+        }
+        return output.toByteArray();
+    }
+
+    public static VideoDetections decode(byte[] buffer) throws IOException {
+        Input input = new Input(buffer);
+        for (byte magic : MAGIC) {
+            if (input.readByte() != magic) {
+                throw new IOException("Not a binary detections buffer");
+            }
+        }
+        int version = input.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary detections version " + version);
+        }
+        String objectName = new String(input.readBytes((int) input.readVarint()), StandardCharsets.UTF_8);
+        long labelCount = input.readVarint();
+        if (labelCount > buffer.length) {
+            throw new IOException("Corrupted binary detections buffer");
+        }
+        String[] labels = new String[(int) labelCount];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = new String(input.readBytes((int) input.readVarint()), StandardCharsets.UTF_8);
+        }
+        int timestampCount = (int) input.readVarint();
+        int detectionCount = (int) input.readVarint();
+        long[] timestamps = new long[timestampCount];
+        int[] offsets = new int[timestampCount + 1];
+        int[] trackIndexes = new int[detectionCount];
+        float[] boxes = new float[detectionCount * VideoDetections.BOX_FIELDS];
+        int[] labelIndexes = new int[labels.length == 0 ? 0 : detectionCount];
+        long timestamp = 0;
+        int d = 0;
+        for (int t = 0; t < timestampCount; t++) {
+            timestamp += unzigzag(input.readVarint());
+            timestamps[t] = timestamp;
+            offsets[t] = d;
+            int end = d + (int) input.readVarint();
+            if (end > detectionCount) {
+                throw new IOException("Corrupted binary detections buffer");
+            }
+            for (; d < end; d++) {
+                trackIndexes[d] = (int) unzigzag(input.readVarint());
+                if (labels.length > 0) {
+                    long label = input.readVarint();
+                    if (label > labels.length) {
+                        throw new IOException("Corrupted binary detections buffer");
+                    }
+                    labelIndexes[d] = (int) label - 1;
+                }
+                for (int i = 0; i < VideoDetections.BOX_FIELDS; i++) {
+                    boxes[d * VideoDetections.BOX_FIELDS + i] = input.readFixedPoint();
+                }
+            }
+        }
+        offsets[timestampCount] = d;
+        return new VideoDetections(timestamps, offsets, trackIndexes, boxes, objectName, labels, labelIndexes);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static class Output {
+        byte[] buffer;
+        int size;
+
+        Output(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void writeByte(int value) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, size * 2);
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes) {
+            for (byte value : bytes) {
+                writeByte(value);
+            }
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        void writeFixedPoint(float value) {
+            int fixed = Math.round(value * FIXED_POINT_SCALE);
+            fixed = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, fixed));
+            writeByte(fixed);
+            writeByte(fixed >> 8);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private static class Input {
+        final byte[] buffer;
+        int position;
+
+        Input(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        byte readByte() throws IOException {
+            if (position >= buffer.length) {
+                throw new IOException("Truncated binary detections buffer");
+            }
+            return buffer[position++];
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            if (length < 0 || position + length > buffer.length) {
+                throw new IOException("Truncated binary detections buffer");
+            }
+            byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in binary detections buffer");
+        }
+
+        float readFixedPoint() throws IOException {
+            int low = readByte() & 0xFF;
+            short fixed = (short) (low | (readByte() << 8));
+            return fixed / FIXED_POINT_SCALE;
+        }
+    }
+
+}
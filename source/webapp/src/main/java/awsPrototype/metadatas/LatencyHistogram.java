@@ -0,0 +1,137 @@
+package awsPrototype.metadatas;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+*   Durations in nanoseconds counted in log-linear buckets: exact below 16 ns, then 8 buckets per power of two,
+*   so a quantile is off by at most 1/8 of its value; above ~18 minutes everything falls in the last bucket.
+*   Recording is an index computation and a few atomic increments, no lock and no allocation.
+*   The quantiles are of the recent durations only: the buckets are kept for two windows of windowNanos, the
+*   current one and the previous one, the oldest is cleared when a new window starts. A duration recorded
+*   while its window is being cleared may be lost, the count and the sum since the start never are.
+*/
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    private final long windowNanos;
+    private final AtomicLongArray[] windows;
+    private final AtomicLong windowEndNanos;
+    private volatile int currentWindow;
+    private final LongAdder count;
+    private final LongAdder sumNanos;
+
+    public LatencyHistogram(long windowNanos) {
+        this.windowNanos = windowNanos;
+        this.windows = new AtomicLongArray[] { new AtomicLongArray(BUCKET_COUNT), new AtomicLongArray(BUCKET_COUNT) };
+        this.windowEndNanos = new AtomicLong(System.nanoTime() + windowNanos);
+        this.count = new LongAdder();
+        this.sumNanos = new LongAdder();
+    }
+
+    /*
+    *   Records the duration from startNanos to endNanos, both read from System.nanoTime()
+    */
+    public void record(long startNanos, long endNanos) {
+        long durationNanos = Math.max(0, endNanos - startNanos);
+        if (endNanos - windowEndNanos.get() >= 0) {
+            rotate(endNanos);
+        }
+        windows[currentWindow].incrementAndGet(bucketIndex(Math.min(durationNanos, MAX_VALUE)));
+        count.increment();
+        sumNanos.add(durationNanos);
+    }
+
+    /*
+    *   Starts a new window in place of the oldest one, once the current one ended
+    */
+    private void rotate(long nowNanos) {
+        long windowEnd = windowEndNanos.get();
+        long elapsedWindows = (nowNanos - windowEnd) / windowNanos + 1;
+        if (nowNanos - windowEnd >= 0 && windowEndNanos.compareAndSet(windowEnd, windowEnd + elapsedWindows * windowNanos)) {
+            int next = currentWindow ^ 1;
+            clear(windows[next]);
+            if (elapsedWindows > 1) {
+                // no duration in the previous window either
+                clear(windows[currentWindow]);
+            }
+            currentWindow = next;
+        }
+    }
+
+    private static void clear(AtomicLongArray buckets) {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.lazySet(i, 0);
+        }
+    }
+
+    static int bucketIndex(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /*
+    *   Highest value counted in the bucket
+    */
+    static long bucketUpperBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    /*
+    *   Durations recorded since the start
+    */
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /*
+    *   Quantiles in nanoseconds of the durations of the current and previous windows, NaN when there were none
+    */
+    public double[] getQuantiles(double... quantiles) {
+        rotate(System.nanoTime());
+        long[] buckets = new long[BUCKET_COUNT];
+        long total = 0;
+        for (AtomicLongArray window : windows) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                long bucket = window.get(i);
+                buckets[i] += bucket;
+                total += bucket;
+            }
+        }
+        double[] values = new double[quantiles.length];
+        for (int q = 0; q < quantiles.length; q++) {
+            if (total == 0) {
+                values[q] = Double.NaN;
+                continue;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantiles[q] * total));
+            long seen = 0;
+            int index = 0;
+            while (index < BUCKET_COUNT - 1 && (seen += buckets[index]) < rank) {
+                index++;
+            }
+            values[q] = bucketUpperBound(index);
+        }
+        return values;
+    }
+
+}
@@ -0,0 +1,51 @@
+package awsPrototype.metadatas;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+*   Requests served by one route: their count by status class (1xx to 5xx), the bytes of their bodies and their
+*   latency, from the call of the handler to the response being done
+*/
+public class RouteMetrics {
+
+    final String route;
+    final LongAdder[] requestsByStatusClass;
+    final LongAdder bytes;
+    final LatencyHistogram latency;
+
+    public RouteMetrics(String route, long windowNanos) {
+        this.route = route;
+        this.requestsByStatusClass = new LongAdder[6];
+        for (int i = 0; i < requestsByStatusClass.length; i++) {
+            requestsByStatusClass[i] = new LongAdder();
+        }
+        this.bytes = new LongAdder();
+        this.latency = new LatencyHistogram(windowNanos);
+    }
+
+    public void record(long startNanos, int status, long bodyBytes) {
+        latency.record(startNanos, System.nanoTime());
+        requestsByStatusClass[status >= 100 && status < 600 ? status / 100 : 0].increment();
+        bytes.add(bodyBytes);
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    /*
+    *   Requests answered with a status of the class, e.g. 2 for the 2xx; 0 counts the invalid statuses
+    */
+    public long getRequests(int statusClass) {
+        return requestsByStatusClass[statusClass].sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+}
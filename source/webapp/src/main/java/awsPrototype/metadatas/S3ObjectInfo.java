@@ -0,0 +1,55 @@
+package awsPrototype.metadatas;
+
+/*
+*   What identifies the version of an S3 object, as listed or downloaded
+*/
+public class S3ObjectInfo {
+
+    String key;
+    long size;
+    String etag;
+    long lastModified;
+    boolean unverified;
+
+    public S3ObjectInfo(String key, long size, String etag, long lastModified) {
+        this.key = key;
+        this.size = size;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /*
+    *   Downloaded without checking its content against the ETag, which was not possible
+    */
+    public boolean isUnverified() {
+        return unverified;
+    }
+
+    public void setUnverified(boolean unverified) {
+        this.unverified = unverified;
+    }
+
+    /*
+    *   Same content, the ETag changes with it (the last modified date alone also changes on a copy)
+    */
+    public boolean isSameVersion(S3ObjectInfo other) {
+        return other != null && size == other.size && etag != null && etag.equals(other.etag);
+    }
+
+}
@@ -0,0 +1,235 @@
+package awsPrototype.metadatas;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+*   What VideoRawData derives from a json, laid out to be memory-mapped instead of computed again:
+*
+*   "VDA" version(1 byte) settings(int, see settingsFingerprint) sectionCount(int)
+*   then sectionCount (offset, length) pairs of longs, and the sections, each aligned on 8 bytes:
+*   object name (utf-8), timestamps (long[]), detection offsets (int[]), track indexes (int[]), boxes (float[]),
+*   heatmap header (gridWidth, gridHeight, bucketMs, bucketCount), heatmap prefix sums (int[]), gzipped json,
+*   binary detections, gzipped binary detections, ETag of the binary detections (utf-8), label names (int length
+*   + utf-8 each), label indexes (int[]).
+*   All little-endian. The columns are fixed width so they are copied out of the mapping in bulk, not parsed.
+*   The json itself isn't stored, the artifact is found by its hash and it is read anyway to be served. Neither
+*   are the tracks and the detection grid, regrouping the columns is a linear pass over them, done when decoding.
+*/
+public class VideoArtifactFormat {
+
+    public static final int VERSION = 2;
+
+    private static final byte[] MAGIC = { 'V', 'D', 'A' };
+    private static final int SECTION_COUNT = 13;
+    private static final int HEADER_SIZE = 3 + 1 + 4 + 4;
+
+    private VideoArtifactFormat() {
+    }
+
+    /*
+    *   Name of the artifact of a json: its content hash, the format version and the settings it was derived with
+    */
+    public static String artifactName(String contentHash, int settings) {
+        return contentHash + "-v" + VERSION + "-" + Integer.toHexString(settings) + ".vda";
+    }
+
+    /*
+    *   MD5 of the json, also the ETag of its CachedPayload
+    */
+    public static String contentHash(byte[] json) {
+        return CachedPayload.md5Hex(json);
+    }
+
+    /*
+    *   Changes with every setting the derived data depends on, an artifact built with other settings is stale
+    */
+    public static int settingsFingerprint() {
+        int fingerprint = DetectionsBinaryFormat.VERSION;
+        fingerprint = 31 * fingerprint + Constants.HEATMAP_GRID_WIDTH;
+        fingerprint = 31 * fingerprint + Constants.HEATMAP_GRID_HEIGHT;
+        fingerprint = 31 * fingerprint + Long.hashCode(Constants.HEATMAP_BUCKET_MS);
+        fingerprint = 31 * fingerprint + Long.hashCode(Constants.HEATMAP_MAX_CELLS);
+        fingerprint = 31 * fingerprint + Constants.HEATMAP_POINT.hashCode();
+        return fingerprint;
+    }
+
+    public static ByteBuffer encode(VideoRawData videoRawData, int settings) {
+        VideoDetections detections = videoRawData.detections;
+        VideoHeatmap heatmap = videoRawData.heatmap;
+        CachedPayload binaryDetections = videoRawData.binaryDetections;
+        byte[][] byteSections = {
+            detections.objectName.getBytes(StandardCharsets.UTF_8),
+            emptyIfNull(videoRawData.json.gzipContent),
+            binaryDetections.content,
+            emptyIfNull(binaryDetections.gzipContent),
+            binaryDetections.etag.getBytes(StandardCharsets.UTF_8),
+            encodeLabels(detections.labels)
+        };
+        long[] lengths = {
+            byteSections[0].length,
+            8L * detections.timestamps.length,
+            4L * detections.offsets.length,
+            4L * detections.trackIndexes.length,
+            4L * detections.boxes.length,
+            24,
+            4L * heatmap.prefixSums.length,
+            byteSections[1].length,
+            byteSections[2].length,
+            byteSections[3].length,
+            byteSections[4].length,
+            byteSections[5].length,
+            4L * detections.labelIndexes.length
+        };
+        long[] offsets = new long[SECTION_COUNT];
+        long size = align(HEADER_SIZE + 16L * SECTION_COUNT);
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            offsets[i] = size;
+            size = align(size + lengths[i]);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(MAGIC).put((byte) VERSION).putInt(settings).putInt(SECTION_COUNT);
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            buffer.putLong(offsets[i]).putLong(lengths[i]);
+        }
+        section(buffer, offsets[0]).put(byteSections[0]);
+        section(buffer, offsets[1]).asLongBuffer().put(detections.timestamps);
+        section(buffer, offsets[2]).asIntBuffer().put(detections.offsets);
+        section(buffer, offsets[3]).asIntBuffer().put(detections.trackIndexes);
+        section(buffer, offsets[4]).asFloatBuffer().put(detections.boxes);
+        section(buffer, offsets[5]).putInt(heatmap.gridWidth).putInt(heatmap.gridHeight).putLong(heatmap.bucketMs).putInt(heatmap.bucketCount);
+        section(buffer, offsets[6]).asIntBuffer().put(heatmap.prefixSums);
+        for (int i = 1; i < byteSections.length; i++) {
+            section(buffer, offsets[6 + i]).put(byteSections[i]);
+        }
+        section(buffer, offsets[12]).asIntBuffer().put(detections.labelIndexes);
+        buffer.clear();
+        return buffer;
+    }
+
+    /*
+    *   Rebuilds the VideoRawData of the json from its artifact; fails on an artifact of another format, of other
+    *   settings or truncated
+    */
+    public static VideoRawData decode(ByteBuffer artifact, String videoName, byte[] json, String contentHash, long lastModified, int settings) throws IOException {
+        ByteBuffer buffer = artifact.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IOException("Truncated video artifact");
+        }
+        for (byte magic : MAGIC) {
+            if (buffer.get() != magic) {
+                throw new IOException("Not a video artifact");
+            }
+        }
+        int version = buffer.get();
+        int artifactSettings = buffer.getInt();
+        int sectionCount = buffer.getInt();
+        if (version != VERSION || artifactSettings != settings || sectionCount != SECTION_COUNT) {
+            throw new IOException("Video artifact of another version or settings");
+        }
+        if (buffer.remaining() < 16 * SECTION_COUNT) {
+            throw new IOException("Truncated video artifact");
+        }
+        long[] offsets = new long[SECTION_COUNT];
+        long[] lengths = new long[SECTION_COUNT];
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            offsets[i] = buffer.getLong();
+            lengths[i] = buffer.getLong();
+            if (offsets[i] < 0 || lengths[i] < 0 || offsets[i] + lengths[i] > buffer.capacity()) {
+                throw new IOException("Truncated video artifact");
+            }
+        }
+        String objectName = new String(bytes(buffer, offsets[0], lengths[0]), StandardCharsets.UTF_8);
+        long[] timestamps = new long[(int) (lengths[1] / 8)];
+        section(buffer, offsets[1]).asLongBuffer().get(timestamps);
+        int[] detectionOffsets = new int[(int) (lengths[2] / 4)];
+        section(buffer, offsets[2]).asIntBuffer().get(detectionOffsets);
+        int[] trackIndexes = new int[(int) (lengths[3] / 4)];
+        section(buffer, offsets[3]).asIntBuffer().get(trackIndexes);
+        float[] boxes = new float[(int) (lengths[4] / 4)];
+        section(buffer, offsets[4]).asFloatBuffer().get(boxes);
+        ByteBuffer heatmapHeader = section(buffer, offsets[5]);
+        int gridWidth = heatmapHeader.getInt();
+        int gridHeight = heatmapHeader.getInt();
+        long bucketMs = heatmapHeader.getLong();
+        int bucketCount = heatmapHeader.getInt();
+        int[] prefixSums = new int[(int) (lengths[6] / 4)];
+        section(buffer, offsets[6]).asIntBuffer().get(prefixSums);
+        byte[] jsonGzip = bytes(buffer, offsets[7], lengths[7]);
+        byte[] binaryContent = bytes(buffer, offsets[8], lengths[8]);
+        byte[] binaryGzip = bytes(buffer, offsets[9], lengths[9]);
+        String binaryEtag = new String(bytes(buffer, offsets[10], lengths[10]), StandardCharsets.UTF_8);
+        String[] labels = decodeLabels(section(buffer, offsets[11]), lengths[11]);
+        int[] labelIndexes = new int[(int) (lengths[12] / 4)];
+        section(buffer, offsets[12]).asIntBuffer().get(labelIndexes);
+
+        // the same validators CachedPayload.of gives, the date at the second
+        long lastModifiedSecond = lastModified / 1000 * 1000;
+        CachedPayload jsonPayload = new CachedPayload(json, nullIfEmpty(jsonGzip), "\"" + contentHash + "\"", lastModifiedSecond);
+        CachedPayload binaryDetections = new CachedPayload(binaryContent, nullIfEmpty(binaryGzip), binaryEtag, lastModifiedSecond);
+        VideoDetections detections = new VideoDetections(timestamps, detectionOffsets, trackIndexes, boxes, objectName, labels, labelIndexes);
+        VideoHeatmap heatmap = new VideoHeatmap(gridWidth, gridHeight, bucketMs, bucketCount, prefixSums);
+        VideoTracks tracks = VideoTracks.build(detections, Constants.HEATMAP_GRID_WIDTH, Constants.HEATMAP_GRID_HEIGHT,
+            Constants.TRACK_MAX_GAP_MS, Constants.HEATMAP_POINT);
+        DetectionGrid grid = DetectionGrid.build(detections, Constants.HEATMAP_GRID_WIDTH, Constants.HEATMAP_GRID_HEIGHT, Constants.HEATMAP_POINT);
+        return new VideoRawData(videoName, jsonPayload, detections, binaryDetections, heatmap, tracks, grid);
+    }
+
+    private static byte[] encodeLabels(String[] labels) {
+        byte[][] names = new byte[labels.length][];
+        int size = 0;
+        for (int i = 0; i < labels.length; i++) {
+            names[i] = labels[i].getBytes(StandardCharsets.UTF_8);
+            size += 4 + names[i].length;
+        }
+        ByteBuffer encoded = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        for (byte[] name : names) {
+            encoded.putInt(name.length).put(name);
+        }
+        return encoded.array();
+    }
+
+    private static String[] decodeLabels(ByteBuffer section, long length) throws IOException {
+        List<String> labels = new ArrayList<>();
+        section.limit((int) length);
+        while (section.hasRemaining()) {
+            int nameLength = section.getInt();
+            if (nameLength < 0 || nameLength > section.remaining()) {
+                throw new IOException("Truncated video artifact");
+            }
+            byte[] name = new byte[nameLength];
+            section.get(name);
+            labels.add(new String(name, StandardCharsets.UTF_8));
+        }
+        return labels.toArray(new String[0]);
+    }
+
+    private static ByteBuffer section(ByteBuffer buffer, long offset) {
+        ByteBuffer section = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        section.clear().position((int) offset);
+        return section.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, long offset, long length) {
+        byte[] bytes = new byte[(int) length];
+        section(buffer, offset).get(bytes);
+        return bytes;
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static byte[] emptyIfNull(byte[] bytes) {
+        return bytes == null ? new byte[0] : bytes;
+    }
+
+    private static byte[] nullIfEmpty(byte[] bytes) {
+        return bytes.length == 0 ? null : bytes;
+    }
+
+}
@@ -0,0 +1,79 @@
+package awsPrototype.metadatas;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+*   Block cache usage of one video. The generation is part of the block keys, a new version of the video
+*   moves to the next one so the blocks of the old version are never read again and age out of the cache.
+*/
+public class VideoBlockStats {
+
+    final String videoName;
+    final AtomicInteger generation = new AtomicInteger();
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong loadedBytes = new AtomicLong();
+    final AtomicLong prefetchedBytes = new AtomicLong();
+
+    public VideoBlockStats(String videoName) {
+        this.videoName = videoName;
+    }
+
+    public String getVideoName() {
+        return videoName;
+    }
+
+    public int getGeneration() {
+        return generation.get();
+    }
+
+    public void nextGeneration() {
+        generation.incrementAndGet();
+    }
+
+    /*
+    *   A block served without reading it, from the cache or from a load already running
+    */
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    public void recordLoad(long bytes) {
+        loadedBytes.addAndGet(bytes);
+    }
+
+    /*
+    *   Read ahead of the requests, a later request for the block is a hit
+    */
+    public void recordPrefetch(long bytes) {
+        prefetchedBytes.addAndGet(bytes);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getLoadedBytes() {
+        return loadedBytes.get();
+    }
+
+    public long getPrefetchedBytes() {
+        return prefetchedBytes.get();
+    }
+
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long requestCount = hitCount + misses.get();
+        return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+    }
+
+}
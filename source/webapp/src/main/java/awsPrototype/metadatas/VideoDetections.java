@@ -0,0 +1,331 @@
+package awsPrototype.metadatas;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/*
+*   Detections of a video in columns of primitive arrays, grouped by timestamp:
+*   the detections of timestamps[t] are the indexes offsets[t] until offsets[t+1] of trackIndexes and boxes,
+*   and each box takes 4 floats (left, top, width, height) relative to the frame size.
+*   The Rekognition labels name what each box is: labelIndexes points in the labels dictionary, -1 for a box
+*   without a name. Both are empty for the worker detections, all of the one objectName.
+*/
+public class VideoDetections {
+
+    public static final int BOX_FIELDS = 4;
+
+    long[] timestamps;
+    int[] offsets;
+    int[] trackIndexes;
+    float[] boxes;
+    String objectName;
+    String[] labels;
+    int[] labelIndexes;
+
+    public VideoDetections(long[] timestamps, int[] offsets, int[] trackIndexes, float[] boxes, String objectName) {
+        this(timestamps, offsets, trackIndexes, boxes, objectName, new String[0], new int[0]);
+    }
+
+    /*
+    *   labelIndexes has one entry per detection, or none when there are no labels
+    */
+    public VideoDetections(long[] timestamps, int[] offsets, int[] trackIndexes, float[] boxes, String objectName,
+            String[] labels, int[] labelIndexes) {
+        this.timestamps = timestamps;
+        this.offsets = offsets;
+        this.trackIndexes = trackIndexes;
+        this.boxes = boxes;
+        this.objectName = objectName;
+        this.labels = labels;
+        this.labelIndexes = labelIndexes;
+    }
+
+    /*
+    *   Parses the detections json written by the worker ([{"timestamp":0,"person":{"index":1,"boundingBox":{...}}}])
+    *   or by Rekognition labels, where the boxes are in "instances". Entries without a bounding box are skipped.
+    */
+    public static VideoDetections parseJson(byte[] bufferJson) throws IOException {
+        Builder builder = new Builder();
+        try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(bufferJson), StandardCharsets.UTF_8))) {
+            if (bufferJson.length == 0 || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                return builder.build();
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                readDetection(reader, builder);
+            }
+            reader.endArray();
+        }
+        return builder.build();
+    }
+
+    private static void readDetection(JsonReader reader, Builder builder) throws IOException {
+        long timestamp = 0;
+        int first = builder.size;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("timestamp".equals(name)) {
+                timestamp = (long) reader.nextDouble();
+            } else if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                if (builder.objectName == null) {
+                    builder.objectName = name;
+                }
+                readDetectedObject(reader, builder);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        for (int i = first; i < builder.size; i++) {
+            builder.timestamps[i] = timestamp;
+        }
+    }
+
+    private static void readDetectedObject(JsonReader reader, Builder builder) throws IOException {
+        int index = -1;
+        float[] box = null;
+        String label = null;
+        int first = builder.size;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("index".equals(name)) {
+                index = reader.nextInt();
+            } else if ("name".equals(name) && reader.peek() == JsonToken.STRING) {
+                label = reader.nextString();
+            } else if ("boundingBox".equals(name)) {
+                box = readBoundingBox(reader);
+            } else if ("instances".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if ("boundingBox".equals(reader.nextName())) {
+                            builder.add(-1, readBoundingBox(reader));
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (box != null) {
+            builder.add(index, box);
+        }
+        if (label != null && builder.size > first) {
+            builder.setLabel(first, label);
+        }
+    }
+
+    private static float[] readBoundingBox(JsonReader reader) throws IOException {
+        float[] box = new float[BOX_FIELDS];
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("left".equals(name)) {
+                box[0] = (float) reader.nextDouble();
+            } else if ("top".equals(name)) {
+                box[1] = (float) reader.nextDouble();
+            } else if ("width".equals(name)) {
+                box[2] = (float) reader.nextDouble();
+            } else if ("height".equals(name)) {
+                box[3] = (float) reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return box;
+    }
+
+    public int getTimestampCount() {
+        return timestamps.length;
+    }
+
+    public int getDetectionCount() {
+        return trackIndexes.length;
+    }
+
+    public long getTimestamp(int timestampIndex) {
+        return timestamps[timestampIndex];
+    }
+
+    public int getFirstDetection(int timestampIndex) {
+        return offsets[timestampIndex];
+    }
+
+    public int getEndDetection(int timestampIndex) {
+        return offsets[timestampIndex + 1];
+    }
+
+    public int getTrackIndex(int detection) {
+        return trackIndexes[detection];
+    }
+
+    public float getLeft(int detection) {
+        return boxes[detection * BOX_FIELDS];
+    }
+
+    public float getTop(int detection) {
+        return boxes[detection * BOX_FIELDS + 1];
+    }
+
+    public float getWidth(int detection) {
+        return boxes[detection * BOX_FIELDS + 2];
+    }
+
+    public float getHeight(int detection) {
+        return boxes[detection * BOX_FIELDS + 3];
+    }
+
+    public String getObjectName() {
+        return objectName;
+    }
+
+    /*
+    *   Distinct names of the labels, in the order they first appear
+    */
+    public int getLabelCount() {
+        return labels.length;
+    }
+
+    public String getLabel(int labelIndex) {
+        return labels[labelIndex];
+    }
+
+    /*
+    *   Index of the label of the detection, -1 when it has none
+    */
+    public int getLabelIndex(int detection) {
+        return labelIndexes.length == 0 ? -1 : labelIndexes[detection];
+    }
+
+    /*
+    *   Index of the first timestamp >= timeMs, or getTimestampCount() when there is none
+    */
+    public int findTimestampIndex(long timeMs) {
+        int index = Arrays.binarySearch(timestamps, timeMs);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /*
+    *   Approximate heap footprint of the columns
+    */
+    public long getSizeInBytes() {
+        return 8L * timestamps.length + 4L * offsets.length + 4L * trackIndexes.length + 4L * boxes.length + 4L * labelIndexes.length;
+    }
+
+    /*
+    *   Growable columns, one row per detection, turned into the timestamp index when built
+    */
+    private static class Builder {
+        long[] timestamps = new long[1024];
+        int[] trackIndexes = new int[1024];
+        float[] boxes = new float[1024 * BOX_FIELDS];
+        int[] labelIndexes = new int[1024];
+        List<String> labels = new ArrayList<>();
+        Map<String, Integer> labelIds = new HashMap<>();
+        int size;
+        String objectName;
+
+        void add(int trackIndex, float[] box) {
+            if (size == trackIndexes.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                trackIndexes = Arrays.copyOf(trackIndexes, size * 2);
+                boxes = Arrays.copyOf(boxes, size * 2 * BOX_FIELDS);
+                labelIndexes = Arrays.copyOf(labelIndexes, size * 2);
+            }
+            trackIndexes[size] = trackIndex;
+            System.arraycopy(box, 0, boxes, size * BOX_FIELDS, BOX_FIELDS);
+            labelIndexes[size] = -1;
+            size++;
+        }
+
+        /*
+        *   Names the detections added since first
+        */
+        void setLabel(int first, String label) {
+            Integer labelIndex = labelIds.get(label);
+            if (labelIndex == null) {
+                labelIndex = labels.size();
+                labels.add(label);
+                labelIds.put(label, labelIndex);
+            }
+            Arrays.fill(labelIndexes, first, size, labelIndex);
+        }
+
+        VideoDetections build() {
+            sortByTimestamp();
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || timestamps[i] != timestamps[i - 1]) {
+                    distinct++;
+                }
+            }
+            long[] distinctTimestamps = new long[distinct];
+            int[] offsets = new int[distinct + 1];
+            int t = -1;
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || timestamps[i] != timestamps[i - 1]) {
+                    t++;
+                    distinctTimestamps[t] = timestamps[i];
+                    offsets[t] = i;
+                }
+            }
+            offsets[distinct] = size;
+            return new VideoDetections(distinctTimestamps, offsets, Arrays.copyOf(trackIndexes, size),
+                Arrays.copyOf(boxes, size * BOX_FIELDS), objectName == null ? "person" : objectName,
+                labels.toArray(new String[0]), labels.isEmpty() ? new int[0] : Arrays.copyOf(labelIndexes, size));
+        }
+
+        /*
+        *   The worker writes the detections in time order, so this is usually a single pass
+        */
+        private void sortByTimestamp() {
+            boolean sorted = true;
+            for (int i = 1; i < size && sorted; i++) {
+                sorted = timestamps[i - 1] <= timestamps[i];
+            }
+            if (sorted) {
+                return;
+            }
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            final long[] unsortedTimestamps = timestamps;
+            Arrays.sort(order, (a, b) -> Long.compare(unsortedTimestamps[a], unsortedTimestamps[b]));
+            long[] sortedTimestamps = new long[size];
+            int[] sortedTrackIndexes = new int[size];
+            float[] sortedBoxes = new float[size * BOX_FIELDS];
+            int[] sortedLabelIndexes = new int[size];
+            for (int i = 0; i < size; i++) {
+                sortedTimestamps[i] = timestamps[order[i]];
+                sortedTrackIndexes[i] = trackIndexes[order[i]];
+                System.arraycopy(boxes, order[i] * BOX_FIELDS, sortedBoxes, i * BOX_FIELDS, BOX_FIELDS);
+                sortedLabelIndexes[i] = labelIndexes[order[i]];
+            }
+            timestamps = sortedTimestamps;
+            trackIndexes = sortedTrackIndexes;
+            boxes = sortedBoxes;
+            labelIndexes = sortedLabelIndexes;
+        }
+    }
+
+}
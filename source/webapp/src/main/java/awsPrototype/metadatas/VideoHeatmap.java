@@ -0,0 +1,113 @@
+package awsPrototype.metadatas;
+
+/*
+*   Detections counted per grid cell and per time bucket, kept as cumulative grids: prefixSums holds, for each bucket b,
+*   the counts of all the buckets before b. The heatmap of any time window is then one grid subtraction,
+*   whatever the length of the video.
+*/
+public class VideoHeatmap {
+
+    public static final String POINT_CENTER = "center";
+    public static final String POINT_FOOTPRINT = "footprint";
+
+    int gridWidth;
+    int gridHeight;
+    long bucketMs;
+    int bucketCount;
+    int[] prefixSums;
+
+    public VideoHeatmap(int gridWidth, int gridHeight, long bucketMs, int bucketCount, int[] prefixSums) {
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        this.bucketMs = bucketMs;
+        this.bucketCount = bucketCount;
+        this.prefixSums = prefixSums;
+    }
+
+    /*
+    *   Rasterizes the box centers (or the bottom center, where the person stands, for "footprint") into the grid.
+    *   The bucket is doubled until the cumulative grids fit in maxCells ints, so full-day videos get coarser buckets.
+    */
+    public static VideoHeatmap build(VideoDetections detections, int gridWidth, int gridHeight, long bucketMs, long maxCells, String point) {
+        int cells = gridWidth * gridHeight;
+        int timestampCount = detections.getTimestampCount();
+        long lastTimestamp = timestampCount > 0 ? detections.getTimestamp(timestampCount - 1) : 0;
+        long buckets = lastTimestamp / bucketMs + 1;
+        while ((buckets + 1) * cells > maxCells && buckets > 1) {
+            bucketMs *= 2;
+            buckets = lastTimestamp / bucketMs + 1;
+        }
+        int bucketCount = (int) buckets;
+        boolean footprint = POINT_FOOTPRINT.equals(point);
+        int[] prefixSums = new int[(bucketCount + 1) * cells];
+
+        // counts of each bucket are added on the row of the next one, then accumulated
+        for (int t = 0; t < timestampCount; t++) {
+            int row = (int) (Math.max(0, detections.getTimestamp(t)) / bucketMs + 1) * cells;
+            for (int d = detections.getFirstDetection(t); d < detections.getEndDetection(t); d++) {
+                float x = detections.getLeft(d) + detections.getWidth(d) / 2;
+                float y = footprint ? detections.getTop(d) + detections.getHeight(d) : detections.getTop(d) + detections.getHeight(d) / 2;
+                int column = clamp((int) (x * gridWidth), gridWidth);
+                int line = clamp((int) (y * gridHeight), gridHeight);
+                prefixSums[row + line * gridWidth + column]++;
+            }
+        }
+        for (int b = 1; b <= bucketCount; b++) {
+            int row = b * cells;
+            int previousRow = row - cells;
+            for (int c = 0; c < cells; c++) {
+                prefixSums[row + c] += prefixSums[previousRow + c];
+            }
+        }
+        return new VideoHeatmap(gridWidth, gridHeight, bucketMs, bucketCount, prefixSums);
+    }
+
+    private static int clamp(int cell, int size) {
+        return cell < 0 ? 0 : (cell >= size ? size - 1 : cell);
+    }
+
+    /*
+    *   Counts per cell (row major) of the detections in the buckets overlapping [fromMs, toMs]
+    */
+    public int[] countCells(long fromMs, long toMs) {
+        int cells = gridWidth * gridHeight;
+        int fromBucket = bucketOf(fromMs);
+        int toBucket = Math.max(fromBucket, bucketOf(toMs) + 1);
+        if (toBucket > bucketCount) {
+            toBucket = bucketCount;
+        }
+        int[] counts = new int[cells];
+        int fromRow = fromBucket * cells;
+        int toRow = toBucket * cells;
+        for (int c = 0; c < cells; c++) {
+            counts[c] = prefixSums[toRow + c] - prefixSums[fromRow + c];
+        }
+        return counts;
+    }
+
+    private int bucketOf(long timeMs) {
+        long bucket = Math.max(0, timeMs) / bucketMs;
+        return (int) Math.min(bucket, bucketCount);
+    }
+
+    public int getGridWidth() {
+        return gridWidth;
+    }
+
+    public int getGridHeight() {
+        return gridHeight;
+    }
+
+    public long getBucketMs() {
+        return bucketMs;
+    }
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    public long getSizeInBytes() {
+        return 4L * prefixSums.length;
+    }
+
+}
@@ -0,0 +1,143 @@
+package awsPrototype.metadatas;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.function.ToLongFunction;
+
+/*
+*   A page of the video list: the videos matching the filters, in the sort order, after the cursor.
+*   The sort order always ends with the name, so a cursor (the sort value and the name of the last video of the
+*   previous page) points between two videos even when they are added or removed meanwhile.
+*/
+public class VideoListQuery {
+
+    public static final String SORT_NAME = "name";
+
+    String sort = SORT_NAME;
+    boolean descending;
+    int limit;
+    String nameContains;
+    long minDuration;
+    long maxDuration = Long.MAX_VALUE;
+    int minDetections;
+    int minTracks;
+    Long cursorValue;
+    String cursorName;
+
+    /*
+    *   Sort on name (default), duration, size, detections, tracks or start (first detection); order asc or desc;
+    *   filters on the name (q, case insensitive), the duration in seconds and the detection and track counts.
+    *   Fails with an IllegalArgumentException on an unknown sort or a cursor of another sort.
+    */
+    public static VideoListQuery parse(String sort, String order, String limit, String cursor, String nameContains,
+            String minDuration, String maxDuration, String minDetections, String minTracks, int defaultLimit, int maxLimit) {
+        VideoListQuery query = new VideoListQuery();
+        query.sort = sort == null || sort.isEmpty() ? SORT_NAME : sort.toLowerCase(Locale.ROOT);
+        if (!query.sort.equals(SORT_NAME) && sortKey(query.sort) == null) {
+            throw new IllegalArgumentException("Unknown sort: " + sort);
+        }
+        query.descending = "desc".equalsIgnoreCase(order);
+        query.limit = limit == null || limit.isEmpty() ? defaultLimit : Math.max(1, Math.min(maxLimit, Integer.parseInt(limit)));
+        query.nameContains = nameContains == null || nameContains.isEmpty() ? null : nameContains.toLowerCase(Locale.ROOT);
+        if (minDuration != null && !minDuration.isEmpty()) {
+            query.minDuration = (long) (Double.parseDouble(minDuration) * 1000);
+        }
+        if (maxDuration != null && !maxDuration.isEmpty()) {
+            query.maxDuration = (long) (Double.parseDouble(maxDuration) * 1000);
+        }
+        query.minDetections = minDetections == null || minDetections.isEmpty() ? 0 : Integer.parseInt(minDetections);
+        query.minTracks = minTracks == null || minTracks.isEmpty() ? 0 : Integer.parseInt(minTracks);
+        if (cursor != null && !cursor.isEmpty()) {
+            query.decodeCursor(cursor);
+        }
+        return query;
+    }
+
+    private static ToLongFunction<VideoMetadata> sortKey(String sort) {
+        switch (sort) {
+            case "duration":
+                return VideoMetadata::getVideoDuration;
+            case "size":
+                return VideoMetadata::getVideoSize;
+            case "detections":
+                return VideoMetadata::getDetectionCount;
+            case "tracks":
+                return VideoMetadata::getTrackCount;
+            case "start":
+                return VideoMetadata::getFirstTimestamp;
+            default:
+                return null;
+        }
+    }
+
+    public boolean isSortedByName() {
+        return sort.equals(SORT_NAME);
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /*
+    *   Name of the last video of the previous page, null for the first page
+    */
+    public String getCursorName() {
+        return cursorName;
+    }
+
+    public Comparator<VideoMetadata> getComparator() {
+        Comparator<VideoMetadata> byName = Comparator.comparing(VideoMetadata::getVideoName);
+        Comparator<VideoMetadata> comparator = isSortedByName() ? byName : Comparator.comparingLong(sortKey(sort)).thenComparing(byName);
+        return descending ? comparator.reversed() : comparator;
+    }
+
+    public boolean matches(VideoMetadata metadata) {
+        if (nameContains != null && !metadata.getVideoName().toLowerCase(Locale.ROOT).contains(nameContains)) {
+            return false;
+        }
+        return metadata.getVideoDuration() >= minDuration && metadata.getVideoDuration() <= maxDuration
+            && metadata.getDetectionCount() >= minDetections && metadata.getTrackCount() >= minTracks;
+    }
+
+    /*
+    *   The video comes after the cursor in the sort order
+    */
+    public boolean isAfterCursor(VideoMetadata metadata) {
+        if (cursorName == null) {
+            return true;
+        }
+        int comparison = 0;
+        if (!isSortedByName()) {
+            comparison = Long.compare(sortKey(sort).applyAsLong(metadata), cursorValue);
+        }
+        if (comparison == 0) {
+            comparison = metadata.getVideoName().compareTo(cursorName);
+        }
+        return descending ? comparison < 0 : comparison > 0;
+    }
+
+    /*
+    *   Opaque to the client: the sort, the sort value and the name of the last video of a page
+    */
+    public String encodeCursor(VideoMetadata last) {
+        String value = isSortedByName() ? "" : String.valueOf(sortKey(sort).applyAsLong(last));
+        String cursor = sort + ":" + value + ":" + last.getVideoName();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void decodeCursor(String cursor) {
+        String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 3);
+        if (parts.length != 3 || !parts[0].equals(sort)) {
+            throw new IllegalArgumentException("The cursor is not of the sort " + sort);
+        }
+        cursorValue = isSortedByName() ? null : Long.valueOf(parts[1]);
+        cursorName = parts[2];
+    }
+
+}
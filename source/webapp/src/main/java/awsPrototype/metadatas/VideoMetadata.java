@@ -1,9 +1,139 @@
 package awsPrototype.metadatas;
 
+/*
+*   What is known of a video without reading its media data, extracted once and kept in the VideoIndex:
+*   - from the MP4 boxes, the duration (mvhd), the resolution (tkhd of the first visual track) and the layout
+*     of the top level boxes. The layout tells how many bytes a player reads before the first frame: with the
+*     moov first ("fast start") the beginning of the file is enough, otherwise it also asks for its end.
+*   - from the detections json, the number of detections and of tracked objects and their time span.
+*   The modification dates of both files tell whether it is still current.
+*/
 public class VideoMetadata {
 
     String videoName;
-    String videoDuration;
-    
+    long videoDuration; //milliseconds
+    long videoSize;
+    int width;
+    int height;
+    long moovOffset = -1;
+    long moovSize;
+    long mdatOffset = -1;
+    boolean relocated;
+    int detectionCount;
+    int trackCount;
+    long firstTimestamp;
+    long lastTimestamp;
+    long videoModifiedAt;
+    long jsonModifiedAt;
+
+    public VideoMetadata(String videoName) {
+        this.videoName = videoName;
+    }
+
+    public void setLayout(long videoSize, long moovOffset, long moovSize, long mdatOffset, boolean relocated) {
+        this.videoSize = videoSize;
+        this.moovOffset = moovOffset;
+        this.moovSize = moovSize;
+        this.mdatOffset = mdatOffset;
+        this.relocated = relocated;
+    }
+
+    public void setMovieHeader(long videoDuration, int width, int height) {
+        this.videoDuration = videoDuration;
+        this.width = width;
+        this.height = height;
+    }
+
+    public void setDetections(int detectionCount, int trackCount, long firstTimestamp, long lastTimestamp) {
+        this.detectionCount = detectionCount;
+        this.trackCount = trackCount;
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    /*
+    *   Modification dates of the files it was extracted from, 0 for a file that wasn't there
+    */
+    public void setModifiedAt(long videoModifiedAt, long jsonModifiedAt) {
+        this.videoModifiedAt = videoModifiedAt;
+        this.jsonModifiedAt = jsonModifiedAt;
+    }
+
+    public String getVideoName() {
+        return videoName;
+    }
+
+    public long getVideoDuration() {
+        return videoDuration;
+    }
+
+    public long getVideoSize() {
+        return videoSize;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getMoovOffset() {
+        return moovOffset;
+    }
+
+    public long getMoovSize() {
+        return moovSize;
+    }
+
+    public long getMdatOffset() {
+        return mdatOffset;
+    }
+
+    /*
+    *   The moov was moved in front of the media data when the video was downloaded
+    */
+    public boolean isRelocated() {
+        return relocated;
+    }
+
+    public boolean isFastStart() {
+        return moovOffset >= 0 && mdatOffset >= 0 && moovOffset < mdatOffset;
+    }
+
+    /*
+    *   Bytes read before the media data: the boxes in front of it, plus the moov when it comes after
+    */
+    public long getStartupBytes() {
+        if (moovOffset < 0 || mdatOffset < 0) {
+            return videoSize;
+        }
+        return isFastStart() ? mdatOffset : mdatOffset + moovSize;
+    }
+
+    public int getDetectionCount() {
+        return detectionCount;
+    }
+
+    public int getTrackCount() {
+        return trackCount;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public long getVideoModifiedAt() {
+        return videoModifiedAt;
+    }
+
+    public long getJsonModifiedAt() {
+        return jsonModifiedAt;
+    }
 
 }
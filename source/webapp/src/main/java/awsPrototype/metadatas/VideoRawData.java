@@ -1,33 +1,95 @@
 package awsPrototype.metadatas;
 
+/*
+*   What is loaded once per video from its json. The video bytes are not held here, they are cached by block
+*   in VideoBlockCache so only the watched parts stay in memory.
+*/
 public class VideoRawData {
 
-    byte[] bufferVideoStream;
-    int bufferSize;
     String videoName;
-    byte[] bufferJson;
+    CachedPayload json;
+    VideoDetections detections;
+    CachedPayload binaryDetections;
+    VideoHeatmap heatmap;
+    VideoTracks tracks;
+    DetectionGrid grid;
 
-    public VideoRawData(byte[] bufferVideoStream, int bufferSize, String videoName, byte[] bufferJson) {
-        this.bufferVideoStream = bufferVideoStream;
-        this.bufferSize = bufferSize;
+    public VideoRawData(String videoName, CachedPayload json, VideoDetections detections, CachedPayload binaryDetections, VideoHeatmap heatmap, VideoTracks tracks, DetectionGrid grid) {
         this.videoName = videoName;
-        this.bufferJson = bufferJson;
+        this.json = json;
+        this.detections = detections;
+        this.binaryDetections = binaryDetections;
+        this.heatmap = heatmap;
+        this.tracks = tracks;
+        this.grid = grid;
     }
 
-    public byte[] getBufferVideoStream() {
-        return bufferVideoStream;
-    }
-
-    public int getBufferSize() {
-        return bufferSize;
-    }
-    
     public String getVideoName() {
         return videoName;
     }
 
     public byte[] getBufferJson() {
-        return bufferJson;
+        return json.getContent();
+    }
+
+    /*
+    *   The json with its gzip variant and validators
+    */
+    public CachedPayload getJson() {
+        return json;
+    }
+
+    /*
+    *   Detections parsed from the json once, when the video was loaded
+    */
+    public VideoDetections getDetections() {
+        return detections;
+    }
+
+    /*
+    *   Detections in DetectionsBinaryFormat, encoded once when the video was loaded
+    */
+    public CachedPayload getBinaryDetections() {
+        return binaryDetections;
     }
-    
+
+    /*
+    *   Cumulative heatmap grids built from the detections when the video was loaded
+    */
+    public VideoHeatmap getHeatmap() {
+        return heatmap;
+    }
+
+    /*
+    *   Points, path length and dwell of each track, built from the detections when the video was loaded
+    */
+    public VideoTracks getTracks() {
+        return tracks;
+    }
+
+    /*
+    *   Detections by grid cell, built when the video was loaded, the zones are computed from it
+    */
+    public DetectionGrid getGrid() {
+        return grid;
+    }
+
+    /*
+    *   Bytes held by this entry, the json and what is derived from it, used by the byte-weighted video cache
+    */
+    public long getWeight() {
+        long weight = json.getSizeInBytes();
+        if (detections != null)
+            weight += detections.getSizeInBytes();
+        if (binaryDetections != null)
+            weight += binaryDetections.getSizeInBytes();
+        if (heatmap != null)
+            weight += heatmap.getSizeInBytes();
+        if (tracks != null)
+            weight += tracks.getSizeInBytes();
+        if (grid != null)
+            weight += grid.getSizeInBytes();
+        return weight;
+    }
+
 }
@@ -0,0 +1,340 @@
+package awsPrototype.metadatas;
+
+import java.util.Arrays;
+
+/*
+*   The detections regrouped by tracker id (the "index" of the detected object), so a track or the tracks that
+*   stayed the longest are answered without going through the other detections:
+*   - the points of track t are the indexes pointOffsets[t] until pointOffsets[t+1] of pointTimestamps, pointX
+*     and pointY (the box centers, relative to the frame size), in time order; pointDetections are the
+*     detections they come from
+*   - its dwell per grid cell is dwellOffsets[t] until dwellOffsets[t+1] of dwellCells and dwellMs; the time
+*     between two points is given to the cell of the first one, unless the track was lost for more than
+*     maxGapMs. The cell is of the box center or of the footprint, like the heatmap
+*   - tracksByDwell orders the tracks by total dwell, and for each cell c the tracks that dwelt in it are
+*     cellTrackOffsets[c] until cellTrackOffsets[c+1] of cellTracks and cellTrackDwellMs, longest first
+*   Detections without a tracker id (-1) are not part of any track.
+*/
+public class VideoTracks {
+
+    int gridWidth;
+    int gridHeight;
+    int[] trackIds;
+    int[] pointOffsets;
+    long[] pointTimestamps;
+    float[] pointX;
+    float[] pointY;
+    int[] pointDetections;
+    float[] pathLengths;
+    long[] dwellTotals;
+    long dwellSum;
+    int[] dwellOffsets;
+    int[] dwellCells;
+    int[] dwellMs;
+    int[] tracksByDwell;
+    int[] cellTrackOffsets;
+    int[] cellTracks;
+    int[] cellTrackDwellMs;
+    long[] cellDwellSums;
+
+    public static VideoTracks build(VideoDetections detections, int gridWidth, int gridHeight, long maxGapMs, String point) {
+        VideoTracks tracks = new VideoTracks();
+        tracks.gridWidth = gridWidth;
+        tracks.gridHeight = gridHeight;
+        int detectionCount = detections.getDetectionCount();
+        int[] ids = new int[detectionCount];
+        int trackedCount = 0;
+        for (int d = 0; d < detectionCount; d++) {
+            if (detections.getTrackIndex(d) >= 0) {
+                ids[trackedCount++] = detections.getTrackIndex(d);
+            }
+        }
+        Arrays.sort(ids, 0, trackedCount);
+        int trackCount = 0;
+        for (int i = 0; i < trackedCount; i++) {
+            if (i == 0 || ids[i] != ids[i - 1]) {
+                ids[trackCount++] = ids[i];
+            }
+        }
+        tracks.trackIds = Arrays.copyOf(ids, trackCount);
+
+        // counting sort of the detections by track, stable so the points stay in time order
+        int[] trackOfDetection = new int[detectionCount];
+        tracks.pointOffsets = new int[trackCount + 1];
+        for (int d = 0; d < detectionCount; d++) {
+            int trackIndex = detections.getTrackIndex(d);
+            trackOfDetection[d] = trackIndex < 0 ? -1 : Arrays.binarySearch(tracks.trackIds, trackIndex);
+            if (trackOfDetection[d] >= 0) {
+                tracks.pointOffsets[trackOfDetection[d] + 1]++;
+            }
+        }
+        for (int t = 0; t < trackCount; t++) {
+            tracks.pointOffsets[t + 1] += tracks.pointOffsets[t];
+        }
+        tracks.pointTimestamps = new long[trackedCount];
+        tracks.pointX = new float[trackedCount];
+        tracks.pointY = new float[trackedCount];
+        tracks.pointDetections = new int[trackedCount];
+        int[] cellOfPoint = new int[trackedCount];
+        int[] nextPoint = Arrays.copyOf(tracks.pointOffsets, trackCount);
+        boolean footprint = VideoHeatmap.POINT_FOOTPRINT.equals(point);
+        for (int timestampIndex = 0; timestampIndex < detections.getTimestampCount(); timestampIndex++) {
+            for (int d = detections.getFirstDetection(timestampIndex); d < detections.getEndDetection(timestampIndex); d++) {
+                if (trackOfDetection[d] < 0) {
+                    continue;
+                }
+                int p = nextPoint[trackOfDetection[d]]++;
+                float x = detections.getLeft(d) + detections.getWidth(d) / 2;
+                float y = detections.getTop(d) + detections.getHeight(d) / 2;
+                float cellY = footprint ? detections.getTop(d) + detections.getHeight(d) : y;
+                tracks.pointTimestamps[p] = detections.getTimestamp(timestampIndex);
+                tracks.pointX[p] = x;
+                tracks.pointY[p] = y;
+                tracks.pointDetections[p] = d;
+                cellOfPoint[p] = clamp((int) (cellY * gridHeight), gridHeight) * gridWidth + clamp((int) (x * gridWidth), gridWidth);
+            }
+        }
+
+        // path length and dwell per cell of each track, the cells of a track in ascending order
+        int cells = gridWidth * gridHeight;
+        tracks.pathLengths = new float[trackCount];
+        tracks.dwellTotals = new long[trackCount];
+        tracks.dwellOffsets = new int[trackCount + 1];
+        int[] dwellCells = new int[Math.max(16, trackCount)];
+        int[] dwellMs = new int[dwellCells.length];
+        int dwellCount = 0;
+        long[] cellDwell = new long[cells];
+        int[] visitedCells = new int[cells];
+        int[] cellTrackCounts = new int[cells + 1];
+        for (int t = 0; t < trackCount; t++) {
+            int visitedCount = 0;
+            double pathLength = 0;
+            for (int p = tracks.pointOffsets[t]; p < tracks.pointOffsets[t + 1] - 1; p++) {
+                double dx = tracks.pointX[p + 1] - tracks.pointX[p];
+                double dy = tracks.pointY[p + 1] - tracks.pointY[p];
+                pathLength += Math.sqrt(dx * dx + dy * dy);
+                long gapMs = tracks.pointTimestamps[p + 1] - tracks.pointTimestamps[p];
+                if (gapMs <= 0 || gapMs > maxGapMs) {
+                    continue;
+                }
+                if (cellDwell[cellOfPoint[p]] == 0) {
+                    visitedCells[visitedCount++] = cellOfPoint[p];
+                }
+                cellDwell[cellOfPoint[p]] += gapMs;
+            }
+            tracks.pathLengths[t] = (float) pathLength;
+            Arrays.sort(visitedCells, 0, visitedCount);
+            if (dwellCount + visitedCount > dwellCells.length) {
+                int capacity = Math.max(dwellCells.length * 2, dwellCount + visitedCount);
+                dwellCells = Arrays.copyOf(dwellCells, capacity);
+                dwellMs = Arrays.copyOf(dwellMs, capacity);
+            }
+            long dwellTotal = 0;
+            for (int v = 0; v < visitedCount; v++) {
+                int cell = visitedCells[v];
+                dwellCells[dwellCount] = cell;
+                dwellMs[dwellCount++] = (int) Math.min(Integer.MAX_VALUE, cellDwell[cell]);
+                dwellTotal += cellDwell[cell];
+                cellTrackCounts[cell + 1]++;
+                cellDwell[cell] = 0;
+            }
+            tracks.dwellTotals[t] = dwellTotal;
+            tracks.dwellSum += dwellTotal;
+            tracks.dwellOffsets[t + 1] = dwellCount;
+        }
+        tracks.dwellCells = Arrays.copyOf(dwellCells, dwellCount);
+        tracks.dwellMs = Arrays.copyOf(dwellMs, dwellCount);
+
+        // the tracks by total dwell, longest first, then by id
+        long[] order = new long[trackCount];
+        for (int t = 0; t < trackCount; t++) {
+            order[t] = (Integer.MAX_VALUE - Math.min(Integer.MAX_VALUE, tracks.dwellTotals[t])) << 32 | t;
+        }
+        Arrays.sort(order);
+        tracks.tracksByDwell = new int[trackCount];
+        for (int i = 0; i < trackCount; i++) {
+            tracks.tracksByDwell[i] = (int) order[i];
+        }
+
+        // the same per cell, from the dwell of each track
+        tracks.cellTrackOffsets = cellTrackCounts;
+        for (int c = 0; c < cells; c++) {
+            tracks.cellTrackOffsets[c + 1] += tracks.cellTrackOffsets[c];
+        }
+        long[] cellOrder = new long[dwellCount];
+        int[] nextCellTrack = Arrays.copyOf(tracks.cellTrackOffsets, cells);
+        tracks.cellDwellSums = new long[cells];
+        for (int t = 0; t < trackCount; t++) {
+            for (int e = tracks.dwellOffsets[t]; e < tracks.dwellOffsets[t + 1]; e++) {
+                int cell = tracks.dwellCells[e];
+                cellOrder[nextCellTrack[cell]++] = (long) (Integer.MAX_VALUE - tracks.dwellMs[e]) << 32 | t;
+                tracks.cellDwellSums[cell] += tracks.dwellMs[e];
+            }
+        }
+        tracks.cellTracks = new int[dwellCount];
+        tracks.cellTrackDwellMs = new int[dwellCount];
+        for (int c = 0; c < cells; c++) {
+            Arrays.sort(cellOrder, tracks.cellTrackOffsets[c], tracks.cellTrackOffsets[c + 1]);
+        }
+        for (int e = 0; e < dwellCount; e++) {
+            tracks.cellTracks[e] = (int) cellOrder[e];
+            tracks.cellTrackDwellMs[e] = Integer.MAX_VALUE - (int) (cellOrder[e] >>> 32);
+        }
+        return tracks;
+    }
+
+    private static int clamp(int cell, int size) {
+        return cell < 0 ? 0 : (cell >= size ? size - 1 : cell);
+    }
+
+    public int getGridWidth() {
+        return gridWidth;
+    }
+
+    public int getGridHeight() {
+        return gridHeight;
+    }
+
+    public int getTrackCount() {
+        return trackIds.length;
+    }
+
+    /*
+    *   Position of the tracker id among the tracks, negative when no detection has it
+    */
+    public int findTrack(int trackId) {
+        return trackId < 0 ? -1 : Arrays.binarySearch(trackIds, trackId);
+    }
+
+    public int getTrackId(int track) {
+        return trackIds[track];
+    }
+
+    public int getFirstPoint(int track) {
+        return pointOffsets[track];
+    }
+
+    public int getEndPoint(int track) {
+        return pointOffsets[track + 1];
+    }
+
+    /*
+    *   Index of the first point of the track at or after timeMs, or getEndPoint(track) when there is none
+    */
+    public int findPoint(int track, long timeMs) {
+        int index = Arrays.binarySearch(pointTimestamps, pointOffsets[track], pointOffsets[track + 1], timeMs);
+        if (index < 0) {
+            return -index - 1;
+        }
+        // the first of the points at that time
+        while (index > pointOffsets[track] && pointTimestamps[index - 1] == timeMs) {
+            index--;
+        }
+        return index;
+    }
+
+    public long getPointTimestamp(int point) {
+        return pointTimestamps[point];
+    }
+
+    public float getPointX(int point) {
+        return pointX[point];
+    }
+
+    public float getPointY(int point) {
+        return pointY[point];
+    }
+
+    /*
+    *   Index of the detection of the point in VideoDetections
+    */
+    public int getPointDetection(int point) {
+        return pointDetections[point];
+    }
+
+    public long getFirstSeen(int track) {
+        return pointTimestamps[pointOffsets[track]];
+    }
+
+    public long getLastSeen(int track) {
+        return pointTimestamps[pointOffsets[track + 1] - 1];
+    }
+
+    /*
+    *   Length of the polyline of the box centers, x and y being relative to the frame width and height
+    */
+    public float getPathLength(int track) {
+        return pathLengths[track];
+    }
+
+    public long getDwellMs(int track) {
+        return dwellTotals[track];
+    }
+
+    /*
+    *   Average total dwell of the tracks, 0 without tracks
+    */
+    public long getAverageDwellMs() {
+        return trackIds.length == 0 ? 0 : dwellSum / trackIds.length;
+    }
+
+    public int getFirstDwellCell(int track) {
+        return dwellOffsets[track];
+    }
+
+    public int getEndDwellCell(int track) {
+        return dwellOffsets[track + 1];
+    }
+
+    /*
+    *   Grid cell (row major) of an entry between getFirstDwellCell and getEndDwellCell
+    */
+    public int getDwellCell(int entry) {
+        return dwellCells[entry];
+    }
+
+    public int getDwellCellMs(int entry) {
+        return dwellMs[entry];
+    }
+
+    /*
+    *   Track ranked rank by total dwell, 0 being the longest
+    */
+    public int getTrackByDwell(int rank) {
+        return tracksByDwell[rank];
+    }
+
+    /*
+    *   Tracks that dwelt in the cell
+    */
+    public int getCellTrackCount(int cell) {
+        return cellTrackOffsets[cell + 1] - cellTrackOffsets[cell];
+    }
+
+    /*
+    *   Track ranked rank by dwell in the cell, 0 being the longest
+    */
+    public int getCellTrack(int cell, int rank) {
+        return cellTracks[cellTrackOffsets[cell] + rank];
+    }
+
+    public int getCellTrackDwellMs(int cell, int rank) {
+        return cellTrackDwellMs[cellTrackOffsets[cell] + rank];
+    }
+
+    /*
+    *   Average dwell in the cell of the tracks that dwelt in it, 0 when none did
+    */
+    public long getCellAverageDwellMs(int cell) {
+        int count = getCellTrackCount(cell);
+        return count == 0 ? 0 : cellDwellSums[cell] / count;
+    }
+
+    public long getSizeInBytes() {
+        return 4L * (trackIds.length + pointOffsets.length + pointX.length + pointY.length + pointDetections.length + pathLengths.length
+            + dwellOffsets.length + dwellCells.length + dwellMs.length + tracksByDwell.length + cellTrackOffsets.length
+            + cellTracks.length + cellTrackDwellMs.length)
+            + 8L * (pointTimestamps.length + dwellTotals.length + cellDwellSums.length);
+    }
+
+}
@@ -0,0 +1,41 @@
+package awsPrototype.metadatas;
+
+/*
+*   Size and validators of the bytes a video is served from: the downloaded file, or the S3 object while it
+*   downloads. The downloaded file may have been rewritten with the moov first, so it has an ETag of its own
+*   (size and modification time, like Apache) instead of the one of S3, and a range of one version is never
+*   completed with the bytes of the other.
+*/
+public class VideoVersion {
+
+    final long size;
+    final String etag;
+    final long lastModified;
+
+    public VideoVersion(long size, String etag, long lastModified) {
+        this.size = size;
+        this.etag = etag.startsWith("\"") ? etag : "\"" + etag + "\"";
+        this.lastModified = lastModified;
+    }
+
+    public static VideoVersion ofFile(long size, long lastModified) {
+        return new VideoVersion(size, Long.toHexString(size) + "-" + Long.toHexString(lastModified), lastModified);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public boolean isSameVersion(VideoVersion other) {
+        return other != null && size == other.size && etag.equals(other.etag);
+    }
+
+}
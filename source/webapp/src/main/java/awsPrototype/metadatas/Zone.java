@@ -0,0 +1,149 @@
+package awsPrototype.metadatas;
+
+import java.util.Arrays;
+
+/*
+*   A polygon drawn by an operator (entrance, checkout, aisle 4...), its points relative to the frame size like
+*   the boxes. It belongs to one video, or to a camera: every video whose name starts with the camera name.
+*   Stored and received as json: {"name":"checkout","videoName":"a.mp4","points":[[0.1,0.5],[0.4,0.5],[0.4,0.9]]}
+*   or with "camera" instead of "videoName".
+*/
+public class Zone {
+
+    public static final int CELL_OUTSIDE = 0;
+    public static final int CELL_INSIDE = 1;
+    public static final int CELL_PARTIAL = 2;
+
+    String name;
+    String videoName;
+    String camera;
+    float[][] points;
+
+    public Zone(String name, String videoName, String camera, float[][] points) {
+        this.name = name;
+        this.videoName = videoName;
+        this.camera = camera;
+        this.points = points;
+    }
+
+    /*
+    *   Fails with an IllegalArgumentException on a zone without name, without or with both owners, or whose
+    *   points don't make a polygon
+    */
+    public void validate() {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("The zone has no name");
+        }
+        if (isSet(videoName) == isSet(camera)) {
+            throw new IllegalArgumentException("The zone needs either a videoName or a camera");
+        }
+        if (points == null || points.length < 3) {
+            throw new IllegalArgumentException("The zone needs at least 3 points");
+        }
+        for (float[] point : points) {
+            if (point == null || point.length != 2 || !Float.isFinite(point[0]) || !Float.isFinite(point[1])) {
+                throw new IllegalArgumentException("The points of the zone must be [x,y] pairs of numbers");
+            }
+        }
+    }
+
+    /*
+    *   An empty owner, as the json may hold, is no owner
+    */
+    private static boolean isSet(String owner) {
+        return owner != null && !owner.isEmpty();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getVideoName() {
+        return videoName;
+    }
+
+    public String getCamera() {
+        return camera;
+    }
+
+    public float[][] getPoints() {
+        return points;
+    }
+
+    /*
+    *   Applies to the video, by name or by camera
+    */
+    public boolean appliesTo(String video) {
+        return isSet(videoName) ? videoName.equals(video) : video.startsWith(camera);
+    }
+
+    /*
+    *   Identifies the zone among the others, two zones of the same owner and name replace each other
+    */
+    public String getKey() {
+        return (isSet(videoName) ? "video:" + videoName : "camera:" + camera) + "\n" + name;
+    }
+
+    /*
+    *   Changes with the polygon, the results computed for an older polygon are not reused
+    */
+    public String getFingerprint() {
+        return getKey() + "\n" + Arrays.deepToString(points);
+    }
+
+    /*
+    *   Even-odd rule, a point on an edge may be inside or not
+    */
+    public boolean contains(float x, float y) {
+        boolean inside = false;
+        for (int i = 0, j = points.length - 1; i < points.length; j = i++) {
+            float xi = points[i][0], yi = points[i][1];
+            float xj = points[j][0], yj = points[j][1];
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /*
+    *   Whether the rectangle is inside the polygon, outside or crossed by an edge
+    */
+    public int classifyCell(float left, float top, float right, float bottom) {
+        for (int i = 0, j = points.length - 1; i < points.length; j = i++) {
+            if (crosses(points[j][0], points[j][1], points[i][0], points[i][1], left, top, right, bottom)) {
+                return CELL_PARTIAL;
+            }
+        }
+        // no edge touches the rectangle, it is all on one side
+        return contains((left + right) / 2, (top + bottom) / 2) ? CELL_INSIDE : CELL_OUTSIDE;
+    }
+
+    /*
+    *   Whether the segment touches the rectangle: the segment clipped by each side of it (Liang-Barsky) is not empty
+    */
+    private static boolean crosses(float x0, float y0, float x1, float y1, float left, float top, float right, float bottom) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float[] p = { -dx, dx, -dy, dy };
+        float[] q = { x0 - left, right - x0, y0 - top, bottom - y0 };
+        float enter = 0;
+        float exit = 1;
+        for (int k = 0; k < 4; k++) {
+            if (p[k] == 0) {
+                if (q[k] < 0) {
+                    return false;
+                }
+            } else {
+                float t = q[k] / p[k];
+                if (p[k] < 0) {
+                    enter = Math.max(enter, t);
+                } else {
+                    exit = Math.min(exit, t);
+                }
+            }
+        }
+        return enter <= exit;
+    }
+
+}
@@ -0,0 +1,182 @@
+package awsPrototype.metadatas;
+
+import java.util.BitSet;
+
+/*
+*   What happened in a zone of a video, per second of the video:
+*   - occupancy: the most detections in the zone on one frame of that second, the people in it
+*   - entries and exits: the tracks that came in or left during that second. A track seen first in the zone
+*     enters it, one lost for more than maxGapMs or ending in the zone leaves it when it was last seen
+*   - dwell: the time the tracks spent in the zone, from one of their points in it to the next
+*   Detections without a tracker id count in the occupancy only. Computed once per zone and video from the
+*   DetectionGrid: the cells inside the polygon are taken whole, only the points of the cells an edge crosses
+*   are tested.
+*/
+public class ZoneOccupancy {
+
+    int seconds;
+    int[] occupancy;
+    int[] entries;
+    int[] exits;
+    int[] dwellMs;
+    int visitors;
+    int testedDetections;
+
+    public static ZoneOccupancy compute(Zone zone, VideoDetections detections, DetectionGrid grid, VideoTracks tracks, long maxGapMs) {
+        ZoneOccupancy result = new ZoneOccupancy();
+        result.seconds = secondsOf(detections);
+        result.occupancy = new int[result.seconds];
+        result.entries = new int[result.seconds];
+        result.exits = new int[result.seconds];
+        result.dwellMs = new int[result.seconds];
+
+        BitSet inside = new BitSet(detections.getDetectionCount());
+        int gridWidth = grid.getGridWidth();
+        int gridHeight = grid.getGridHeight();
+        for (int row = 0; row < gridHeight; row++) {
+            for (int column = 0; column < gridWidth; column++) {
+                int cell = row * gridWidth + column;
+                int first = grid.getFirstCellDetection(cell);
+                int end = grid.getEndCellDetection(cell);
+                if (first == end) {
+                    continue;
+                }
+                int relation = zone.classifyCell((float) column / gridWidth, (float) row / gridHeight,
+                    (float) (column + 1) / gridWidth, (float) (row + 1) / gridHeight);
+                // the border cells also hold the points clamped from outside the frame
+                boolean border = row == 0 || column == 0 || row == gridHeight - 1 || column == gridWidth - 1;
+                if (relation == Zone.CELL_INSIDE && !border) {
+                    for (int i = first; i < end; i++) {
+                        inside.set(grid.getCellDetection(i));
+                    }
+                } else if (relation != Zone.CELL_OUTSIDE) {
+                    result.testedDetections += end - first;
+                    for (int i = first; i < end; i++) {
+                        int d = grid.getCellDetection(i);
+                        if (zone.contains(grid.getPointX(d), grid.getPointY(d))) {
+                            inside.set(d);
+                        }
+                    }
+                }
+            }
+        }
+
+        // the detections are in time order, counted frame by frame
+        int frame = -1;
+        int frameCount = 0;
+        boolean[] visited = new boolean[tracks.getTrackCount()];
+        for (int d = inside.nextSetBit(0); d >= 0; d = inside.nextSetBit(d + 1)) {
+            int timestampIndex = grid.getTimestampIndex(d);
+            if (timestampIndex != frame) {
+                result.countFrame(detections, frame, frameCount);
+                frame = timestampIndex;
+                frameCount = 0;
+            }
+            frameCount++;
+            int track = tracks.findTrack(detections.getTrackIndex(d));
+            if (track >= 0 && !visited[track]) {
+                visited[track] = true;
+                result.visitors++;
+            }
+        }
+        result.countFrame(detections, frame, frameCount);
+
+        // only the tracks that were in the zone at least once are followed
+        for (int track = 0; track < visited.length; track++) {
+            if (visited[track]) {
+                result.followTrack(tracks, track, inside, maxGapMs);
+            }
+        }
+        return result;
+    }
+
+    private void countFrame(VideoDetections detections, int timestampIndex, int count) {
+        if (timestampIndex < 0) {
+            return;
+        }
+        int second = secondOf(detections.getTimestamp(timestampIndex));
+        occupancy[second] = Math.max(occupancy[second], count);
+    }
+
+    private void followTrack(VideoTracks tracks, int track, BitSet inside, long maxGapMs) {
+        boolean in = false;
+        long previousMs = 0;
+        for (int p = tracks.getFirstPoint(track); p < tracks.getEndPoint(track); p++) {
+            long timeMs = tracks.getPointTimestamp(p);
+            boolean pointInside = inside.get(tracks.getPointDetection(p));
+            if (in && timeMs - previousMs > maxGapMs) {
+                exits[secondOf(previousMs)]++;
+                in = false;
+            }
+            if (in) {
+                dwellMs[secondOf(previousMs)] += (int) (timeMs - previousMs);
+            }
+            if (pointInside != in) {
+                if (pointInside) {
+                    entries[secondOf(timeMs)]++;
+                } else {
+                    exits[secondOf(timeMs)]++;
+                }
+                in = pointInside;
+            }
+            previousMs = timeMs;
+        }
+        if (in) {
+            exits[secondOf(previousMs)]++;
+        }
+    }
+
+    private int secondOf(long timeMs) {
+        return (int) Math.min(seconds - 1, Math.max(0, timeMs) / 1000);
+    }
+
+    /*
+    *   Seconds of the video, the length of the series
+    */
+    /*
+    *   The seconds of the video the detections cover, up to the second of the last frame
+    */
+    public static int secondsOf(VideoDetections detections) {
+        int timestampCount = detections.getTimestampCount();
+        return timestampCount == 0 ? 0 : (int) (Math.max(0, detections.getTimestamp(timestampCount - 1)) / 1000 + 1);
+    }
+
+    public int getSeconds() {
+        return seconds;
+    }
+
+    public int getOccupancy(int second) {
+        return occupancy[second];
+    }
+
+    public int getEntries(int second) {
+        return entries[second];
+    }
+
+    public int getExits(int second) {
+        return exits[second];
+    }
+
+    public int getDwellMs(int second) {
+        return dwellMs[second];
+    }
+
+    /*
+    *   Tracks that were in the zone at least once
+    */
+    public int getVisitors() {
+        return visitors;
+    }
+
+    /*
+    *   Detections of the cells crossed by an edge, tested against the polygon one by one
+    */
+    public int getTestedDetections() {
+        return testedDetections;
+    }
+
+    public long getSizeInBytes() {
+        return 16L * seconds;
+    }
+
+}
@@ -0,0 +1,114 @@
+package awsPrototype.services;
+
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import org.rapidoid.http.MediaType;
+import org.rapidoid.http.Req;
+import org.rapidoid.http.Resp;
+import org.rapidoid.log.Log;
+
+import com.google.gson.Gson;
+
+import awsPrototype.metadatas.RouteMetrics;
+
+/*
+*   Finishes a response once a video is loaded, without holding the Rapidoid worker thread while it loads
+*/
+final class AsyncResponses {
+
+    interface ResponseWriter<T> {
+        void write(T value) throws Exception;
+    }
+
+    private static final Gson GSON = new Gson();
+
+    private AsyncResponses() {
+    }
+
+    /*
+    *   Writes right away when the value is already available (e.g. a cache hit), otherwise turns the request async
+    *   and writes from the thread completing the future. The writer must call resp.done(). An async request is
+    *   recorded in the metrics of its route once written, see InstrumentedRequestHandler.
+    */
+    static <T> Object respondWhenDone(Req req, Resp resp, CompletableFuture<T> future, ResponseWriter<T> writer) throws Exception {
+        if (future.isDone() && !future.isCompletedExceptionally()) {
+            writer.write(future.join());
+            return resp;
+        }
+        RouteMetrics route = InstrumentedRequestHandler.getActiveRoute();
+        long startNanos = InstrumentedRequestHandler.getActiveStartNanos();
+        req.async();
+        future.whenComplete((value, error) -> {
+            try {
+                if (error != null) {
+                    writeError(resp, error);
+                } else {
+                    writer.write(value);
+                }
+            } catch (Exception e) {
+                writeError(resp, e);
+            }
+            if (route != null) {
+                InstrumentedRequestHandler.record(route, startNanos, resp);
+            }
+        });
+        return req;
+    }
+
+    /*
+    *   For a response written in several parts, e.g. streamed in chunks: turns the request async before starting
+    *   it. The future gives the bytes sent once the response is done, it fails only when nothing was written, the
+    *   error is then answered.
+    */
+    static Object respondStreamed(Req req, Resp resp, Supplier<CompletableFuture<Long>> stream) {
+        RouteMetrics route = InstrumentedRequestHandler.getActiveRoute();
+        long startNanos = InstrumentedRequestHandler.getActiveStartNanos();
+        req.async();
+        CompletableFuture<Long> streamed;
+        try {
+            streamed = stream.get();
+        } catch (RuntimeException e) {
+            streamed = new CompletableFuture<>();
+            streamed.completeExceptionally(e);
+        }
+        streamed.whenComplete((bytes, error) -> {
+            if (error != null) {
+                writeError(resp, error);
+            }
+            if (route != null) {
+                route.record(startNanos, resp.code(), error == null ? bytes : 0);
+            }
+        });
+        return req;
+    }
+
+    static void writeError(Resp resp, Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        int code = 500;
+        if (error instanceof FileNotFoundException || error instanceof NoSuchFileException) {
+            code = 404;
+        } else if (error instanceof RejectedExecutionException) {
+            code = 503;
+        } else {
+            Log.error("Error serving the request", error);
+        }
+        Map<String,Object> response = new HashMap<>(2);
+        response.put("error", String.valueOf(error.getMessage()));
+        response.put("code", code);
+        resp.code(code);
+        resp.contentType(MediaType.JSON);
+        resp.body(GSON.toJson(response).getBytes(StandardCharsets.UTF_8));
+        resp.done();
+    }
+
+}
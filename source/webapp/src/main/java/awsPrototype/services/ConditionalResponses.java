@@ -0,0 +1,115 @@
+package awsPrototype.services;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+import org.rapidoid.http.MediaType;
+import org.rapidoid.http.Req;
+import org.rapidoid.http.Resp;
+
+import awsPrototype.metadatas.CachedPayload;
+
+/*
+*   Writes a CachedPayload with its validators: 304 when the client already has it, otherwise the gzip
+*   variant when accepted, so no compression or hashing happens per request
+*/
+final class ConditionalResponses {
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+
+    private ConditionalResponses() {
+    }
+
+    static void writePayload(Req req, Resp resp, CachedPayload payload, MediaType contentType) {
+        writePayload(req, resp, payload, contentType, "Accept-Encoding");
+    }
+
+    /*
+    *   vary lists the request headers the payload was chosen from, Accept-Encoding included. Calls resp.done().
+    */
+    static void writePayload(Req req, Resp resp, CachedPayload payload, MediaType contentType, String vary) {
+        boolean gzip = payload.getGzipContent() != null && acceptsGzip(req.header("Accept-Encoding", null));
+        resp.header("ETag", gzip ? payload.getGzipEtag() : payload.getEtag());
+        resp.header("Last-Modified", formatHttpDate(payload.getLastModified()));
+        resp.header("Cache-Control", "no-cache");
+        resp.header("Vary", vary);
+        if (isNotModified(req, payload)) {
+            resp.code(304);
+            resp.body(new byte[0]);
+        } else {
+            resp.contentType(contentType);
+            if (gzip) {
+                resp.header("Content-Encoding", "gzip");
+                resp.body(payload.getGzipContent());
+            } else {
+                resp.body(payload.getContent());
+            }
+        }
+        resp.done();
+    }
+
+    /*
+    *   If-None-Match wins over If-Modified-Since. Both variants match, like the gzip ETag suffix of Apache.
+    */
+    private static boolean isNotModified(Req req, CachedPayload payload) {
+        String ifNoneMatch = req.header("If-None-Match", null);
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(payload.getEtag()) || tag.equals(payload.getGzipEtag())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = req.header("If-Modified-Since", null);
+        if (ifModifiedSince != null) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return payload.getLastModified() <= since;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /*
+    *   gzip (or *) listed in Accept-Encoding without q=0
+    */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            String name = parameters[0].trim();
+            if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+                for (int i = 1; i < parameters.length; i++) {
+                    String parameter = parameters[i].trim();
+                    if (parameter.startsWith("q=")) {
+                        try {
+                            return Double.parseDouble(parameter.substring(2)) > 0;
+                        } catch (NumberFormatException e) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static String formatHttpDate(long timeMillis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(timeMillis).atZone(ZoneOffset.UTC));
+    }
+
+}
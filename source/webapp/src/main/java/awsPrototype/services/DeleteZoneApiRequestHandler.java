@@ -0,0 +1,33 @@
+package awsPrototype.services;
+
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+
+import org.rapidoid.http.MediaType;
+import org.rapidoid.http.Req;
+import org.rapidoid.http.ReqRespHandler;
+import org.rapidoid.http.Resp;
+
+import awsPrototype.helpers.ZoneUtil;
+
+public class DeleteZoneApiRequestHandler implements ReqRespHandler {
+
+    /*
+    *   Deletes the zone name of the videoName or of the camera, 404 when there is none
+    */
+    @Override
+    public Object execute(Req req, Resp resp) {
+        String name = req.param("name");
+        String videoName = req.param("videoName", null);
+        String camera = req.param("camera", null);
+        if (!ZoneUtil.getInstance().deleteZone(videoName, camera, name)) {
+            AsyncResponses.writeError(resp, new FileNotFoundException("No zone " + name + " of " + (videoName != null ? videoName : camera)));
+            return resp;
+        }
+        resp.contentType(MediaType.JSON);
+        resp.body("{\"deleted\":true}".getBytes(StandardCharsets.UTF_8));
+        resp.done();
+        return resp;
+    }
+
+}
@@ -0,0 +1,69 @@
+package awsPrototype.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.rapidoid.http.Req;
+import org.rapidoid.http.ReqRespHandler;
+import org.rapidoid.http.Resp;
+
+import awsPrototype.helpers.ArtifactStore;
+import awsPrototype.helpers.VideoBlockCache;
+import awsPrototype.helpers.VideoCacheUtil;
+import awsPrototype.helpers.VideoFileUtil;
+import awsPrototype.metadatas.VideoBlockStats;
+
+public class GetCacheStatsApiRequestHandler implements ReqRespHandler {
+
+    /*
+    *   Occupancy of the json and block caches, the artifacts mapped or derived since the start, and the block hit
+    *   ratio of every video served, most requested first
+    */
+    @Override
+    public Object execute(Req req, Resp resp) {
+        VideoCacheUtil videoCacheUtil = VideoCacheUtil.getInstance();
+        VideoBlockCache videoBlockCache = videoCacheUtil.getVideoBlockCache();
+
+        Map<String,Object> videoCache = new LinkedHashMap<>();
+        videoCache.put("entries", videoCacheUtil.getVideoCacheSize());
+        videoCache.put("weight", videoCacheUtil.getVideoCacheWeight());
+        videoCache.put("evictions", videoCacheUtil.getVideoCacheEvictionCount());
+
+        Map<String,Object> blockCache = new LinkedHashMap<>();
+        blockCache.put("blocks", videoBlockCache.size());
+        blockCache.put("bytes", videoBlockCache.weight());
+        blockCache.put("maximumBytes", videoBlockCache.maximumWeight());
+        blockCache.put("evictions", videoBlockCache.evictionCount());
+
+        ArtifactStore artifactStore = VideoFileUtil.getInstance().getArtifactStore();
+        Map<String,Object> artifacts = new LinkedHashMap<>();
+        artifacts.put("mapped", artifactStore.getMappedArtifacts());
+        artifacts.put("derived", artifactStore.getDerivedArtifacts());
+        artifacts.put("written", artifactStore.getWrittenArtifacts());
+
+        List<VideoBlockStats> stats = videoBlockCache.getVideoStats();
+        stats.sort(Comparator.comparingLong((VideoBlockStats videoStats) -> videoStats.getHits() + videoStats.getMisses()).reversed());
+        List<Map<String,Object>> videos = new ArrayList<>(stats.size());
+        for (VideoBlockStats videoStats : stats) {
+            Map<String,Object> video = new LinkedHashMap<>();
+            video.put("videoName", videoStats.getVideoName());
+            video.put("hits", videoStats.getHits());
+            video.put("misses", videoStats.getMisses());
+            video.put("hitRatio", videoStats.getHitRatio());
+            video.put("loadedBytes", videoStats.getLoadedBytes());
+            video.put("prefetchedBytes", videoStats.getPrefetchedBytes());
+            videos.add(video);
+        }
+
+        Map<String,Object> response = new LinkedHashMap<>();
+        response.put("videoCache", videoCache);
+        response.put("blockCache", blockCache);
+        response.put("artifacts", artifacts);
+        response.put("videos", videos);
+        return response;
+    }
+
+}
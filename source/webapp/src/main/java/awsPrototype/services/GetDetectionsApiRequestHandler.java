@@ -0,0 +1,91 @@
+package awsPrototype.services;
+
+import java.nio.charset.StandardCharsets;
+
+import org.rapidoid.http.MediaType;
+import org.rapidoid.http.Req;
+import org.rapidoid.http.ReqRespHandler;
+import org.rapidoid.http.Resp;
+
+import awsPrototype.helpers.VideoCacheUtil;
+import awsPrototype.metadatas.VideoDetections;
+
+public class GetDetectionsApiRequestHandler implements ReqRespHandler {
+
+    private final VideoCacheUtil videoCacheUtil;
+
+    public GetDetectionsApiRequestHandler() {
+        this.videoCacheUtil = VideoCacheUtil.getInstance();
+    }
+
+    /*
+    *   Detections with a timestamp in [fromMs, toMs), grouped by timestamp, so the player only pulls the window it's playing:
+    *   {"objectName":"person","fromMs":0,"toMs":10000,"frames":[{"timestamp":0,"detections":[[index,left,top,width,height],...]}]}
+    */
+    @Override
+    public Object execute(Req req, Resp resp) throws Exception {
+        String videoName = req.param("videoName");
+        long fromMs;
+        long toMs;
+        try {
+            fromMs = Long.parseLong(req.param("fromMs", "0"));
+            toMs = Long.parseLong(req.param("toMs", String.valueOf(Long.MAX_VALUE)));
+        } catch (IllegalArgumentException e) {
+            resp.code(400);
+            resp.contentType(MediaType.PLAIN_TEXT_UTF_8);
+            resp.body(("Invalid fromMs or toMs: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            resp.done();
+            return resp;
+        }
+        return AsyncResponses.respondWhenDone(req, resp, videoCacheUtil.getVideoRawDataAsync(videoName), videoRawData -> {
+            resp.contentType(MediaType.JSON);
+            resp.body(toJson(videoRawData.getDetections(), fromMs, toMs).getBytes(StandardCharsets.UTF_8));
+            resp.done();
+        });
+    }
+
+    /*
+    *   The body of a request for [fromMs, toMs), public for DetectionsFormatBenchmark. A box with a NaN or
+    *   infinite coordinate has no JSON number, its detection is left out.
+    */
+    public static String toJson(VideoDetections detections, long fromMs, long toMs) {
+        int first = detections.findTimestampIndex(fromMs);
+        int end = Math.max(first, detections.findTimestampIndex(toMs));
+        StringBuilder json = new StringBuilder(64 + (detections.getFirstDetection(end) - detections.getFirstDetection(first)) * 48);
+        json.append("{\"objectName\":\"").append(detections.getObjectName())
+            .append("\",\"fromMs\":").append(fromMs)
+            .append(",\"toMs\":").append(toMs)
+            .append(",\"frames\":[");
+        for (int t = first; t < end; t++) {
+            if (t > first) {
+                json.append(',');
+            }
+            json.append("{\"timestamp\":").append(detections.getTimestamp(t)).append(",\"detections\":[");
+            boolean firstDetection = true;
+            for (int d = detections.getFirstDetection(t); d < detections.getEndDetection(t); d++) {
+                if (!hasFiniteBox(detections, d)) {
+                    continue;
+                }
+                if (!firstDetection) {
+                    json.append(',');
+                }
+                firstDetection = false;
+                json.append('[').append(detections.getTrackIndex(d))
+                    .append(',').append(detections.getLeft(d))
+                    .append(',').append(detections.getTop(d))
+                    .append(',').append(detections.getWidth(d))
+                    .append(',').append(detections.getHeight(d))
+                    .append(']');
+            }
+            json.append("]}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    private static boolean hasFiniteBox(VideoDetections detections, int d) {
+        return Float.isFinite(detections.getLeft(d)) && Float.isFinite(detections.getTop(d))
+            && Float.isFinite(detections.getWidth(d)) && Float.isFinite(detections.getHeight(d));
+    }
+
+}
@@ -0,0 +1,58 @@
+package awsPrototype.services;
+
+import java.nio.charset.StandardCharsets;
+
+import org.rapidoid.http.MediaType;
+import org.rapidoid.http.Req;
+import org.rapidoid.http.ReqRespHandler;
+import org.rapidoid.http.Resp;
+
+import awsPrototype.helpers.VideoCacheUtil;
+import awsPrototype.metadatas.VideoHeatmap;
+
+public class GetHeatmapApiRequestHandler implements ReqRespHandler {
+
+    private final VideoCacheUtil videoCacheUtil;
+
+    public GetHeatmapApiRequestHandler() {
+        this.videoCacheUtil = VideoCacheUtil.getInstance();
+    }
+
+    /*
+    *   Detections per grid cell in the time window [fromMs, toMs], at the bucket granularity of the heatmap:
+    *   {"gridWidth":32,"gridHeight":18,"bucketMs":1000,"fromMs":0,"toMs":60000,"max":42,"cells":[row major counts]}
+    */
+    @Override
+    public Object execute(Req req, Resp resp) throws Exception {
+        String videoName = req.param("videoName");
+        long fromMs = Long.parseLong(req.param("fromMs", "0"));
+        long toMs = Long.parseLong(req.param("toMs", String.valueOf(Long.MAX_VALUE)));
+        return AsyncResponses.respondWhenDone(req, resp, videoCacheUtil.getVideoRawDataAsync(videoName), videoRawData -> {
+            resp.contentType(MediaType.JSON);
+            resp.body(toJson(videoRawData.getHeatmap(), fromMs, toMs).getBytes(StandardCharsets.UTF_8));
+            resp.done();
+        });
+    }
+
+    private String toJson(VideoHeatmap heatmap, long fromMs, long toMs) {
+        int[] cells = heatmap.countCells(fromMs, toMs);
+        int max = 0;
+        StringBuilder json = new StringBuilder(128 + cells.length * 4);
+        json.append("{\"gridWidth\":").append(heatmap.getGridWidth())
+            .append(",\"gridHeight\":").append(heatmap.getGridHeight())
+            .append(",\"bucketMs\":").append(heatmap.getBucketMs())
+            .append(",\"fromMs\":").append(fromMs)
+            .append(",\"toMs\":").append(toMs)
+            .append(",\"cells\":[");
+        for (int c = 0; c < cells.length; c++) {
+            if (c > 0) {
+                json.append(',');
+            }
+            json.append(cells[c]);
+            max = Math.max(max, cells[c]);
+        }
+        json.append("],\"max\":").append(max).append('}');
+        return json.toString();
+    }
+
+}
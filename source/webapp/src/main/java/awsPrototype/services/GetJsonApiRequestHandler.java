@@ -1,29 +1,47 @@
 package awsPrototype.services;
 
-import java.io.FileNotFoundException;
-import java.io.IOException;
-
+import org.rapidoid.http.MediaType;
 import org.rapidoid.http.Req;
 import org.rapidoid.http.ReqRespHandler;
 import org.rapidoid.http.Resp;
 
 import awsPrototype.helpers.VideoCacheUtil;
-import awsPrototype.metadatas.VideoRawData;
+import awsPrototype.metadatas.DetectionsBinaryFormat;
 
 public class GetJsonApiRequestHandler implements ReqRespHandler {
 
+    private static final MediaType DETECTIONS_MEDIA_TYPE = MediaType.create(DetectionsBinaryFormat.MEDIA_TYPE);
+
     private final VideoCacheUtil videoCacheUtil;
 
     public GetJsonApiRequestHandler() {
         this.videoCacheUtil = VideoCacheUtil.getInstance();
     }
 
+    /*
+    *   The detections json as uploaded by the worker, or the DetectionsBinaryFormat encoding
+    *   with format=binary or "Accept: application/x-video-detections"
+    */
     @Override
-    public Object execute(Req req, Resp resp) throws FileNotFoundException, IOException {
+    public Object execute(Req req, Resp resp) throws Exception {
         String videoName = req.param("videoName");
-        VideoRawData videoRawData = videoCacheUtil.getVideoRawData(videoName);
-        byte[] bufferJson = videoRawData.getBufferJson();
-        return new String(bufferJson);
+        boolean binary = acceptsBinary(req);
+        return AsyncResponses.respondWhenDone(req, resp, videoCacheUtil.getVideoRawDataAsync(videoName), videoRawData -> {
+            if (binary && videoRawData.getBinaryDetections() != null) {
+                ConditionalResponses.writePayload(req, resp, videoRawData.getBinaryDetections(), DETECTIONS_MEDIA_TYPE, "Accept, Accept-Encoding");
+            } else {
+                ConditionalResponses.writePayload(req, resp, videoRawData.getJson(), MediaType.JSON, "Accept, Accept-Encoding");
+            }
+        });
+    }
+
+    private boolean acceptsBinary(Req req) {
+        String format = req.param("format", null);
+        if (format != null) {
+            return "binary".equalsIgnoreCase(format);
+        }
+        String accept = req.header("Accept", null);
+        return accept != null && accept.contains(DetectionsBinaryFormat.MEDIA_TYPE);
     }
 
 }
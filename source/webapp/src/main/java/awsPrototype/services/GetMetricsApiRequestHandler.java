@@ -0,0 +1,65 @@
+package awsPrototype.services;
+
+import java.nio.charset.StandardCharsets;
+
+import org.rapidoid.http.MediaType;
+import org.rapidoid.http.Req;
+import org.rapidoid.http.ReqRespHandler;
+import org.rapidoid.http.Resp;
+
+import awsPrototype.helpers.ArtifactStore;
+import awsPrototype.helpers.MetricsUtil;
+import awsPrototype.helpers.S3BlockReader;
+import awsPrototype.helpers.S3DownloadManager;
+import awsPrototype.helpers.S3Util;
+import awsPrototype.helpers.SqsUtil;
+import awsPrototype.helpers.VideoFileUtil;
+
+public class GetMetricsApiRequestHandler implements ReqRespHandler {
+
+    private static final MediaType PROMETHEUS_TEXT = MediaType.create("text/plain; version=0.0.4; charset=utf-8");
+
+    /*
+    *   The metrics of MetricsUtil in the Prometheus text format, followed by the counters the S3, SQS and
+    *   artifact helpers keep themselves. The download throughput is the rate of s3_downloaded_bytes_total.
+    */
+    @Override
+    public Object execute(Req req, Resp resp) {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        MetricsUtil.getInstance().writePrometheus(out);
+
+        S3Util s3Util = S3Util.getInstance();
+        S3DownloadManager downloadManager = s3Util.getDownloadManager();
+        S3BlockReader blockReader = s3Util.getBlockReader();
+        MetricsUtil.writeHeader(out, "s3_connection_ok", "gauge", "1 when the last S3 call succeeded");
+        MetricsUtil.writeSample(out, "s3_connection_ok", s3Util.isConnectionWithAWSIsOK() ? 1 : 0);
+        MetricsUtil.writeHeader(out, "s3_downloaded_bytes_total", "counter", "Bytes of the objects downloaded to the temp folder");
+        MetricsUtil.writeSample(out, "s3_downloaded_bytes_total", downloadManager.getDownloadedBytes());
+        MetricsUtil.writeHeader(out, "s3_downloads_total", "counter", "Downloads finished, by result");
+        MetricsUtil.writeSample(out, "s3_downloads_total", downloadManager.getCompletedDownloads(), "result", "ok");
+        MetricsUtil.writeSample(out, "s3_downloads_total", downloadManager.getUnverifiedDownloads(), "result", "unverified");
+        MetricsUtil.writeSample(out, "s3_downloads_total", downloadManager.getFailedDownloads(), "result", "failed");
+        MetricsUtil.writeHeader(out, "s3_read_through_bytes_total", "counter", "Bytes of the blocks read from S3 while their video downloads");
+        MetricsUtil.writeSample(out, "s3_read_through_bytes_total", blockReader.getFetchedBytes());
+        MetricsUtil.writeHeader(out, "s3_read_through_waiting_requests", "gauge", "Block reads waiting for one of the s3.max.concurrent.block.reads GETs");
+        MetricsUtil.writeSample(out, "s3_read_through_waiting_requests", blockReader.getWaitingRequests());
+
+        SqsUtil sqsUtil = SqsUtil.getInstance();
+        MetricsUtil.writeHeader(out, "sqs_messages_total", "counter", "S3 event notifications, by what happened to them");
+        MetricsUtil.writeSample(out, "sqs_messages_total", sqsUtil.getReceivedMessages(), "state", "received");
+        MetricsUtil.writeSample(out, "sqs_messages_total", sqsUtil.getDeletedMessages(), "state", "deleted");
+
+        ArtifactStore artifactStore = VideoFileUtil.getInstance().getArtifactStore();
+        MetricsUtil.writeHeader(out, "video_artifacts_total", "counter", "Data derived from the jsons, by where it came from");
+        MetricsUtil.writeSample(out, "video_artifacts_total", artifactStore.getMappedArtifacts(), "source", "mapped");
+        MetricsUtil.writeSample(out, "video_artifacts_total", artifactStore.getDerivedArtifacts(), "source", "derived");
+        MetricsUtil.writeHeader(out, "videos", "gauge", "Videos listed");
+        MetricsUtil.writeSample(out, "videos", VideoFileUtil.getInstance().getVideoFileCount());
+
+        resp.contentType(PROMETHEUS_TEXT);
+        resp.body(out.toString().getBytes(StandardCharsets.UTF_8));
+        resp.done();
+        return resp;
+    }
+
+}
@@ -0,0 +1,80 @@
+package awsPrototype.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.rapidoid.http.MediaType;
+import org.rapidoid.http.Req;
+import org.rapidoid.http.ReqRespHandler;
+import org.rapidoid.http.Resp;
+
+import awsPrototype.helpers.ConcurrentLRUCache;
+import awsPrototype.helpers.MetricsUtil;
+import awsPrototype.metadatas.CachedPayload;
+import awsPrototype.metadatas.Constants;
+
+/*
+*   Serves the files of resources/static in place of the Rapidoid static handler, which sends no validators
+*   and never compresses. Each file is read, hashed and gzipped on its first request only, and kept within
+*   static.asset.cache.bytes with its gzip variant.
+*/
+public class GetStaticAssetRequestHandler implements ReqRespHandler {
+
+    private static final String STATIC_ROOT = "/static";
+
+    private final ConcurrentLRUCache<String, CachedPayload> assets = new ConcurrentLRUCache<String, CachedPayload>(Constants.STATIC_ASSET_CACHE_BYTES,
+        (path, payload) -> payload.getSizeInBytes());
+
+    public GetStaticAssetRequestHandler() {
+        MetricsUtil.getInstance().registerCache("static_assets", assets);
+    }
+
+    @Override
+    public Object execute(Req req, Resp resp) throws Exception {
+        String path = req.path();
+        if (path.endsWith("/")) {
+            path = path + "index.html";
+        }
+        CachedPayload payload = assets.get(path);
+        if (payload == null) {
+            if (path.contains("..") || path.contains("\\")) {
+                AsyncResponses.writeError(resp, new FileNotFoundException(path));
+                return resp;
+            }
+            payload = loadAsset(path);
+            if (payload == null) {
+                AsyncResponses.writeError(resp, new FileNotFoundException(path));
+                return resp;
+            }
+            assets.put(path, payload);
+        }
+        MediaType contentType = MediaType.getByFileName(path);
+        ConditionalResponses.writePayload(req, resp, payload, contentType != null ? contentType : MediaType.APPLICATION_OCTET_STREAM);
+        return resp;
+    }
+
+    private CachedPayload loadAsset(String path) throws IOException {
+        URL url = GetStaticAssetRequestHandler.class.getResource(STATIC_ROOT + path);
+        // the directories of an exploded classpath would come back as listings
+        if (url == null || ("file".equals(url.getProtocol()) && new File(url.getPath()).isDirectory())) {
+            return null;
+        }
+        URLConnection connection = url.openConnection();
+        long lastModified = connection.getLastModified();
+        try (InputStream input = connection.getInputStream()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return CachedPayload.of(output.toByteArray(), lastModified > 0 ? lastModified : System.currentTimeMillis());
+        }
+    }
+
+}
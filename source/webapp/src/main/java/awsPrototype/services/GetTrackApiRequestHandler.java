@@ -0,0 +1,90 @@
+package awsPrototype.services;
+
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+
+import org.rapidoid.http.MediaType;
+import org.rapidoid.http.Req;
+import org.rapidoid.http.ReqRespHandler;
+import org.rapidoid.http.Resp;
+
+import awsPrototype.helpers.VideoCacheUtil;
+import awsPrototype.metadatas.VideoTracks;
+
+public class GetTrackApiRequestHandler implements ReqRespHandler {
+
+    private final VideoCacheUtil videoCacheUtil;
+
+    public GetTrackApiRequestHandler() {
+        this.videoCacheUtil = VideoCacheUtil.getInstance();
+    }
+
+    /*
+    *   The polyline of one track (its box centers, relative to the frame size) in the time window [fromMs, toMs],
+    *   with its totals over the whole video and its dwell per grid cell (row major, like the heatmap):
+    *   {"trackId":3,"firstSeenMs":1200,"lastSeenMs":9800,"pathLength":1.37,"dwellMs":8400,"gridWidth":32,"gridHeight":18,
+    *    "points":[[1200,0.41,0.52],...],"cells":[[cell,dwellMs],...]}
+    *   Found by a binary search, only the points in the window are read.
+    */
+    @Override
+    public Object execute(Req req, Resp resp) throws Exception {
+        String videoName = req.param("videoName");
+        int trackId;
+        long fromMs;
+        long toMs;
+        try {
+            trackId = Integer.parseInt(req.param("trackId"));
+            fromMs = Long.parseLong(req.param("fromMs", "0"));
+            toMs = Long.parseLong(req.param("toMs", String.valueOf(Long.MAX_VALUE)));
+        } catch (IllegalArgumentException e) {
+            resp.code(400);
+            resp.contentType(MediaType.PLAIN_TEXT_UTF_8);
+            resp.body(("Invalid trackId, fromMs or toMs: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            resp.done();
+            return resp;
+        }
+        return AsyncResponses.respondWhenDone(req, resp, videoCacheUtil.getVideoRawDataAsync(videoName), videoRawData -> {
+            VideoTracks tracks = videoRawData.getTracks();
+            int track = tracks.findTrack(trackId);
+            if (track < 0) {
+                AsyncResponses.writeError(resp, new FileNotFoundException("No track " + trackId + " in the video " + videoName));
+                return;
+            }
+            resp.contentType(MediaType.JSON);
+            resp.body(toJson(tracks, track, fromMs, toMs).getBytes(StandardCharsets.UTF_8));
+            resp.done();
+        });
+    }
+
+    private String toJson(VideoTracks tracks, int track, long fromMs, long toMs) {
+        int firstPoint = tracks.findPoint(track, fromMs);
+        int endPoint = tracks.getEndPoint(track);
+        StringBuilder json = new StringBuilder(256 + (endPoint - firstPoint) * 32);
+        json.append("{\"trackId\":").append(tracks.getTrackId(track))
+            .append(",\"firstSeenMs\":").append(tracks.getFirstSeen(track))
+            .append(",\"lastSeenMs\":").append(tracks.getLastSeen(track))
+            .append(",\"pathLength\":").append(tracks.getPathLength(track))
+            .append(",\"dwellMs\":").append(tracks.getDwellMs(track))
+            .append(",\"gridWidth\":").append(tracks.getGridWidth())
+            .append(",\"gridHeight\":").append(tracks.getGridHeight())
+            .append(",\"points\":[");
+        for (int p = firstPoint; p < endPoint && tracks.getPointTimestamp(p) <= toMs; p++) {
+            if (p > firstPoint) {
+                json.append(',');
+            }
+            json.append('[').append(tracks.getPointTimestamp(p))
+                .append(',').append(tracks.getPointX(p))
+                .append(',').append(tracks.getPointY(p)).append(']');
+        }
+        json.append("],\"cells\":[");
+        for (int e = tracks.getFirstDwellCell(track); e < tracks.getEndDwellCell(track); e++) {
+            if (e > tracks.getFirstDwellCell(track)) {
+                json.append(',');
+            }
+            json.append('[').append(tracks.getDwellCell(e)).append(',').append(tracks.getDwellCellMs(e)).append(']');
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+}
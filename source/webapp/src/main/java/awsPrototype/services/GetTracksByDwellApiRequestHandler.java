@@ -0,0 +1,91 @@
+package awsPrototype.services;
+
+import java.nio.charset.StandardCharsets;
+
+import org.rapidoid.http.MediaType;
+import org.rapidoid.http.Req;
+import org.rapidoid.http.ReqRespHandler;
+import org.rapidoid.http.Resp;
+
+import awsPrototype.helpers.VideoCacheUtil;
+import awsPrototype.metadatas.VideoTracks;
+
+public class GetTracksByDwellApiRequestHandler implements ReqRespHandler {
+
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAX_LIMIT = 1000;
+
+    private final VideoCacheUtil videoCacheUtil;
+
+    public GetTracksByDwellApiRequestHandler() {
+        this.videoCacheUtil = VideoCacheUtil.getInstance();
+    }
+
+    /*
+    *   The limit tracks that stayed the longest, in the whole frame or in one grid cell (row major, like the heatmap):
+    *   {"gridWidth":32,"gridHeight":18,"cell":-1,"trackCount":57,"averageDwellMs":5230,
+    *    "tracks":[{"trackId":3,"dwellMs":8400,"firstSeenMs":1200,"lastSeenMs":9800,"pathLength":1.37},...]}
+    *   "dwellMs" is the dwell in the cell when one is given, the counts and average are then of the tracks that
+    *   dwelt in it. The tracks are kept sorted by dwell, only the limit first ones are read.
+    */
+    @Override
+    public Object execute(Req req, Resp resp) throws Exception {
+        String videoName = req.param("videoName");
+        int limit;
+        int cell;
+        try {
+            limit = Integer.parseInt(req.param("limit", String.valueOf(DEFAULT_LIMIT)));
+            cell = Integer.parseInt(req.param("cell", "-1"));
+            if (limit < 1 || limit > MAX_LIMIT) {
+                throw new IllegalArgumentException("The limit must be between 1 and " + MAX_LIMIT);
+            }
+        } catch (IllegalArgumentException e) {
+            return badRequest(resp, e.getMessage());
+        }
+        return AsyncResponses.respondWhenDone(req, resp, videoCacheUtil.getVideoRawDataAsync(videoName), videoRawData -> {
+            VideoTracks tracks = videoRawData.getTracks();
+            if (cell < -1 || cell >= tracks.getGridWidth() * tracks.getGridHeight()) {
+                badRequest(resp, "No cell " + cell + " in a grid of " + tracks.getGridWidth() + "x" + tracks.getGridHeight());
+                return;
+            }
+            resp.contentType(MediaType.JSON);
+            resp.body(toJson(tracks, cell, limit).getBytes(StandardCharsets.UTF_8));
+            resp.done();
+        });
+    }
+
+    private static Resp badRequest(Resp resp, String message) {
+        resp.code(400);
+        resp.contentType(MediaType.PLAIN_TEXT_UTF_8);
+        resp.body(String.valueOf(message).getBytes(StandardCharsets.UTF_8));
+        resp.done();
+        return resp;
+    }
+
+    private String toJson(VideoTracks tracks, int cell, int limit) {
+        int trackCount = cell < 0 ? tracks.getTrackCount() : tracks.getCellTrackCount(cell);
+        int count = Math.min(limit, trackCount);
+        StringBuilder json = new StringBuilder(160 + count * 112);
+        json.append("{\"gridWidth\":").append(tracks.getGridWidth())
+            .append(",\"gridHeight\":").append(tracks.getGridHeight())
+            .append(",\"cell\":").append(cell)
+            .append(",\"trackCount\":").append(trackCount)
+            .append(",\"averageDwellMs\":").append(cell < 0 ? tracks.getAverageDwellMs() : tracks.getCellAverageDwellMs(cell))
+            .append(",\"tracks\":[");
+        for (int rank = 0; rank < count; rank++) {
+            int track = cell < 0 ? tracks.getTrackByDwell(rank) : tracks.getCellTrack(cell, rank);
+            long dwellMs = cell < 0 ? tracks.getDwellMs(track) : tracks.getCellTrackDwellMs(cell, rank);
+            if (rank > 0) {
+                json.append(',');
+            }
+            json.append("{\"trackId\":").append(tracks.getTrackId(track))
+                .append(",\"dwellMs\":").append(dwellMs)
+                .append(",\"firstSeenMs\":").append(tracks.getFirstSeen(track))
+                .append(",\"lastSeenMs\":").append(tracks.getLastSeen(track))
+                .append(",\"pathLength\":").append(tracks.getPathLength(track)).append('}');
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+}
@@ -1,73 +1,303 @@
 package awsPrototype.services;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
+import org.rapidoid.http.MediaType;
 import org.rapidoid.http.Req;
 import org.rapidoid.http.ReqRespHandler;
 import org.rapidoid.http.Resp;
+import org.rapidoid.http.impl.ReqImpl;
+import org.rapidoid.log.Log;
+import org.rapidoid.net.abstracts.Channel;
 
+import awsPrototype.helpers.VideoBlockCache;
 import awsPrototype.helpers.VideoCacheUtil;
+import awsPrototype.helpers.VideoPrefetcher;
+import awsPrototype.metadatas.ByteRange;
 import awsPrototype.metadatas.Constants;
-import awsPrototype.metadatas.VideoRawData;
+import awsPrototype.metadatas.VideoVersion;
 
 public class GetVideoApiRequestHandler implements ReqRespHandler {
 
-    private final VideoCacheUtil videoCacheUtil;
+    private static final long STREAM_QUEUE_POLL_MS = 5;
+
+    private final VideoBlockCache videoBlockCache;
+
+    private final VideoPrefetcher videoPrefetcher;
 
     public GetVideoApiRequestHandler() {
-        this.videoCacheUtil = VideoCacheUtil.getInstance();
+        this.videoBlockCache = VideoCacheUtil.getInstance().getVideoBlockCache();
+        this.videoPrefetcher = VideoCacheUtil.getInstance().getVideoPrefetcher();
     }
 
     /*
     *   This will create a range download for the video and let the browser controls the skiping of video frames
     *   Info in the page https://developer.mozilla.org/en-US/docs/Web/HTTP/Range_requests
+    *   The body is assembled from the cached blocks of the video; a range within one block is a read-only slice
+    *   of it, so serving it doesn't copy the bytes. A block not cached yet is answered once it is read, from the
+    *   downloaded file or from S3 while the video downloads (s3.read.through). The blocks a client will likely
+    *   ask for next are read ahead in background. A request without Range gets the whole video.
+    *   The layout of a video changes when its download ends and it is rewritten with the moov first, so the
+    *   responses carry the ETag and Last-Modified of the version they are read from, and a Range with an If-Range
+    *   of another version gets the whole current one.
     */
     @Override
     public Object execute(Req req, Resp resp) throws Exception {
             String videoName = req.param("videoName");
-            VideoRawData videoRawData = videoCacheUtil.getVideoRawData(videoName);
-            byte[] bufferVideoStream = videoRawData.getBufferVideoStream();
-            int rangeStart = 0;
-            int length = Constants.BLOCK_SIZE;
-            
-            int rangeEnd = rangeStart + length;
             //Http header Range: bytes=0-1023
-            String range = req.header("Range",null);
-            int videoBufferSize = videoRawData.getBufferSize();
-            if (range==null||"".equals(range)) {
-                range = "bytes=0-" + String.valueOf(videoBufferSize);
+            String rangeHeader = req.header("Range",null);
+            String ifRange = req.header("If-Range", null);
+            String client = req.clientIpAddress();
+            // a header that isn't a single range is ignored, the whole video is sent
+            boolean hasRange = ByteRange.isSingleRange(rangeHeader);
+            if (!hasRange || ifRange != null) {
+                return AsyncResponses.respondStreamed(req, resp, () -> videoBlockCache.getVideoVersionAsync(videoName).thenCompose(version -> {
+                    if (hasRange && matchesIfRange(ifRange, version)) {
+                        return readVideoRange(client, videoName, version, rangeHeader, true).thenApply(range -> writeVideoRange(resp, range));
+                    }
+                    return streamVideo(req, resp, client, videoName, version);
+                }));
+            }
+            CompletableFuture<VideoRange> videoRange = videoBlockCache.getVideoVersionAsync(videoName)
+                .thenCompose(version -> readVideoRange(client, videoName, version, rangeHeader, true));
+            return AsyncResponses.respondWhenDone(req, resp, videoRange, range -> writeVideoRange(resp, range));
+    }
+
+    /*
+    *   An If-Range holds an ETag, compared strongly, or the Last-Modified date sent with it
+    */
+    static boolean matchesIfRange(String ifRange, VideoVersion version) {
+            if (ifRange == null) {
+                return true;
             }
-            String[] rangeParts = range.split("=");
-            String[] rangeStartEndValues = rangeParts[1].split("-");
-            rangeStart = Integer.parseInt(rangeStartEndValues[0]);
-            if (rangeStartEndValues.length>1&&!"".equals(rangeStartEndValues[1])) {
-                rangeEnd = Integer.parseInt(rangeStartEndValues[1]);
-            } else {
-                rangeEnd = rangeStart + length;
+            String validator = ifRange.trim();
+            if (validator.startsWith("\"")) {
+                return validator.equals(version.getEtag());
             }
+            return !validator.startsWith("W/") && version.getLastModified() > 0
+                && validator.equals(ConditionalResponses.formatHttpDate(version.getLastModified()));
+    }
 
-            if (rangeEnd>videoBufferSize)
-                rangeEnd = videoBufferSize;
-            
-            length = rangeEnd - rangeStart;
-            byte[] buffer;
-            if (length==videoBufferSize)
-                buffer = bufferVideoStream;
-            else {
-                buffer = Arrays.copyOfRange(bufferVideoStream, rangeStart, rangeEnd);
+    /*
+    *   A Range request is answered up to the end of the block holding its start, the browser asks for the rest
+    *   next. A block read while the video moved to another version (the download ended) is read again from it.
+    */
+    private CompletableFuture<VideoRange> readVideoRange(String client, String videoName, VideoVersion version, String rangeHeader, boolean retry) {
+            ByteRange range = ByteRange.parse(rangeHeader, version.getSize(), Constants.BLOCK_SIZE);
+            if (!range.isSatisfiable()) {
+                return CompletableFuture.completedFuture(new VideoRange(range, version, null));
+            }
+            int blockSize = videoBlockCache.getBlockSize();
+            long blockIndex = limitToBlock(range, blockSize);
+            videoPrefetcher.onBlocksRequested(client, videoName, blockIndex, blockIndex, version.getSize());
+            return videoBlockCache.getBlockAsync(videoName, blockIndex).thenCompose(block -> videoBlockCache.getVideoVersionAsync(videoName)
+                .thenCompose(currentVersion -> {
+                    if (!currentVersion.isSameVersion(version)) {
+                        return retry ? readVideoRange(client, videoName, currentVersion, rangeHeader, false)
+                            : CompletableFuture.<VideoRange>failedFuture(new IOException("The video " + videoName + " keeps changing"));
+                    }
+                    ByteBuffer body = sliceBlock(block, blockIndex * blockSize, range);
+                    range.setEnd(range.getStart() + body.remaining());
+                    return CompletableFuture.completedFuture(new VideoRange(range, version, body));
+                }));
+    }
+
+    /*
+    *   The whole video with a 200. A video of one block is answered as a slice of it, a longer one is streamed
+    *   in chunks of a block, the next block being read once fewer than video.stream.queued.blocks blocks wait to
+    *   be sent, so a slow client doesn't get the video buffered in memory. The future fails only when nothing
+    *   was sent yet.
+    */
+    private CompletableFuture<Long> streamVideo(Req req, Resp resp, String client, String videoName, VideoVersion version) {
+            long videoSize = version.getSize();
+            int blockSize = videoBlockCache.getBlockSize();
+            if (videoSize <= blockSize) {
+                ByteRange range = ByteRange.parse(null, videoSize, blockSize);
+                CompletableFuture<ByteBuffer> body = videoSize == 0
+                    ? CompletableFuture.completedFuture(ByteBuffer.allocate(0))
+                    : videoBlockCache.getBlockAsync(videoName, 0);
+                videoPrefetcher.onBlocksRequested(client, videoName, 0, 0, videoSize);
+                return body.thenApply(block -> writeVideoRange(resp, new VideoRange(range, version, sliceBlock(block, 0, range))));
+            }
+            VideoStream stream = new VideoStream(req, resp, client, videoName, version, blockSize);
+            stream.send(0);
+            return stream.sent;
+    }
+
+    /*
+    *   Ends the range at the end of the block holding its start, returns the index of that block. Public static
+    *   like sliceBlock and toChunk for VideoResponseBenchmark.
+    */
+    public static long limitToBlock(ByteRange range, int blockSize) {
+            long blockIndex = range.getStart() / blockSize;
+            range.setEnd(Math.min(range.getEnd(), (blockIndex + 1) * blockSize));
+            return blockIndex;
+    }
+
+    /*
+    *   Part of the block, starting at blockStart in the video, that falls in the range
+    */
+    public static ByteBuffer sliceBlock(ByteBuffer block, long blockStart, ByteRange range) {
+            int limit = (int) Math.max(0, Math.min(range.getEnd() - blockStart, block.remaining()));
+            block.limit(limit);
+            block.position((int) Math.min(limit, Math.max(0, range.getStart() - blockStart)));
+            return block.slice();
+    }
+
+    /*
+    *   Returns the bytes of the body
+    */
+    private long writeVideoRange(Resp resp, VideoRange videoRange) {
+            ByteRange range = videoRange.range;
+            if (videoRange.body == null) {
+                resp.header("Content-Range", "bytes */" + range.getTotalSize());
+                resp.code(416);//range not satisfiable
+                resp.body(new byte[0]);
+                resp.done();
+                return 0;
             }
+
             resp.header("Accept-Ranges","bytes");
-            resp.header("Content-Length", String.valueOf(length));
-            resp.header("Content-Type", "video/mp4");                
-            resp.header("Content-Range", "bytes " + rangeStart + "-"+ (rangeEnd-1) + "/" + videoBufferSize);
-            if (rangeStart==0&&rangeEnd==videoBufferSize)
-                resp.code(200);//complete content    
+            writeValidators(resp, videoRange.version);
+            resp.header("Content-Length", String.valueOf(range.getLength()));
+            resp.header("Content-Type", "video/mp4");
+            if (range.isRequested()) {
+                resp.header("Content-Range", range.toContentRange());
+            }
+            if (range.isComplete())
+                resp.code(200);//complete content
             else
                 resp.code(206);//partial content
-            resp.body(buffer);
+            resp.body(videoRange.body);
             resp.done();
-            return resp;
+            return range.getLength();
+    }
+
+    /*
+    *   The block copied for a chunk of a streamed response, Resp.chunk takes an array only
+    */
+    public static byte[] toChunk(ByteBuffer block) {
+            byte[] chunk = new byte[block.remaining()];
+            block.get(chunk);
+            return chunk;
+    }
+
+    private static void writeValidators(Resp resp, VideoVersion version) {
+            resp.header("ETag", version.getEtag());
+            if (version.getLastModified() > 0) {
+                resp.header("Last-Modified", ConditionalResponses.formatHttpDate(version.getLastModified()));
+            }
+    }
+
+    /*
+    *   A video sent block after block as the chunks of one response. The stream is cut when the video moves to
+    *   another version meanwhile, its next blocks would have another layout.
+    */
+    private class VideoStream {
+        final Req req;
+        final Resp resp;
+        final String client;
+        final String videoName;
+        final VideoVersion version;
+        final long videoSize;
+        final int blockSize;
+        final long blockCount;
+        final Channel channel;
+        final long connectionId;
+        final CompletableFuture<Long> sent;
+        long sentBytes;
+
+        VideoStream(Req req, Resp resp, String client, String videoName, VideoVersion version, int blockSize) {
+            this.req = req;
+            this.resp = resp;
+            this.client = client;
+            this.videoName = videoName;
+            this.version = version;
+            this.videoSize = version.getSize();
+            this.blockSize = blockSize;
+            this.blockCount = (videoSize + blockSize - 1) / blockSize;
+            this.channel = req instanceof ReqImpl ? ((ReqImpl) req).channel() : null;
+            this.connectionId = channel == null ? 0 : channel.connId();
+            this.sent = new CompletableFuture<>();
+        }
+
+        void send(long blockIndex) {
+            if (blockIndex == blockCount) {
+                resp.done();
+                sent.complete(sentBytes);
+                return;
+            }
+            if (isDisconnected()) {
+                // the connection is closed, or already serves another client
+                sent.complete(sentBytes);
+                return;
+            }
+            if (channel != null && channel.output().size() >= (long) Constants.VIDEO_STREAM_QUEUED_BLOCKS * blockSize) {
+                CompletableFuture.delayedExecutor(STREAM_QUEUE_POLL_MS, TimeUnit.MILLISECONDS).execute(() -> send(blockIndex));
+                return;
+            }
+            videoPrefetcher.onBlocksRequested(client, videoName, blockIndex, blockIndex, videoSize);
+            videoBlockCache.getBlockAsync(videoName, blockIndex).thenCompose(block -> videoBlockCache.getVideoVersionAsync(videoName)
+                .thenApply(currentVersion -> {
+                    if (!currentVersion.isSameVersion(version)) {
+                        throw new IllegalStateException("The video " + videoName + " changed while it was streamed");
+                    }
+                    return block;
+                })).whenComplete((block, error) -> {
+                if (error != null) {
+                    fail(error);
+                    return;
+                }
+                if (blockIndex == 0) {
+                    resp.code(200);
+                    resp.header("Accept-Ranges", "bytes");
+                    writeValidators(resp, version);
+                    resp.contentType(MediaType.VIDEO_MP4);
+                }
+                byte[] chunk = toChunk(block);
+                resp.chunk(chunk);
+                sentBytes += chunk.length;
+                send(blockIndex + 1);
+            });
+        }
+
+        private boolean isDisconnected() {
+            return channel != null && (channel.isClosed() || channel.connId() != connectionId);
+        }
+
+        /*
+        *   Before the first chunk the error is answered, after it the status is sent already, so the connection
+        *   is closed for the client to see the body is cut
+        */
+        private void fail(Throwable error) {
+            if (sentBytes == 0) {
+                sent.completeExceptionally(error);
+                return;
+            }
+            Log.error("Error streaming the video " + videoName, error);
+            if (channel != null && !isDisconnected()) {
+                channel.close();
+            }
+            sent.complete(sentBytes);
+        }
+    }
+
+    /*
+    *   The resolved range and its bytes, no bytes when the range is not satisfiable
+    */
+    private static class VideoRange {
+        final ByteRange range;
+        final VideoVersion version;
+        final ByteBuffer body;
 
+        VideoRange(ByteRange range, VideoVersion version, ByteBuffer body) {
+            this.range = range;
+            this.version = version;
+            this.body = body;
+        }
     }
 
 }
@@ -1,24 +1,123 @@
 package awsPrototype.services;
 
+import org.rapidoid.http.MediaType;
 import org.rapidoid.http.Req;
 import org.rapidoid.http.ReqRespHandler;
 import org.rapidoid.http.Resp;
 
+import com.google.gson.Gson;
+
+import awsPrototype.helpers.ConcurrentLRUCache;
+import awsPrototype.helpers.MetricsUtil;
 import awsPrototype.helpers.S3Util;
+import awsPrototype.helpers.VideoCacheUtil;
 import awsPrototype.helpers.VideoFileUtil;
+import awsPrototype.metadatas.CachedPayload;
+import awsPrototype.metadatas.Constants;
+import awsPrototype.metadatas.VideoListQuery;
+import awsPrototype.metadatas.VideoMetadata;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 public class GetVideosListApiRequestHandler implements ReqRespHandler {
 
+    private static final Gson GSON = new Gson();
+    private static final int MAX_CACHED_LISTS = 64;
+
+    private final ConcurrentLRUCache<String,CachedList> cachedLists = new ConcurrentLRUCache<String,CachedList>(MAX_CACHED_LISTS);
+
+    public GetVideosListApiRequestHandler() {
+        MetricsUtil.getInstance().registerCache("video_list", cachedLists);
+    }
+
+    /*
+    *   A page of the videos, see VideoListQuery for the parameters (limit, cursor, sort, order, q, minDuration,
+    *   maxDuration, minDetections, minTracks):
+    *   {"videos":["a.mp4",...],"items":[{"videoName":"a.mp4","videoDuration":60000,...}],"nextCursor":"...","isConnectionOk":true}
+    *   "nextCursor" is missing on the last page. A page is serialized again only when a video was added, the
+    *   metadata of one changed or the S3 connection status changed.
+    *   A user looking at the list is about to open a video, the most popular ones are prefetched meanwhile.
+    */
     @Override
     public Object execute(Req req, Resp resp) {
-        Map<String,Object> response = new HashMap<>(1);
-        response.put("videos", VideoFileUtil.getInstance().listVideoFileNames());
-        response.put("isConnectionOk", S3Util.getInstance().isConnectionWithAWSIsOK());
-        return response;
+        VideoCacheUtil.getInstance().getVideoPrefetcher().prefetchPopularVideos();
+        VideoFileUtil videoFileUtil = VideoFileUtil.getInstance();
+        long version = videoFileUtil.getVideoFilesListVersion();
+        long indexVersion = videoFileUtil.getVideoIndexVersion();
+        boolean isConnectionOk = S3Util.getInstance().isConnectionWithAWSIsOK();
+        String queryString = req.query() == null ? "" : req.query();
+        CachedList list = cachedLists.get(queryString);
+        if (list == null || list.version != version || list.indexVersion != indexVersion || list.isConnectionOk != isConnectionOk) {
+            VideoListQuery query;
+            try {
+                query = VideoListQuery.parse(req.param("sort", null), req.param("order", null), req.param("limit", null),
+                    req.param("cursor", null), req.param("q", null), req.param("minDuration", null), req.param("maxDuration", null),
+                    req.param("minDetections", null), req.param("minTracks", null), Constants.VIDEO_LIST_PAGE_SIZE, Constants.VIDEO_LIST_MAX_PAGE_SIZE);
+            } catch (IllegalArgumentException e) {
+                resp.code(400);
+                resp.contentType(MediaType.PLAIN_TEXT_UTF_8);
+                resp.body(String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+                resp.done();
+                return resp;
+            }
+            List<VideoMetadata> page = videoFileUtil.listVideos(query);
+            boolean hasNextPage = page.size() > query.getLimit();
+            if (hasNextPage) {
+                page = page.subList(0, query.getLimit());
+            }
+            List<String> videoNames = new ArrayList<>(page.size());
+            List<Map<String,Object>> items = new ArrayList<>(page.size());
+            for (VideoMetadata metadata : page) {
+                videoNames.add(metadata.getVideoName());
+                items.add(toItem(metadata));
+            }
+            Map<String,Object> response = new HashMap<>(4);
+            response.put("videos", videoNames);
+            response.put("items", items);
+            if (hasNextPage) {
+                response.put("nextCursor", query.encodeCursor(page.get(page.size() - 1)));
+            }
+            response.put("isConnectionOk", isConnectionOk);
+            list = new CachedList(version, indexVersion, isConnectionOk,
+                CachedPayload.of(GSON.toJson(response).getBytes(StandardCharsets.UTF_8), System.currentTimeMillis()));
+            cachedLists.put(queryString, list);
+        }
+        ConditionalResponses.writePayload(req, resp, list.payload, MediaType.JSON);
+        return resp;
+    }
+
+    private static Map<String,Object> toItem(VideoMetadata metadata) {
+        Map<String,Object> item = new LinkedHashMap<>();
+        item.put("videoName", metadata.getVideoName());
+        item.put("videoDuration", metadata.getVideoDuration());
+        item.put("videoSize", metadata.getVideoSize());
+        item.put("width", metadata.getWidth());
+        item.put("height", metadata.getHeight());
+        item.put("detectionCount", metadata.getDetectionCount());
+        item.put("trackCount", metadata.getTrackCount());
+        item.put("firstTimestamp", metadata.getFirstTimestamp());
+        item.put("lastTimestamp", metadata.getLastTimestamp());
+        item.put("fastStart", metadata.isFastStart());
+        return item;
+    }
+
+    private static class CachedList {
+        final long version;
+        final long indexVersion;
+        final boolean isConnectionOk;
+        final CachedPayload payload;
+
+        CachedList(long version, long indexVersion, boolean isConnectionOk, CachedPayload payload) {
+            this.version = version;
+            this.indexVersion = indexVersion;
+            this.isConnectionOk = isConnectionOk;
+            this.payload = payload;
+        }
     }
 
 }
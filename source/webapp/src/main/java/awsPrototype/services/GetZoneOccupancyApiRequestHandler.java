@@ -0,0 +1,114 @@
+package awsPrototype.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.rapidoid.http.MediaType;
+import org.rapidoid.http.Req;
+import org.rapidoid.http.ReqRespHandler;
+import org.rapidoid.http.Resp;
+
+import com.google.gson.Gson;
+
+import awsPrototype.helpers.VideoCacheUtil;
+import awsPrototype.helpers.ZoneUtil;
+import awsPrototype.metadatas.VideoRawData;
+import awsPrototype.metadatas.Zone;
+import awsPrototype.metadatas.ZoneOccupancy;
+
+public class GetZoneOccupancyApiRequestHandler implements ReqRespHandler {
+
+    private static final Gson GSON = new Gson();
+
+    private final VideoCacheUtil videoCacheUtil;
+
+    private final ZoneUtil zoneUtil;
+
+    public GetZoneOccupancyApiRequestHandler() {
+        this.videoCacheUtil = VideoCacheUtil.getInstance();
+        this.zoneUtil = ZoneUtil.getInstance();
+    }
+
+    /*
+    *   Per second series of the zones of a video (or of the zone given) over the seconds overlapping [fromMs, toMs],
+    *   with their totals over that window:
+    *   {"fromSecond":0,"toSecond":60,"zones":[{"name":"checkout","visitors":12,"entries":14,"exits":13,"dwellMs":52000,
+    *    "peakOccupancy":3,"occupancy":[0,1,...],"entriesPerSecond":[...],"exitsPerSecond":[...]}]}
+    *   "visitors" are the tracks that were ever in the zone. A zone is computed on its first request, then cached.
+    */
+    @Override
+    public Object execute(Req req, Resp resp) throws Exception {
+        String videoName = req.param("videoName");
+        String zoneName = req.param("zone", null);
+        long fromMs;
+        long toMs;
+        try {
+            fromMs = Long.parseLong(req.param("fromMs", "0"));
+            toMs = Long.parseLong(req.param("toMs", String.valueOf(Long.MAX_VALUE)));
+        } catch (IllegalArgumentException e) {
+            resp.code(400);
+            resp.contentType(MediaType.PLAIN_TEXT_UTF_8);
+            resp.body(("Invalid fromMs or toMs: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            resp.done();
+            return resp;
+        }
+        return AsyncResponses.respondWhenDone(req, resp, videoCacheUtil.getVideoRawDataAsync(videoName), videoRawData -> {
+            resp.contentType(MediaType.JSON);
+            resp.body(toJson(videoRawData, zoneUtil.getZones(videoName), zoneName, fromMs, toMs).getBytes(StandardCharsets.UTF_8));
+            resp.done();
+        });
+    }
+
+    private String toJson(VideoRawData videoRawData, List<Zone> zones, String zoneName, long fromMs, long toMs) {
+        StringBuilder json = new StringBuilder(256);
+        // every zone is computed over the same detections, so over the same seconds
+        int seconds = ZoneOccupancy.secondsOf(videoRawData.getDetections());
+        int fromSecond = (int) Math.min(seconds, Math.max(0, fromMs) / 1000);
+        int toSecond = (int) Math.min(seconds, Math.max(0, toMs) / 1000 + 1);
+        json.append("{\"zones\":[");
+        boolean first = true;
+        for (Zone zone : zones) {
+            if (zoneName != null && !zoneName.equals(zone.getName())) {
+                continue;
+            }
+            ZoneOccupancy occupancy = zoneUtil.getOccupancy(videoRawData, zone);
+            long entries = 0;
+            long exits = 0;
+            long dwellMs = 0;
+            int peakOccupancy = 0;
+            for (int s = fromSecond; s < toSecond; s++) {
+                entries += occupancy.getEntries(s);
+                exits += occupancy.getExits(s);
+                dwellMs += occupancy.getDwellMs(s);
+                peakOccupancy = Math.max(peakOccupancy, occupancy.getOccupancy(s));
+            }
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"name\":").append(GSON.toJson(zone.getName()))
+                .append(",\"visitors\":").append(occupancy.getVisitors())
+                .append(",\"entries\":").append(entries)
+                .append(",\"exits\":").append(exits)
+                .append(",\"dwellMs\":").append(dwellMs)
+                .append(",\"peakOccupancy\":").append(peakOccupancy)
+                .append(",\"occupancy\":[");
+            for (int s = fromSecond; s < toSecond; s++) {
+                json.append(s > fromSecond ? "," : "").append(occupancy.getOccupancy(s));
+            }
+            json.append("],\"entriesPerSecond\":[");
+            for (int s = fromSecond; s < toSecond; s++) {
+                json.append(s > fromSecond ? "," : "").append(occupancy.getEntries(s));
+            }
+            json.append("],\"exitsPerSecond\":[");
+            for (int s = fromSecond; s < toSecond; s++) {
+                json.append(s > fromSecond ? "," : "").append(occupancy.getExits(s));
+            }
+            json.append("]}");
+        }
+        json.append("],\"fromSecond\":").append(fromSecond)
+            .append(",\"toSecond\":").append(toSecond).append('}');
+        return json.toString();
+    }
+
+}
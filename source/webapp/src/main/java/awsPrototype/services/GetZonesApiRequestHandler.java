@@ -0,0 +1,33 @@
+package awsPrototype.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.rapidoid.http.MediaType;
+import org.rapidoid.http.Req;
+import org.rapidoid.http.ReqRespHandler;
+import org.rapidoid.http.Resp;
+
+import com.google.gson.Gson;
+
+import awsPrototype.helpers.ZoneUtil;
+
+public class GetZonesApiRequestHandler implements ReqRespHandler {
+
+    private static final Gson GSON = new Gson();
+
+    /*
+    *   The zones of a video, its own and its camera's: {"zones":[{"name":"checkout","camera":"cam0","points":[[x,y],...]}]}
+    */
+    @Override
+    public Object execute(Req req, Resp resp) {
+        Map<String,Object> response = new HashMap<>(2);
+        response.put("zones", ZoneUtil.getInstance().getZones(req.param("videoName")));
+        resp.contentType(MediaType.JSON);
+        resp.body(GSON.toJson(response).getBytes(StandardCharsets.UTF_8));
+        resp.done();
+        return resp;
+    }
+
+}
@@ -0,0 +1,83 @@
+package awsPrototype.services;
+
+import java.nio.ByteBuffer;
+
+import org.rapidoid.http.Req;
+import org.rapidoid.http.ReqRespHandler;
+import org.rapidoid.http.Resp;
+
+import awsPrototype.helpers.MetricsUtil;
+import awsPrototype.metadatas.RouteMetrics;
+
+/*
+*   Counts the requests of a route, their status, the bytes of their bodies and their latency, see /metrics.
+*   A request answered before the handler returns is recorded here; one turned async is recorded by
+*   AsyncResponses once the response is done, from the route and start time it finds on the handler thread.
+*/
+public class InstrumentedRequestHandler implements ReqRespHandler {
+
+    private static final ThreadLocal<ActiveRequest> ACTIVE_REQUEST = ThreadLocal.withInitial(ActiveRequest::new);
+
+    private final ReqRespHandler handler;
+    private final RouteMetrics metrics;
+
+    public InstrumentedRequestHandler(String route, ReqRespHandler handler) {
+        this.handler = handler;
+        this.metrics = MetricsUtil.getInstance().getRouteMetrics(route);
+    }
+
+    @Override
+    public Object execute(Req req, Resp resp) throws Exception {
+        long startNanos = System.nanoTime();
+        ActiveRequest activeRequest = ACTIVE_REQUEST.get();
+        activeRequest.metrics = metrics;
+        activeRequest.startNanos = startNanos;
+        try {
+            Object result = handler.execute(req, resp);
+            if (!req.isAsync()) {
+                record(metrics, startNanos, resp);
+            }
+            return result;
+        } catch (Throwable e) {
+            metrics.record(startNanos, 500, 0);
+            throw e;
+        } finally {
+            activeRequest.metrics = null;
+        }
+    }
+
+    /*
+    *   The route the current thread is handling a request of, null outside of a handler
+    */
+    static RouteMetrics getActiveRoute() {
+        return ACTIVE_REQUEST.get().metrics;
+    }
+
+    static long getActiveStartNanos() {
+        return ACTIVE_REQUEST.get().startNanos;
+    }
+
+    /*
+    *   The bodies are byte arrays, or buffers sliced or flipped to start at 0; a result rendered by Rapidoid
+    *   after the handler (the json routes) counts as no bytes
+    */
+    static void record(RouteMetrics metrics, long startNanos, Resp resp) {
+        Object body = resp.body();
+        long bytes = 0;
+        if (body instanceof byte[]) {
+            bytes = ((byte[]) body).length;
+        } else if (body instanceof ByteBuffer) {
+            bytes = ((ByteBuffer) body).limit();
+        }
+        metrics.record(startNanos, resp.code(), bytes);
+    }
+
+    /*
+    *   Reused by the thread for each request it handles
+    */
+    private static final class ActiveRequest {
+        RouteMetrics metrics;
+        long startNanos;
+    }
+
+}
@@ -0,0 +1,43 @@
+package awsPrototype.services;
+
+import java.nio.charset.StandardCharsets;
+
+import org.rapidoid.http.MediaType;
+import org.rapidoid.http.Req;
+import org.rapidoid.http.ReqRespHandler;
+import org.rapidoid.http.Resp;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import awsPrototype.helpers.ZoneUtil;
+import awsPrototype.metadatas.Zone;
+
+public class PutZoneApiRequestHandler implements ReqRespHandler {
+
+    private static final Gson GSON = new Gson();
+
+    /*
+    *   Adds or replaces a zone, the body being the zone as json, see Zone. Answers the zone stored, or 400 with
+    *   the reason when it is invalid. Nothing is computed until the occupancy of the zone is asked.
+    */
+    @Override
+    public Object execute(Req req, Resp resp) {
+        try {
+            Zone zone = GSON.fromJson(new String(req.body(), StandardCharsets.UTF_8), Zone.class);
+            if (zone == null) {
+                throw new IllegalArgumentException("No zone in the request body");
+            }
+            ZoneUtil.getInstance().putZone(zone);
+            resp.contentType(MediaType.JSON);
+            resp.body(GSON.toJson(zone).getBytes(StandardCharsets.UTF_8));
+        } catch (JsonParseException | IllegalArgumentException e) {
+            resp.code(400);
+            resp.contentType(MediaType.PLAIN_TEXT_UTF_8);
+            resp.body(String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+        }
+        resp.done();
+        return resp;
+    }
+
+}
@@ -1,5 +1,6 @@
 const dynData = {"currentTime":-1,"lastRenderedIndex":-1};
 const canvasControl = {"width":635.0,"height":320.0,"videoWidth":1270.0,"videoHeight":640.0,"maxHeat":5};
+const detectionsWindowMs = 10000;
 window.addEventListener("load", init);
 
 function init() {
@@ -31,6 +32,7 @@ function init() {
       $("#heatmapSlider").on("click",changeTemperature);
       $("#showSelectVideoButton").on("click",showSelectVideo);
       $("#selectVideoNameButton").on("click",selectVideoName);
+      $("#selectedVideoName").on("input",searchVideosList);
 
       
 
@@ -58,16 +60,79 @@ function init() {
     canvasControl.video.currentTime = 0;
     dynData.currentTime = 0;
     dynData.detectedPersonsCurrentIndex = 0;
+    dynData.frames = [];
+    dynData.windowFromMs = -1;
+    dynData.windowToMs = -1;
+    dynData.loadingFromMs = -1;
+    dynData.nextWindow = null;
+    dynData.nextWindowFromMs = -1;
+    resetPersonIds();
     resetDetectedPersons();
     resetHeatmap();
 
     $("#instoreVideo").attr("src", "/get-video.mp4?videoName=" + dynData.selectedVideoName);
-    $.getJSON('/get-json.json?videoName=' + dynData.selectedVideoName, function(response){
-      dynData.detectedPersons = reorgLabels(response);
-      updateDetectedIndex(dynData.currentTime);
+    loadDetectionsWindow(0);
+  }
+
+  // the detections are pulled in windows of detectionsWindowMs aligned to the window size, the next one is prefetched while playing
+  function windowStart(currentTime) {
+    return Math.floor(currentTime/detectionsWindowMs)*detectionsWindowMs;
+  }
+
+  function requestDetectionsWindow(fromMs, callback) {
+    const videoName = dynData.selectedVideoName;
+    $.getJSON('/get-detections.json?videoName=' + videoName + '&fromMs=' + fromMs + '&toMs=' + (fromMs+detectionsWindowMs), function(response){
+      if (videoName==dynData.selectedVideoName) {
+        callback(response);
+      }
+    });
+  }
+
+  function loadDetectionsWindow(fromMs) {
+    dynData.loadingFromMs = fromMs;
+    requestDetectionsWindow(fromMs, function(response){
+      setDetectionsWindow(response);
+      dynData.currentTime = -1;
+      updateDetectedIndex(canvasControl.currentTime?canvasControl.currentTime:0);
+    });
+  }
+
+  function prefetchNextWindow() {
+    dynData.nextWindowFromMs = dynData.windowToMs;
+    requestDetectionsWindow(dynData.nextWindowFromMs, function(response){
+      dynData.nextWindow = response;
     });
   }
 
+  function setDetectionsWindow(response) {
+    dynData.frames = response.frames;
+    dynData.windowFromMs = response.fromMs;
+    dynData.windowToMs = response.toMs;
+    dynData.loadingFromMs = -1;
+    if (dynData.nextWindow && dynData.nextWindow.fromMs<=response.fromMs) {
+      dynData.nextWindow = null;
+      dynData.nextWindowFromMs = -1;
+    }
+    addPersonIds(response.frames);
+  }
+
+  // index of the last frame at or before currentTime in the loaded window
+  function findFrameIndex(currentTime) {
+    var low = 0;
+    var high = dynData.frames.length-1;
+    var found = -1;
+    while (low<=high) {
+      var middle = (low+high)>>1;
+      if (dynData.frames[middle].timestamp<=currentTime) {
+        found = middle;
+        low = middle+1;
+      } else {
+        high = middle-1;
+      }
+    }
+    return found;
+  }
+
   function showSelectVideo(e) {
     const video = canvasControl.video;
     video.pause();
@@ -75,15 +140,25 @@ function init() {
     $("#pauseButtonImage").hide();
     $("#currentSelectedVideo").html(dynData.selectedVideoName);
     
-    $.getJSON('./get-videos-list.json', function(response){
-      if (response.videos&&response.videos.length>0) {
+    $("#selectedVideoName").val(null);
+    loadVideosList("");
+  }
+
+  // one page of the list, the server filters on the typed text so the picker stays small with many videos
+  function loadVideosList(nameContains) {
+    $.getJSON('./get-videos-list.json', {limit: 50, q: nameContains}, function(response){
+      if (($("#selectedVideoName").val() || "") != nameContains) {
+        // the text changed meanwhile, its own request fills the list
+        return;
+      }
+      $("#videosListOptions").empty();
+      if (response.items&&response.items.length>0) {
         // $("#selectVideoNameButton").prop('disabled', false);
         // $("#selectVideoNameButton").show();
-        $("#selectedVideoName").val(null);
-        $("#videosListOptions").empty();
-        
-        for (var r=0;r<response.videos.length;r++) {
-          $("#videosListOptions").append("<option value='"+response.videos[r]+"'>"+response.videos[r]+"</option>");
+        for (var r=0;r<response.items.length;r++) {
+          var item = response.items[r];
+          var label = item.videoDuration>0 ? item.videoName+" ("+Math.round(item.videoDuration/1000)+"s, "+item.trackCount+" tracks)" : item.videoName;
+          $("#videosListOptions").append($("<option>").attr("value", item.videoName).text(label));
         }
         //$("#selectVideoName").show();
       }
@@ -97,6 +172,13 @@ function init() {
     });
   }
 
+  function searchVideosList(e) {
+    clearTimeout(dynData.videosListSearch);
+    dynData.videosListSearch = setTimeout(function() {
+      loadVideosList($("#selectedVideoName").val());
+    }, 250);
+  }
+
   function selectVideoName(e) {
     if (!$("#selectedVideoName")[0].value) {
       return;
@@ -125,8 +207,37 @@ function init() {
     canvasControl.video.currentTime = 0;
   }
 
-  function addHeatmapData() {
-    
+  // the heatmap from the start of the video until currentTime is aggregated on the server, refreshed at most once per second
+  function updateHeatmap(currentTime) {
+    if (!canvasControl.heatmapOn || dynData.heatmapLoading || !dynData.selectedVideoName) {
+      return;
+    }
+    if (dynData.heatmapTime>=0 && currentTime>=dynData.heatmapTime && currentTime-dynData.heatmapTime<1000) {
+      return;
+    }
+    const videoName = dynData.selectedVideoName;
+    dynData.heatmapLoading = true;
+    $.getJSON('/get-heatmap.json?videoName=' + videoName + '&fromMs=0&toMs=' + Math.floor(currentTime), function(response){
+      if (videoName==dynData.selectedVideoName && canvasControl.heatmapOn) {
+        setHeatmapData(response);
+        dynData.heatmapTime = currentTime;
+      }
+    }).always(function(){
+      dynData.heatmapLoading = false;
+    });
+  }
+
+  function setHeatmapData(response) {
+    const cellWidth = canvasControl.width/response.gridWidth;
+    const cellHeight = canvasControl.height/response.gridHeight;
+    var data = [];
+    for (var c=0;c<response.cells.length;c++) {
+      if (response.cells[c]>0) {
+        data.push({"x":Math.round((c%response.gridWidth+0.5)*cellWidth), "y":Math.round((Math.floor(c/response.gridWidth)+0.5)*cellHeight), "value":response.cells[c]});
+      }
+    }
+    dynData.heatmapMax = response.max;
+    canvasControl.heatmap.setData({"data":data,"max":heatmapDataMax(),"min":0});
   }
 
   function playPauseVideo(e) {
@@ -169,6 +280,7 @@ function init() {
       $("#heatmapSlider").prop('disabled', false);;
       canvasControl.heatmapOn = true;
       resetHeatmap();
+      updateHeatmap(dynData.currentTime);
     }
   }
   function changeTemperature(e) {
@@ -177,7 +289,11 @@ function init() {
   }
   function setTemperature() {
     canvasControl.maxHeat = $("#heatmapSlider")[0].value;
-    canvasControl.heatmap.setDataMax(canvasControl.maxHeat);
+    canvasControl.heatmap.setDataMax(heatmapDataMax());
+  }
+  // the slider goes from 2 (hot, saturates at 1/8 of the busiest cell) to 16 (the busiest cell is the hottest color)
+  function heatmapDataMax() {
+    return Math.max(1, dynData.heatmapMax*canvasControl.maxHeat/16);
   }
   function videoTimeUpdated(event) {
     canvasControl.currentTime = event.target.currentTime*1000;
@@ -190,41 +306,37 @@ function init() {
 
   function updateDetectedIndex(currentTime) {
     if (dynData.currentTime!=currentTime) {
-      var direction = dynData.currentTime>currentTime?-1:1;
-      console.log("direction:" + direction);
-      var maxCx = dynData.detectedPersons.length;
-      console.log("maxCx:" + maxCx);
-      var currentIndex;
-
-      for(currentIndex = dynData.detectedPersonsCurrentIndex;currentIndex>-1 && currentIndex<maxCx; currentIndex+=direction) {
-        detectedPersonsCurrentTime = dynData.detectedPersons[currentIndex][0].timestamp;
-        siblingDetectedPersonsCurrentTime = ( ((currentIndex+direction)>-1) && ((currentIndex+direction)<maxCx) )?dynData.detectedPersons[currentIndex+direction][0].timestamp:detectedPersonsCurrentTime;
-        if ( ( detectedPersonsCurrentTime<=currentTime && siblingDetectedPersonsCurrentTime>=currentTime) ||
-             ( detectedPersonsCurrentTime<=currentTime && siblingDetectedPersonsCurrentTime>=currentTime) ) {
-
-            console.log("detectedPersonsCurrentTime:" + detectedPersonsCurrentTime);
-            console.log("currentTime:" + currentTime);
-            console.log("siblingDetectedPersonsCurrentTime:" + siblingDetectedPersonsCurrentTime);
-            
-            break;
+      if (currentTime<dynData.windowFromMs || currentTime>=dynData.windowToMs) {
+        if (dynData.nextWindow && dynData.nextWindow.fromMs<=currentTime && currentTime<dynData.nextWindow.toMs) {
+          setDetectionsWindow(dynData.nextWindow);
+        } else {
+          // keeps the current time, so the frame is rendered once the window arrives
+          if (dynData.loadingFromMs!=windowStart(currentTime)) {
+            loadDetectionsWindow(windowStart(currentTime));
+          }
+          return;
         }
       }
-      dynData.detectedPersonsCurrentIndex = currentIndex<0?0:(currentIndex>=maxCx?maxCx-1:currentIndex);
-      console.log("CurrentIndex: " + currentIndex);
+      if (dynData.nextWindowFromMs!=dynData.windowToMs && currentTime>=dynData.windowToMs-detectionsWindowMs/4) {
+        prefetchNextWindow();
+      }
+      dynData.detectedPersonsCurrentIndex = findFrameIndex(currentTime);
       console.log("detectedPersons - CurrentIndex: " + dynData.detectedPersonsCurrentIndex);
-      console.log("detectedPersons - CurrentTime:" + dynData.detectedPersons[dynData.detectedPersonsCurrentIndex][0].timestamp);
       dynData.currentTime = currentTime;
       canvasControl.slider.value = currentTime/1000;
 
       if (currentTime==0) {
         resetHeatmap();
       }
+      updateHeatmap(currentTime);
 
       renderDetectedPersons(dynData.detectedPersonsCurrentIndex)
     }
   }
 
   function resetHeatmap() {
+    dynData.heatmapTime = -1;
+    dynData.heatmapMax = 0;
     canvasControl.heatmap.setData({"data":[{"x":0,"y":0,"value":0}],"max":canvasControl.maxHeat,"min":0});
   }
   function resetDetectedPersons() {
@@ -247,15 +359,19 @@ function init() {
         }
       }
 
-      var persons = dynData.detectedPersons[newIndex];
+      if (newIndex<0) {
+        return;
+      }
+      // each detection is [index, left, top, width, height]
+      var persons = dynData.frames[newIndex].detections;
       for(var pIndex=0;pIndex<persons.length;pIndex++) {
-          var person = persons[pIndex].person;
-          const personLabel = "P:"+person.index;          
-          if (person.boundingBox && (trackAllIds || personIdsToTrack[personLabel])) {
-            var x = person.boundingBox.left*canvasControl.width;
-            var y = person.boundingBox.top*canvasControl.height;
-            var w = person.boundingBox.width*canvasControl.width;
-            var h = person.boundingBox.height*canvasControl.height;
+          var person = persons[pIndex];
+          const personLabel = "P:"+person[0];
+          if (trackAllIds || personIdsToTrack[personLabel]) {
+            var x = person[1]*canvasControl.width;
+            var y = person[2]*canvasControl.height;
+            var w = person[3]*canvasControl.width;
+            var h = person[4]*canvasControl.height;
 
             if (canvasControl.personTrackingOn) {
               //ctx.fillStyle = "rgb(200 0 0 / 50%)"; 
@@ -268,15 +384,6 @@ function init() {
               ctx.strokeText(personLabel, x+2, y+text.fontBoundingBoxAscent);
               ctx.fillText(personLabel, x+2, y+text.fontBoundingBoxAscent);
             }
-
-            if(canvasControl.heatmapOn) {
-              var hmX = x + w/2;
-              var hmY = y + h/2;
-  
-              setTemperature();
-              
-              canvasControl.heatmap.addData({ "x": hmX, "y": hmY, "value": 1 });
-            }
           }
       }
       dynData.lastRenderedIndex=newIndex;
@@ -287,33 +394,20 @@ function init() {
     return graphType+"_idx"+index+"_sbx"+subindex+(tail?tail:"");
   }
 
-  function reorgLabels(data) {
-    var labelsPerTimestamp = [];
-    var timestamp = 0;
-    var tmpList = [];
-    var personIds = [];
+  function resetPersonIds() {
+    dynData.personIds = [];
+    $("#selectedPersonsToTrack option:not(:first)").remove();
+  }
+
+  function addPersonIds(frames) {
     var selectedPersonsToTrack = $("#selectedPersonsToTrack");
-    data.forEach(el => {
-
-      if (timestamp==el.timestamp) 
-        tmpList.push(el);
-      else {
-        if (tmpList.length>0) {
-          labelsPerTimestamp.push(tmpList);
-          tmpList.forEach(item=>{
-            var person = item.person;
-            var personName = "P:"+(person.index);
-            if (!personIds[personName]) {
-              personIds[personName] = true;
-              selectedPersonsToTrack.append("<option value='"+person.index+"'>"+personName+"</option>");
-            }
-          });
-          tmpList = [];
+    frames.forEach(frame=>{
+      frame.detections.forEach(person=>{
+        var personName = "P:"+(person[0]);
+        if (!dynData.personIds[personName]) {
+          dynData.personIds[personName] = true;
+          selectedPersonsToTrack.append("<option value='"+person[0]+"'>"+personName+"</option>");
         }
-        tmpList.push(el);
-        timestamp = el.timestamp;
-      } 
+      });
     });
-    return labelsPerTimestamp;
-
   }
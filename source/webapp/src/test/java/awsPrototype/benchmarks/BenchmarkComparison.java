@@ -0,0 +1,114 @@
+package awsPrototype.benchmarks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/*
+*   Compares a JMH json result with a baseline, e.g. the one in benchmarks/ at the root of the module:
+*   mvn test-compile exec:exec -Pbenchmark -Dbenchmark.main=awsPrototype.benchmarks.BenchmarkComparison
+*       -Dbenchmark.args="benchmarks/baseline.json target/jmh-result.json 10"
+*   Prints the score and the bytes allocated per operation (from "-prof gc") of each benchmark in both runs. A score
+*   worse by more than the tolerance (10% by default) and by more than the error margins of both runs, or 10% more
+*   allocated bytes, is a regression, and the exit code is then 1.
+*/
+public class BenchmarkComparison {
+
+    private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchmarkComparison baseline.json result.json [tolerance percent]");
+            System.exit(2);
+        }
+        Map<String,JsonObject> baseline = read(args[0]);
+        Map<String,JsonObject> result = read(args[1]);
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.10;
+        int regressions = 0;
+        System.out.println(String.format("%-80s %14s %14s %8s %12s %12s", "benchmark", "baseline", "result", "change", "base B/op", "B/op"));
+        for (Map.Entry<String,JsonObject> entry : result.entrySet()) {
+            JsonObject current = entry.getValue();
+            JsonObject base = baseline.get(entry.getKey());
+            JsonObject metric = current.getAsJsonObject("primaryMetric");
+            double score = metric.get("score").getAsDouble();
+            double allocation = allocation(current);
+            if (base == null) {
+                System.out.println(String.format("%-80s %14s %14.3f %8s %12s %12.0f", entry.getKey(), "-", score, "new", "-", allocation));
+                continue;
+            }
+            JsonObject baseMetric = base.getAsJsonObject("primaryMetric");
+            double baseScore = baseMetric.get("score").getAsDouble();
+            double baseAllocation = allocation(base);
+            // a higher throughput is better, a higher time worse
+            boolean higherIsBetter = "thrpt".equals(current.get("mode").getAsString());
+            double change = baseScore == 0 ? 0 : (score - baseScore) / baseScore;
+            double margin = error(metric) + error(baseMetric);
+            boolean slower = Math.abs(score - baseScore) > margin && (higherIsBetter ? change < -tolerance : change > tolerance);
+            boolean allocates = !Double.isNaN(allocation) && !Double.isNaN(baseAllocation)
+                && allocation > baseAllocation * (1 + tolerance) && allocation - baseAllocation > 16;
+            if (slower || allocates) {
+                regressions++;
+            }
+            System.out.println(String.format("%-80s %14.3f %14.3f %+7.1f%% %12.0f %12.0f%s", entry.getKey(), baseScore, score,
+                100 * change, baseAllocation, allocation, slower || allocates ? "  REGRESSION" : ""));
+        }
+        for (String missing : baseline.keySet()) {
+            if (!result.containsKey(missing)) {
+                System.out.println(String.format("%-80s not run", missing));
+            }
+        }
+        System.out.println(regressions + " regression(s), tolerance " + Math.round(tolerance * 100) + "%");
+        if (regressions > 0) {
+            System.exit(1);
+        }
+    }
+
+    /*
+    *   Results by benchmark and parameters, e.g. "DetectionsFormatBenchmark.decodeJson file=detectedLabels.json"
+    */
+    private static Map<String,JsonObject> read(String file) throws IOException {
+        Map<String,JsonObject> results = new TreeMap<>();
+        try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            JsonArray runs = JsonParser.parseReader(reader).getAsJsonArray();
+            for (JsonElement element : runs) {
+                JsonObject run = element.getAsJsonObject();
+                StringBuilder key = new StringBuilder(run.get("benchmark").getAsString().replace("awsPrototype.benchmarks.", ""));
+                if (run.has("params")) {
+                    for (Map.Entry<String,JsonElement> param : new TreeMap<>(run.getAsJsonObject("params").asMap()).entrySet()) {
+                        key.append(' ').append(param.getKey()).append('=').append(param.getValue().getAsString());
+                    }
+                }
+                results.put(key.toString(), run);
+            }
+        }
+        return results;
+    }
+
+    private static double allocation(JsonObject run) {
+        if (!run.has("secondaryMetrics")) {
+            return Double.NaN;
+        }
+        for (Map.Entry<String,JsonElement> metric : run.getAsJsonObject("secondaryMetrics").entrySet()) {
+            // older JMH versions prefix the profiler metrics with a middle dot
+            if (metric.getKey().endsWith(ALLOCATION_METRIC)) {
+                return metric.getValue().getAsJsonObject().get("score").getAsDouble();
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static double error(JsonObject metric) {
+        JsonElement error = metric.get("scoreError");
+        return error == null || !error.isJsonPrimitive() || Double.isNaN(error.getAsDouble()) ? 0 : error.getAsDouble();
+    }
+
+}
@@ -0,0 +1,105 @@
+package awsPrototype.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import awsPrototype.metadatas.DetectionsBinaryFormat;
+import awsPrototype.metadatas.VideoDetections;
+import awsPrototype.services.GetDetectionsApiRequestHandler;
+
+/*
+*   Json against DetectionsBinaryFormat for the sample detection files: decode time of each format, encode time of
+*   the binary one and of the json body of get-detections.json (the whole video, then a 10 s window). The
+*   payload sizes are reported with encodeBinary, as the jsonBytes and binaryBytes secondary metrics.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DetectionsFormatBenchmark {
+
+    @Param({"detectedPersons.json", "detectedPersons-1min-trim.json", "detectedLabels.json"})
+    String file;
+
+    byte[] bufferJson;
+    byte[] bufferBinary;
+    VideoDetections detections;
+
+    @Setup
+    public void setup() throws IOException {
+        bufferJson = readResource("/static/json/" + file);
+        detections = VideoDetections.parseJson(bufferJson);
+        bufferBinary = DetectionsBinaryFormat.encode(detections);
+    }
+
+    /*
+    *   Sizes of the payloads of the file, set by encodeBinary; JMH zeroes them before each iteration
+    */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PayloadSizes {
+        public long jsonBytes;
+        public long binaryBytes;
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        try (InputStream input = DetectionsFormatBenchmark.class.getResourceAsStream(name)) {
+            if (input == null) {
+                throw new IOException("Missing resource " + name);
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public VideoDetections decodeJson() throws IOException {
+        return VideoDetections.parseJson(bufferJson);
+    }
+
+    @Benchmark
+    public VideoDetections decodeBinary() throws IOException {
+        return DetectionsBinaryFormat.decode(bufferBinary);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary(PayloadSizes sizes) {
+        byte[] encoded = DetectionsBinaryFormat.encode(detections);
+        sizes.jsonBytes = bufferJson.length;
+        sizes.binaryBytes = encoded.length;
+        return encoded;
+    }
+
+    @Benchmark
+    public String encodeJson() {
+        return GetDetectionsApiRequestHandler.toJson(detections, 0, Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    public String encodeJsonWindow() {
+        return GetDetectionsApiRequestHandler.toJson(detections, 10000, 20000);
+    }
+
+}
@@ -0,0 +1,118 @@
+package awsPrototype.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import awsPrototype.helpers.ConcurrentLRUCache;
+
+/*
+*   Cache hit throughput of the buffered ConcurrentLRUCache against the original synchronized one, from 1 to 64 threads,
+*   and of a get then a put on a miss over 4 times more keys than entries, so a quarter of the lookups hit and
+*   most puts evict. The original cache isn't safe under concurrent puts (a node is in the map before it is linked),
+*   its get and put hold its monitor together.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LRUCacheContentionBenchmark {
+
+    private static final int ENTRIES = 1024;
+
+    @Param({"synchronized", "buffered"})
+    String cache;
+
+    SynchronizedLRUCache<Integer, Integer> synchronizedCache;
+    ConcurrentLRUCache<Integer, Integer> bufferedCache;
+    Integer[] keys;
+
+    @Setup
+    public void setup() {
+        synchronizedCache = new SynchronizedLRUCache<>(ENTRIES);
+        bufferedCache = new ConcurrentLRUCache<>(ENTRIES);
+        keys = new Integer[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            keys[i] = i;
+            synchronizedCache.put(keys[i], i);
+            bufferedCache.put(keys[i], i);
+        }
+    }
+
+    private Integer getOrPut() {
+        Integer key = ThreadLocalRandom.current().nextInt(4 * ENTRIES);
+        if ("synchronized".equals(cache)) {
+            synchronized (synchronizedCache) {
+                Integer value = synchronizedCache.get(key);
+                if (value == null) {
+                    synchronizedCache.put(key, key);
+                }
+                return value;
+            }
+        }
+        Integer value = bufferedCache.get(key);
+        if (value == null) {
+            bufferedCache.put(key, key);
+        }
+        return value;
+    }
+
+    private Integer get() {
+        Integer key = keys[ThreadLocalRandom.current().nextInt(ENTRIES)];
+        if ("synchronized".equals(cache)) {
+            return synchronizedCache.get(key);
+        }
+        return bufferedCache.get(key);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Integer get01Thread() {
+        return get();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Integer get04Threads() {
+        return get();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Integer get16Threads() {
+        return get();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Integer get64Threads() {
+        return get();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Integer getOrPut01Thread() {
+        return getOrPut();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Integer getOrPut16Threads() {
+        return getOrPut();
+    }
+
+}
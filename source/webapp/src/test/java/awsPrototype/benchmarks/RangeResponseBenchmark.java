@@ -0,0 +1,68 @@
+package awsPrototype.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import awsPrototype.metadatas.ByteRange;
+
+/*
+*   Bytes allocated per range request, run with "-prof gc" and compare gc.alloc.rate.norm across the rangeSize values:
+*   slicing the cached block stays flat while the copy path grows with the range.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RangeResponseBenchmark {
+
+    private static final int VIDEO_SIZE = 32 * 1024 * 1024;
+
+    @Param({"65536", "1048576", "8388608"})
+    int rangeSize;
+
+    byte[] video;
+    ByteBuffer block;
+    String rangeHeader;
+
+    @Setup
+    public void setup() {
+        video = new byte[VIDEO_SIZE];
+        new Random(42).nextBytes(video);
+        // a cached block as big as the largest range, like VideoBlockCache hands it to the video handler
+        block = ByteBuffer.wrap(video).asReadOnlyBuffer();
+        int start = VIDEO_SIZE / 4;
+        rangeHeader = "bytes=" + start + "-" + (start + rangeSize - 1);
+    }
+
+    @Benchmark
+    public ByteBuffer sliceRange() {
+        ByteRange range = ByteRange.parse(rangeHeader, VIDEO_SIZE, rangeSize);
+        ByteBuffer slice = block.duplicate();
+        slice.limit((int) range.getEnd());
+        slice.position((int) range.getStart());
+        return slice.slice();
+    }
+
+    @Benchmark
+    public byte[] copyRange() {
+        ByteRange range = ByteRange.parse(rangeHeader, VIDEO_SIZE, rangeSize);
+        return Arrays.copyOfRange(video, (int) range.getStart(), (int) range.getEnd());
+    }
+
+}
@@ -0,0 +1,74 @@
+package awsPrototype.benchmarks;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import awsPrototype.helpers.VideoBlockCache;
+import awsPrototype.helpers.VideoFileUtil;
+import awsPrototype.metadatas.Constants;
+
+/*
+*   The read of one block of a small and a multi-GB video on a cache miss, a slice of the mapped file with
+*   memory.map.video.files. It doesn't depend on the video size. The videos are sparse files of videoSize bytes,
+*   their blocks come from the page cache.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VideoBlockReadBenchmark {
+
+    @Param({"4194304", "4294967296"})
+    long videoSize;
+
+    VideoBlockCache blockCache;
+    String videoName;
+    Path videoPath;
+    long blockCount;
+
+    @Setup
+    public void setup() throws Exception {
+        Constants.DEFAULT_TMP_DIR_NAME = "video.analytics.benchmark";
+        videoName = "benchmark-blocks-" + videoSize + ".mp4";
+        videoPath = Paths.get(VideoFileUtil.getInstance().getDefaultVideoFilePath(), videoName);
+        try (RandomAccessFile video = new RandomAccessFile(videoPath.toFile(), "rw")) {
+            video.setLength(videoSize);
+        }
+        // too small to keep a block, every read goes to the file
+        blockCache = new VideoBlockCache(Constants.BLOCK_SIZE, 1, Runnable::run, Runnable::run);
+        blockCount = (videoSize + Constants.BLOCK_SIZE - 1) / Constants.BLOCK_SIZE;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        blockCache.invalidate(videoName);
+        Files.deleteIfExists(videoPath);
+    }
+
+    @Benchmark
+    public ByteBuffer readBlock() {
+        return blockCache.getBlockAsync(videoName, ThreadLocalRandom.current().nextLong(blockCount)).join();
+    }
+
+}
@@ -0,0 +1,93 @@
+package awsPrototype.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import awsPrototype.helpers.VideoFileUtil;
+import awsPrototype.metadatas.Constants;
+import awsPrototype.metadatas.VideoRawData;
+
+/*
+*   VideoFileUtil.loadVideoFromFile for a small and a multi-GB video, with the artifact of its json mapped or without
+*   artifact.store (the json parsed and everything derived again). The load reads the json only, so it doesn't depend
+*   on the video size. The videos are sparse files of videoSize bytes. The block reads are in VideoBlockReadBenchmark.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VideoLoadBenchmark {
+
+    @Param({"4194304", "4294967296"})
+    long videoSize;
+
+    @Param({"true", "false"})
+    boolean artifactStore;
+
+    VideoFileUtil videoFileUtil;
+    String videoName;
+    Path videoPath;
+    Path jsonPath;
+
+    @Setup
+    public void setup() throws Exception {
+        Constants.DEFAULT_TMP_DIR_NAME = "video.analytics.benchmark";
+        Constants.ARTIFACT_STORE = artifactStore;
+        videoFileUtil = VideoFileUtil.getInstance();
+        videoName = "benchmark-" + videoSize + ".mp4";
+        videoPath = Paths.get(videoFileUtil.getDefaultVideoFilePath(), videoName);
+        jsonPath = Paths.get(videoFileUtil.getDefaultVideoFilePath(), videoName.replaceAll("\\.mp4$", ".json"));
+        try (RandomAccessFile video = new RandomAccessFile(videoPath.toFile(), "rw")) {
+            video.setLength(videoSize);
+        }
+        try (InputStream json = VideoLoadBenchmark.class.getResourceAsStream("/static/json/detectedPersons.json")) {
+            if (json == null) {
+                throw new IOException("Missing resource /static/json/detectedPersons.json");
+            }
+            Files.copy(json, jsonPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+        videoFileUtil.loadVideoFromFile(videoName);
+        if (artifactStore) {
+            // the first load writes the artifact in background, the measured ones map it
+            long deadline = System.currentTimeMillis() + 30000;
+            long mapped = videoFileUtil.getArtifactStore().getMappedArtifacts();
+            while (videoFileUtil.getArtifactStore().getMappedArtifacts() == mapped && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+                videoFileUtil.loadVideoFromFile(videoName);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(videoPath);
+        Files.deleteIfExists(jsonPath);
+    }
+
+    @Benchmark
+    public VideoRawData loadVideoFromFile() throws IOException {
+        return videoFileUtil.loadVideoFromFile(videoName);
+    }
+
+}
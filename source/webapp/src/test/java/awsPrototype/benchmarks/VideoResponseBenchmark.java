@@ -0,0 +1,74 @@
+package awsPrototype.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import awsPrototype.metadatas.ByteRange;
+import awsPrototype.services.GetVideoApiRequestHandler;
+
+/*
+*   The body of get-video.mp4 built from cached blocks by GetVideoApiRequestHandler, for several block.size values:
+*   an open Range ("bytes=N-", what the browsers send) is a slice of the block holding N, a request without Range
+*   streams the video in chunks of a block, each copied to an array for Resp.chunk. Run with "-prof gc", the slice
+*   allocates the same whatever the block size, the chunks allocate the size of the video, BLOCKS blocks.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VideoResponseBenchmark {
+
+    private static final int BLOCKS = 16;
+
+    @Param({"262144", "1048576", "4194304"})
+    int blockSize;
+
+    ByteBuffer[] blocks;
+    long videoSize;
+    String rangeHeader;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        blocks = new ByteBuffer[BLOCKS];
+        for (int i = 0; i < BLOCKS; i++) {
+            byte[] block = new byte[blockSize];
+            random.nextBytes(block);
+            blocks[i] = ByteBuffer.wrap(block).asReadOnlyBuffer();
+        }
+        videoSize = (long) BLOCKS * blockSize;
+        // somewhere in the middle of a block, like a seek
+        rangeHeader = "bytes=" + (videoSize / 2 + blockSize / 3) + "-";
+    }
+
+    @Benchmark
+    public ByteBuffer rangeRequest() {
+        ByteRange range = ByteRange.parse(rangeHeader, videoSize, blockSize);
+        long blockIndex = GetVideoApiRequestHandler.limitToBlock(range, blockSize);
+        return GetVideoApiRequestHandler.sliceBlock(blocks[(int) blockIndex].duplicate(), blockIndex * blockSize, range);
+    }
+
+    @Benchmark
+    public void fullRequest(Blackhole blackhole) {
+        for (int i = 0; i < BLOCKS; i++) {
+            blackhole.consume(GetVideoApiRequestHandler.toChunk(blocks[i].duplicate()));
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package awsPrototype.helpers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+public class ConcurrentLRUCacheTest {
+
+    private static ConcurrentLRUCache<String, Integer> weighedByValue(long maximumWeight) {
+        return new ConcurrentLRUCache<String, Integer>(maximumWeight, (key, value) -> value);
+    }
+
+    private static long weightOf(ConcurrentLRUCache<String, Integer> cache, int keys) {
+        long weight = 0;
+        for (int i = 0; i < keys; i++) {
+            Integer value = cache.peek("key-" + i);
+            weight += value == null ? 0 : value;
+        }
+        return weight;
+    }
+
+    @Test
+    public void staysWithinItsWeightAfterPutsAndRemoves() {
+        ConcurrentLRUCache<String, Integer> cache = weighedByValue(1000);
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            String key = "key-" + random.nextInt(200);
+            if (random.nextInt(4) == 0) {
+                cache.remove(key);
+            } else {
+                cache.put(key, 1 + random.nextInt(100));
+            }
+            assertTrue(cache.weight() <= 1000, "weight " + cache.weight());
+            if (i % 100 == 0) {
+                assertEquals(weightOf(cache, 200), cache.weight());
+            }
+        }
+        assertEquals(weightOf(cache, 200), cache.weight());
+        cache.put("heavy", 1001);
+        assertNull(cache.peek("heavy"));
+        assertEquals(weightOf(cache, 200), cache.weight());
+    }
+
+    @Test
+    public void aRejectedCandidateLeavesTheCacheUnchanged() {
+        ConcurrentLRUCache<String, Integer> cache = weighedByValue(10);
+        // used a little more than a, much less than b
+        for (int i = 0; i < 2; i++) {
+            cache.put("c", 0);
+            cache.remove("c");
+        }
+        cache.put("a", 5);
+        cache.put("b", 5);
+        for (int i = 0; i < 6; i++) {
+            cache.get("b");
+        }
+        long evictions = cache.evictionCount();
+
+        // it would need the room of a, which it may take, and of b, which it may not
+        cache.put("c", 8);
+
+        assertNull(cache.peek("c"));
+        assertEquals(5, cache.peek("a"));
+        assertEquals(5, cache.peek("b"));
+        assertEquals(10, cache.weight());
+        assertEquals(evictions + 1, cache.evictionCount());
+    }
+
+    @Test
+    public void aFrequentlyReadEntrySurvivesAScan() {
+        ConcurrentLRUCache<String, String> cache = new ConcurrentLRUCache<String, String>(10);
+        cache.put("hot", "hot");
+        for (int i = 0; i < 9; i++) {
+            cache.put("key-" + i, "value");
+        }
+        for (int i = 0; i < 15; i++) {
+            cache.get("hot");
+        }
+        for (int i = 0; i < 50; i++) {
+            cache.put("scan-" + i, "value");
+        }
+        assertEquals("hot", cache.peek("hot"));
+        assertTrue(cache.size() <= 10);
+    }
+
+    @Test
+    public void aRemovalRacingTheGetsIsNotUndone() throws Exception {
+        ConcurrentLRUCache<String, Integer> cache = weighedByValue(Long.MAX_VALUE);
+        int keys = 64;
+        boolean[] present = new boolean[keys];
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> reads = new ArrayList<>();
+            for (int r = 0; r < 4; r++) {
+                reads.add(readers.submit(() -> {
+                    while (running.get()) {
+                        cache.get("key-" + ThreadLocalRandom.current().nextInt(keys));
+                    }
+                }));
+            }
+            Random random = new Random(42);
+            for (int i = 0; i < 200000; i++) {
+                int key = random.nextInt(keys);
+                if (present[key]) {
+                    cache.remove("key-" + key);
+                } else {
+                    cache.put("key-" + key, 1);
+                }
+                present[key] = !present[key];
+            }
+            running.set(false);
+            for (Future<?> read : reads) {
+                read.get();
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+        // applies the reads still buffered
+        cache.put("drain", 0);
+        cache.remove("drain");
+
+        int size = 0;
+        for (int key = 0; key < keys; key++) {
+            assertEquals(present[key], cache.containsKey("key-" + key), "key-" + key);
+            size += present[key] ? 1 : 0;
+        }
+        assertEquals(size, cache.size());
+        assertEquals(size, cache.weight());
+        assertFalse(cache.evictionCount() > 0);
+    }
+
+}
@@ -0,0 +1,218 @@
+package awsPrototype.helpers;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import awsPrototype.metadatas.VideoMetadata;
+
+public class Mp4FastStartTest {
+
+    private static final long MAX_MOOV_SIZE = 1 << 20;
+    private static final int MEDIA_SIZE = 1000;
+
+    @TempDir
+    Path directory;
+
+    static byte[] box(String type, byte[]... children) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (byte[] child : children) {
+            content.write(child, 0, child.length);
+        }
+        ByteBuffer box = ByteBuffer.allocate(8 + content.size());
+        box.putInt(8 + content.size()).put(type.getBytes(StandardCharsets.ISO_8859_1)).put(content.toByteArray());
+        return box.array();
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            bytes.write(part, 0, part.length);
+        }
+        return bytes.toByteArray();
+    }
+
+    /*
+    *   Version 0 mvhd of durationMs in a 1000 units per second timescale
+    */
+    private static byte[] mvhd(long durationMs) {
+        ByteBuffer content = ByteBuffer.allocate(100);
+        content.putInt(12, 1000).putInt(16, (int) durationMs);
+        return box("mvhd", content.array());
+    }
+
+    /*
+    *   Version 0 tkhd, the width and height in 16.16 fixed point at its end
+    */
+    private static byte[] tkhd(int width, int height) {
+        ByteBuffer content = ByteBuffer.allocate(84);
+        content.putInt(76, width << 16).putInt(80, height << 16);
+        return box("tkhd", content.array());
+    }
+
+    private static byte[] stco(long... offsets) {
+        ByteBuffer content = ByteBuffer.allocate(8 + 4 * offsets.length);
+        content.putInt(0).putInt(offsets.length);
+        for (long offset : offsets) {
+            content.putInt((int) offset);
+        }
+        return box("stco", content.array());
+    }
+
+    static byte[] ftyp() {
+        return box("ftyp", "isom".getBytes(StandardCharsets.ISO_8859_1), new byte[4]);
+    }
+
+    static byte[] mdat() {
+        byte[] media = new byte[MEDIA_SIZE];
+        for (int i = 0; i < media.length; i++) {
+            media[i] = (byte) i;
+        }
+        return box("mdat", media);
+    }
+
+    /*
+    *   ftyp, mdat then a moov whose two chunks point at the start and the middle of the media data
+    */
+    static byte[] moovAtTheEnd() {
+        byte[] ftyp = ftyp();
+        long mediaStart = ftyp.length + 8;
+        byte[] moov = box("moov", mvhd(12500), box("trak", tkhd(1280, 720),
+            box("mdia", box("minf", box("stbl", stco(mediaStart, mediaStart + MEDIA_SIZE / 2))))));
+        return concat(ftyp, mdat(), moov);
+    }
+
+    private Path write(String name, byte[] content) throws IOException {
+        Path file = directory.resolve(name);
+        Files.write(file, content);
+        return file;
+    }
+
+    @Test
+    public void movesTheMoovInFrontOfTheMediaDataAndShiftsTheChunkOffsets() throws IOException {
+        byte[] original = moovAtTheEnd();
+        Path source = write("source.mp4", original);
+        Path target = directory.resolve("target.mp4");
+        int ftypSize = ftyp().length;
+        int mdatSize = mdat().length;
+        int moovSize = original.length - ftypSize - mdatSize;
+
+        VideoMetadata metadata = Mp4FastStart.relocate(source, target, "source.mp4", MAX_MOOV_SIZE);
+
+        assertTrue(metadata.isRelocated());
+        assertTrue(metadata.isFastStart());
+        assertEquals(original.length, metadata.getVideoSize());
+        assertEquals(ftypSize, metadata.getMoovOffset());
+        assertEquals(ftypSize + moovSize, metadata.getMdatOffset());
+        assertEquals(12500, metadata.getVideoDuration());
+        assertEquals(1280, metadata.getWidth());
+        assertEquals(720, metadata.getHeight());
+
+        ByteBuffer written = ByteBuffer.wrap(Files.readAllBytes(target));
+        assertEquals(original.length, written.limit());
+        assertEquals("moov", new String(written.array(), ftypSize + 4, 4, StandardCharsets.ISO_8859_1));
+        assertArrayEquals(Arrays.copyOfRange(original, ftypSize, ftypSize + mdatSize),
+            Arrays.copyOfRange(written.array(), ftypSize + moovSize, ftypSize + moovSize + mdatSize));
+        // the stco entries are the last 8 bytes of the moov
+        int entries = ftypSize + moovSize - 8;
+        long mediaStart = ftypSize + moovSize + 8;
+        assertEquals(mediaStart, written.getInt(entries));
+        assertEquals(mediaStart + MEDIA_SIZE / 2, written.getInt(entries + 4));
+    }
+
+    @Test
+    public void leavesAFastStartFileAsItIs() throws IOException {
+        byte[] original = moovAtTheEnd();
+        byte[] ftyp = ftyp();
+        byte[] mdat = mdat();
+        byte[] moov = Arrays.copyOfRange(original, ftyp.length + mdat.length, original.length);
+        Path source = write("faststart.mp4", concat(ftyp, moov, mdat));
+        Path target = directory.resolve("target.mp4");
+
+        VideoMetadata metadata = Mp4FastStart.relocate(source, target, "faststart.mp4", MAX_MOOV_SIZE);
+
+        assertFalse(Files.exists(target));
+        assertFalse(metadata.isRelocated());
+        assertTrue(metadata.isFastStart());
+        assertEquals(ftyp.length, metadata.getMoovOffset());
+        assertEquals(12500, metadata.getVideoDuration());
+    }
+
+    @Test
+    public void leavesATruncatedFileAsItIs() throws IOException {
+        byte[] original = moovAtTheEnd();
+        Path source = write("truncated.mp4", Arrays.copyOf(original, original.length - 10));
+        Path target = directory.resolve("target.mp4");
+
+        VideoMetadata metadata = Mp4FastStart.relocate(source, target, "truncated.mp4", MAX_MOOV_SIZE);
+
+        assertFalse(Files.exists(target));
+        assertFalse(metadata.isRelocated());
+        assertEquals(-1, metadata.getMoovOffset());
+        assertEquals(original.length - 10, metadata.getVideoSize());
+    }
+
+    @Test
+    public void leavesAFileWithAMoovTooBigAsItIs() throws IOException {
+        Path source = write("big.mp4", moovAtTheEnd());
+        Path target = directory.resolve("target.mp4");
+
+        VideoMetadata metadata = Mp4FastStart.relocate(source, target, "big.mp4", 16);
+
+        assertFalse(Files.exists(target));
+        assertFalse(metadata.isFastStart());
+        assertEquals(0, metadata.getVideoDuration());
+    }
+
+    @Test
+    public void rejectsAMoovWithMoreChunkOffsetsThanItHolds() throws IOException {
+        byte[] ftyp = ftyp();
+        ByteBuffer stco = ByteBuffer.allocate(8 + 4);
+        stco.putInt(0).putInt(1000).putInt(ftyp.length + 8);
+        byte[] moov = box("moov", box("trak", box("mdia", box("minf", box("stbl", box("stco", stco.array()))))));
+        Path source = write("garbage.mp4", concat(ftyp, mdat(), moov));
+        Path target = directory.resolve("target.mp4");
+
+        assertThrows(IOException.class, () -> Mp4FastStart.relocate(source, target, "garbage.mp4", MAX_MOOV_SIZE));
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    public void rejectsAMoovWhoseBoxesDontFitInEachOther() throws IOException {
+        byte[] original = moovAtTheEnd();
+        int moovStart = ftyp().length + mdat().length;
+        // the trak claims more bytes than the moov has left
+        ByteBuffer.wrap(original).putInt(moovStart + 8 + 108, 1 << 20);
+        Path source = write("overflow.mp4", original);
+        Path target = directory.resolve("target.mp4");
+
+        assertThrows(IOException.class, () -> Mp4FastStart.relocate(source, target, "overflow.mp4", MAX_MOOV_SIZE));
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    public void leavesAFileThatIsNotAnMp4AsItIs() throws IOException {
+        Path source = write("text.mp4", "not a video at all".getBytes(StandardCharsets.ISO_8859_1));
+        Path target = directory.resolve("target.mp4");
+
+        VideoMetadata metadata = Mp4FastStart.relocate(source, target, "text.mp4", MAX_MOOV_SIZE);
+
+        assertFalse(Files.exists(target));
+        assertEquals(-1, metadata.getMoovOffset());
+        assertEquals(-1, metadata.getMdatOffset());
+    }
+
+}
@@ -0,0 +1,72 @@
+package awsPrototype.helpers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class PrefetchTaskTest {
+
+    @Test
+    public void aQueuedPrefetchMovesToTheForegroundExecutorAndRunsOnce() throws Exception {
+        ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch busy = new CountDownLatch(1);
+            prefetchExecutor.execute(() -> {
+                try {
+                    busy.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            AtomicInteger loads = new AtomicInteger();
+            CompletableFuture<String> result = new CompletableFuture<>();
+            PrefetchTask prefetch = new PrefetchTask(() -> {
+                loads.incrementAndGet();
+                result.complete(Thread.currentThread().getName());
+            }, result);
+            prefetchExecutor.execute(prefetch);
+
+            assertTrue(prefetch.moveTo(Runnable::run));
+            assertEquals(Thread.currentThread().getName(), result.get(1, TimeUnit.SECONDS));
+            busy.countDown();
+            prefetchExecutor.submit(() -> { }).get(1, TimeUnit.SECONDS);
+            assertEquals(1, loads.get());
+        } finally {
+            prefetchExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void aStartedPrefetchStaysWhereItIs() {
+        AtomicInteger loads = new AtomicInteger();
+        PrefetchTask prefetch = new PrefetchTask(loads::incrementAndGet, new CompletableFuture<Void>());
+        prefetch.run();
+
+        assertFalse(prefetch.moveTo(Runnable::run));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void aRejectedMoveFailsTheResult() {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        PrefetchTask prefetch = new PrefetchTask(() -> result.complete(null), result);
+
+        assertTrue(prefetch.moveTo(load -> {
+            throw new RejectedExecutionException("full");
+        }));
+        assertTrue(result.isCompletedExceptionally());
+        prefetch.run();
+        assertTrue(result.isCompletedExceptionally());
+    }
+
+}
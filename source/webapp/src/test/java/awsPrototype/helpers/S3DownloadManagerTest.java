@@ -0,0 +1,137 @@
+package awsPrototype.helpers;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import awsPrototype.loadtest.LocalObject;
+import awsPrototype.loadtest.LocalS3Client;
+import awsPrototype.metadatas.S3ObjectInfo;
+
+/*
+*   Downloads from the in-process S3 stand-in of the load test, with a 20 MB object uploaded in 8 MB parts
+*   (a multipart ETag) and downloaded in 4 MB parts
+*/
+public class S3DownloadManagerTest {
+
+    private static final String BUCKET = "bucket";
+    private static final String KEY = "output/video.mp4";
+    private static final int MB = 1024 * 1024;
+    private static final int MAX_CONCURRENT_REQUESTS = 2;
+
+    @TempDir
+    Path directory;
+
+    private byte[] content;
+    private LocalS3Client s3Client;
+    private S3DownloadManager downloadManager;
+
+    @BeforeEach
+    public void setUp() {
+        content = new byte[20 * MB];
+        new Random(42).nextBytes(content);
+        s3Client = new LocalS3Client(BUCKET, 1, 0);
+        s3Client.putObject(KEY, LocalObject.of(content));
+        downloadManager = new S3DownloadManager(s3Client, BUCKET, MAX_CONCURRENT_REQUESTS, 4 * MB, 4 * MB);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        s3Client.close();
+    }
+
+    private S3ObjectInfo download(Path target) throws Exception {
+        return downloadManager.download(KEY, target).get(30, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void verifiesAMultipartEtagWithThePartSizeOfPart1() throws Exception {
+        assertTrue(S3DownloadManager.EtagVerifier.isMultipart(s3Client.getLocalObject(KEY).getEtag()));
+        Path target = directory.resolve("video.mp4");
+
+        S3ObjectInfo object = download(target);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertFalse(object.isUnverified());
+        assertEquals(content.length, object.getSize());
+        assertEquals(5, s3Client.getGetRequests());
+        assertTrue(s3Client.getMaxGetsInFlight() <= MAX_CONCURRENT_REQUESTS);
+        assertFalse(Files.exists(Paths.get(target + S3DownloadManager.PART_SUFFIX)));
+        assertFalse(Files.exists(Paths.get(target + S3DownloadManager.PROGRESS_SUFFIX)));
+        assertEquals(1, downloadManager.getCompletedDownloads());
+    }
+
+    @Test
+    public void fetchesOnlyTheFailedPartAgain() throws Exception {
+        Path target = directory.resolve("video.mp4");
+        s3Client.failGets(1);
+
+        assertThrows(ExecutionException.class, () -> download(target));
+        assertFalse(Files.exists(target));
+        long getRequests = s3Client.getGetRequests();
+        download(target);
+
+        assertEquals(1, s3Client.getGetRequests() - getRequests);
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    public void deletesAFileNotMatchingItsEtag() throws Exception {
+        Path target = directory.resolve("video.mp4");
+        Path partFile = Paths.get(target + S3DownloadManager.PART_SUFFIX);
+        Path progressFile = Paths.get(target + S3DownloadManager.PROGRESS_SUFFIX);
+        // a previous attempt that got all its parts, but corrupted
+        byte[] corrupted = content.clone();
+        corrupted[12345] ^= 1;
+        Files.write(partFile, corrupted);
+        Files.write(progressFile, (s3Client.getLocalObject(KEY).getEtag() + " " + content.length + " " + 4 * MB + "\n0\n1\n2\n3\n4\n")
+            .getBytes(StandardCharsets.UTF_8));
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> download(target));
+
+        assertTrue(error.getCause() instanceof IOException, String.valueOf(error.getCause()));
+        assertEquals(0, s3Client.getGetRequests());
+        assertFalse(Files.exists(target));
+        assertFalse(Files.exists(partFile));
+        assertFalse(Files.exists(progressFile));
+        assertEquals(1, downloadManager.getFailedDownloads());
+    }
+
+    @Test
+    public void etagVerifier() throws Exception {
+        Path file = directory.resolve("content");
+        Files.write(file, content);
+        String etag = s3Client.getLocalObject(KEY).getEtag();
+        long size = content.length;
+
+        assertEquals(S3DownloadManager.EtagVerifier.MATCH, S3DownloadManager.EtagVerifier.verify(file, size, etag, 8 * MB));
+        // the part size can't be known, or doesn't give 3 parts
+        assertEquals(S3DownloadManager.EtagVerifier.UNVERIFIABLE, S3DownloadManager.EtagVerifier.verify(file, size, etag, 0));
+        assertEquals(S3DownloadManager.EtagVerifier.UNVERIFIABLE, S3DownloadManager.EtagVerifier.verify(file, size, etag, 5 * MB));
+        // 3 parts of 7 MB give another ETag
+        assertEquals(S3DownloadManager.EtagVerifier.MISMATCH, S3DownloadManager.EtagVerifier.verify(file, size, etag, 7 * MB));
+
+        byte[] small = "{}".getBytes(StandardCharsets.UTF_8);
+        Files.write(file, small);
+        String smallEtag = LocalObject.of(small).getEtag();
+        assertEquals(S3DownloadManager.EtagVerifier.MATCH, S3DownloadManager.EtagVerifier.verify(file, small.length, smallEtag, 0));
+        assertEquals(S3DownloadManager.EtagVerifier.MISMATCH, S3DownloadManager.EtagVerifier.verify(file, small.length, etag.replace("-3", ""), 0));
+    }
+
+}
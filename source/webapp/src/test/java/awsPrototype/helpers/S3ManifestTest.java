@@ -0,0 +1,41 @@
+package awsPrototype.helpers;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import awsPrototype.metadatas.S3ObjectInfo;
+
+public class S3ManifestTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void adoptsAFileWrittenFromTheListedVersionOnly() throws Exception {
+        Path video = directory.resolve("video.mp4");
+        S3ObjectInfo object = new S3ObjectInfo("output/video.mp4", 1000, "\"0123456789abcdef0123456789abcdef-2\"", 0);
+        Files.write(video, new byte[1000]);
+        // a file of the listed size, but nothing says where it comes from
+        assertFalse(S3Manifest.isSourceOf(video, object));
+
+        S3Manifest.writeSource(video, object);
+        // rewritten with the moov first and co64 offsets, it grew
+        Files.write(video, new byte[1008]);
+        assertTrue(S3Manifest.isSourceOf(video, object));
+        assertFalse(S3Manifest.isSourceOf(video, new S3ObjectInfo("output/video.mp4", 1000, "\"fedcba9876543210fedcba9876543210-2\"", 0)));
+
+        Files.write(directory.resolve("video.mp4" + S3Manifest.SOURCE_SUFFIX), "garbage".getBytes(StandardCharsets.UTF_8));
+        assertFalse(S3Manifest.isSourceOf(video, object));
+        Files.delete(video);
+        S3Manifest.writeSource(video, object);
+        assertFalse(S3Manifest.isSourceOf(video, object));
+    }
+
+}
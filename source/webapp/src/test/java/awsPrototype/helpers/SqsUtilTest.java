@@ -0,0 +1,75 @@
+package awsPrototype.helpers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import com.google.gson.JsonObject;
+
+import org.junit.jupiter.api.Test;
+
+import awsPrototype.metadatas.Constants;
+
+public class SqsUtilTest {
+
+    private static String record(String eventName, String bucket, String key) {
+        return "{\"eventName\":\"" + eventName + "\",\"s3\":{\"bucket\":{\"name\":\"" + bucket + "\"},\"object\":{\"key\":\"" + key + "\"}}}";
+    }
+
+    private static String event(String... records) {
+        return "{\"Records\":[" + String.join(",", records) + "]}";
+    }
+
+    private static String key(String fileName) {
+        return Constants.DEFAULT_S3_VIDEOS_PATH + fileName;
+    }
+
+    @Test
+    public void keepsTheVideosAndJsonsCreatedUnderTheVideosPath() {
+        String body = event(
+            record("ObjectCreated:Put", Constants.DEFAULT_S3_BUCKET_NAME, key("a.mp4")),
+            record("ObjectCreated:CompleteMultipartUpload", Constants.DEFAULT_S3_BUCKET_NAME, key("a.json")),
+            record("ObjectRemoved:Delete", Constants.DEFAULT_S3_BUCKET_NAME, key("b.mp4")),
+            record("ObjectCreated:Put", "another-bucket", key("c.mp4")),
+            record("ObjectCreated:Put", Constants.DEFAULT_S3_BUCKET_NAME, key("nested/d.mp4")),
+            record("ObjectCreated:Put", Constants.DEFAULT_S3_BUCKET_NAME, key("e.txt")),
+            record("ObjectCreated:Put", Constants.DEFAULT_S3_BUCKET_NAME, "elsewhere/f.mp4"));
+        assertEquals(new LinkedHashSet<>(Arrays.asList(key("a.mp4"), key("a.json"))), SqsUtil.parseObjectKeys(body));
+    }
+
+    @Test
+    public void decodesTheKeys() {
+        String body = event(record("ObjectCreated:Put", Constants.DEFAULT_S3_BUCKET_NAME, key("my+video%281%29.mp4")));
+        assertEquals(new LinkedHashSet<>(Arrays.asList(key("my video(1).mp4"))), SqsUtil.parseObjectKeys(body));
+    }
+
+    @Test
+    public void unwrapsAnSnsNotification() {
+        JsonObject notification = new JsonObject();
+        notification.addProperty("Type", "Notification");
+        notification.addProperty("Message", event(record("ObjectCreated:Put", Constants.DEFAULT_S3_BUCKET_NAME, key("a.mp4"))));
+        assertEquals(new LinkedHashSet<>(Arrays.asList(key("a.mp4"))), SqsUtil.parseObjectKeys(notification.toString()));
+    }
+
+    @Test
+    public void otherMessagesGiveNoKey() {
+        assertTrue(SqsUtil.parseObjectKeys("{\"Event\":\"s3:TestEvent\",\"Bucket\":\"" + Constants.DEFAULT_S3_BUCKET_NAME + "\"}").isEmpty());
+        assertTrue(SqsUtil.parseObjectKeys("[1,2]").isEmpty());
+        assertTrue(SqsUtil.parseObjectKeys("not json").isEmpty());
+        assertTrue(SqsUtil.parseObjectKeys("{\"Records\":[{\"s3\":{}}]}").isEmpty());
+    }
+
+    @Test
+    public void aBadRecordDoesntDropTheOthers() {
+        String body = event(
+            record("ObjectCreated:Put", Constants.DEFAULT_S3_BUCKET_NAME, key("a.mp4")),
+            "42",
+            "{\"eventName\":\"ObjectCreated:Put\",\"s3\":{\"object\":{\"key\":\"" + key("b.mp4") + "\"}}}",
+            "{\"eventName\":\"ObjectCreated:Put\",\"s3\":{\"bucket\":{\"name\":\"" + Constants.DEFAULT_S3_BUCKET_NAME + "\"},\"object\":{}}}",
+            record("ObjectCreated:Put", Constants.DEFAULT_S3_BUCKET_NAME, key("c.json")));
+        assertEquals(new LinkedHashSet<>(Arrays.asList(key("a.mp4"), key("c.json"))), SqsUtil.parseObjectKeys(body));
+    }
+
+}
@@ -0,0 +1,748 @@
+package awsPrototype.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.rapidoid.log.Log;
+import org.rapidoid.log.LogLevel;
+
+import awsPrototype.ApplicationStart;
+import awsPrototype.helpers.S3Util;
+import awsPrototype.helpers.SqsUtil;
+import awsPrototype.metadatas.Constants;
+import awsPrototype.metadatas.LatencyHistogram;
+
+/*
+*   End to end load test: starts ApplicationStart in this JVM against LocalS3Client and LocalSqsClient, a bucket
+*   seeded with synthetic videos and detection jsons, and drives simulated players over HTTP:
+*   mvn test-compile exec:exec -Ploadtest [-Dloadtest.args="players=2000 duration=120"]
+*   A player opens the list (get-videos-list.json) and a video picked with a Zipf popularity, its detections
+*   (get-json.json), then plays it the way a browser does: an open Range from the start, the next ones back to back
+*   until buffer.s seconds are buffered, then one each time the playback needs more; it seeks to a random position
+*   seeks.per.minute times a minute on average and moves to another video after session.s seconds on average.
+*   The list and the json are revalidated with If-None-Match, the bodies accepted gzipped, like a browser.
+*   While it runs, new.videos videos are uploaded and announced through the SQS notifications, so the players also
+*   hit videos served from S3 until their download ends.
+*   The latency of a request is counted from the time the player wanted to send it, the wait for one of the
+*   connections included, so a slow server doesn't hide its queueing by slowing the players down; connections=0
+*   sends each request from a virtual thread of its own instead, as many connections as requests in flight.
+*   video.block.cache.mb and max.video.cache.entries override the application settings of the same name, to run
+*   the same workload against other cache sizes. Only the
+*   requests planned after the ramp up are reported: per route the requests, throughput, errors and latency
+*   quantiles, then the heap and the collections of the JVM (the players' allocations included), the calls to
+*   the stand-ins and the cache stats of the application. report=file.json also writes them as json.
+*/
+public class LoadTest {
+
+    private static final Logger LOGGER = Logger.getLogger(LoadTest.class.getName());
+    private static final String QUEUE_URL = "https://sqs.local/000000000000/loadtest";
+    private static final String VIDEO_PREFIX = "loadtest-";
+    private static final String[] ROUTES = { "/get-videos-list.json", "/get-json.json", "/get-video.mp4" };
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999, 1.0 };
+    private static final int REPORT_INTERVAL_SECONDS = 10;
+
+    private final Properties settings;
+    private final int port;
+    private final int players;
+    private final long durationMs;
+    private final long rampUpMs;
+    private final int connections;
+    private final long bufferMs;
+    private final double seeksPerMinute;
+    private final long sessionMs;
+    private final double zipfExponent;
+    private final long videoSize;
+    private final long videoDurationMs;
+    private final int detections;
+
+    private final LocalS3Client s3;
+    private final LocalSqsClient sqs;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService connectionPool;
+    private final Map<String,RouteStats> routes;
+    private final AtomicInteger seededVideos;
+    private volatile Catalog catalog;
+    private volatile long measureFromNanos;
+    private volatile boolean running;
+
+    LoadTest(Properties settings) {
+        this.settings = settings;
+        this.port = intSetting("port");
+        this.players = intSetting("players");
+        this.durationMs = longSetting("duration") * 1000;
+        this.rampUpMs = longSetting("ramp.up") * 1000;
+        this.connections = intSetting("connections");
+        this.bufferMs = longSetting("buffer.s") * 1000;
+        this.seeksPerMinute = Double.parseDouble(settings.getProperty("seeks.per.minute"));
+        this.sessionMs = longSetting("session.s") * 1000;
+        this.zipfExponent = Double.parseDouble(settings.getProperty("zipf"));
+        this.videoSize = longSetting("video.size.mb") * Constants.MB;
+        this.videoDurationMs = longSetting("video.duration.s") * 1000;
+        this.detections = intSetting("detections");
+        this.s3 = new LocalS3Client(Constants.DEFAULT_S3_BUCKET_NAME, longSetting("s3.latency.ms"), longSetting("s3.mb.per.second") * Constants.MB);
+        this.sqs = new LocalSqsClient(QUEUE_URL, 30000);
+        this.timer = Executors.newScheduledThreadPool(2, daemonThreads("loadtest-timer"));
+        this.connectionPool = connections > 0 ? Executors.newFixedThreadPool(connections, daemonThreads("loadtest-connection"))
+            : Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("loadtest-connection-", 1).factory());
+        this.routes = new LinkedHashMap<>();
+        for (String route : ROUTES) {
+            routes.put(route, new RouteStats());
+        }
+        this.seededVideos = new AtomicInteger();
+        this.catalog = new Catalog(null, new String[0], new long[0], zipfExponent);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties settings = new Properties();
+        settings.setProperty("port", "8099");
+        settings.setProperty("videos", "50");
+        settings.setProperty("video.size.mb", "64");
+        settings.setProperty("video.duration.s", "120");
+        settings.setProperty("detections", "5000");
+        settings.setProperty("new.videos", "5");
+        settings.setProperty("players", "1000");
+        settings.setProperty("duration", "60");
+        settings.setProperty("ramp.up", "10");
+        settings.setProperty("connections", "64");
+        settings.setProperty("buffer.s", "30");
+        settings.setProperty("seeks.per.minute", "2");
+        settings.setProperty("session.s", "90");
+        settings.setProperty("zipf", "1.0");
+        settings.setProperty("s3.latency.ms", "20");
+        settings.setProperty("s3.mb.per.second", "100");
+        settings.setProperty("tmp.dir.name", "video.analytics.loadtest");
+        settings.setProperty("verbose", "false");
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals <= 0) {
+                System.err.println("Usage: LoadTest [name=value...], with the names and defaults " + settings);
+                System.exit(2);
+            }
+            settings.setProperty(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        try {
+            new LoadTest(settings).run();
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Load test failed", e);
+            // the application threads would keep the JVM running
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    void run() throws Exception {
+        boolean verbose = Boolean.parseBoolean(settings.getProperty("verbose"));
+        if (!verbose) {
+            Logger.getLogger("").setLevel(Level.WARNING);
+            Logger.getLogger(LoadTest.class.getName()).setLevel(Level.INFO);
+            Log.setLogLevel(LogLevel.WARN);
+        }
+        // the application starts from an empty folder of its own, every run downloads everything again
+        Constants.DEFAULT_TMP_DIR_NAME = settings.getProperty("tmp.dir.name");
+        deleteRecursively(Paths.get(System.getProperty("java.io.tmpdir").concat(Constants.DEFAULT_TMP_DIR_NAME)));
+        Constants.PRE_LOAD_DEFAULT_VIDEO_AND_JSON = false;
+        Constants.DEFAULT_S3_DELAY_START = 1;
+        Constants.DEFAULT_SQS_QUEUE_URL = QUEUE_URL;
+        Constants.DEFAULT_SQS_DELAY_START = 0;
+        if (settings.containsKey("video.block.cache.mb")) {
+            Constants.VIDEO_BLOCK_CACHE_BYTES = longSetting("video.block.cache.mb") * Constants.MB;
+        }
+        if (settings.containsKey("max.video.cache.entries")) {
+            Constants.MAX_VIDEO_CACHE_ENTRIES = intSetting("max.video.cache.entries");
+        }
+        System.setProperty("http.maxConnections", String.valueOf(connections > 0 ? connections : players));
+
+        int videos = intSetting("videos");
+        LOGGER.info(String.format("Seeding %d videos of %d MB with %d detections each", videos, videoSize / Constants.MB, detections));
+        for (int i = 0; i < videos; i++) {
+            uploadVideo(false);
+        }
+        S3Util.setClient(s3);
+        SqsUtil.setClient(sqs);
+        ApplicationStart.main(new String[] { "on.port=" + port });
+        if (!verbose) {
+            // the bootstrap sets the level from its own configuration
+            Log.setLogLevel(LogLevel.WARN);
+        }
+
+        long readyNanos = System.nanoTime();
+        while (catalog.videoNames.length < videos) {
+            if (System.nanoTime() - readyNanos > TimeUnit.SECONDS.toNanos(300)) {
+                throw new IllegalStateException(String.format("Only %d of the %d videos listed after 300s", catalog.videoNames.length, videos));
+            }
+            Thread.sleep(500);
+            try {
+                send("/get-videos-list.json?limit=" + Constants.VIDEO_LIST_MAX_PAGE_SIZE, null, null, 0);
+            } catch (IOException e) {
+                // not listening yet
+            }
+        }
+        LOGGER.info(String.format("%d videos listed in %d ms, starting %d players over %d s for %d s", catalog.videoNames.length,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - readyNanos), players, rampUpMs / 1000, durationMs / 1000));
+
+        running = true;
+        long startNanos = System.nanoTime();
+        measureFromNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(rampUpMs);
+        for (int i = 0; i < players; i++) {
+            new Player(i).start(startNanos + TimeUnit.MILLISECONDS.toNanos(rampUpMs * i / players));
+        }
+        int newVideos = intSetting("new.videos");
+        for (int i = 1; i <= newVideos; i++) {
+            timer.schedule(() -> uploadVideo(true), (rampUpMs + durationMs) * i / (newVideos + 1), TimeUnit.MILLISECONDS);
+        }
+        timer.schedule(this::resetMemoryStats, rampUpMs, TimeUnit.MILLISECONDS);
+        MemoryStats memory = new MemoryStats();
+        timer.scheduleAtFixedRate(memory::sample, 1, 1, TimeUnit.SECONDS);
+        timer.scheduleAtFixedRate(this::printProgress, REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        Thread.sleep(rampUpMs);
+        memory.start();
+        Thread.sleep(durationMs);
+        running = false;
+        memory.stop();
+        report(memory);
+    }
+
+    /*
+    *   Puts a video and its json in the bucket, the json first like the worker; announced through SQS when
+    *   the application is running, found by its first listing otherwise
+    */
+    private void uploadVideo(boolean notify) {
+        int index = seededVideos.getAndIncrement();
+        String name = String.format("%s%05d", VIDEO_PREFIX, index);
+        LocalObject json = LocalObject.of(SyntheticDetections.generate(detections, videoDurationMs, index));
+        LocalObject video = new LocalObject.SyntheticVideo(videoSize, videoDurationMs, 1280, 720, index);
+        String jsonKey = Constants.DEFAULT_S3_VIDEOS_PATH + name + ".json";
+        String videoKey = Constants.DEFAULT_S3_VIDEOS_PATH + name + ".mp4";
+        s3.putObject(jsonKey, json);
+        s3.putObject(videoKey, video);
+        if (notify) {
+            LOGGER.info("Uploading the new video " + name + ".mp4");
+            sqs.sendObjectCreated(Constants.DEFAULT_S3_BUCKET_NAME, jsonKey, json);
+            sqs.sendObjectCreated(Constants.DEFAULT_S3_BUCKET_NAME, videoKey, video);
+        }
+    }
+
+    /*
+    *   A simulated player, one step at a time on the timer, its requests on the connection pool
+    */
+    private class Player {
+        private final int id;
+        private final Random random;
+        private String listEtag;
+        private final Map<String,String> jsonEtags = new LinkedHashMap<String,String>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,String> eldest) {
+                return size() > 16;
+            }
+        };
+        private String videoName;
+        private long videoSize;
+        private long sessionEndNanos;
+        private long nextSeekNanos;
+        // playback: the position fetched so far, and the time it started playing from playedFrom
+        private long fetchedUntil;
+        private long playedFrom;
+        private long playStartNanos;
+
+        Player(int id) {
+            this.id = id;
+            this.random = new Random(id);
+        }
+
+        void start(long atNanos) {
+            schedule(atNanos, this::openSession);
+        }
+
+        private void schedule(long atNanos, Step step) {
+            if (!running) {
+                return;
+            }
+            timer.schedule(() -> connectionPool.execute(() -> {
+                try {
+                    step.run(atNanos);
+                } catch (IOException | RuntimeException e) {
+                    // counted as an error of its route, the player starts over a bit later
+                    schedule(System.nanoTime() + TimeUnit.SECONDS.toNanos(1), this::openSession);
+                }
+            }), Math.max(0, atNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+
+        private void openSession(long plannedNanos) throws IOException {
+            Response list = send("/get-videos-list.json?limit=" + Constants.VIDEO_LIST_MAX_PAGE_SIZE, null, listEtag, plannedNanos);
+            listEtag = list.etag != null ? list.etag : listEtag;
+            Catalog current = catalog;
+            if (current.videoNames.length == 0) {
+                schedule(System.nanoTime() + TimeUnit.SECONDS.toNanos(1), this::openSession);
+                return;
+            }
+            int video = current.pick(random);
+            videoName = current.videoNames[video];
+            videoSize = current.videoSizes[video];
+            sessionEndNanos = System.nanoTime() + (long) (exponential(sessionMs) * 1e6);
+            nextSeekNanos = nextSeek(System.nanoTime());
+            schedule(System.nanoTime(), this::openJson);
+        }
+
+        private void openJson(long plannedNanos) throws IOException {
+            Response json = send("/get-json.json?videoName=" + URLEncoder.encode(videoName, "UTF-8"), null, jsonEtags.get(videoName), plannedNanos);
+            if (json.etag != null) {
+                jsonEtags.put(videoName, json.etag);
+            }
+            seek(0, System.nanoTime());
+            schedule(System.nanoTime(), this::fetchVideo);
+        }
+
+        private void fetchVideo(long plannedNanos) throws IOException {
+            Response block = send("/get-video.mp4?videoName=" + URLEncoder.encode(videoName, "UTF-8"), "bytes=" + fetchedUntil + "-", null, plannedNanos);
+            long now = System.nanoTime();
+            if (block.status != 206 && block.status != 200) {
+                schedule(now + TimeUnit.SECONDS.toNanos(1), this::openSession);
+                return;
+            }
+            fetchedUntil += block.bodyBytes;
+            if (now - sessionEndNanos > 0 || fetchedUntil >= videoSize) {
+                // watched for a while or to the end, a short pause before the next video
+                schedule(now + (long) (exponential(5000) * 1e6), this::openSession);
+                return;
+            }
+            if (now - nextSeekNanos > 0) {
+                nextSeekNanos = nextSeek(now);
+                seek((long) (random.nextDouble() * videoSize), now);
+                schedule(now, this::fetchVideo);
+                return;
+            }
+            // the next range when the buffer ahead of the playback drops below buffer.s
+            long bufferedUntilMs = (long) ((double) (fetchedUntil - playedFrom) / videoSize * videoDurationMs);
+            long playedMs = TimeUnit.NANOSECONDS.toMillis(now - playStartNanos);
+            long waitMs = Math.max(0, bufferedUntilMs - playedMs - bufferMs);
+            schedule(now + TimeUnit.MILLISECONDS.toNanos(waitMs), this::fetchVideo);
+        }
+
+        private void seek(long position, long nowNanos) {
+            fetchedUntil = position;
+            playedFrom = position;
+            playStartNanos = nowNanos;
+        }
+
+        private long nextSeek(long nowNanos) {
+            return seeksPerMinute <= 0 ? Long.MAX_VALUE / 2 + nowNanos : nowNanos + (long) (exponential(60000 / seeksPerMinute) * 1e6);
+        }
+
+        private double exponential(double meanMs) {
+            return -Math.log(1 - random.nextDouble()) * meanMs;
+        }
+    }
+
+    private interface Step {
+        void run(long plannedNanos) throws IOException;
+    }
+
+    private static class Response {
+        int status;
+        long bodyBytes;
+        String etag;
+    }
+
+    /*
+    *   One request on a kept alive connection, recorded from plannedNanos when it is in the measured part of the
+    *   run; the body is read through and dropped, except the list which updates the catalog when it changed
+    */
+    private Response send(String path, String range, String etag, long plannedNanos) throws IOException {
+        String route = path.substring(0, path.indexOf('?') < 0 ? path.length() : path.indexOf('?'));
+        RouteStats stats = routes.get(route);
+        Response response = new Response();
+        HttpURLConnection connection = (HttpURLConnection) URI.create("http://localhost:" + port + path).toURL().openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(60000);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        if (etag != null) {
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+        try {
+            response.status = connection.getResponseCode();
+            response.etag = connection.getHeaderField("ETag");
+            InputStream body = response.status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (body != null) {
+                try (InputStream in = body) {
+                    if (route.equals("/get-videos-list.json") && response.status == 200 && (response.etag == null || !response.etag.equals(catalog.etag))) {
+                        CountingInputStream counted = new CountingInputStream(in);
+                        boolean gzip = "gzip".equals(connection.getHeaderField("Content-Encoding"));
+                        updateCatalog(response.etag, gzip ? new GZIPInputStream(counted) : counted);
+                        response.bodyBytes = counted.count + drain(counted);
+                    } else {
+                        response.bodyBytes = drain(in);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (plannedNanos - measureFromNanos >= 0 && measureFromNanos != 0) {
+                stats.record(plannedNanos, System.nanoTime(), -1, 0);
+            }
+            throw e;
+        }
+        if (plannedNanos - measureFromNanos >= 0 && measureFromNanos != 0) {
+            stats.record(plannedNanos, System.nanoTime(), response.status, response.bodyBytes);
+        }
+        return response;
+    }
+
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    private static long drain(InputStream in) throws IOException {
+        byte[] buffer = BUFFERS.get();
+        long total = 0;
+        for (int read; (read = in.read(buffer)) >= 0; ) {
+            total += read;
+        }
+        return total;
+    }
+
+    private void updateCatalog(String etag, InputStream body) {
+        JsonObject list = JsonParser.parseReader(new InputStreamReader(body, StandardCharsets.UTF_8)).getAsJsonObject();
+        List<String> names = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        for (JsonElement element : list.getAsJsonArray("items")) {
+            JsonObject item = element.getAsJsonObject();
+            long size = item.get("videoSize").getAsLong();
+            if (size > 0) {
+                names.add(item.get("videoName").getAsString());
+                sizes.add(size);
+            }
+        }
+        long[] videoSizes = new long[sizes.size()];
+        for (int i = 0; i < videoSizes.length; i++) {
+            videoSizes[i] = sizes.get(i);
+        }
+        catalog = new Catalog(etag, names.toArray(new String[0]), videoSizes, zipfExponent);
+    }
+
+    /*
+    *   The videos of the last list, the first ones the most watched: the i-th (from 1) has a weight of 1/i^zipf
+    */
+    private static class Catalog {
+        final String etag;
+        final String[] videoNames;
+        final long[] videoSizes;
+        final double[] cumulativeWeights;
+
+        Catalog(String etag, String[] videoNames, long[] videoSizes, double exponent) {
+            this.etag = etag;
+            this.videoNames = videoNames;
+            this.videoSizes = videoSizes;
+            this.cumulativeWeights = new double[videoNames.length];
+            double total = 0;
+            for (int i = 0; i < videoNames.length; i++) {
+                total += 1 / Math.pow(i + 1, exponent);
+                cumulativeWeights[i] = total;
+            }
+        }
+
+        int pick(Random random) {
+            double target = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+            int index = Arrays.binarySearch(cumulativeWeights, target);
+            return Math.min(videoNames.length - 1, index >= 0 ? index : -index - 1);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                count++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    /*
+    *   Requests of one route in the measured part of the run; -1 is a request that failed without a status
+    */
+    private static class RouteStats {
+        final LatencyHistogram latencies = new LatencyHistogram(TimeUnit.DAYS.toNanos(1));
+        final LongAdder bytes = new LongAdder();
+        final LongAdder notModified = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final AtomicLong intervalRequests = new AtomicLong();
+
+        void record(long plannedNanos, long endNanos, int status, long bodyBytes) {
+            latencies.record(plannedNanos, endNanos);
+            bytes.add(bodyBytes);
+            intervalRequests.incrementAndGet();
+            if (status == 304) {
+                notModified.increment();
+            } else if (status < 0 || status >= 400) {
+                errors.increment();
+            }
+        }
+    }
+
+    /*
+    *   Heap after each second and its peak, and the collections since start
+    */
+    private static class MemoryStats {
+        final long[] startCollections;
+        final long[] startCollectionMs;
+        long startNanos;
+        long stopNanos;
+        long maxUsedAfterSample;
+        long sampledUsedTotal;
+        int samples;
+        long[] collections;
+        long[] collectionMs;
+        long peakHeap;
+
+        MemoryStats() {
+            List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+            startCollections = new long[collectors.size()];
+            startCollectionMs = new long[collectors.size()];
+        }
+
+        void start() {
+            List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+            for (int i = 0; i < collectors.size(); i++) {
+                startCollections[i] = collectors.get(i).getCollectionCount();
+                startCollectionMs[i] = collectors.get(i).getCollectionTime();
+            }
+            startNanos = System.nanoTime();
+        }
+
+        synchronized void sample() {
+            if (startNanos == 0 || stopNanos != 0) {
+                return;
+            }
+            long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            maxUsedAfterSample = Math.max(maxUsedAfterSample, used);
+            sampledUsedTotal += used;
+            samples++;
+        }
+
+        synchronized void stop() {
+            stopNanos = System.nanoTime();
+            List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+            collections = new long[collectors.size()];
+            collectionMs = new long[collectors.size()];
+            for (int i = 0; i < collectors.size(); i++) {
+                collections[i] = collectors.get(i).getCollectionCount() - startCollections[i];
+                collectionMs[i] = collectors.get(i).getCollectionTime() - startCollectionMs[i];
+            }
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                    peakHeap += pool.getPeakUsage().getUsed();
+                }
+            }
+        }
+    }
+
+    private void resetMemoryStats() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    private void printProgress() {
+        StringBuilder line = new StringBuilder(running ? (measureFromNanos - System.nanoTime() > 0 ? "ramping up:" : "measuring:") : "stopping:");
+        long total = 0;
+        long errors = 0;
+        for (Map.Entry<String,RouteStats> route : routes.entrySet()) {
+            long requests = route.getValue().intervalRequests.getAndSet(0);
+            total += requests;
+            errors += route.getValue().errors.sum();
+            line.append(String.format(" %s %.0f/s", route.getKey().substring(1), (double) requests / REPORT_INTERVAL_SECONDS));
+        }
+        line.append(String.format(", %.0f req/s, %d errors, heap %d MB", (double) total / REPORT_INTERVAL_SECONDS, errors,
+            ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / Constants.MB));
+        LOGGER.info(line.toString());
+    }
+
+    private void report(MemoryStats memory) throws IOException {
+        double seconds = (memory.stopNanos - memory.startNanos) / 1e9;
+        Map<String,Object> result = new LinkedHashMap<>();
+        result.put("settings", new TreeMap<>(settings));
+        result.put("seconds", seconds);
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%n%-22s %9s %9s %9s %7s %7s %9s %9s %9s %9s %9s%n", "route", "requests", "req/s", "MB/s", "304", "errors",
+            "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        Map<String,Object> routeResults = new LinkedHashMap<>();
+        long totalRequests = 0;
+        long totalErrors = 0;
+        for (Map.Entry<String,RouteStats> route : routes.entrySet()) {
+            RouteStats stats = route.getValue();
+            long requests = stats.latencies.getCount();
+            double[] quantiles = requests == 0 ? new double[QUANTILES.length] : stats.latencies.getQuantiles(QUANTILES);
+            totalRequests += requests;
+            totalErrors += stats.errors.sum();
+            table.append(String.format("%-22s %9d %9.1f %9.1f %7d %7d", route.getKey(), requests, requests / seconds,
+                stats.bytes.sum() / seconds / Constants.MB, stats.notModified.sum(), stats.errors.sum()));
+            Map<String,Object> routeResult = new LinkedHashMap<>();
+            routeResult.put("requests", requests);
+            routeResult.put("requestsPerSecond", requests / seconds);
+            routeResult.put("megabytesPerSecond", stats.bytes.sum() / seconds / Constants.MB);
+            routeResult.put("notModified", stats.notModified.sum());
+            routeResult.put("errors", stats.errors.sum());
+            for (int q = 0; q < QUANTILES.length; q++) {
+                table.append(String.format(" %9.2f", quantiles[q] / 1e6));
+                routeResult.put(QUANTILES[q] == 1.0 ? "maxMs" : "p" + (QUANTILES[q] * 100 + "").replaceAll("\\.0$", "") + "Ms", quantiles[q] / 1e6);
+            }
+            table.append(System.lineSeparator());
+            routeResults.put(route.getKey(), routeResult);
+        }
+        table.append(String.format("%-22s %9d %9.1f %27d%n", "total", totalRequests, totalRequests / seconds, totalErrors));
+        result.put("routes", routeResults);
+
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        long totalCollectionMs = 0;
+        Map<String,Object> gcResults = new LinkedHashMap<>();
+        table.append(String.format("%nheap: max %d MB, peak %d MB, %d MB used on average after each second, %d MB at the end%n",
+            Runtime.getRuntime().maxMemory() / Constants.MB, memory.peakHeap / Constants.MB,
+            memory.samples == 0 ? 0 : memory.sampledUsedTotal / memory.samples / Constants.MB,
+            ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / Constants.MB));
+        for (int i = 0; i < collectors.size(); i++) {
+            totalCollectionMs += memory.collectionMs[i];
+            table.append(String.format("gc %-24s %6d collections %8d ms%n", collectors.get(i).getName(), memory.collections[i], memory.collectionMs[i]));
+            Map<String,Object> gcResult = new LinkedHashMap<>();
+            gcResult.put("collections", memory.collections[i]);
+            gcResult.put("timeMs", memory.collectionMs[i]);
+            gcResults.put(collectors.get(i).getName(), gcResult);
+        }
+        table.append(String.format("gc time %.2f%% of the run%n", 100.0 * totalCollectionMs / (seconds * 1000)));
+        Map<String,Object> heapResult = new LinkedHashMap<>();
+        heapResult.put("maxMb", Runtime.getRuntime().maxMemory() / Constants.MB);
+        heapResult.put("peakMb", memory.peakHeap / Constants.MB);
+        heapResult.put("averageUsedMb", memory.samples == 0 ? 0 : memory.sampledUsedTotal / memory.samples / Constants.MB);
+        heapResult.put("gc", gcResults);
+        heapResult.put("gcTimePercent", 100.0 * totalCollectionMs / (seconds * 1000));
+        result.put("heap", heapResult);
+
+        table.append(String.format("%ns3 stand-in: %d objects, %d ListObjectsV2, %d HeadObject, %d GetObject, %d MB served%n",
+            s3.getObjectCount(), s3.getListRequests(), s3.getHeadRequests(), s3.getGetRequests(), s3.getServedBytes() / Constants.MB));
+        table.append(String.format("sqs stand-in: %d notifications sent, %d deleted, %d still queued%n",
+            sqs.getSentMessages(), sqs.getDeletedMessages(), sqs.getPendingMessages()));
+        Map<String,Object> standIns = new LinkedHashMap<>();
+        standIns.put("s3GetObject", s3.getGetRequests());
+        standIns.put("s3ServedMb", s3.getServedBytes() / Constants.MB);
+        standIns.put("sqsSent", sqs.getSentMessages());
+        standIns.put("sqsDeleted", sqs.getDeletedMessages());
+        result.put("standIns", standIns);
+
+        String cacheStats = fetch("/get-cache-stats.json");
+        table.append(String.format("%ncache stats: %s%n", cacheStats));
+        result.put("cacheStats", JsonParser.parseString(cacheStats));
+        System.out.println(table);
+
+        String reportFile = settings.getProperty("report");
+        if (reportFile != null) {
+            Gson gson = new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues().create();
+            try (Writer writer = Files.newBufferedWriter(Paths.get(reportFile), StandardCharsets.UTF_8)) {
+                gson.toJson(result, writer);
+            }
+            LOGGER.info("Report written to " + reportFile);
+        }
+    }
+
+    private String fetch(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) URI.create("http://localhost:" + port + path).toURL().openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            return new String(readAll(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int read; (read = in.read(buffer)) >= 0; ) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void deleteRecursively(Path folder) throws IOException {
+        if (!Files.exists(folder)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private int intSetting(String name) {
+        return Integer.parseInt(settings.getProperty(name));
+    }
+
+    private long longSetting(String name) {
+        return Long.parseLong(settings.getProperty(name));
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger threads = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
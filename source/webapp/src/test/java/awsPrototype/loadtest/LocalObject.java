@@ -0,0 +1,201 @@
+package awsPrototype.loadtest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/*
+*   An object of the local S3 bucket: its bytes are either held in memory (the jsons) or computed from the
+*   position (the videos), so a bucket of large videos costs no memory. The ETag is the one S3 gives, the MD5 of
+*   the content, or above the upload part size the MD5 of the MD5s of the parts, so the downloads verify it.
+*/
+public abstract class LocalObject {
+
+    private static final long UPLOAD_PART_SIZE = 8 * 1024 * 1024;
+    private static final int READ_SIZE = 1024 * 1024;
+
+    private final long size;
+    private final long lastModified;
+    private String etag;
+
+    LocalObject(long size) {
+        this.size = size;
+        this.lastModified = System.currentTimeMillis();
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    /*
+    *   Parts the object was uploaded in, of UPLOAD_PART_SIZE bytes but the last one
+    */
+    int getPartCount() {
+        return (int) Math.max(1, (size + UPLOAD_PART_SIZE - 1) / UPLOAD_PART_SIZE);
+    }
+
+    long getPartSize(int partNumber) {
+        return Math.min(UPLOAD_PART_SIZE, size - (partNumber - 1) * UPLOAD_PART_SIZE);
+    }
+
+    long getLastModified() {
+        return lastModified;
+    }
+
+    /*
+    *   Bytes first to last (inclusive) of the object
+    */
+    abstract ByteBuffer read(long first, long last);
+
+    public static LocalObject of(byte[] content) {
+        return new BytesObject(content);
+    }
+
+    /*
+    *   Called once the content can be read, at the end of the constructors
+    */
+    void computeEtag() {
+        MessageDigest whole = md5();
+        MessageDigest part = md5();
+        byte[] partDigest = null;
+        int parts = 0;
+        for (long first = 0; first < size; first += UPLOAD_PART_SIZE) {
+            long partEnd = Math.min(size, first + UPLOAD_PART_SIZE);
+            for (long position = first; position < partEnd; position += READ_SIZE) {
+                part.update(read(position, Math.min(partEnd, position + READ_SIZE) - 1));
+            }
+            partDigest = part.digest();
+            whole.update(partDigest);
+            parts++;
+        }
+        etag = "\"" + (parts <= 1 ? hex(partDigest == null ? part.digest() : partDigest) : hex(whole.digest()) + "-" + parts) + "\"";
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static class BytesObject extends LocalObject {
+        private final byte[] content;
+
+        BytesObject(byte[] content) {
+            super(content.length);
+            this.content = content;
+            computeEtag();
+        }
+
+        @Override
+        ByteBuffer read(long first, long last) {
+            return ByteBuffer.wrap(content, (int) first, (int) (last - first + 1)).slice();
+        }
+    }
+
+    /*
+    *   An MP4 the way the cameras write it, the moov after the media data: ftyp, an mdat with a 64 bit size
+    *   filled with pseudo random bytes, then a moov with the movie and track headers and one chunk offset, so the
+    *   ingest moves it in front and the duration and resolution are read from it.
+    */
+    static class SyntheticVideo extends LocalObject {
+        private static final int PATTERN_SIZE = 1 << 16;
+        private static final byte[] PATTERN = new byte[PATTERN_SIZE];
+        static {
+            new Random(42).nextBytes(PATTERN);
+        }
+
+        private final byte[] header;
+        private final byte[] moov;
+        private final int patternOffset;
+
+        SyntheticVideo(long size, long durationMs, int width, int height, long seed) {
+            super(size);
+            ByteBuffer ftyp = ByteBuffer.allocate(24 + 16);
+            ftyp.putInt(24).put(ascii("ftyp")).put(ascii("isom")).putInt(512).put(ascii("isom")).put(ascii("mp41"));
+            this.moov = moov(durationMs, width, height, ftyp.capacity());
+            long mdatSize = size - ftyp.capacity() + 16 - moov.length;
+            if (mdatSize < 16) {
+                throw new IllegalArgumentException("Video size too small: " + size);
+            }
+            ftyp.putInt(1).put(ascii("mdat")).putLong(mdatSize);
+            this.header = ftyp.array();
+            this.patternOffset = (int) (seed & (PATTERN_SIZE - 1));
+            computeEtag();
+        }
+
+        @Override
+        ByteBuffer read(long first, long last) {
+            byte[] bytes = new byte[(int) (last - first + 1)];
+            long moovOffset = getSize() - moov.length;
+            for (int i = 0; i < bytes.length; ) {
+                long position = first + i;
+                int length;
+                if (position < header.length) {
+                    length = (int) Math.min(bytes.length - i, header.length - position);
+                    System.arraycopy(header, (int) position, bytes, i, length);
+                } else if (position >= moovOffset) {
+                    length = (int) Math.min(bytes.length - i, getSize() - position);
+                    System.arraycopy(moov, (int) (position - moovOffset), bytes, i, length);
+                } else {
+                    int patternPosition = (int) ((position + patternOffset) & (PATTERN_SIZE - 1));
+                    length = (int) Math.min(Math.min(bytes.length - i, PATTERN_SIZE - patternPosition), moovOffset - position);
+                    System.arraycopy(PATTERN, patternPosition, bytes, i, length);
+                }
+                i += length;
+            }
+            return ByteBuffer.wrap(bytes);
+        }
+
+        private static byte[] moov(long durationMs, int width, int height, long mdatDataOffset) {
+            ByteBuffer mvhd = box("mvhd", 100);
+            mvhd.putInt(0).putInt(0).putInt(0).putInt(1000).putInt((int) durationMs).putInt(0x00010000).putShort((short) 0x0100);
+            ByteBuffer tkhd = box("tkhd", 84);
+            tkhd.position(tkhd.capacity() - 8);
+            tkhd.putInt(width << 16).putInt(height << 16);
+            ByteBuffer stco = box("stco", 12);
+            stco.putInt(0).putInt(1).putInt((int) mdatDataOffset);
+            ByteBuffer stbl = container("stbl", stco);
+            ByteBuffer trak = container("trak", tkhd, container("mdia", container("minf", stbl)));
+            return container("moov", mvhd, trak).array();
+        }
+
+        private static ByteBuffer box(String type, int contentSize) {
+            ByteBuffer box = ByteBuffer.allocate(8 + contentSize);
+            box.putInt(8 + contentSize).put(ascii(type));
+            return box;
+        }
+
+        private static ByteBuffer container(String type, ByteBuffer... children) {
+            int contentSize = 0;
+            for (ByteBuffer child : children) {
+                contentSize += child.capacity();
+            }
+            ByteBuffer box = box(type, contentSize);
+            for (ByteBuffer child : children) {
+                box.put(child.array());
+            }
+            return box;
+        }
+
+        private static byte[] ascii(String value) {
+            return value.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+}
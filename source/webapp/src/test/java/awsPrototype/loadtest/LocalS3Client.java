@@ -0,0 +1,322 @@
+package awsPrototype.loadtest;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/*
+*   In-process stand-in of S3 for one bucket, with the calls the application makes: ListObjectsV2 (prefix,
+*   delimiter, start after, pages of max keys), HeadObject (of the whole object or of an upload part) and ranged
+*   GetObject with If-Match. Every answer comes after latencyMs, and a GET also after its bytes at
+*   bytesPerSecond, from a scheduler, like the SDK completes its futures from its own threads. The errors are the
+*   S3Exceptions of the SDK with the S3 status codes; failGets makes the next GETs fail with a 500.
+*   Also used by the S3DownloadManager tests.
+*/
+public class LocalS3Client implements S3AsyncClient {
+
+    private static final int MAX_KEYS = 1000;
+
+    private final String bucket;
+    private final NavigableMap<String,LocalObject> objects;
+    private final long latencyMs;
+    private final long bytesPerSecond;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong listRequests;
+    private final AtomicLong headRequests;
+    private final AtomicLong getRequests;
+    private final AtomicLong servedBytes;
+    private final AtomicInteger failingGets;
+    private final AtomicInteger getsInFlight;
+    private final AtomicInteger maxGetsInFlight;
+
+    public LocalS3Client(String bucket, long latencyMs, long bytesPerSecond) {
+        this.bucket = bucket;
+        this.objects = new ConcurrentSkipListMap<>();
+        this.latencyMs = latencyMs;
+        this.bytesPerSecond = bytesPerSecond;
+        AtomicInteger threads = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(4, runnable -> {
+            Thread thread = new Thread(runnable, "local-s3-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.listRequests = new AtomicLong();
+        this.headRequests = new AtomicLong();
+        this.getRequests = new AtomicLong();
+        this.servedBytes = new AtomicLong();
+        this.failingGets = new AtomicInteger();
+        this.getsInFlight = new AtomicInteger();
+        this.maxGetsInFlight = new AtomicInteger();
+    }
+
+    public void putObject(String key, LocalObject object) {
+        objects.put(key, object);
+    }
+
+    public LocalObject getLocalObject(String key) {
+        return objects.get(key);
+    }
+
+    int getObjectCount() {
+        return objects.size();
+    }
+
+    long getListRequests() {
+        return listRequests.get();
+    }
+
+    public long getHeadRequests() {
+        return headRequests.get();
+    }
+
+    public long getGetRequests() {
+        return getRequests.get();
+    }
+
+    /*
+    *   Most GETs answered at the same time so far
+    */
+    public int getMaxGetsInFlight() {
+        return maxGetsInFlight.get();
+    }
+
+    /*
+    *   The next count GETs fail with an internal error
+    */
+    public void failGets(int count) {
+        failingGets.set(count);
+    }
+
+    long getServedBytes() {
+        return servedBytes.get();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public CompletableFuture<ListObjectsV2Response> listObjectsV2(ListObjectsV2Request request) {
+        listRequests.incrementAndGet();
+        return later(latencyMs, () -> {
+            checkBucket(request.bucket());
+            String prefix = request.prefix() == null ? "" : request.prefix();
+            String after = request.continuationToken() != null ? request.continuationToken() : request.startAfter();
+            int maxKeys = request.maxKeys() == null ? MAX_KEYS : Math.min(request.maxKeys(), MAX_KEYS);
+            NavigableMap<String,LocalObject> candidates = after != null && after.compareTo(prefix) >= 0
+                ? objects.tailMap(after, false) : objects.tailMap(prefix, true);
+            List<S3Object> contents = new ArrayList<>();
+            String lastKey = null;
+            boolean truncated = false;
+            for (Map.Entry<String,LocalObject> entry : candidates.entrySet()) {
+                String key = entry.getKey();
+                if (!key.startsWith(prefix)) {
+                    break;
+                }
+                // the keys under a sub folder are a common prefix, not listed
+                if (request.delimiter() != null && key.indexOf(request.delimiter(), prefix.length()) >= 0) {
+                    continue;
+                }
+                if (contents.size() == maxKeys) {
+                    truncated = true;
+                    break;
+                }
+                LocalObject object = entry.getValue();
+                contents.add(S3Object.builder().key(key).size(object.getSize()).eTag(object.getEtag())
+                    .lastModified(Instant.ofEpochMilli(object.getLastModified())).build());
+                lastKey = key;
+            }
+            return ListObjectsV2Response.builder().name(bucket).prefix(prefix).contents(contents).keyCount(contents.size())
+                .isTruncated(truncated).nextContinuationToken(truncated ? lastKey : null).build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<HeadObjectResponse> headObject(HeadObjectRequest request) {
+        headRequests.incrementAndGet();
+        return later(latencyMs, () -> {
+            checkBucket(request.bucket());
+            LocalObject object = find(request.key());
+            if (request.ifMatch() != null && !request.ifMatch().equals(object.getEtag())) {
+                throw S3Exception.builder().statusCode(412).message("At least one of the pre-conditions you specified did not hold").build();
+            }
+            long contentLength = object.getSize();
+            if (request.partNumber() != null) {
+                if (request.partNumber() < 1 || request.partNumber() > object.getPartCount()) {
+                    throw S3Exception.builder().statusCode(416).message("The requested partnumber is not satisfiable").build();
+                }
+                contentLength = object.getPartSize(request.partNumber());
+            }
+            return HeadObjectResponse.builder().contentLength(contentLength).eTag(object.getEtag())
+                .partsCount(request.partNumber() == null ? null : object.getPartCount())
+                .lastModified(Instant.ofEpochMilli(object.getLastModified())).acceptRanges("bytes").build();
+        });
+    }
+
+    @Override
+    public <ReturnT> CompletableFuture<ReturnT> getObject(GetObjectRequest request, AsyncResponseTransformer<GetObjectResponse,ReturnT> transformer) {
+        getRequests.incrementAndGet();
+        maxGetsInFlight.accumulateAndGet(getsInFlight.incrementAndGet(), Math::max);
+        boolean failing = failingGets.getAndUpdate(count -> Math.max(0, count - 1)) > 0;
+        CompletableFuture<ReturnT> result = new CompletableFuture<>();
+        CompletableFuture<ReturnT> transformed = transformer.prepare();
+        // no longer in flight before the caller's callbacks can start another GET
+        transformed.whenComplete((value, error) -> {
+            getsInFlight.decrementAndGet();
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        });
+        LocalObject object = objects.get(request.key());
+        long[] range = object == null ? null : range(request.range(), object.getSize());
+        long length = range == null ? 0 : range[1] - range[0] + 1;
+        long delayMs = latencyMs + (bytesPerSecond > 0 ? length * 1000 / bytesPerSecond : 0);
+        scheduler.schedule(() -> {
+            try {
+                checkBucket(request.bucket());
+                if (failing) {
+                    throw S3Exception.builder().statusCode(500).message("We encountered an internal error. Please try again.").build();
+                }
+                LocalObject current = find(request.key());
+                if (request.ifMatch() != null && !request.ifMatch().equals(current.getEtag())) {
+                    throw S3Exception.builder().statusCode(412).message("At least one of the pre-conditions you specified did not hold").build();
+                }
+                if (range == null || current != object) {
+                    throw S3Exception.builder().statusCode(416).message("The requested range is not satisfiable").build();
+                }
+                ByteBuffer bytes = current.read(range[0], range[1]);
+                servedBytes.addAndGet(bytes.remaining());
+                transformer.onResponse(GetObjectResponse.builder().contentLength(length).eTag(current.getEtag())
+                    .contentRange(request.range() == null ? null : "bytes " + range[0] + "-" + range[1] + "/" + current.getSize())
+                    .lastModified(Instant.ofEpochMilli(current.getLastModified())).acceptRanges("bytes").build());
+                transformer.onStream(SdkPublisher.adapt(subscriber -> subscriber.onSubscribe(new SingleBufferSubscription(subscriber, bytes))));
+            } catch (RuntimeException e) {
+                // completes the transformed future, and the result with it
+                transformer.exceptionOccurred(e);
+                if (!result.isDone()) {
+                    getsInFlight.decrementAndGet();
+                    result.completeExceptionally(e);
+                }
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    private <T> CompletableFuture<T> later(long delayMs, Supplier<T> response) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        scheduler.schedule(() -> {
+            try {
+                future.complete(response.get());
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    private void checkBucket(String requestedBucket) {
+        if (!bucket.equals(requestedBucket)) {
+            throw S3Exception.builder().statusCode(404).message("The specified bucket does not exist: " + requestedBucket).build();
+        }
+    }
+
+    private LocalObject find(String key) {
+        LocalObject object = objects.get(key);
+        if (object == null) {
+            throw NoSuchKeyException.builder().statusCode(404).message("The specified key does not exist: " + key).build();
+        }
+        return object;
+    }
+
+    /*
+    *   First and last byte of "bytes=first-last", "bytes=first-" or "bytes=-suffix", the whole object without
+    *   Range, null when not satisfiable
+    */
+    private static long[] range(String header, long size) {
+        if (header == null) {
+            return size == 0 ? null : new long[] { 0, size - 1 };
+        }
+        String spec = header.substring(header.indexOf('=') + 1);
+        int dash = spec.indexOf('-');
+        long first;
+        long last;
+        if (dash == 0) {
+            first = Math.max(0, size - Long.parseLong(spec.substring(1)));
+            last = size - 1;
+        } else {
+            first = Long.parseLong(spec.substring(0, dash));
+            last = dash == spec.length() - 1 ? size - 1 : Math.min(size - 1, Long.parseLong(spec.substring(dash + 1)));
+        }
+        return first > last || first >= size ? null : new long[] { first, last };
+    }
+
+    /*
+    *   The body of a GET, handed in one buffer on the first request. The subscriber is called without holding a
+    *   lock, it may request or cancel from another thread while holding its own.
+    */
+    private static class SingleBufferSubscription implements Subscription {
+        private final Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicReference<ByteBuffer> buffer;
+
+        SingleBufferSubscription(Subscriber<? super ByteBuffer> subscriber, ByteBuffer buffer) {
+            this.subscriber = subscriber;
+            this.buffer = new AtomicReference<>(buffer);
+        }
+
+        @Override
+        public void request(long n) {
+            ByteBuffer next = buffer.getAndSet(null);
+            if (next == null) {
+                return;
+            }
+            if (n <= 0) {
+                subscriber.onError(new IllegalArgumentException("Requested " + n + " buffers"));
+                return;
+            }
+            subscriber.onNext(next);
+            subscriber.onComplete();
+        }
+
+        @Override
+        public void cancel() {
+            buffer.set(null);
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+package awsPrototype.loadtest;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.QueueDoesNotExistException;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+
+/*
+*   In-process stand-in of one SQS queue receiving the S3 event notifications of the bucket: ReceiveMessage long
+*   polls until a message is sent or the wait time ends, a received message is invisible for visibilityTimeoutMs
+*   and comes back unless DeleteMessageBatch deleted it first.
+*/
+class LocalSqsClient implements SqsAsyncClient {
+
+    private final String queueUrl;
+    private final long visibilityTimeoutMs;
+    private final ScheduledExecutorService scheduler;
+    private final Deque<Message> visibleMessages;
+    private final Deque<PendingReceive> pendingReceives;
+    private final Map<String,Message> inFlightMessages;
+    private final AtomicLong sentMessages;
+    private final AtomicLong deletedMessages;
+
+    LocalSqsClient(String queueUrl, long visibilityTimeoutMs) {
+        this.queueUrl = queueUrl;
+        this.visibilityTimeoutMs = visibilityTimeoutMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "local-sqs");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.visibleMessages = new ArrayDeque<>();
+        this.pendingReceives = new ArrayDeque<>();
+        this.inFlightMessages = new HashMap<>();
+        this.sentMessages = new AtomicLong();
+        this.deletedMessages = new AtomicLong();
+    }
+
+    /*
+    *   Sends the notification S3 sends for an object created in the bucket
+    */
+    void sendObjectCreated(String bucket, String key, LocalObject object) {
+        String encodedKey;
+        try {
+            encodedKey = URLEncoder.encode(key, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        String body = String.format("{\"Records\":[{\"eventVersion\":\"2.1\",\"eventSource\":\"aws:s3\",\"eventName\":\"ObjectCreated:Put\","
+            + "\"s3\":{\"bucket\":{\"name\":\"%s\"},\"object\":{\"key\":\"%s\",\"size\":%d,\"eTag\":\"%s\"}}}]}",
+            bucket, encodedKey, object.getSize(), object.getEtag().replace("\"", ""));
+        String messageId = UUID.randomUUID().toString();
+        sentMessages.incrementAndGet();
+        enqueue(Message.builder().messageId(messageId).body(body).build());
+    }
+
+    long getSentMessages() {
+        return sentMessages.get();
+    }
+
+    long getDeletedMessages() {
+        return deletedMessages.get();
+    }
+
+    synchronized int getPendingMessages() {
+        return visibleMessages.size() + inFlightMessages.size();
+    }
+
+    private synchronized void enqueue(Message message) {
+        visibleMessages.addLast(message);
+        PendingReceive receive = pendingReceives.pollFirst();
+        if (receive != null) {
+            receive.complete(takeMessages(receive.maxMessages));
+        }
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public CompletableFuture<ReceiveMessageResponse> receiveMessage(ReceiveMessageRequest request) {
+        CompletableFuture<ReceiveMessageResponse> response = new CompletableFuture<>();
+        if (!queueUrl.equals(request.queueUrl())) {
+            response.completeExceptionally(QueueDoesNotExistException.builder().statusCode(400).message("The specified queue does not exist: " + request.queueUrl()).build());
+            return response;
+        }
+        int maxMessages = request.maxNumberOfMessages() == null ? 1 : request.maxNumberOfMessages();
+        long waitMs = request.waitTimeSeconds() == null ? 0 : request.waitTimeSeconds() * 1000L;
+        synchronized (this) {
+            if (!visibleMessages.isEmpty() || waitMs == 0) {
+                List<Message> messages = takeMessages(maxMessages);
+                // answered from the scheduler, not from the caller's thread
+                scheduler.execute(() -> response.complete(ReceiveMessageResponse.builder().messages(messages).build()));
+                return response;
+            }
+            PendingReceive receive = new PendingReceive(maxMessages, response);
+            pendingReceives.addLast(receive);
+            scheduler.schedule(() -> {
+                synchronized (LocalSqsClient.this) {
+                    if (pendingReceives.remove(receive)) {
+                        receive.complete(new ArrayList<>());
+                    }
+                }
+            }, waitMs, TimeUnit.MILLISECONDS);
+        }
+        return response;
+    }
+
+    @Override
+    public CompletableFuture<DeleteMessageBatchResponse> deleteMessageBatch(DeleteMessageBatchRequest request) {
+        List<DeleteMessageBatchResultEntry> successful = new ArrayList<>();
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        synchronized (this) {
+            for (DeleteMessageBatchRequestEntry entry : request.entries()) {
+                if (inFlightMessages.remove(entry.receiptHandle()) != null) {
+                    successful.add(DeleteMessageBatchResultEntry.builder().id(entry.id()).build());
+                } else {
+                    failed.add(BatchResultErrorEntry.builder().id(entry.id()).code("ReceiptHandleIsInvalid").senderFault(true).build());
+                }
+            }
+        }
+        deletedMessages.addAndGet(successful.size());
+        CompletableFuture<DeleteMessageBatchResponse> response = new CompletableFuture<>();
+        scheduler.execute(() -> response.complete(DeleteMessageBatchResponse.builder().successful(successful).failed(failed).build()));
+        return response;
+    }
+
+    /*
+    *   Up to maxMessages visible messages, each with a new receipt handle, in flight until deleted or until
+    *   the visibility timeout puts them back in the queue
+    */
+    private List<Message> takeMessages(int maxMessages) {
+        List<Message> messages = new ArrayList<>();
+        while (messages.size() < maxMessages && !visibleMessages.isEmpty()) {
+            Message message = visibleMessages.pollFirst();
+            String receiptHandle = UUID.randomUUID().toString();
+            inFlightMessages.put(receiptHandle, message);
+            scheduler.schedule(() -> {
+                synchronized (LocalSqsClient.this) {
+                    Message expired = inFlightMessages.remove(receiptHandle);
+                    if (expired != null) {
+                        enqueue(expired);
+                    }
+                }
+            }, visibilityTimeoutMs, TimeUnit.MILLISECONDS);
+            messages.add(message.toBuilder().receiptHandle(receiptHandle).build());
+        }
+        return messages;
+    }
+
+    private class PendingReceive {
+        final int maxMessages;
+        final CompletableFuture<ReceiveMessageResponse> response;
+
+        PendingReceive(int maxMessages, CompletableFuture<ReceiveMessageResponse> response) {
+            this.maxMessages = maxMessages;
+            this.response = response;
+        }
+
+        void complete(List<Message> messages) {
+            scheduler.execute(() -> response.complete(ReceiveMessageResponse.builder().messages(messages).build()));
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package awsPrototype.loadtest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/*
+*   A detections json like the worker writes ([{"timestamp":0,"person":{"index":1,"boundingBox":{...}}}]): people
+*   walking across the frame in straight lines, one detection per person and per frame, each person seen for
+*   10 to 40 frames then replaced by a new one, so the tracks, dwell and zones have something to compute.
+*/
+final class SyntheticDetections {
+
+    private static final long FRAME_MS = 200;
+
+    private SyntheticDetections() {
+    }
+
+    static byte[] generate(int detections, long durationMs, long seed) {
+        Random random = new Random(seed);
+        long frames = Math.max(1, durationMs / FRAME_MS);
+        int people = (int) Math.max(1, (detections + frames - 1) / frames);
+        Walker[] walkers = new Walker[people];
+        int nextIndex = 0;
+        for (int i = 0; i < people; i++) {
+            walkers[i] = new Walker(nextIndex++, random);
+        }
+        StringBuilder json = new StringBuilder(detections * 128);
+        json.append('[');
+        int written = 0;
+        for (long frame = 0; frame < frames && written < detections; frame++) {
+            for (int i = 0; i < people && written < detections; i++) {
+                Walker walker = walkers[i];
+                if (walker.remainingFrames == 0) {
+                    walker = walkers[i] = new Walker(nextIndex++, random);
+                }
+                walker.step();
+                if (written > 0) {
+                    json.append(',');
+                }
+                json.append("{\"timestamp\":").append(frame * FRAME_MS)
+                    .append(",\"person\":{\"index\":").append(walker.index)
+                    .append(",\"boundingBox\":{")
+                    .append(String.format(Locale.ROOT, "\"width\":%.5f,\"height\":%.5f,\"left\":%.5f,\"top\":%.5f",
+                        walker.width, walker.height, walker.left, walker.top))
+                    .append("}}}");
+                written++;
+            }
+        }
+        json.append(']');
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class Walker {
+        final int index;
+        final float width;
+        final float height;
+        final float dx;
+        final float dy;
+        float left;
+        float top;
+        int remainingFrames;
+
+        Walker(int index, Random random) {
+            this.index = index;
+            this.width = 0.04f + random.nextFloat() * 0.06f;
+            this.height = 0.15f + random.nextFloat() * 0.25f;
+            this.left = random.nextFloat() * (1 - width);
+            this.top = random.nextFloat() * (1 - height);
+            this.dx = (random.nextFloat() - 0.5f) * 0.02f;
+            this.dy = (random.nextFloat() - 0.5f) * 0.01f;
+            this.remainingFrames = 10 + random.nextInt(31);
+        }
+
+        void step() {
+            left = Math.max(0, Math.min(1 - width, left + dx));
+            top = Math.max(0, Math.min(1 - height, top + dy));
+            remainingFrames--;
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+package awsPrototype.metadatas;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ByteRangeTest {
+
+    private static final long TOTAL_SIZE = 10000;
+    private static final long DEFAULT_LENGTH = 4096;
+
+    @Test
+    public void missingHeaderSelectsTheWholeContent() {
+        for (String header : new String[] { null, "" }) {
+            ByteRange range = ByteRange.parse(header, TOTAL_SIZE, DEFAULT_LENGTH);
+            assertEquals(0, range.getStart());
+            assertEquals(TOTAL_SIZE, range.getEnd());
+            assertTrue(range.isComplete());
+            assertFalse(range.isRequested());
+        }
+    }
+
+    @Test
+    public void closedRangeEndIsInclusive() {
+        ByteRange range = ByteRange.parse("bytes=0-1023", TOTAL_SIZE, DEFAULT_LENGTH);
+        assertEquals(0, range.getStart());
+        assertEquals(1024, range.getEnd());
+        assertEquals(1024, range.getLength());
+        assertFalse(range.isComplete());
+        assertEquals("bytes 0-1023/10000", range.toContentRange());
+    }
+
+    @Test
+    public void openRangeSelectsTheDefaultLength() {
+        ByteRange range = ByteRange.parse("bytes=1024-", TOTAL_SIZE, DEFAULT_LENGTH);
+        assertEquals(1024, range.getStart());
+        assertEquals(1024 + DEFAULT_LENGTH, range.getEnd());
+    }
+
+    @Test
+    public void endIsClampedToTheContentSize() {
+        assertEquals(TOTAL_SIZE, ByteRange.parse("bytes=9000-20000", TOTAL_SIZE, DEFAULT_LENGTH).getEnd());
+        assertEquals(TOTAL_SIZE, ByteRange.parse("bytes=9000-", TOTAL_SIZE, DEFAULT_LENGTH).getEnd());
+        assertTrue(ByteRange.parse("bytes=0-", TOTAL_SIZE, TOTAL_SIZE).isComplete());
+    }
+
+    @Test
+    public void spacesAroundTheOffsetsAreIgnored() {
+        ByteRange range = ByteRange.parse("bytes= 100 - 199", TOTAL_SIZE, DEFAULT_LENGTH);
+        assertEquals(100, range.getStart());
+        assertEquals(200, range.getEnd());
+    }
+
+    @Test
+    public void suffixRangeSelectsTheLastBytes() {
+        ByteRange range = ByteRange.parse("bytes=-500", TOTAL_SIZE, DEFAULT_LENGTH);
+        assertEquals(TOTAL_SIZE - 500, range.getStart());
+        assertEquals(TOTAL_SIZE, range.getEnd());
+        assertEquals("bytes 9500-9999/10000", range.toContentRange());
+        assertTrue(ByteRange.parse("bytes=-20000", TOTAL_SIZE, DEFAULT_LENGTH).isComplete());
+        assertFalse(ByteRange.parse("bytes=-0", TOTAL_SIZE, DEFAULT_LENGTH).isSatisfiable());
+    }
+
+    @Test
+    public void rangeStartingAfterTheContentIsNotSatisfiable() {
+        assertTrue(ByteRange.parse("bytes=9999-", TOTAL_SIZE, DEFAULT_LENGTH).isSatisfiable());
+        assertFalse(ByteRange.parse("bytes=10000-", TOTAL_SIZE, DEFAULT_LENGTH).isSatisfiable());
+        assertFalse(ByteRange.parse("bytes=20000-20100", TOTAL_SIZE, DEFAULT_LENGTH).isSatisfiable());
+    }
+
+    @Test
+    public void noRequestedRangeIsSatisfiableOnAnEmptyContent() {
+        for (String header : new String[] { "bytes=0-", "bytes=0-1023", "bytes=-500" }) {
+            assertFalse(ByteRange.parse(header, 0, DEFAULT_LENGTH).isSatisfiable(), header);
+        }
+        ByteRange whole = ByteRange.parse(null, 0, DEFAULT_LENGTH);
+        assertTrue(whole.isSatisfiable());
+        assertEquals(0, whole.getLength());
+    }
+
+    @Test
+    public void invertedRangeIsNotSatisfiable() {
+        assertFalse(ByteRange.parse("bytes=500-100", TOTAL_SIZE, DEFAULT_LENGTH).isSatisfiable());
+        assertFalse(ByteRange.parse("bytes=500-499", TOTAL_SIZE, DEFAULT_LENGTH).isSatisfiable());
+        assertTrue(ByteRange.parse("bytes=500-500", TOTAL_SIZE, DEFAULT_LENGTH).isSatisfiable());
+    }
+
+    @Test
+    public void headerThatIsNotASingleRangeSelectsTheWholeContent() {
+        for (String header : new String[] { "bytes=abc", "bytes=-", "bytes=0-1,5-9", "items=0-1", "bytes=1-2-3", "0-1023" }) {
+            assertFalse(ByteRange.isSingleRange(header), header);
+            ByteRange range = ByteRange.parse(header, TOTAL_SIZE, DEFAULT_LENGTH);
+            assertFalse(range.isRequested(), header);
+            assertTrue(range.isComplete(), header);
+            assertTrue(range.isSatisfiable(), header);
+        }
+        assertTrue(ByteRange.isSingleRange("Bytes=0-1023"));
+    }
+
+    @Test
+    public void offsetsPastALongArePastTheContent() {
+        assertFalse(ByteRange.parse("bytes=99999999999999999999-", TOTAL_SIZE, DEFAULT_LENGTH).isSatisfiable());
+        ByteRange range = ByteRange.parse("bytes=100-99999999999999999999", TOTAL_SIZE, DEFAULT_LENGTH);
+        assertEquals(100, range.getStart());
+        assertEquals(TOTAL_SIZE, range.getEnd());
+        assertTrue(ByteRange.parse("bytes=-99999999999999999999", TOTAL_SIZE, DEFAULT_LENGTH).isComplete());
+    }
+
+}
@@ -0,0 +1,80 @@
+package awsPrototype.metadatas;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+public class DetectionsBinaryFormatTest {
+
+    private static byte[] readResource(String name) throws IOException {
+        try (InputStream input = DetectionsBinaryFormatTest.class.getResourceAsStream(name)) {
+            if (input == null) {
+                throw new IOException("Missing resource " + name);
+            }
+            return input.readAllBytes();
+        }
+    }
+
+    private static void assertSameDetections(VideoDetections expected, VideoDetections actual) {
+        assertEquals(expected.getObjectName(), actual.getObjectName());
+        assertArrayEquals(expected.timestamps, actual.timestamps);
+        assertArrayEquals(expected.offsets, actual.offsets);
+        assertArrayEquals(expected.trackIndexes, actual.trackIndexes);
+        assertArrayEquals(expected.labels, actual.labels);
+        assertArrayEquals(expected.labelIndexes, actual.labelIndexes);
+        // the binary boxes are 16-bit fixed point
+        for (int i = 0; i < expected.boxes.length; i++) {
+            assertEquals(expected.boxes[i], actual.boxes[i], 1.0 / (1 << 14));
+        }
+    }
+
+    @Test
+    public void keepsTheLabelNames() throws IOException {
+        VideoDetections detections = VideoDetections.parseJson(readResource("/static/json/detectedLabels.json"));
+        assertTrue(detections.getLabelCount() > 1);
+        assertEquals("Boy", detections.getLabel(detections.getLabelIndex(0)));
+        assertSameDetections(detections, DetectionsBinaryFormat.decode(DetectionsBinaryFormat.encode(detections)));
+    }
+
+    @Test
+    public void personDetectionsHaveNoLabels() throws IOException {
+        VideoDetections detections = VideoDetections.parseJson(readResource("/static/json/detectedPersons-1min-trim.json"));
+        assertEquals(0, detections.getLabelCount());
+        assertEquals(-1, detections.getLabelIndex(0));
+        assertSameDetections(detections, DetectionsBinaryFormat.decode(DetectionsBinaryFormat.encode(detections)));
+    }
+
+    @Test
+    public void rejectsALabelIndexOutOfTheDictionary() throws IOException {
+        VideoDetections detections = new VideoDetections(new long[] { 0 }, new int[] { 0, 1 }, new int[] { -1 },
+            new float[VideoDetections.BOX_FIELDS], "label", new String[] { "Cart" }, new int[] { 0 });
+        byte[] encoded = DetectionsBinaryFormat.encode(detections);
+        // the label index + 1 follows the track index, right before the 8 bytes of the box
+        encoded[encoded.length - 9] = 2;
+        assertThrows(IOException.class, () -> DetectionsBinaryFormat.decode(encoded));
+    }
+
+    @Test
+    public void artifactKeepsTheLabels() throws IOException {
+        byte[] json = readResource("/static/json/detectedLabels.json");
+        VideoDetections detections = VideoDetections.parseJson(json);
+        VideoRawData videoRawData = new VideoRawData("labels.mp4", CachedPayload.of(json, 0), detections,
+            CachedPayload.of(DetectionsBinaryFormat.encode(detections), 0),
+            VideoHeatmap.build(detections, 8, 8, 1000, 1 << 20, VideoHeatmap.POINT_CENTER), null, null);
+        int settings = VideoArtifactFormat.settingsFingerprint();
+        ByteBuffer artifact = VideoArtifactFormat.encode(videoRawData, settings);
+        VideoRawData decoded = VideoArtifactFormat.decode(artifact, "labels.mp4", json, VideoArtifactFormat.contentHash(json), 0, settings);
+        assertArrayEquals(detections.labels, decoded.getDetections().labels);
+        assertArrayEquals(detections.labelIndexes, decoded.getDetections().labelIndexes);
+        assertTrue(Arrays.equals(detections.boxes, decoded.getDetections().boxes));
+    }
+
+}
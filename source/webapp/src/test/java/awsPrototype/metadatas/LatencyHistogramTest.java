@@ -0,0 +1,69 @@
+package awsPrototype.metadatas;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+    private static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    @Test
+    public void quantilesAreNaNWithoutDurations() {
+        double[] quantiles = new LatencyHistogram(WINDOW_NANOS).getQuantiles(0.5, 0.99);
+        assertTrue(Double.isNaN(quantiles[0]));
+        assertTrue(Double.isNaN(quantiles[1]));
+    }
+
+    @Test
+    public void smallDurationsAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram(WINDOW_NANOS);
+        long now = System.nanoTime();
+        for (long duration = 1; duration <= 10; duration++) {
+            histogram.record(now, now + duration);
+        }
+        double[] quantiles = histogram.getQuantiles(0.1, 0.5, 1.0);
+        assertEquals(1, quantiles[0]);
+        assertEquals(5, quantiles[1]);
+        assertEquals(10, quantiles[2]);
+        assertEquals(10, histogram.getCount());
+        assertEquals(55, histogram.getSumNanos());
+    }
+
+    @Test
+    public void quantilesAreWithinAnEighthOfTheValue() {
+        LatencyHistogram histogram = new LatencyHistogram(WINDOW_NANOS);
+        long now = System.nanoTime();
+        for (long millis = 1; millis <= 1000; millis++) {
+            histogram.record(now, now + TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+        double[] quantiles = histogram.getQuantiles(0.5, 0.9, 0.99);
+        double[] expected = { TimeUnit.MILLISECONDS.toNanos(500), TimeUnit.MILLISECONDS.toNanos(900), TimeUnit.MILLISECONDS.toNanos(990) };
+        for (int q = 0; q < expected.length; q++) {
+            assertTrue(quantiles[q] >= expected[q], quantiles[q] + " < " + expected[q]);
+            assertTrue(quantiles[q] <= expected[q] * 1.125, quantiles[q] + " > " + expected[q] * 1.125);
+        }
+    }
+
+    @Test
+    public void negativeDurationsCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram(WINDOW_NANOS);
+        long now = System.nanoTime();
+        histogram.record(now, now - 1000);
+        assertEquals(0, histogram.getQuantiles(1.0)[0]);
+        assertEquals(0, histogram.getSumNanos());
+    }
+
+    @Test
+    public void bucketsCoverTheirValues() {
+        for (long value : new long[] { 0, 15, 16, 17, 1000, 123456789, (1L << 41) - 1 }) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(LatencyHistogram.bucketUpperBound(index) >= value);
+            assertTrue(index == 0 || LatencyHistogram.bucketUpperBound(index - 1) < value);
+        }
+    }
+
+}
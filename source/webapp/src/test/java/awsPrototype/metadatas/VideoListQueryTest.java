@@ -0,0 +1,91 @@
+package awsPrototype.metadatas;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+public class VideoListQueryTest {
+
+    private static final List<VideoMetadata> VIDEOS = Arrays.asList(
+        video("c.mp4", 30000), video("a.mp4", 10000), video("e.mp4", 20000),
+        video("b.mp4", 20000), video("d.mp4", 5000));
+
+    private static VideoMetadata video(String name, long durationMs) {
+        VideoMetadata metadata = new VideoMetadata(name);
+        metadata.setMovieHeader(durationMs, 1920, 1080);
+        return metadata;
+    }
+
+    private static VideoListQuery query(String sort, String order, String limit, String cursor) {
+        return VideoListQuery.parse(sort, order, limit, cursor, null, null, null, null, null, 2, 3);
+    }
+
+    private static List<VideoMetadata> page(VideoListQuery query) {
+        return VIDEOS.stream().filter(query::matches).filter(query::isAfterCursor).sorted(query.getComparator())
+            .limit(query.getLimit()).collect(Collectors.toList());
+    }
+
+    private static List<String> names(List<VideoMetadata> videos) {
+        return videos.stream().map(VideoMetadata::getVideoName).collect(Collectors.toList());
+    }
+
+    /*
+    *   Names of all the pages, following the cursor of the last video of each
+    */
+    private static List<List<String>> allPages(String sort, String order, String limit) {
+        List<List<String>> pages = new ArrayList<>();
+        VideoListQuery query = query(sort, order, limit, null);
+        List<VideoMetadata> page = page(query);
+        while (!page.isEmpty()) {
+            pages.add(names(page));
+            query = query(sort, order, limit, query.encodeCursor(page.get(page.size() - 1)));
+            page = page(query);
+        }
+        return pages;
+    }
+
+    @Test
+    public void pagesByNameFollowTheCursor() {
+        assertEquals(Arrays.asList(Arrays.asList("a.mp4", "b.mp4"), Arrays.asList("c.mp4", "d.mp4"), Arrays.asList("e.mp4")),
+            allPages(null, null, null));
+        assertEquals(Arrays.asList(Arrays.asList("e.mp4", "d.mp4", "c.mp4"), Arrays.asList("b.mp4", "a.mp4")),
+            allPages("name", "desc", "3"));
+    }
+
+    @Test
+    public void equalSortValuesAreOrderedByName() {
+        assertEquals(Arrays.asList(Arrays.asList("d.mp4", "a.mp4"), Arrays.asList("b.mp4", "e.mp4"), Arrays.asList("c.mp4")),
+            allPages("duration", null, "2"));
+        assertEquals(Arrays.asList(Arrays.asList("c.mp4", "e.mp4"), Arrays.asList("b.mp4", "a.mp4"), Arrays.asList("d.mp4")),
+            allPages("duration", "desc", "2"));
+    }
+
+    @Test
+    public void limitIsClampedToTheMaximum() {
+        assertEquals(3, query(null, null, "100", null).getLimit());
+        assertEquals(1, query(null, null, "0", null).getLimit());
+        assertEquals(2, query(null, null, null, null).getLimit());
+    }
+
+    @Test
+    public void filtersOnNameAndDuration() {
+        VideoListQuery query = VideoListQuery.parse(null, null, null, null, "B", null, null, null, null, 10, 10);
+        assertEquals(Arrays.asList("b.mp4"), names(page(query)));
+        query = VideoListQuery.parse("duration", null, null, null, null, "10", "20", null, null, 10, 10);
+        assertEquals(Arrays.asList("a.mp4", "b.mp4", "e.mp4"), names(page(query)));
+    }
+
+    @Test
+    public void rejectsAnUnknownSortAndTheCursorOfAnotherSort() {
+        assertThrows(IllegalArgumentException.class, () -> query("color", null, null, null));
+        String durationCursor = query("duration", null, null, null).encodeCursor(VIDEOS.get(0));
+        assertThrows(IllegalArgumentException.class, () -> query("name", null, null, durationCursor));
+    }
+
+}
@@ -0,0 +1,83 @@
+package awsPrototype.metadatas;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.function.IntUnaryOperator;
+
+import org.junit.jupiter.api.Test;
+
+public class ZoneOccupancyTest {
+
+    private static final int GRID_SIZE = 10;
+    private static final float IN = 0.25f;
+    private static final float OUT = 0.75f;
+
+    // the left half of the frame
+    private static final Zone LEFT_HALF = new Zone("left", "a.mp4", null,
+        new float[][] { { 0, 0 }, { 0.5f, 0 }, { 0.5f, 1 }, { 0, 1 } });
+
+    /*
+    *   Track 1 is in the zone at 0 s and 1 s and leaves at 2 s, track 2 comes in at 1 s and ends in it at 3 s,
+    *   a detection without tracker id is in the zone at 0 s
+    */
+    private static VideoDetections detections() {
+        long[] timestamps = { 0, 1000, 2000, 3000 };
+        int[] offsets = { 0, 3, 5, 7, 8 };
+        int[] trackIndexes = { 1, 2, -1, 1, 2, 1, 2, 2 };
+        float[] centers = { IN, OUT, 0.3f, IN, IN, OUT, IN, IN };
+        float[] boxes = new float[centers.length * VideoDetections.BOX_FIELDS];
+        for (int d = 0; d < centers.length; d++) {
+            boxes[d * VideoDetections.BOX_FIELDS] = centers[d] - 0.05f;
+            boxes[d * VideoDetections.BOX_FIELDS + 1] = 0.45f;
+            boxes[d * VideoDetections.BOX_FIELDS + 2] = 0.1f;
+            boxes[d * VideoDetections.BOX_FIELDS + 3] = 0.1f;
+        }
+        return new VideoDetections(timestamps, offsets, trackIndexes, boxes, "person");
+    }
+
+    private static ZoneOccupancy compute(long maxGapMs) {
+        VideoDetections detections = detections();
+        DetectionGrid grid = DetectionGrid.build(detections, GRID_SIZE, GRID_SIZE, VideoHeatmap.POINT_CENTER);
+        VideoTracks tracks = VideoTracks.build(detections, GRID_SIZE, GRID_SIZE, maxGapMs, VideoHeatmap.POINT_CENTER);
+        return ZoneOccupancy.compute(LEFT_HALF, detections, grid, tracks, maxGapMs);
+    }
+
+    private static int[] series(ZoneOccupancy occupancy, IntUnaryOperator perSecond) {
+        int[] values = new int[occupancy.getSeconds()];
+        for (int second = 0; second < values.length; second++) {
+            values[second] = perSecond.applyAsInt(second);
+        }
+        return values;
+    }
+
+    @Test
+    public void countsOccupancyEntriesExitsAndDwellPerSecond() {
+        ZoneOccupancy occupancy = compute(5000);
+        assertEquals(4, occupancy.getSeconds());
+        assertArrayEquals(new int[] { 2, 2, 1, 1 }, series(occupancy, occupancy::getOccupancy));
+        assertArrayEquals(new int[] { 1, 1, 0, 0 }, series(occupancy, occupancy::getEntries));
+        assertArrayEquals(new int[] { 0, 0, 1, 1 }, series(occupancy, occupancy::getExits));
+        assertArrayEquals(new int[] { 1000, 2000, 1000, 0 }, series(occupancy, occupancy::getDwellMs));
+        assertEquals(2, occupancy.getVisitors());
+    }
+
+    @Test
+    public void trackLostForMoreThanTheMaxGapLeavesAndComesBack() {
+        ZoneOccupancy occupancy = compute(500);
+        assertArrayEquals(new int[] { 1, 2, 1, 1 }, series(occupancy, occupancy::getEntries));
+        assertArrayEquals(new int[] { 1, 2, 1, 1 }, series(occupancy, occupancy::getExits));
+        assertArrayEquals(new int[] { 0, 0, 0, 0 }, series(occupancy, occupancy::getDwellMs));
+    }
+
+    @Test
+    public void noDetectionsGiveEmptySeries() {
+        VideoDetections detections = new VideoDetections(new long[0], new int[] { 0 }, new int[0], new float[0], "person");
+        DetectionGrid grid = DetectionGrid.build(detections, GRID_SIZE, GRID_SIZE, VideoHeatmap.POINT_CENTER);
+        VideoTracks tracks = VideoTracks.build(detections, GRID_SIZE, GRID_SIZE, 5000, VideoHeatmap.POINT_CENTER);
+        ZoneOccupancy occupancy = ZoneOccupancy.compute(LEFT_HALF, detections, grid, tracks, 5000);
+        assertEquals(0, occupancy.getSeconds());
+        assertEquals(0, occupancy.getVisitors());
+    }
+
+}
@@ -0,0 +1,35 @@
+package awsPrototype.metadatas;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ZoneTest {
+
+    private static final float[][] TRIANGLE = { { 0.1f, 0.5f }, { 0.4f, 0.5f }, { 0.4f, 0.9f } };
+
+    @Test
+    public void anEmptyVideoNameIsNoVideoName() {
+        Zone zone = new Zone("checkout", "", "cam1", TRIANGLE);
+        zone.validate();
+        assertEquals("camera:cam1\ncheckout", zone.getKey());
+        assertTrue(zone.appliesTo("cam1-2026-10-18.mp4"));
+        assertFalse(zone.appliesTo("cam2-2026-10-18.mp4"));
+
+        Zone byVideo = new Zone("checkout", "a.mp4", "", TRIANGLE);
+        byVideo.validate();
+        assertEquals("video:a.mp4\ncheckout", byVideo.getKey());
+        assertTrue(byVideo.appliesTo("a.mp4"));
+    }
+
+    @Test
+    public void aZoneNeedsExactlyOneOwner() {
+        assertThrows(IllegalArgumentException.class, () -> new Zone("checkout", "", "", TRIANGLE).validate());
+        assertThrows(IllegalArgumentException.class, () -> new Zone("checkout", null, "", TRIANGLE).validate());
+        assertThrows(IllegalArgumentException.class, () -> new Zone("checkout", "a.mp4", "cam1", TRIANGLE).validate());
+    }
+
+}
@@ -0,0 +1,49 @@
+package awsPrototype.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.jupiter.api.Test;
+
+import awsPrototype.metadatas.VideoDetections;
+
+public class GetDetectionsApiRequestHandlerTest {
+
+    private static VideoDetections detections(float... lefts) {
+        int[] trackIndexes = new int[lefts.length];
+        float[] boxes = new float[lefts.length * VideoDetections.BOX_FIELDS];
+        for (int d = 0; d < lefts.length; d++) {
+            trackIndexes[d] = d;
+            boxes[d * VideoDetections.BOX_FIELDS] = lefts[d];
+            boxes[d * VideoDetections.BOX_FIELDS + 2] = 0.1f;
+            boxes[d * VideoDetections.BOX_FIELDS + 3] = 0.1f;
+        }
+        return new VideoDetections(new long[] { 0, 1000 }, new int[] { 0, lefts.length - 1, lefts.length }, trackIndexes, boxes, "person");
+    }
+
+    @Test
+    public void selectsTheFramesOfTheWindow() {
+        JsonObject json = JsonParser.parseString(GetDetectionsApiRequestHandler.toJson(detections(0.1f, 0.2f, 0.3f), 500, 2000)).getAsJsonObject();
+        JsonArray frames = json.getAsJsonArray("frames");
+        assertEquals(1, frames.size());
+        assertEquals(1000, frames.get(0).getAsJsonObject().get("timestamp").getAsLong());
+        assertEquals(1, frames.get(0).getAsJsonObject().getAsJsonArray("detections").size());
+    }
+
+    @Test
+    public void leavesOutTheBoxesThatAreNotNumbers() {
+        String body = GetDetectionsApiRequestHandler.toJson(detections(Float.NaN, 0.2f, Float.POSITIVE_INFINITY, 0.4f), 0, Long.MAX_VALUE);
+        // the parser is lenient, it would take them
+        assertFalse(body.contains("NaN") || body.contains("Infinity"), body);
+        JsonArray frames = JsonParser.parseString(body).getAsJsonObject().getAsJsonArray("frames");
+        JsonArray firstFrame = frames.get(0).getAsJsonObject().getAsJsonArray("detections");
+        assertEquals(1, firstFrame.size());
+        assertEquals(1, firstFrame.get(0).getAsJsonArray().get(0).getAsInt());
+        assertEquals(1, frames.get(1).getAsJsonObject().getAsJsonArray("detections").size());
+    }
+
+}
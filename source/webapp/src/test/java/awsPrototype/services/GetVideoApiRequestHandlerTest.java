@@ -0,0 +1,36 @@
+package awsPrototype.services;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import awsPrototype.metadatas.VideoVersion;
+
+public class GetVideoApiRequestHandlerTest {
+
+    private static final long LAST_MODIFIED = 1760000000000L;
+
+    @Test
+    public void ifRangeMatchesTheEtagOfTheVersion() {
+        VideoVersion version = VideoVersion.ofFile(1000, LAST_MODIFIED);
+        assertTrue(GetVideoApiRequestHandler.matchesIfRange(null, version));
+        assertTrue(GetVideoApiRequestHandler.matchesIfRange(version.getEtag(), version));
+        assertFalse(GetVideoApiRequestHandler.matchesIfRange("\"another\"", version));
+        // the S3 ETag of the video, read through before it was downloaded and rewritten with the moov first
+        VideoVersion remoteVersion = new VideoVersion(1000, "d41d8cd98f00b204e9800998ecf8427e", LAST_MODIFIED);
+        assertFalse(remoteVersion.isSameVersion(version));
+        assertFalse(GetVideoApiRequestHandler.matchesIfRange(remoteVersion.getEtag(), version));
+        assertFalse(GetVideoApiRequestHandler.matchesIfRange("W/" + version.getEtag(), version));
+    }
+
+    @Test
+    public void ifRangeMatchesTheLastModifiedDateOfTheVersion() {
+        VideoVersion version = new VideoVersion(1000, "\"abc\"", LAST_MODIFIED);
+        assertTrue(GetVideoApiRequestHandler.matchesIfRange(ConditionalResponses.formatHttpDate(LAST_MODIFIED), version));
+        assertFalse(GetVideoApiRequestHandler.matchesIfRange(ConditionalResponses.formatHttpDate(LAST_MODIFIED - 60000), version));
+        assertFalse(GetVideoApiRequestHandler.matchesIfRange(ConditionalResponses.formatHttpDate(LAST_MODIFIED),
+            new VideoVersion(1000, "\"abc\"", 0)));
+    }
+
+}